@@ -0,0 +1,68 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.benchmarks;
+
+import java.io.File;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.identity.AnonymousProvider;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.opcua.simulation.SimulationCertificates;
+import org.pentaho.di.opcua.simulation.SimulationConfig;
+import org.pentaho.di.opcua.simulation.SimulationServer;
+import org.pentaho.di.opcua.util.ClientKeyStore;
+import org.pentaho.di.opcua.util.OpcUaUtil;
+
+/**
+ * Starts what the benchmarks against the simulation server need: the Kettle environment, the server and a client.
+ */
+public class BenchmarkSupport {
+
+  private BenchmarkSupport() {
+  }
+
+  public static LogChannelInterface initKettle() throws Exception {
+    KettleClientEnvironment.init();
+    return LogChannel.GENERAL;
+  }
+
+  public static SimulationServer startServer( SimulationConfig config ) throws Exception {
+    SimulationServer server = new SimulationServer( config );
+    server.start();
+    return server;
+  }
+
+  public static ClientKeyStore createClientKeyStore() throws Exception {
+    File file = File.createTempFile( "opcua-benchmark-client", ".pfx" );
+    file.deleteOnExit();
+    return SimulationCertificates.createClientKeyStore( file );
+  }
+
+  public static OpcUaClient connect( LogChannelInterface log, SimulationServer server, ClientKeyStore keyStore ) throws Exception {
+    return OpcUaUtil.createConnectedClient( log, server.getEndpointUrl(), SecurityPolicy.None, new AnonymousProvider(), keyStore );
+  }
+}
@@ -0,0 +1,111 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.identity.AnonymousProvider;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.opcua.simulation.SimulationConfig;
+import org.pentaho.di.opcua.simulation.SimulationServer;
+import org.pentaho.di.opcua.util.ClientKeyStore;
+import org.pentaho.di.opcua.util.OpcUaSessionPool;
+import org.pentaho.di.opcua.util.OpcUaUtil;
+
+/**
+ * What a step pays to get a connected client at initialization:
+ * discovering the endpoints and connecting, connecting with cached endpoints, or borrowing a pooled session.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class ClientCreationBenchmark {
+
+  private LogChannelInterface log;
+  private SimulationServer server;
+  private ClientKeyStore keyStore;
+  private OpcUaSessionPool pool;
+
+  private OpcUaClient client;
+
+  @Setup
+  public void setUp() throws Exception {
+    log = BenchmarkSupport.initKettle();
+    server = BenchmarkSupport.startServer( SimulationConfig.fromSystemProperties().setNrNodes( 10 ) );
+    keyStore = BenchmarkSupport.createClientKeyStore();
+
+    // Sessions are kept open between borrows, as between the runs of a transformation
+    //
+    pool = new OpcUaSessionPool( 1, 60000L );
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    // The pooled session goes away with the server and the forked JVM
+    //
+    server.stop();
+  }
+
+  @TearDown( Level.Invocation )
+  public void disconnect() throws Exception {
+    if ( client != null ) {
+      client.disconnect().get();
+      client = null;
+    }
+  }
+
+  @Benchmark
+  public void discoverAndConnect() throws Exception {
+    OpcUaUtil.invalidateEndpoints( server.getEndpointUrl() );
+    client = BenchmarkSupport.connect( log, server, keyStore );
+  }
+
+  @Benchmark
+  public void connectCachedEndpoints() throws Exception {
+    client = BenchmarkSupport.connect( log, server, keyStore );
+  }
+
+  @Benchmark
+  public void borrowPooledSession() throws Exception {
+    OpcUaClient pooled = pool.borrow( log, server.getEndpointUrl(), SecurityPolicy.None, new AnonymousProvider(), keyStore );
+    pool.release( pooled );
+  }
+}
@@ -0,0 +1,116 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.opcua.util.OpcUaHandoffQueue;
+
+/**
+ * The handoff between the Milo threads delivering values and the step thread turning them into rows.
+ * Two producers offer values for random tags while one consumer polls them and builds a row,
+ * the producer and consumer scores are reported separately.
+ *
+ * The BLOCK policy is left out: a producer waiting for room can't see the end of the iteration once the consumer
+ * stopped polling, which hangs the run. Its throughput is the consumer throughput of the other policies anyway.
+ */
+@State( Scope.Group )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class HandoffBenchmark {
+
+  @Param( { "DROP_OLDEST", "DROP_NEWEST", "COALESCE" } )
+  public String policy;
+
+  @Param( { "1000" } )
+  public int capacity;
+
+  @Param( { "100", "10000" } )
+  public int nrTags;
+
+  private OpcUaHandoffQueue<Object> queue;
+
+  @Setup( Level.Iteration )
+  public void setUp() {
+    queue = new OpcUaHandoffQueue<>( capacity, OpcUaHandoffQueue.Policy.valueOf( policy ), nrTags );
+  }
+
+  @TearDown( Level.Iteration )
+  public void tearDown() {
+    queue.close();
+  }
+
+  @State( Scope.Thread )
+  public static class Producer {
+    int tag;
+    int step;
+
+    @Setup
+    public void setUp( ThreadParams threadParams ) {
+      tag = threadParams.getThreadIndex();
+      step = 2 * threadParams.getThreadIndex() + 1;
+    }
+  }
+
+  @Benchmark
+  @Group( "handoff" )
+  @GroupThreads( 2 )
+  public boolean offer( Producer producer ) {
+    producer.tag = ( producer.tag + producer.step ) % nrTags;
+    return queue.offer( producer.tag, Double.valueOf( producer.tag ) );
+  }
+
+  @Benchmark
+  @Group( "handoff" )
+  @GroupThreads( 1 )
+  public void poll( Blackhole blackhole ) {
+    Object value = queue.poll();
+    if ( value != null ) {
+      Object[] row = RowDataUtil.allocateRowData( 2 );
+      row[ 0 ] = value;
+      blackhole.consume( row );
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.opcua.simulation.SimulationConfig;
+import org.pentaho.di.opcua.simulation.SimulationServer;
+import org.pentaho.di.opcua.util.OpcUaRequestSizer;
+import org.pentaho.di.opcua.util.OpcUaUtil;
+
+/**
+ * Reading the current value of all the nodes of the simulation server, the way the input step polls:
+ * batched in requests of at most maxNodesPerRead nodes, one node per request, all batches sent at once or pipelined
+ * with at most 4 requests in flight.
+ * The score is the time it takes to read all the nodes once.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class ReadBenchmark {
+
+  @Param( { "100", "1000", "10000" } )
+  public int nrNodes;
+
+  @Param( { "100", "1000" } )
+  public int maxNodesPerRead;
+
+  private SimulationServer server;
+  private OpcUaClient client;
+  private List<NodeId> nodeIds;
+
+  @Setup
+  public void setUp() throws Exception {
+    LogChannelInterface log = BenchmarkSupport.initKettle();
+    server = BenchmarkSupport.startServer( SimulationConfig.fromSystemProperties().setNrNodes( nrNodes ) );
+    client = BenchmarkSupport.connect( log, server, BenchmarkSupport.createClientKeyStore() );
+    nodeIds = new ArrayList<>( server.getNodeIds() );
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    if ( client != null ) {
+      client.disconnect().get();
+    }
+    if ( server != null ) {
+      server.stop();
+    }
+  }
+
+  @Benchmark
+  public List<DataValue> batched() throws Exception {
+    return OpcUaUtil.readValues( client, nodeIds, maxNodesPerRead );
+  }
+
+  @Benchmark
+  public List<DataValue> async() throws Exception {
+    return OpcUaUtil.readValuesAsync( client, nodeIds, maxNodesPerRead ).get();
+  }
+
+  @Benchmark
+  public List<DataValue> pipelined() throws Exception {
+    return OpcUaUtil.readValues( client, nodeIds, new OpcUaRequestSizer( null, "Read", maxNodesPerRead ), 4, null );
+  }
+
+  /**
+   * One request per node, waiting for every response before sending the next request.
+   * Only meaningful for the smaller node counts, it shows what batching saves.
+   */
+  @Benchmark
+  public List<DataValue> single() throws Exception {
+    List<DataValue> values = new ArrayList<>( nodeIds.size() );
+    for ( NodeId nodeId : nodeIds ) {
+      values.add( client.readValue( 0.0, TimestampsToReturn.Both, nodeId ).get() );
+    }
+    return values;
+  }
+}
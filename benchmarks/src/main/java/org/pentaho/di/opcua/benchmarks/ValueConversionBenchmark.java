@@ -0,0 +1,120 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.opcua.simulation.SimulationNamespace;
+import org.pentaho.di.opcua.util.OpcUaValueMapper;
+
+/**
+ * Turning received DataValues into rows the way the input step does in the narrow layout:
+ * Variant to Kettle value, timestamps to Dates and the status code, in a freshly allocated row.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class ValueConversionBenchmark {
+
+  private static final int NR_VALUES = 1024;
+
+  @Param( { "Double", "Int32", "Boolean", "String", "DateTime" } )
+  public String dataType;
+
+  private DataValue[] values;
+  private int valueType;
+
+  @Setup
+  public void setUp() {
+    values = new DataValue[ NR_VALUES ];
+    DateTime now = DateTime.now();
+    for ( int i = 0; i < NR_VALUES; i++ ) {
+      values[ i ] = new DataValue( new Variant( createValue( i ) ), StatusCode.GOOD, now, now );
+    }
+    valueType = OpcUaValueMapper.getValueType( SimulationNamespace.getDataTypeId( dataType ) );
+  }
+
+  private Object createValue( int i ) {
+    switch ( dataType ) {
+      case "Int32":
+        return i;
+      case "Boolean":
+        return ( i & 1 ) == 0;
+      case "String":
+        return "Value " + i;
+      case "DateTime":
+        return new DateTime( new Date( i * 1000L ) );
+      default:
+        return Math.sin( i / 10.0 ) * 100.0;
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation( NR_VALUES )
+  public void toRow( Blackhole blackhole ) throws Exception {
+    for ( DataValue dataValue : values ) {
+      Object[] row = RowDataUtil.allocateRowData( 5 );
+      row[ 0 ] = "tag";
+      row[ 1 ] = OpcUaValueMapper.convert( dataValue.getValue().getValue(), valueType );
+      row[ 2 ] = dataValue.getSourceTime() == null ? null : dataValue.getSourceTime().getJavaDate();
+      row[ 3 ] = dataValue.getServerTime() == null ? null : dataValue.getServerTime().getJavaDate();
+      row[ 4 ] = dataValue.getStatusCode() == null ? null : dataValue.getStatusCode().getValue();
+      blackhole.consume( row );
+    }
+  }
+
+  /**
+   * The conversion alone, as a String column would need when the tags have different types
+   */
+  @Benchmark
+  @OperationsPerInvocation( NR_VALUES )
+  public void toStringValue( Blackhole blackhole ) throws Exception {
+    for ( DataValue dataValue : values ) {
+      blackhole.consume( OpcUaValueMapper.convert( dataValue.getValue().getValue(), ValueMetaInterface.TYPE_STRING ) );
+    }
+  }
+}
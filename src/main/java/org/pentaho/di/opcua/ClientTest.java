@@ -27,7 +27,6 @@ import org.eclipse.milo.opcua.sdk.client.api.UaClient;
 import org.eclipse.milo.opcua.sdk.client.api.config.OpcUaClientConfig;
 import org.eclipse.milo.opcua.sdk.client.api.identity.AnonymousProvider;
 import org.eclipse.milo.opcua.sdk.client.api.identity.IdentityProvider;
-import org.eclipse.milo.opcua.sdk.client.api.nodes.Node;
 import org.eclipse.milo.opcua.sdk.client.model.nodes.objects.ServerNode;
 import org.eclipse.milo.opcua.sdk.client.model.nodes.variables.ServerStatusNode;
 import org.eclipse.milo.opcua.stack.client.UaTcpStackClient;
@@ -53,6 +52,7 @@ import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.opcua.util.KeyStoreLoader;
+import org.pentaho.di.opcua.util.OpcUaCrawler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -132,7 +132,12 @@ public class ClientTest  {
       log.logBasic( "ServerStatus.CurrentTime={0}", currentTime );
       log.logBasic( "ServerStatus.State={0}", state );
 
-      browseNode("", "/", client, Identifiers.RootFolder);
+      OpcUaCrawler crawler = new OpcUaCrawler( client );
+      crawler.crawl( Identifiers.RootFolder, node ->
+        log.logBasic( "{0} Node={1} class={2} id={3}", node.getBrowsePath(),
+          node.getBrowseName() == null ? "" : node.getBrowseName().getName(),
+          node.getNodeClass(), node.getNodeId().toParseableString() ) );
+      log.logBasic( "Browsed {0} nodes in {1} requests", crawler.getNrNodes(), crawler.getNrRequests() );
 
       /*
       NodeId nodeId = NodeId.parse( "id=ns=1;s=EVR2.state.IN_AUTOMATIC" );
@@ -168,25 +173,6 @@ public class ClientTest  {
     System.exit( 0 );
   }
 
-  private static void browseNode( String indent, String path, OpcUaClient client, NodeId browseRoot) {
-    try {
-      List<Node> nodes = client.getAddressSpace().browse(browseRoot).get();
-
-      for (Node node : nodes) {
-        String nodeName = node.getBrowseName().get().getName();
-        String nodeId = node.getNodeId().get().toParseableString();
-        String nodePath = path+nodeName+"/";
-
-        log.logBasic("{0} {1} Node={2} id={3}", nodePath, indent, nodeName, nodeId);
-
-        // recursively browse to children
-        browseNode(indent + "  ", nodePath, client, node.getNodeId().get());
-      }
-    } catch (InterruptedException | ExecutionException e) {
-      log.logError("Browsing nodeId={0} failed: {1}", browseRoot, e.getMessage(), e);
-    }
-  }
-
   public SecurityPolicy getSecurityPolicy() {
     return SecurityPolicy.None;
   }
@@ -25,8 +25,10 @@ package org.pentaho.di.opcua.connection;
 import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import org.eclipse.milo.opcua.sdk.client.api.identity.IdentityProvider;
 import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.pentaho.di.core.encryption.Encr;
 import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.opcua.util.ClientKeyStore;
 import org.pentaho.di.opcua.util.OpcUaUtil;
 import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.persist.MetaStoreAttribute;
@@ -42,6 +44,18 @@ public class OpcUaConnection {
   @MetaStoreAttribute
   private String url;
 
+  /**
+   * The PKCS12 key store with the client certificate, empty for the certificate shipped with the plugin
+   */
+  @MetaStoreAttribute
+  private String keyStoreLocation;
+
+  @MetaStoreAttribute
+  private String keyStoreAlias;
+
+  @MetaStoreAttribute( password = true )
+  private String keyStorePassword;
+
   public OpcUaConnection() {
   }
 
@@ -67,14 +81,50 @@ public class OpcUaConnection {
     this.url = url;
   }
 
+  public String getKeyStoreLocation() {
+    return keyStoreLocation;
+  }
+
+  public void setKeyStoreLocation( String keyStoreLocation ) {
+    this.keyStoreLocation = keyStoreLocation;
+  }
+
+  public String getKeyStoreAlias() {
+    return keyStoreAlias;
+  }
+
+  public void setKeyStoreAlias( String keyStoreAlias ) {
+    this.keyStoreAlias = keyStoreAlias;
+  }
+
+  public String getKeyStorePassword() {
+    return keyStorePassword;
+  }
+
+  public void setKeyStorePassword( String keyStorePassword ) {
+    this.keyStorePassword = keyStorePassword;
+  }
+
+  /**
+   * @param space The variables to resolve the key store settings with
+   * @return The client certificate and key pair to use for this connection, loaded only once per JVM
+   * @throws Exception
+   */
+  public ClientKeyStore getClientKeyStore( VariableSpace space ) throws Exception {
+    return ClientKeyStore.get(
+      space.environmentSubstitute( keyStoreLocation ),
+      space.environmentSubstitute( keyStoreAlias ),
+      Encr.decryptPasswordOptionallyEncrypted( space.environmentSubstitute( keyStorePassword ) )
+    );
+  }
+
   public void test( VariableSpace space, SecurityPolicy securityPolicy, IdentityProvider identityProvider) throws Exception {
     String realUrl = space.environmentSubstitute(url);
-    OpcUaClient client = OpcUaUtil.createClient( LogChannel.GENERAL, url, securityPolicy, identityProvider );
-    try {
-      client.connect().get();
-    } finally {
-      client.disconnect();
-    }
+    // Always discover the endpoints again when testing
+    //
+    OpcUaUtil.invalidateEndpoints( realUrl );
+    OpcUaClient client = OpcUaUtil.createConnectedClient( LogChannel.GENERAL, realUrl, securityPolicy, identityProvider, getClientKeyStore( space ) );
+    client.disconnect();
   }
 
 }
@@ -0,0 +1,118 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.connection;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.opcua.util.OpcUaUtil;
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.api.exceptions.MetaStoreException;
+
+/**
+ * Caches the OPC UA connections loaded from a metastore.
+ * Spoon and the transformation engine ask for the same connection many times (getFields() during verification,
+ * layout, step initialization, ...) and with a repository based metastore every load is a remote call.
+ * <p>
+ * Entries are dropped under both the old and the new name when a connection is edited in the connection dialog.
+ * Connections saved or deleted elsewhere, in this or another JVM, are picked up once their entry is older than
+ * OPCUA_CONNECTION_CACHE_TTL ms (default 60000).
+ */
+public class OpcUaConnectionCache {
+
+  public static final String VARIABLE_CONNECTION_CACHE_TTL = "OPCUA_CONNECTION_CACHE_TTL";
+
+  private static final long DEFAULT_CONNECTION_CACHE_TTL = 60000L;
+
+  private static final Map<IMetaStore, Map<String, CachedConnection>> cache = new WeakHashMap<>();
+
+  /**
+   * Get a connection from the cache, loading it from the metastore when needed.
+   *
+   * @param metaStore The metastore to load from
+   * @param name The name of the connection
+   * @return The connection or null if it doesn't exist
+   * @throws MetaStoreException
+   */
+  public static OpcUaConnection load( IMetaStore metaStore, String name ) throws MetaStoreException {
+    Map<String, CachedConnection> connections = getConnections( metaStore );
+
+    long now = System.currentTimeMillis();
+    CachedConnection cached = connections.get( name );
+    if ( cached != null && cached.expires >= now ) {
+      return cached.connection;
+    }
+
+    OpcUaConnection connection = OpcUaUtil.getFactory( metaStore ).loadElement( name );
+    if ( connection == null ) {
+      connections.remove( name );
+      return null;
+    }
+    long ttl = Const.toLong( System.getProperty( VARIABLE_CONNECTION_CACHE_TTL ), DEFAULT_CONNECTION_CACHE_TTL );
+    if ( ttl > 0 ) {
+      connections.put( name, new CachedConnection( connection, now + ttl ) );
+    }
+    return connection;
+  }
+
+  /**
+   * Forget a connection in all metastores, for example because it was changed.
+   *
+   * @param name The name of the connection
+   */
+  public static void invalidate( String name ) {
+    if ( name == null ) {
+      return;
+    }
+    synchronized ( cache ) {
+      for ( Map<String, CachedConnection> connections : cache.values() ) {
+        connections.remove( name );
+      }
+    }
+  }
+
+  public static void clear() {
+    synchronized ( cache ) {
+      cache.clear();
+    }
+  }
+
+  private static Map<String, CachedConnection> getConnections( IMetaStore metaStore ) {
+    synchronized ( cache ) {
+      return cache.computeIfAbsent( metaStore, store -> new ConcurrentHashMap<>() );
+    }
+  }
+
+  private static class CachedConnection {
+    private final OpcUaConnection connection;
+    private final long expires;
+
+    private CachedConnection( OpcUaConnection connection, long expires ) {
+      this.connection = connection;
+      this.expires = expires;
+    }
+  }
+}
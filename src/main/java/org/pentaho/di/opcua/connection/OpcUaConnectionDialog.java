@@ -74,6 +74,8 @@ public class OpcUaConnectionDialog extends Dialog {
   // Fields...
   private Text wName;
   private TextVar wUrl; // , wPort, wTenant, wNamespace, wUsername, wPassword;
+  private TextVar wKeyStoreLocation, wKeyStoreAlias;
+  private PasswordTextVar wKeyStorePassword;
   // private Button wSSL;
 
   private Button wOK, wCancel, wTest;
@@ -149,6 +151,9 @@ public class OpcUaConnectionDialog extends Dialog {
       }
     };
     wUrl.addSelectionListener( selAdapter );
+    wKeyStoreLocation.addSelectionListener( selAdapter );
+    wKeyStoreAlias.addSelectionListener( selAdapter );
+    wKeyStorePassword.addSelectionListener( selAdapter );
 
     // Detect X or ALT-F4 or something that kills this window...
     shell.addShellListener( new ShellAdapter() {
@@ -209,6 +214,61 @@ public class OpcUaConnectionDialog extends Dialog {
     wUrl.setLayoutData( fdUrl );
     lastControl = wUrl;
 
+    // The key store with the client certificate
+    Label wlKeyStoreLocation = new Label( shell, SWT.RIGHT );
+    props.setLook( wlKeyStoreLocation );
+    wlKeyStoreLocation.setText( BaseMessages.getString( PKG, "OpcUaConnectionDialog.KeyStoreLocation.Label" ) );
+    FormData fdlKeyStoreLocation = new FormData();
+    fdlKeyStoreLocation.top = new FormAttachment( lastControl, margin );
+    fdlKeyStoreLocation.left = new FormAttachment( 0, 0 );
+    fdlKeyStoreLocation.right = new FormAttachment( middle, -margin );
+    wlKeyStoreLocation.setLayoutData( fdlKeyStoreLocation );
+    wKeyStoreLocation = new TextVar( space, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wKeyStoreLocation.setToolTipText( BaseMessages.getString( PKG, "OpcUaConnectionDialog.KeyStoreLocation.Tooltip" ) );
+    props.setLook( wKeyStoreLocation );
+    FormData fdKeyStoreLocation = new FormData();
+    fdKeyStoreLocation.top = new FormAttachment( lastControl, margin );
+    fdKeyStoreLocation.left = new FormAttachment( middle, 0 );
+    fdKeyStoreLocation.right = new FormAttachment( 95, 0 );
+    wKeyStoreLocation.setLayoutData( fdKeyStoreLocation );
+    lastControl = wKeyStoreLocation;
+
+    // The alias of the client key
+    Label wlKeyStoreAlias = new Label( shell, SWT.RIGHT );
+    props.setLook( wlKeyStoreAlias );
+    wlKeyStoreAlias.setText( BaseMessages.getString( PKG, "OpcUaConnectionDialog.KeyStoreAlias.Label" ) );
+    FormData fdlKeyStoreAlias = new FormData();
+    fdlKeyStoreAlias.top = new FormAttachment( lastControl, margin );
+    fdlKeyStoreAlias.left = new FormAttachment( 0, 0 );
+    fdlKeyStoreAlias.right = new FormAttachment( middle, -margin );
+    wlKeyStoreAlias.setLayoutData( fdlKeyStoreAlias );
+    wKeyStoreAlias = new TextVar( space, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wKeyStoreAlias );
+    FormData fdKeyStoreAlias = new FormData();
+    fdKeyStoreAlias.top = new FormAttachment( lastControl, margin );
+    fdKeyStoreAlias.left = new FormAttachment( middle, 0 );
+    fdKeyStoreAlias.right = new FormAttachment( 95, 0 );
+    wKeyStoreAlias.setLayoutData( fdKeyStoreAlias );
+    lastControl = wKeyStoreAlias;
+
+    // The key store password
+    Label wlKeyStorePassword = new Label( shell, SWT.RIGHT );
+    props.setLook( wlKeyStorePassword );
+    wlKeyStorePassword.setText( BaseMessages.getString( PKG, "OpcUaConnectionDialog.KeyStorePassword.Label" ) );
+    FormData fdlKeyStorePassword = new FormData();
+    fdlKeyStorePassword.top = new FormAttachment( lastControl, margin );
+    fdlKeyStorePassword.left = new FormAttachment( 0, 0 );
+    fdlKeyStorePassword.right = new FormAttachment( middle, -margin );
+    wlKeyStorePassword.setLayoutData( fdlKeyStorePassword );
+    wKeyStorePassword = new PasswordTextVar( space, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wKeyStorePassword );
+    FormData fdKeyStorePassword = new FormData();
+    fdKeyStorePassword.top = new FormAttachment( lastControl, margin );
+    fdKeyStorePassword.left = new FormAttachment( middle, 0 );
+    fdKeyStorePassword.right = new FormAttachment( 95, 0 );
+    wKeyStorePassword.setLayoutData( fdKeyStorePassword );
+    lastControl = wKeyStorePassword;
+
     /*
     // What's the port?
     Label wlPort = new Label( shell, SWT.RIGHT );
@@ -329,6 +389,9 @@ public class OpcUaConnectionDialog extends Dialog {
   public void getData() {
     wName.setText( Const.NVL( connection.getName(), "" ) );
     wUrl.setText( Const.NVL( connection.getUrl(), "" ) );
+    wKeyStoreLocation.setText( Const.NVL( connection.getKeyStoreLocation(), "" ) );
+    wKeyStoreAlias.setText( Const.NVL( connection.getKeyStoreAlias(), "" ) );
+    wKeyStorePassword.setText( Const.NVL( connection.getKeyStorePassword(), "" ) );
 
     /*
     wPort.setText( Const.NVL( connection.getPort(), "" ) );
@@ -355,7 +418,12 @@ public class OpcUaConnectionDialog extends Dialog {
       box.open();
       return;
     }
+    // The connection might be renamed: the caller saves it under the new name and the old one goes away
+    //
+    String previousName = connection.getName();
     getInfo( connection );
+    OpcUaConnectionCache.invalidate( previousName );
+    OpcUaConnectionCache.invalidate( connection.getName() );
     ok = true;
     dispose();
   }
@@ -364,6 +432,9 @@ public class OpcUaConnectionDialog extends Dialog {
   private void getInfo(OpcUaConnection connection) {
     connection.setName( wName.getText() );
     connection.setUrl( wUrl.getText() );
+    connection.setKeyStoreLocation( wKeyStoreLocation.getText() );
+    connection.setKeyStoreAlias( wKeyStoreAlias.getText() );
+    connection.setKeyStorePassword( wKeyStorePassword.getText() );
 
     /*
       connection.setPort( wPort.getText() );
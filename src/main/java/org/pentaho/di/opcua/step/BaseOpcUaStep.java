@@ -0,0 +1,215 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.identity.AnonymousProvider;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.metastore.MetaStoreConst;
+import org.pentaho.di.opcua.connection.OpcUaConnection;
+import org.pentaho.di.opcua.connection.OpcUaConnectionCache;
+import org.pentaho.di.opcua.util.ClientKeyStore;
+import org.pentaho.di.opcua.util.OpcUaMetrics;
+import org.pentaho.di.opcua.util.OpcUaNodeRegistry;
+import org.pentaho.di.opcua.util.OpcUaOperationLimits;
+import org.pentaho.di.opcua.util.OpcUaRequestSizer;
+import org.pentaho.di.opcua.util.OpcUaUtil;
+import org.pentaho.di.opcua.util.OpcUaSessionPool;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.api.exceptions.MetaStoreException;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * The plumbing shared by the OPC UA steps: finding the connection in the metastore, getting a client for it and
+ * keeping the metrics of the step copy.
+ */
+public abstract class BaseOpcUaStep extends BaseStep implements StepInterface {
+
+  /**
+   * The counters and latencies of this step copy, published through JMX and the Kettle metrics
+   */
+  protected OpcUaMetrics metrics;
+
+  public BaseOpcUaStep( StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr,
+                        TransMeta transMeta, Trans trans ) {
+    super( stepMeta, stepDataInterface, copyNr, transMeta, trans );
+  }
+
+  @Override
+  public boolean init( StepMetaInterface smi, StepDataInterface sdi ) {
+    metrics = new OpcUaMetrics();
+    metrics.register( log, getTransMeta().getName(), getStepname(), getCopy() );
+
+    return super.init( smi, sdi );
+  }
+
+  @Override
+  public void dispose( StepMetaInterface smi, StepDataInterface sdi ) {
+    if ( metrics != null ) {
+      metrics.snap( log );
+      logBasic( "Metrics: " + metrics );
+      metrics.unregister( log );
+    }
+    super.dispose( smi, sdi );
+  }
+
+  /**
+   * Load an OPC UA connection from the shared metastore objects
+   *
+   * @param store The metastore to look in
+   * @param connectionName The name of the connection (variables resolved)
+   * @return The connection
+   * @throws KettleException in case the connection doesn't exist or can't be loaded
+   */
+  protected OpcUaConnection loadConnection( IMetaStore store, String connectionName ) throws KettleException {
+    try {
+      OpcUaConnection connection = OpcUaConnectionCache.load( store, connectionName );
+      if (connection==null) {
+        throw new KettleException("Unable to find OPC UA connection with name '"+connectionName+"'");
+      }
+      return connection;
+    } catch(Exception e) {
+      throw new KettleStepException("Unable to connect to OPC UA server '"+connectionName+"'", e);
+    }
+  }
+
+  /**
+   * Get a connected client for the connection from the session pool.
+   * Every step copy gets its own session so that copies don't queue up behind each other's requests.
+   * Give it back with {@link #releaseClient(OpcUaClient)} when the step is disposed.
+   *
+   * @param connection The connection to the server
+   * @return The connected client
+   * @throws KettleException
+   */
+  protected OpcUaClient borrowClient( OpcUaConnection connection ) throws KettleException {
+    String url = environmentSubstitute( connection.getUrl() );
+    ClientKeyStore keyStore;
+    try {
+      keyStore = connection.getClientKeyStore( this );
+    } catch ( Exception e ) {
+      throw new KettleStepException( "Unable to load the client certificate for OPC UA server '" + connection.getName() + "'", e );
+    }
+    if ( log.isGatheringMetrics() ) {
+      log.snap( OpcUaMetrics.METRIC_CONNECT_START, connection.getName() );
+    }
+    long start = System.nanoTime();
+    OpcUaClient client = OpcUaSessionPool.getInstance().borrow( log, url, SecurityPolicy.None, new AnonymousProvider(), keyStore, getCopy() );
+    metrics.recordConnect( start );
+    if ( log.isGatheringMetrics() ) {
+      log.snap( OpcUaMetrics.METRIC_CONNECT_STOP, connection.getName() );
+    }
+    return client;
+  }
+
+  /**
+   * Create a registry for the nodes the step uses over and over, following the session of the client.
+   * Stop it before releasing the client.
+   */
+  protected OpcUaNodeRegistry createNodeRegistry( OpcUaClient client ) {
+    int maxNodesPerRegister;
+    try {
+      maxNodesPerRegister = OpcUaUtil.getMaxNodesPerRegisterNodes( client );
+    } catch ( Exception e ) {
+      maxNodesPerRegister = 0;
+    }
+    OpcUaNodeRegistry registry = new OpcUaNodeRegistry( log, client, maxNodesPerRegister );
+    registry.start();
+    return registry;
+  }
+
+  /**
+   * Decide how many operations go into one request of a service: the number the user configured or else the
+   * operation limit of the server, capped so the response fits in a single message the client accepts.
+   * The largest request the server accepts isn't known up front: the sizer makes the requests smaller when the server
+   * refuses one because it's too large.
+   *
+   * @param client            The connected client
+   * @param service           The name of the service, for logging
+   * @param configured        The number of operations per request the user asked for, empty to follow the server
+   * @param limit             Picks the operation limit of the service
+   * @param bytesPerOperation The estimated size of the result of one operation in the response
+   * @param defaultLimit      The limit to use when the server doesn't impose one, 0 to only cap by message size
+   */
+  protected OpcUaRequestSizer createRequestSizer( OpcUaClient client, String service, String configured,
+                                                  ToIntFunction<OpcUaOperationLimits> limit, int bytesPerOperation,
+                                                  int defaultLimit ) throws KettleException {
+    int size = Const.toInt( environmentSubstitute( configured ), 0 );
+    if ( size <= 0 ) {
+      OpcUaOperationLimits limits;
+      try {
+        limits = OpcUaOperationLimits.get( client );
+      } catch ( Exception e ) {
+        throw new KettleException( "Unable to get the operation limits of the server", e );
+      }
+      if ( log.isDebug() ) {
+        logDebug( "Server limits: " + limits );
+      }
+      int serverLimit = limit.applyAsInt( limits );
+      size = limits.capByMessageSize( serverLimit > 0 ? serverLimit : defaultLimit, bytesPerOperation );
+    }
+    return new OpcUaRequestSizer( log, service, size );
+  }
+
+  protected void releaseClient( OpcUaClient client ) {
+    if ( client != null ) {
+      OpcUaSessionPool.getInstance().release( client );
+    }
+  }
+
+  protected IMetaStore getAMetaStore() throws MetaStoreException {
+    IMetaStore store = metaStore;
+    // during exec of data service, metaStore is not passed down
+    //
+    if ( store == null ) {
+      store = getTrans().getMetaStore();
+    }
+    if ( store == null ) {
+      store = getTransMeta().getMetaStore();
+    }
+    if ( store == null && getTrans().getParentTrans() != null ) {
+      store = getTrans().getParentTrans().getMetaStore();
+    }
+    if ( store == null ) {
+      log.logError( "Unable to find the metastore, locating it ourselves..." );
+      if ( repository != null ) {
+        store = repository.getMetaStore();
+      } else {
+        store = MetaStoreConst.openLocalPentahoMetaStore();
+      }
+    }
+    return store;
+  }
+}
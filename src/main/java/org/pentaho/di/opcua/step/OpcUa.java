@@ -22,35 +22,64 @@
 
 package org.pentaho.di.opcua.step;
 
-import org.eclipse.milo.opcua.sdk.client.api.identity.AnonymousProvider;
-import org.eclipse.milo.opcua.sdk.client.model.nodes.objects.ServerNode;
-import org.eclipse.milo.opcua.sdk.client.model.nodes.variables.ServerStatusNode;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
-import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.DataChangeTrigger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.DeadbandType;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.BuildInfo;
+import org.eclipse.milo.opcua.stack.core.types.structured.DataChangeFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
 import org.eclipse.milo.opcua.stack.core.types.structured.ServerStatusDataType;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.variables.VariableSpace;
-import org.pentaho.di.metastore.MetaStoreConst;
-import org.pentaho.di.opcua.connection.OpcUaConnection;
+import org.pentaho.di.opcua.util.OpcUaHandoffQueue;
+import org.pentaho.di.opcua.util.OpcUaOperationLimits;
+import org.pentaho.di.opcua.util.OpcUaRequestSizer;
+import org.pentaho.di.opcua.util.OpcUaSessionSupervisor;
 import org.pentaho.di.opcua.util.OpcUaUtil;
+import org.pentaho.di.opcua.util.OpcUaValueMapper;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
-import org.pentaho.di.trans.step.BaseStep;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
-import org.pentaho.metastore.api.IMetaStore;
-import org.pentaho.metastore.api.exceptions.MetaStoreException;
-import org.pentaho.metastore.persist.MetaStoreFactory;
-import org.pentaho.metastore.util.PentahoDefaults;
 
-public class OpcUa extends BaseStep implements StepInterface {
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+public class OpcUa extends BaseOpcUaStep implements StepInterface {
+
+  /**
+   * No source timestamp seen yet in a read cycle
+   */
+  private static final long NO_TIME = Long.MIN_VALUE;
 
   public OpcUa( StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr,
                 TransMeta transMeta, Trans trans ) {
@@ -74,27 +103,115 @@ public class OpcUa extends BaseStep implements StepInterface {
     if ( first ) {
       first = false;
 
+      // The server status is only read once, by the first copy
+      //
+      if ( meta.getReadMode() == OpcUaReadMode.SERVER_STATUS && getCopy() > 0 ) {
+        setOutputDone();
+        return false;
+      }
+
+      // Keep the tags this step copy is responsible for
+      //
+      int nrCopies = getStepMeta().getCopies();
+      data.tags = new ArrayList<>();
+      data.nodeIds = new ArrayList<>();
+      List<Integer> tagPositions = new ArrayList<>();
+      for ( int i = 0; i < meta.getTags().size(); i++ ) {
+        OpcUaTag tag = meta.getTags().get( i );
+        String nodeId = environmentSubstitute( tag.getNodeId() );
+        NodeId parsedNodeId;
+        try {
+          parsedNodeId = NodeId.parse( nodeId );
+        } catch ( Exception e ) {
+          throw new KettleException( "Invalid node ID '" + nodeId + "' for tag '" + OpcUaMeta.getTagName( tag ) + "'", e );
+        }
+        if ( meta.getTagPartitioning().getCopyNr( i, parsedNodeId, nrCopies ) == getCopy() ) {
+          data.tags.add( tag );
+          data.nodeIds.add( parsedNodeId );
+          tagPositions.add( i );
+        }
+      }
+      if ( meta.getReadMode() != OpcUaReadMode.SERVER_STATUS && data.tags.isEmpty() ) {
+        logBasic( "No tags to read for step copy " + getCopy() + " out of " + nrCopies );
+        setOutputDone();
+        return false;
+      }
+      if ( nrCopies > 1 && log.isDetailed() ) {
+        logDetailed( "Step copy " + getCopy() + " handles " + data.tags.size() + " of " + meta.getTags().size() + " tags" );
+      }
+
       connectToServer( this, log, meta, data );
 
       data.outputRowMeta = new RowMeta();
       meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, data.store );
-    }
+      data.outputLayout = meta.getOutputLayout();
+      data.timestampFormat = meta.getTimestampFormat();
+      data.includeSourceTimestamp = meta.isIncludeSourceTimestamp();
+      data.includeServerTimestamp = meta.isIncludeServerTimestamp();
+      data.includePicoseconds = meta.isIncludePicoseconds();
+      data.includeStatusCode = meta.isIncludeStatusCode();
+      data.includeStatusDetails = meta.isIncludeStatusDetails();
+      if ( meta.getReadMode() != OpcUaReadMode.SERVER_STATUS ) {
+        if ( data.outputLayout == OpcUaOutputLayout.WIDE ) {
+          // The columns of the tags follow the Timestamp, in the order of all the tags of the step.
+          // Every copy only fills in the columns of its own tags.
+          //
+          data.tagColumns = new int[ data.tags.size() ];
+          data.tagValueTypes = new int[ data.tags.size() ];
+          for ( int i = 0; i < data.tagColumns.length; i++ ) {
+            data.tagColumns[ i ] = 1 + tagPositions.get( i );
+            data.tagValueTypes[ i ] = data.outputRowMeta.getValueMeta( data.tagColumns[ i ] ).getType();
+          }
+          data.snapshot = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
+        } else {
+          data.valueType = data.outputRowMeta.getValueMeta( data.outputRowMeta.indexOfValue( "Value" ) ).getType();
+        }
+      }
 
-    try {
-      ServerNode serverNode = data.client.getAddressSpace().getObjectNode( Identifiers.Server, ServerNode.class ).get();
+      if ( meta.getReadMode() == OpcUaReadMode.SUBSCRIBE ) {
+        createSubscription( meta, data );
+      }
+      if ( meta.getReadMode() == OpcUaReadMode.POLL ) {
+        startPoller( meta, data );
+      }
+    }
 
-      ServerStatusDataType serverStatus = serverNode.getServerStatus().get();
-      ServerStatusNode serverStatusNode = serverNode.serverStatus().get();
+    switch ( meta.getReadMode() ) {
+      case READ:
+        return processRead( meta, data );
+      case POLL:
+      case SUBSCRIBE:
+        return processSamples( data );
+      default:
+        return processServerStatus( data );
+    }
+  }
 
-      String serverState = serverStatus.toString();
-      DateTime serverCurrentTime = serverStatusNode.getCurrentTime().get();
+  private boolean processServerStatus( OpcUaData data ) throws KettleException {
+    try {
+      // A single read of the ServerStatus variable instead of building the Server object node first
+      //
+      long start = System.nanoTime();
+      DataValue dataValue = data.client.readValue( 0.0, TimestampsToReturn.Neither, Identifiers.Server_ServerStatus ).get();
+      metrics.recordRead( start, 1, null );
+      Object value = dataValue.getValue() == null ? null : dataValue.getValue().getValue();
+      if ( !( value instanceof ExtensionObject ) ) {
+        throw new KettleException( "The server didn't return its status: " + dataValue.getStatusCode() );
+      }
+      ServerStatusDataType serverStatus = (ServerStatusDataType) ( (ExtensionObject) value ).decode();
+      BuildInfo buildInfo = serverStatus.getBuildInfo();
 
-      // Get 1 row of data from server: server state and time
+      // Get 1 row of data from server: the server status split up in native values
       //
       Object[] row = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
       int index = 0;
-      row[ index++ ] = serverState;
-      row[ index++ ] = serverCurrentTime.getJavaDate();
+      row[ index++ ] = serverStatus.getState() == null ? null : serverStatus.getState().name();
+      row[ index++ ] = OpcUaValueMapper.convert( serverStatus.getCurrentTime(), ValueMetaInterface.TYPE_DATE );
+      row[ index++ ] = OpcUaValueMapper.convert( serverStatus.getStartTime(), ValueMetaInterface.TYPE_DATE );
+      row[ index++ ] = buildInfo == null ? null : buildInfo.getProductName();
+      row[ index++ ] = buildInfo == null ? null : buildInfo.getSoftwareVersion();
+      row[ index++ ] = buildInfo == null ? null : buildInfo.getBuildNumber();
+      row[ index++ ] = OpcUaValueMapper.convert( serverStatus.getSecondsTillShutdown(), ValueMetaInterface.TYPE_INTEGER );
 
       putRow( data.outputRowMeta, row );
     } catch(Exception e) {
@@ -105,80 +222,409 @@ public class OpcUa extends BaseStep implements StepInterface {
     //
     setOutputDone();
     return false;
+  }
+
+  /**
+   * Emit the values which arrived from the subscription or the poller.
+   * In the wide layout all the values which arrived together make up one cycle and one row.
+   * We keep going until the transformation is stopped.
+   */
+  private boolean processSamples( OpcUaData data ) throws KettleException {
+    OpcUaSample sample = data.samples.poll( 100, TimeUnit.MILLISECONDS );
+    if ( Thread.currentThread().isInterrupted() ) {
+      setOutputDone();
+      return false;
+    }
+    if ( sample == null ) {
+      // Nothing changed on the server, wait some more
+      //
+      return true;
+    }
 
+    if ( data.outputLayout != OpcUaOutputLayout.WIDE ) {
+      putValue( data, sample.getTagIndex(), sample.getValue() );
+      return true;
+    }
+
+    // Take what is waiting, at most a value per tag, so that a busy server still gives us rows
+    //
+    long cycleTicks = NO_TIME;
+    int nrSamples = 0;
+    do {
+      cycleTicks = setSnapshotValue( data, data.snapshot, sample.getTagIndex(), sample.getValue(), cycleTicks );
+    } while ( ++nrSamples < data.tags.size() && ( sample = data.samples.poll() ) != null );
+
+    Object[] row = RowDataUtil.createResizedCopy( data.snapshot, data.outputRowMeta.size() );
+    row[ 0 ] = cycleTicks == NO_TIME ? null : convertTime( data, cycleTicks, 0 );
+    putRow( data.outputRowMeta, row );
+    return true;
   }
 
   /**
-   * Load server from metastore, create client, connect to server
+   * Put the value of a tag in its column of a wide row.
+   * The source timestamps are compared as ticks, only the latest one of the cycle is converted.
    *
-   * @param meta
-   * @param data
+   * @return the latest source timestamp in ticks: the given cycle time or the one of this value
    */
-  public void connectToServer( VariableSpace space, LogChannelInterface log, OpcUaMeta meta, OpcUaData data) throws KettleException {
-    // load OPC UA connection from the shared metastore objects...
-    //
-    String connectionName = space.environmentSubstitute( meta.getOpcUaConnectionName());
+  private long setSnapshotValue( OpcUaData data, Object[] row, int tagIndex, DataValue dataValue, long cycleTicks ) throws KettleException {
+    Object value = dataValue.getValue() == null ? null : dataValue.getValue().getValue();
+    row[ data.tagColumns[ tagIndex ] ] = OpcUaValueMapper.convert( value, data.tagValueTypes[ tagIndex ] );
+
+    DateTime sourceTime = dataValue.getSourceTime();
+    if ( sourceTime != null && sourceTime.getUtcTime() > cycleTicks ) {
+      return sourceTime.getUtcTime();
+    }
+    return cycleTicks;
+  }
+
+  /**
+   * Convert an OPC UA time to the Kettle type of the timestamp columns, straight from the ticks
+   */
+  private Object convertTime( OpcUaData data, long utcTicks, int picoseconds ) {
+    return data.timestampFormat.convert( utcTicks, picoseconds );
+  }
+
+  private Object convertTime( OpcUaData data, DateTime dateTime, UShort picoseconds ) {
+    return data.timestampFormat.convert( dateTime, picoseconds );
+  }
+
+  /**
+   * Read the current values of all tags in as few requests as the server allows and emit a row per tag.
+   */
+  private boolean processRead( OpcUaMeta meta, OpcUaData data ) throws KettleException {
+    List<DataValue> values;
     try {
-      MetaStoreFactory<OpcUaConnection> factory = new MetaStoreFactory<OpcUaConnection>(OpcUaConnection.class, getAMetaStore(), PentahoDefaults.NAMESPACE );
-      data.connection = factory.loadElement( connectionName );
-      if (data.connection==null) {
-        throw new KettleException("Unable to find OPC UA connection with name '"+connectionName+"'");
+      if ( data.readSizer == null ) {
+        data.readSizer = createReadSizer( meta, data );
       }
-    } catch(Exception e) {
-      throw new KettleStepException("Unable to connect to OPC UA server '"+connectionName+"'", e);
+      values = OpcUaUtil.readValues( data.client, data.nodeIds, data.readSizer, data.maxRequestsInFlight, metrics );
+    } catch ( KettleException e ) {
+      throw e;
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to read " + data.nodeIds.size() + " tags from server '" + data.connection.getName() + "'", e );
+    }
+
+    if ( data.outputLayout == OpcUaOutputLayout.WIDE ) {
+      Object[] row = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
+      long cycleTicks = NO_TIME;
+      for ( int i = 0; i < values.size(); i++ ) {
+        cycleTicks = setSnapshotValue( data, row, i, values.get( i ), cycleTicks );
+      }
+      row[ 0 ] = cycleTicks == NO_TIME ? null : convertTime( data, cycleTicks, 0 );
+      putRow( data.outputRowMeta, row );
+    } else {
+      for ( int i = 0; i < values.size() && !isStopped(); i++ ) {
+        putValue( data, i, values.get( i ) );
+      }
+    }
+
+    setOutputDone();
+    return false;
+  }
+
+  private void putValue( OpcUaData data, int tagIndex, DataValue dataValue ) throws KettleException {
+    OpcUaTag tag = data.tags.get( tagIndex );
+    Object value = dataValue.getValue() == null ? null : dataValue.getValue().getValue();
+
+    // Only the metadata which was asked for is converted
+    //
+    Object[] row = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
+    int index = 0;
+    row[ index++ ] = OpcUaMeta.getTagName( tag );
+    row[ index++ ] = OpcUaValueMapper.convert( value, data.valueType );
+    if ( data.includeSourceTimestamp ) {
+      row[ index++ ] = convertTime( data, dataValue.getSourceTime(), dataValue.getSourcePicoseconds() );
+      if ( data.includePicoseconds ) {
+        row[ index++ ] = dataValue.getSourcePicoseconds() == null ? null : dataValue.getSourcePicoseconds().longValue();
+      }
+    }
+    if ( data.includeServerTimestamp ) {
+      row[ index++ ] = convertTime( data, dataValue.getServerTime(), dataValue.getServerPicoseconds() );
+      if ( data.includePicoseconds ) {
+        row[ index++ ] = dataValue.getServerPicoseconds() == null ? null : dataValue.getServerPicoseconds().longValue();
+      }
+    }
+    StatusCode statusCode = dataValue.getStatusCode();
+    if ( data.includeStatusCode ) {
+      row[ index++ ] = statusCode == null ? null : statusCode.getValue();
+    }
+    if ( data.includeStatusDetails ) {
+      row[ index++ ] = statusCode == null ? null : OpcUaValueMapper.getStatusSeverity( statusCode.getValue() );
+      row[ index++ ] = statusCode == null ? null : OpcUaValueMapper.getStatusName( statusCode.getValue() );
+    }
+
+    putRow( data.outputRowMeta, row );
+  }
+
+  /**
+   * The bounded queue between the Milo threads and this step, what happens when it's full depends on the queue policy.
+   */
+  private OpcUaHandoffQueue<OpcUaSample> createSampleQueue( OpcUaMeta meta, OpcUaData data ) {
+    int queueSize = Const.toInt( environmentSubstitute( meta.getQueueSize() ), 10000 );
+    logDetailed( "Queueing at most " + queueSize + " values, policy: " + meta.getQueuePolicy().getDescription() );
+    OpcUaHandoffQueue<OpcUaSample> queue = new OpcUaHandoffQueue<>( queueSize, meta.getQueuePolicy(), data.tags.size() );
+    metrics.setQueue( queue );
+    return queue;
+  }
+
+  private OpcUaRequestSizer createReadSizer( OpcUaMeta meta, OpcUaData data ) throws KettleException {
+    data.maxRequestsInFlight = Math.max( 1, Const.toInt( environmentSubstitute( meta.getMaxRequestsInFlight() ), 4 ) );
+    return createRequestSizer( data.client, "Read", meta.getMaxNodesPerRead(), OpcUaOperationLimits::getMaxNodesPerRead,
+      OpcUaOperationLimits.ESTIMATED_BYTES_PER_VALUE, 0 );
+  }
+
+  /**
+   * Start polling the tags of this step copy, every tag group at its own rate.
+   * Tags without a group, or with a group which isn't defined, are polled at the step's polling interval.
+   * Values are put on the samples queue by the Milo threads.
+   */
+  private void startPoller( OpcUaMeta meta, OpcUaData data ) throws KettleException {
+    data.readSizer = createReadSizer( meta, data );
+    long defaultInterval = Const.toLong( environmentSubstitute( meta.getPollInterval() ), 1000L );
+
+    data.samples = createSampleQueue( meta, data );
+    // The same tags are read over and over, let the server resolve their node IDs once per session
+    //
+    data.registry = createNodeRegistry( data.client );
+    data.registry.register( data.nodeIds );
+
+    data.poller = new OpcUaPoller( log, data.client, data.readSizer, data.maxRequestsInFlight, metrics, data.registry, sample -> {
+      metrics.recordNotification();
+      data.samples.offer( sample.getTagIndex(), sample );
+    } );
+
+    // Collect the tags per group, keeping the order of the groups as they appear
+    //
+    Map<String, List<Integer>> groupTags = new LinkedHashMap<>();
+    for ( int i = 0; i < data.tags.size(); i++ ) {
+      OpcUaTagGroup group = meta.findGroup( data.tags.get( i ).getGroup() );
+      String groupName = group == null ? "" : group.getName();
+      groupTags.computeIfAbsent( groupName, k -> new ArrayList<>() ).add( i );
     }
+    for ( Map.Entry<String, List<Integer>> entry : groupTags.entrySet() ) {
+      OpcUaTagGroup group = meta.findGroup( entry.getKey() );
+      long interval = group == null ? defaultInterval : Const.toLong( environmentSubstitute( group.getInterval() ), defaultInterval );
+      List<Integer> indexes = entry.getValue();
+      int[] tagIndexes = new int[ indexes.size() ];
+      List<NodeId> nodeIds = new ArrayList<>( indexes.size() );
+      for ( int i = 0; i < tagIndexes.length; i++ ) {
+        tagIndexes[ i ] = indexes.get( i );
+        nodeIds.add( data.nodeIds.get( tagIndexes[ i ] ) );
+      }
+      String groupName = group == null ? "default" : group.getName();
+      data.poller.addGroup( groupName, interval, tagIndexes, nodeIds );
+      logDetailed( "Polling " + tagIndexes.length + " tags of group '" + groupName + "' every " + interval + "ms" );
+    }
+
+    data.poller.start( "OPC UA poller " + getStepname() + "." + getCopy() );
 
-    // Create client
+    // Nothing to transfer when polling, but we want to know when and for how long the session was gone
     //
+    data.supervisor = new OpcUaSessionSupervisor( log, data.client, null );
+    data.supervisor.start( null, "OPC UA supervisor " + getStepname() + "." + getCopy() );
+    metrics.setSupervisor( data.supervisor );
+  }
+
+  /**
+   * Create a subscription with a monitored item for every tag.
+   * Data changes are put on the samples queue by the Milo notification threads.
+   * The session supervisor creates the subscription again if the server lost it during a reconnect.
+   */
+  private void createSubscription( OpcUaMeta meta, OpcUaData data ) throws KettleException {
+    double publishingInterval = Const.toDouble( environmentSubstitute( meta.getPublishingInterval() ), 1000.0 );
+    double samplingInterval = Const.toDouble( environmentSubstitute( meta.getSamplingInterval() ), publishingInterval );
+
+    data.samples = createSampleQueue( meta, data );
+    data.subscription = subscribe( meta, data, publishingInterval, samplingInterval );
+
+    data.supervisor = new OpcUaSessionSupervisor( log, data.client,
+      () -> subscribe( meta, data, publishingInterval, samplingInterval ) );
+    data.supervisor.start( data.subscription, "OPC UA supervisor " + getStepname() + "." + getCopy() );
+    metrics.setSupervisor( data.supervisor );
+  }
+
+  private UaSubscription subscribe( OpcUaMeta meta, OpcUaData data, double publishingInterval,
+                                    double samplingInterval ) throws KettleException {
+    UaSubscription subscription = null;
     try {
-      data.client = OpcUaUtil.createClient( log, data.connection.getUrl(), SecurityPolicy.None, new AnonymousProvider() );
+      subscription = OpcUaUtil.createSubscription( data.client, publishingInterval );
+
+      List<MonitoredItemCreateRequest> requests = new ArrayList<>();
+      for ( int i = 0; i < data.nodeIds.size(); i++ ) {
+        ReadValueId readValueId = new ReadValueId( data.nodeIds.get( i ), AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE );
+        OpcUaTagGroup group = meta.findGroup( data.tags.get( i ).getGroup() );
+        MonitoringParameters parameters = createMonitoringParameters( group, uint( i ), samplingInterval );
+        requests.add( new MonitoredItemCreateRequest( readValueId, MonitoringMode.Reporting, parameters ) );
+      }
+
+      // Create the monitored items in as many requests as the server wants
+      //
+      if ( data.monitoredItemSizer == null ) {
+        data.monitoredItemSizer = createRequestSizer( data.client, "CreateMonitoredItems", null,
+          OpcUaOperationLimits::getMaxMonitoredItemsPerCall, OpcUaOperationLimits.ESTIMATED_BYTES_PER_VALUE, 0 );
+      }
+      int start = 0;
+      while ( start < requests.size() ) {
+        int end = Math.min( start + data.monitoredItemSizer.getSize(), requests.size() );
+        int offset = start;
+        List<UaMonitoredItem> items;
+        try {
+          items = subscription.createMonitoredItems( TimestampsToReturn.Both, requests.subList( start, end ),
+            ( item, index ) -> {
+              int tagIndex = offset + index;
+              item.setValueConsumer( value -> {
+                metrics.recordNotification();
+                data.samples.offer( tagIndex, new OpcUaSample( tagIndex, value ) );
+              } );
+            }
+          ).get();
+        } catch ( ExecutionException e ) {
+          if ( end - start > 1 && OpcUaRequestSizer.isTooLarge( e ) ) {
+            data.monitoredItemSizer.backOff( end - start );
+            continue;
+          }
+          throw e;
+        }
+        data.monitoredItemSizer.onSuccess( end - start );
+
+        for ( int i = 0; i < items.size(); i++ ) {
+          if ( items.get( i ).getStatusCode().isBad() ) {
+            throw new KettleException( "Unable to monitor tag '" + OpcUaMeta.getTagName( data.tags.get( start + i ) ) + "' : " + items.get( i ).getStatusCode() );
+          }
+        }
+        start = end;
+      }
+      return subscription;
     } catch ( Exception e ) {
-      throw new KettleStepException("Unable to create new OPC UA client for server '"+connectionName+"'", e);
+      if ( subscription != null ) {
+        data.client.getSubscriptionManager().deleteSubscription( subscription.getSubscriptionId() );
+      }
+      if ( e instanceof KettleException ) {
+        throw (KettleException) e;
+      }
+      throw new KettleException( "Unable to create subscription on server '" + data.connection.getName() + "'", e );
+    }
+  }
+
+  /**
+   * The sampling interval, server side queue size and data change filter of a monitored item.
+   * The settings of the tag group take precedence over those of the step.
+   *
+   * @param group        The group of the tag or null if the tag isn't in a group
+   * @param clientHandle The handle the server uses to report changes
+   * @param samplingInterval The sampling interval of the step
+   */
+  private MonitoringParameters createMonitoringParameters( OpcUaTagGroup group, UInteger clientHandle,
+                                                           double samplingInterval ) throws KettleException {
+    if ( group == null ) {
+      return new MonitoringParameters( clientHandle, samplingInterval, null, uint( 10 ), true );
     }
 
-    // Connect to the server
+    double groupSamplingInterval = Const.toDouble( environmentSubstitute( group.getSamplingInterval() ), samplingInterval );
+    int queueSize = Const.toInt( environmentSubstitute( group.getQueueSize() ), 10 );
+
+    // Only send a filter if the group asks for one, the server default is StatusValue without a deadband
+    //
+    ExtensionObject filter = null;
+    String triggerName = environmentSubstitute( group.getTrigger() );
+    String deadbandTypeName = environmentSubstitute( group.getDeadbandType() );
+    if ( !Const.isEmpty( triggerName ) || !Const.isEmpty( deadbandTypeName ) ) {
+      DataChangeTrigger trigger = DataChangeTrigger.StatusValue;
+      if ( !Const.isEmpty( triggerName ) ) {
+        trigger = null;
+        for ( DataChangeTrigger value : DataChangeTrigger.values() ) {
+          if ( value.name().equalsIgnoreCase( triggerName ) ) {
+            trigger = value;
+          }
+        }
+        if ( trigger == null ) {
+          throw new KettleException( "Unknown data change trigger '" + triggerName + "' in tag group '" + group.getName() + "'" );
+        }
+      }
+      DeadbandType deadbandType = DeadbandType.None;
+      if ( !Const.isEmpty( deadbandTypeName ) ) {
+        deadbandType = null;
+        for ( DeadbandType value : DeadbandType.values() ) {
+          if ( value.name().equalsIgnoreCase( deadbandTypeName ) ) {
+            deadbandType = value;
+          }
+        }
+        if ( deadbandType == null ) {
+          throw new KettleException( "Unknown deadband type '" + deadbandTypeName + "' in tag group '" + group.getName() + "'" );
+        }
+      }
+      double deadband = Const.toDouble( environmentSubstitute( group.getDeadband() ), 0.0 );
+      if ( deadbandType == DeadbandType.Percent && ( deadband < 0.0 || deadband > 100.0 ) ) {
+        throw new KettleException( "The percent deadband of tag group '" + group.getName() + "' needs to be between 0 and 100" );
+      }
+      filter = ExtensionObject.encode( new DataChangeFilter( trigger, uint( deadbandType.getValue() ), deadband ) );
+    }
+
+    return new MonitoringParameters( clientHandle, groupSamplingInterval, filter, uint( queueSize ), true );
+  }
+
+  /**
+   * Load server from metastore, borrow a connected client from the session pool
+   *
+   * @param meta
+   * @param data
+   */
+  public void connectToServer( VariableSpace space, LogChannelInterface log, OpcUaMeta meta, OpcUaData data) throws KettleException {
+    // load OPC UA connection from the shared metastore objects...
     //
+    String connectionName = space.environmentSubstitute( meta.getOpcUaConnectionName());
     try {
-      data.client.connect().get();
+      data.store = getAMetaStore();
     } catch(Exception e) {
-      try {
-        data.client = OpcUaUtil.createClient( log, data.connection.getUrl(), SecurityPolicy.None, new AnonymousProvider() );
-      } catch ( Exception ex ) {
-        throw new KettleStepException("Unable to connect to OPC UA server '"+connectionName+"'", ex);
-      }
+      throw new KettleStepException("Unable to connect to OPC UA server '"+connectionName+"'", e);
     }
+    data.connection = loadConnection( data.store, connectionName );
+
+    // Get a connected client from the session pool
+    //
+    data.client = borrowClient( data.connection );
   }
 
   @Override public void dispose( StepMetaInterface smi, StepDataInterface sdi ) {
     OpcUaData data = (OpcUaData) sdi;
 
-    if (data.client!=null) {
-      data.client.disconnect();
+    if ( data.supervisor != null ) {
+      data.supervisor.stop();
+      data.subscription = data.supervisor.getSubscription();
+      logBasic( "Reconnected " + data.supervisor.getNrReconnects() + " times, longest gap " + data.supervisor.getMaxGap()
+        + "ms, total gap " + data.supervisor.getTotalGap() + "ms, subscribed again " + data.supervisor.getNrResubscribes()
+        + " times, notifications lost " + data.supervisor.getNrDataLost() + " times" );
+      data.supervisor = null;
     }
-    super.dispose( smi, sdi );
-  }
 
-  private IMetaStore getAMetaStore() throws MetaStoreException {
-    IMetaStore store = metaStore;
-    // during exec of data service, metaStore is not passed down
+    // Release the OPC UA threads which are waiting for room in the queue
     //
-    if ( store == null ) {
-      store = getTrans().getMetaStore();
+    if ( data.samples != null ) {
+      data.samples.close();
+      logBasic( "Received " + data.samples.getNrOffered() + " values: " + data.samples.getNrDropped() + " dropped, "
+        + data.samples.getNrCoalesced() + " coalesced, waited for room " + data.samples.getNrBlocked() + " times" );
     }
-    if ( store == null ) {
-      store = getTransMeta().getMetaStore();
+    if ( data.poller != null ) {
+      data.poller.stop();
+      logBasic( "Polled " + data.poller.getNrTicks() + " times, missed " + data.poller.getNrMissedTicks()
+        + " ticks, " + data.poller.getNrFailedReads() + " reads failed" );
+      data.poller = null;
     }
-    if ( store == null && getTrans().getParentTrans() != null ) {
-      store = getTrans().getParentTrans().getMetaStore();
+    if ( data.registry != null ) {
+      data.registry.stop();
+      logDetailed( "Registered the nodes " + data.registry.getNrRegistrations() + " times" );
+      data.registry = null;
     }
-    if ( store == null ) {
-      log.logError( "Unable to find the metastore, locating it ourselves..." );
-      if ( repository != null ) {
-        store = repository.getMetaStore();
-      } else {
-        store = MetaStoreConst.openLocalPentahoMetaStore();
+    if (data.subscription!=null) {
+      try {
+        data.client.getSubscriptionManager().deleteSubscription( data.subscription.getSubscriptionId() ).get();
+      } catch ( Exception e ) {
+        log.logError( "Error deleting subscription", e );
       }
+      data.subscription = null;
     }
-    return store;
+    releaseClient( data.client );
+    data.client = null;
+    super.dispose( smi, sdi );
   }
 }
@@ -0,0 +1,294 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
+import org.pentaho.di.opcua.util.OpcUaOperationLimits;
+import org.pentaho.di.opcua.util.OpcUaRequestSizer;
+import org.pentaho.di.opcua.util.OpcUaUtil;
+import org.pentaho.di.opcua.util.OpcUaValueMapper;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+
+/**
+ * Calls an OPC UA method for every incoming row.
+ * The calls of consecutive rows go into a single Call request and several requests are kept in flight on the session.
+ * Rows are passed on in the order they came in, with the output arguments and the status code of their call.
+ */
+public class OpcUaCall extends BaseOpcUaStep implements StepInterface {
+
+  public OpcUaCall( StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr,
+                    TransMeta transMeta, Trans trans ) {
+    super( stepMeta, stepDataInterface, copyNr, transMeta, trans );
+  }
+
+  @Override
+  public boolean init( StepMetaInterface smi, StepDataInterface sdi ) {
+    OpcUaCallData data = (OpcUaCallData) sdi;
+
+    data.connection = null;
+    data.batch = null;
+    data.inFlight.clear();
+
+    return super.init( smi, sdi );
+  }
+
+  @Override
+  public boolean processRow( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
+    OpcUaCallMeta meta = (OpcUaCallMeta) smi;
+    OpcUaCallData data = (OpcUaCallData) sdi;
+
+    Object[] row = getRow();
+    if ( row == null ) {
+      // Send what is left and wait for all the answers
+      //
+      sendBatch( meta, data );
+      while ( !data.inFlight.isEmpty() ) {
+        emitBatch( meta, data );
+      }
+      setOutputDone();
+      return false;
+    }
+
+    if ( first ) {
+      first = false;
+      initialize( meta, data );
+    }
+
+    Variant[] arguments = new Variant[ data.inputFieldIndexes.length ];
+    for ( int i = 0; i < arguments.length; i++ ) {
+      int index = data.inputFieldIndexes[ i ];
+      Object value = getInputRowMeta().getValueMeta( index ).convertToNormalStorageType( row[ index ] );
+      arguments[ i ] = new Variant( OpcUaValueMapper.toOpcUa( value, data.inputDataTypes[ i ] ) );
+    }
+
+    if ( data.batch == null ) {
+      data.batch = new OpcUaCallData.CallBatch();
+    }
+    data.batch.rows.add( row );
+    data.batch.requests.add( new CallMethodRequest( data.registry.resolve( data.objectId ), data.registry.resolve( data.methodId ), arguments ) );
+
+    // Don't hold on to calls when no more rows are waiting: latency matters more than a full request then
+    //
+    if ( data.batch.requests.size() >= data.callSizer.getSize() || rowsetInputSize() == 0 ) {
+      sendBatch( meta, data );
+    }
+
+    // Pass on the rows of the requests which are answered, keeping the order
+    //
+    while ( !data.inFlight.isEmpty()
+      && ( data.inFlight.size() >= data.maxRequestsInFlight || data.inFlight.peekFirst().response.isDone() ) ) {
+      emitBatch( meta, data );
+    }
+
+    return true;
+  }
+
+  private void initialize( OpcUaCallMeta meta, OpcUaCallData data ) throws KettleException {
+    data.outputRowMeta = getInputRowMeta().clone();
+    meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, metaStore );
+
+    List<String> inputFields = meta.getInputFields();
+    data.inputFieldIndexes = new int[ inputFields.size() ];
+    for ( int i = 0; i < inputFields.size(); i++ ) {
+      data.inputFieldIndexes[ i ] = getInputRowMeta().indexOfValue( environmentSubstitute( inputFields.get( i ) ) );
+      if ( data.inputFieldIndexes[ i ] < 0 ) {
+        throw new KettleException( "Unable to find input argument field '" + inputFields.get( i ) + "'" );
+      }
+    }
+
+    List<OpcUaCallOutput> outputs = meta.getOutputs();
+    data.outputValueTypes = new int[ outputs.size() ];
+    for ( int i = 0; i < outputs.size(); i++ ) {
+      int type = ValueMetaFactory.getIdForValueMeta( outputs.get( i ).getType() );
+      data.outputValueTypes[ i ] = type == ValueMetaInterface.TYPE_NONE ? ValueMetaInterface.TYPE_STRING : type;
+    }
+
+    data.objectId = parseNodeId( environmentSubstitute( meta.getObjectId() ) );
+    data.methodId = parseNodeId( environmentSubstitute( meta.getMethodId() ) );
+
+    String connectionName = environmentSubstitute( meta.getOpcUaConnectionName() );
+    try {
+      data.store = getAMetaStore();
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to connect to OPC UA server '" + connectionName + "'", e );
+    }
+    data.connection = loadConnection( data.store, connectionName );
+    data.client = borrowClient( data.connection );
+
+    // Every call names the same object and method
+    //
+    data.registry = createNodeRegistry( data.client );
+    data.registry.register( Arrays.asList( data.objectId, data.methodId ) );
+
+    // The method tells us the exact DataType of its input arguments, servers reject anything else
+    //
+    data.inputDataTypes = new NodeId[ data.inputFieldIndexes.length ];
+    try {
+      Argument[] arguments = OpcUaUtil.getMethodArguments( data.client, data.methodId, "InputArguments", metrics );
+      for ( int i = 0; i < arguments.length && i < data.inputDataTypes.length; i++ ) {
+        data.inputDataTypes[ i ] = arguments[ i ].getDataType();
+      }
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to get the input arguments of method '" + data.methodId.toParseableString() + "'", e );
+    }
+
+    int argumentsPerCall = 1 + data.inputDataTypes.length + data.outputValueTypes.length;
+    data.callSizer = createRequestSizer( data.client, "Call", meta.getMaxCallsPerRequest(),
+      OpcUaOperationLimits::getMaxNodesPerMethodCall, OpcUaOperationLimits.ESTIMATED_BYTES_PER_VALUE * argumentsPerCall, 100 );
+    data.maxRequestsInFlight = Math.max( 1, Const.toInt( environmentSubstitute( meta.getMaxRequestsInFlight() ), 4 ) );
+    logDetailed( "Calling at most " + data.callSizer.getSize() + " methods per request, with at most "
+      + data.maxRequestsInFlight + " requests in flight" );
+  }
+
+  private NodeId parseNodeId( String nodeIdString ) throws KettleException {
+    try {
+      return NodeId.parse( nodeIdString );
+    } catch ( Exception e ) {
+      throw new KettleException( "Invalid node ID '" + nodeIdString + "'", e );
+    }
+  }
+
+  private void sendBatch( OpcUaCallMeta meta, OpcUaCallData data ) {
+    if ( data.batch == null || data.batch.requests.isEmpty() ) {
+      return;
+    }
+    data.batch.response = call( data, data.batch.requests );
+    data.inFlight.addLast( data.batch );
+    data.nrRequests++;
+    data.nrCalls += data.batch.requests.size();
+    data.batch = null;
+  }
+
+  /**
+   * Call the methods without waiting for the answer.
+   * When the server finds the request too large it's split up. The parts are sent one after the other so they take
+   * the place of the request in flight, and their results are put back in order.
+   */
+  private CompletableFuture<CallMethodResult[]> call( OpcUaCallData data, List<CallMethodRequest> requests ) {
+    long start = System.nanoTime();
+    return data.client.call( requests ).handle( ( response, error ) -> {
+      metrics.recordCall( start, requests.size(), error );
+      if ( error == null ) {
+        data.callSizer.onSuccess( requests.size() );
+        return CompletableFuture.completedFuture( response.getResults() );
+      }
+      if ( requests.size() > 1 && OpcUaRequestSizer.isTooLarge( error ) ) {
+        int partSize = data.callSizer.backOff( requests.size() );
+        List<CallMethodResult> results = new ArrayList<>( requests.size() );
+        CompletableFuture<Void> parts = CompletableFuture.completedFuture( null );
+        for ( int start = 0; start < requests.size(); start += partSize ) {
+          List<CallMethodRequest> part = requests.subList( start, Math.min( start + partSize, requests.size() ) );
+          parts = parts.thenCompose( v -> call( data, part ) ).thenAccept( partResults -> {
+            if ( partResults != null ) {
+              results.addAll( Arrays.asList( partResults ) );
+            }
+          } );
+        }
+        return parts.thenApply( v -> results.toArray( new CallMethodResult[ results.size() ] ) );
+      }
+      CompletableFuture<CallMethodResult[]> failed = new CompletableFuture<>();
+      failed.completeExceptionally( error );
+      return failed;
+    } ).thenCompose( results -> results );
+  }
+
+  /**
+   * Wait for the answer to the oldest request and pass on its rows
+   */
+  private void emitBatch( OpcUaCallMeta meta, OpcUaCallData data ) throws KettleException {
+    OpcUaCallData.CallBatch batch = data.inFlight.removeFirst();
+    CallMethodResult[] results;
+    try {
+      results = batch.response.get();
+    } catch ( Exception e ) {
+      throw new KettleException( "Error calling method '" + data.methodId.toParseableString() + "'", e );
+    }
+    if ( results == null || results.length != batch.rows.size() ) {
+      throw new KettleException( "The server answered " + ( results == null ? 0 : results.length ) + " results for "
+        + batch.rows.size() + " method calls" );
+    }
+
+    int inputSize = getInputRowMeta().size();
+    boolean status = !Const.isEmpty( meta.getStatusField() );
+    for ( int r = 0; r < results.length; r++ ) {
+      CallMethodResult result = results[ r ];
+      Object[] outputRow = RowDataUtil.createResizedCopy( batch.rows.get( r ), data.outputRowMeta.size() );
+      int index = inputSize;
+
+      // A failed call doesn't stop the transformation, the status code tells what went wrong
+      //
+      Variant[] outputArguments = result.getStatusCode().isGood() ? result.getOutputArguments() : null;
+      for ( int i = 0; i < data.outputValueTypes.length; i++ ) {
+        if ( outputArguments != null && i < outputArguments.length ) {
+          outputRow[ index ] = OpcUaValueMapper.convert( outputArguments[ i ].getValue(), data.outputValueTypes[ i ] );
+        }
+        index++;
+      }
+      if ( status ) {
+        outputRow[ index ] = result.getStatusCode().getValue();
+      }
+      putRow( data.outputRowMeta, outputRow );
+    }
+  }
+
+  @Override public void dispose( StepMetaInterface smi, StepDataInterface sdi ) {
+    OpcUaCallData data = (OpcUaCallData) sdi;
+
+    if ( data.nrRequests > 0 ) {
+      logBasic( "Called method " + data.nrCalls + " times in " + data.nrRequests + " requests" );
+    }
+    // The step stopped early, nobody is waiting for these answers anymore
+    //
+    for ( OpcUaCallData.CallBatch batch : data.inFlight ) {
+      batch.response.cancel( false );
+    }
+    data.inFlight.clear();
+    if ( data.registry != null ) {
+      data.registry.stop();
+      data.registry = null;
+    }
+    releaseClient( data.client );
+    data.client = null;
+    super.dispose( smi, sdi );
+  }
+}
@@ -0,0 +1,101 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.opcua.connection.OpcUaConnection;
+import org.pentaho.di.opcua.util.OpcUaNodeRegistry;
+import org.pentaho.di.opcua.util.OpcUaRequestSizer;
+import org.pentaho.di.trans.step.BaseStepData;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.metastore.api.IMetaStore;
+
+public class OpcUaCallData extends BaseStepData implements StepDataInterface {
+
+  public OpcUaConnection connection;
+
+  public IMetaStore store;
+  public OpcUaClient client;
+
+  public RowMetaInterface outputRowMeta;
+
+  public NodeId objectId;
+  public NodeId methodId;
+
+  /**
+   * The registered node IDs of the object and the method, used in every call
+   */
+  public OpcUaNodeRegistry registry;
+
+  public int[] inputFieldIndexes;
+
+  /**
+   * The DataType of every input argument as declared by the method, null where the server didn't tell us
+   */
+  public NodeId[] inputDataTypes;
+
+  public int[] outputValueTypes;
+
+  /**
+   * How many method calls go into one Call request
+   */
+  public OpcUaRequestSizer callSizer;
+  public int maxRequestsInFlight;
+
+  /**
+   * The rows and calls collected for the next request
+   */
+  public CallBatch batch;
+
+  /**
+   * The requests sent to the server, oldest first. Rows are passed on in this order.
+   */
+  public Deque<CallBatch> inFlight;
+
+  public long nrRequests;
+  public long nrCalls;
+
+  public OpcUaCallData() {
+    inFlight = new ArrayDeque<>();
+  }
+
+  /**
+   * The rows which go into a single Call request with one method call per row.
+   */
+  public static class CallBatch {
+    public final List<Object[]> rows = new ArrayList<>();
+    public final List<CallMethodRequest> requests = new ArrayList<>();
+    public CompletableFuture<CallMethodResult[]> response;
+  }
+}
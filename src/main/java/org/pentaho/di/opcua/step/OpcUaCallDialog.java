@@ -0,0 +1,362 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.events.ShellAdapter;
+import org.eclipse.swt.events.ShellEvent;
+import org.eclipse.swt.layout.FormAttachment;
+import org.eclipse.swt.layout.FormData;
+import org.eclipse.swt.layout.FormLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.ui.core.widget.ColumnInfo;
+import org.pentaho.di.ui.core.widget.ComboVar;
+import org.pentaho.di.ui.core.widget.TableView;
+import org.pentaho.di.ui.core.widget.TextVar;
+import org.pentaho.di.ui.trans.step.BaseStepDialog;
+
+public class OpcUaCallDialog extends BaseStepDialog implements StepDialogInterface {
+
+  private static Class<?> PKG = OpcUaCallDialog.class; // i18n
+
+  private OpcUaCallMeta input;
+
+  private ComboVar wServer;
+  private TextVar wObjectId;
+  private TextVar wMethodId;
+  private TextVar wMaxCallsPerRequest;
+  private TextVar wMaxRequestsInFlight;
+  private TextVar wStatusField;
+  private TableView wInputs;
+  private TableView wOutputs;
+
+  private int middle;
+  private int margin;
+
+  public OpcUaCallDialog( Shell parent, Object baseStepMeta, TransMeta transMeta, String stepname ) {
+    super( parent, (BaseStepMeta) baseStepMeta, transMeta, stepname );
+
+    input = (OpcUaCallMeta) baseStepMeta;
+  }
+
+  @Override
+  public String open() {
+
+    Shell parent = getParent();
+    Display display = parent.getDisplay();
+
+    shell = new Shell( parent, SWT.DIALOG_TRIM | SWT.RESIZE | SWT.MIN | SWT.MAX );
+    props.setLook( shell );
+    setShellImage( shell, input );
+
+    FormLayout formLayout = new FormLayout();
+    formLayout.marginWidth = Const.FORM_MARGIN;
+    formLayout.marginHeight = Const.FORM_MARGIN;
+
+    shell.setLayout( formLayout );
+    shell.setText( BaseMessages.getString( PKG, "OpcUaCallDialog.Shell.Title" ) );
+
+    middle = props.getMiddlePct();
+    margin = Const.MARGIN;
+
+    // Step name...
+    //
+    wlStepname = new Label( shell, SWT.RIGHT );
+    wlStepname.setText( BaseMessages.getString( PKG, "OpcUaDialog.Stepname.Label" ) );
+    props.setLook( wlStepname );
+    fdlStepname = new FormData();
+    fdlStepname.left = new FormAttachment( 0, 0 );
+    fdlStepname.right = new FormAttachment( middle, -margin );
+    fdlStepname.top = new FormAttachment( 0, margin );
+    wlStepname.setLayoutData( fdlStepname );
+    wStepname = new Text( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wStepname.setText( stepname );
+    props.setLook( wStepname );
+    fdStepname = new FormData();
+    fdStepname.left = new FormAttachment( middle, 0 );
+    fdStepname.top = new FormAttachment( 0, margin );
+    fdStepname.right = new FormAttachment( 100, 0 );
+    wStepname.setLayoutData( fdStepname );
+    Control lastControl = wStepname;
+
+    // The OPC UA server
+    //
+    Label wlServer = new Label( shell, SWT.RIGHT );
+    wlServer.setText( BaseMessages.getString( PKG, "OpcUaDialog.Server.Label" ) );
+    props.setLook( wlServer );
+    FormData fdlServer = new FormData();
+    fdlServer.left = new FormAttachment( 0, 0 );
+    fdlServer.right = new FormAttachment( middle, -margin );
+    fdlServer.top = new FormAttachment( lastControl, margin );
+    wlServer.setLayoutData( fdlServer );
+    wServer = new ComboVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wServer );
+    FormData fdServer = new FormData();
+    fdServer.left = new FormAttachment( middle, 0 );
+    fdServer.top = new FormAttachment( lastControl, margin );
+    fdServer.right = new FormAttachment( 100, 0 );
+    wServer.setLayoutData( fdServer );
+    lastControl = wServer;
+
+    wObjectId = addTextVar( "OpcUaCallDialog.ObjectId.Label", lastControl );
+    lastControl = wObjectId;
+    wMethodId = addTextVar( "OpcUaCallDialog.MethodId.Label", lastControl );
+    lastControl = wMethodId;
+    wMaxCallsPerRequest = addTextVar( "OpcUaCallDialog.MaxCallsPerRequest.Label", lastControl );
+    wMaxCallsPerRequest.setToolTipText( BaseMessages.getString( PKG, "OpcUaCallDialog.MaxCallsPerRequest.Tooltip" ) );
+    lastControl = wMaxCallsPerRequest;
+    wMaxRequestsInFlight = addTextVar( "OpcUaCallDialog.MaxRequestsInFlight.Label", lastControl );
+    wMaxRequestsInFlight.setToolTipText( BaseMessages.getString( PKG, "OpcUaCallDialog.MaxRequestsInFlight.Tooltip" ) );
+    lastControl = wMaxRequestsInFlight;
+    wStatusField = addTextVar( "OpcUaCallDialog.StatusField.Label", lastControl );
+    lastControl = wStatusField;
+
+    // Some buttons
+    wOK = new Button( shell, SWT.PUSH );
+    wOK.setText( BaseMessages.getString( PKG, "System.Button.OK" ) );
+    wCancel = new Button( shell, SWT.PUSH );
+    wCancel.setText( BaseMessages.getString( PKG, "System.Button.Cancel" ) );
+    // Add listeners
+    lsCancel = new Listener() {
+      public void handleEvent( Event e ) {
+        cancel();
+      }
+    };
+    lsOK = new Listener() {
+      public void handleEvent( Event e ) {
+        ok();
+      }
+    };
+
+    wCancel.addListener( SWT.Selection, lsCancel );
+    wOK.addListener( SWT.Selection, lsOK );
+    setButtonPositions( new Button[] { wOK, wCancel }, margin, null );
+
+    String[] fieldNames;
+    try {
+      fieldNames = transMeta.getPrevStepFields( stepname ).getFieldNames();
+    } catch ( KettleException e ) {
+      log.logError( "Unable to get the fields of the previous steps", e );
+      fieldNames = new String[] {};
+    }
+
+    // The fields with the input arguments
+    //
+    Label wlInputs = new Label( shell, SWT.LEFT );
+    wlInputs.setText( BaseMessages.getString( PKG, "OpcUaCallDialog.Inputs.Label" ) );
+    props.setLook( wlInputs );
+    FormData fdlInputs = new FormData();
+    fdlInputs.left = new FormAttachment( 0, 0 );
+    fdlInputs.right = new FormAttachment( 100, 0 );
+    fdlInputs.top = new FormAttachment( lastControl, margin );
+    wlInputs.setLayoutData( fdlInputs );
+    lastControl = wlInputs;
+
+    ColumnInfo[] inputColumns = new ColumnInfo[] {
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaCallDialog.Inputs.Column.Field" ), ColumnInfo.COLUMN_TYPE_CCOMBO,
+        fieldNames, false ),
+    };
+
+    wInputs = new TableView( transMeta, shell, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, inputColumns,
+      input.getInputFields().size(), null, props );
+    props.setLook( wInputs );
+    FormData fdInputs = new FormData();
+    fdInputs.left = new FormAttachment( 0, 0 );
+    fdInputs.right = new FormAttachment( 100, 0 );
+    fdInputs.top = new FormAttachment( lastControl, margin );
+    fdInputs.bottom = new FormAttachment( lastControl, margin + 120 );
+    wInputs.setLayoutData( fdInputs );
+    lastControl = wInputs;
+
+    // The fields to put the output arguments in
+    //
+    Label wlOutputs = new Label( shell, SWT.LEFT );
+    wlOutputs.setText( BaseMessages.getString( PKG, "OpcUaCallDialog.Outputs.Label" ) );
+    props.setLook( wlOutputs );
+    FormData fdlOutputs = new FormData();
+    fdlOutputs.left = new FormAttachment( 0, 0 );
+    fdlOutputs.right = new FormAttachment( 100, 0 );
+    fdlOutputs.top = new FormAttachment( lastControl, margin );
+    wlOutputs.setLayoutData( fdlOutputs );
+    lastControl = wlOutputs;
+
+    ColumnInfo[] outputColumns = new ColumnInfo[] {
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaCallDialog.Outputs.Column.Name" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaCallDialog.Outputs.Column.Type" ), ColumnInfo.COLUMN_TYPE_CCOMBO,
+        ValueMetaFactory.getValueMetaNames(), true ),
+    };
+
+    wOutputs = new TableView( transMeta, shell, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, outputColumns,
+      input.getOutputs().size(), null, props );
+    props.setLook( wOutputs );
+    FormData fdOutputs = new FormData();
+    fdOutputs.left = new FormAttachment( 0, 0 );
+    fdOutputs.right = new FormAttachment( 100, 0 );
+    fdOutputs.top = new FormAttachment( lastControl, margin );
+    fdOutputs.bottom = new FormAttachment( wOK, -2 * margin );
+    wOutputs.setLayoutData( fdOutputs );
+
+    lsDef = new SelectionAdapter() {
+      public void widgetDefaultSelected( SelectionEvent e ) {
+        ok();
+      }
+    };
+
+    wServer.addSelectionListener( lsDef );
+    wObjectId.addSelectionListener( lsDef );
+    wMethodId.addSelectionListener( lsDef );
+    wMaxCallsPerRequest.addSelectionListener( lsDef );
+    wMaxRequestsInFlight.addSelectionListener( lsDef );
+    wStatusField.addSelectionListener( lsDef );
+
+    // Detect X or ALT-F4 or something that kills this window...
+    shell.addShellListener( new ShellAdapter() {
+      public void shellClosed( ShellEvent e ) {
+        cancel();
+      }
+    } );
+
+    // Set the shell size, based upon previous time...
+    setSize();
+
+    getData();
+    input.setChanged( changed );
+
+    shell.open();
+    while ( !shell.isDisposed() ) {
+      if ( !display.readAndDispatch() ) {
+        display.sleep();
+      }
+    }
+    return stepname;
+  }
+
+  private TextVar addTextVar( String labelKey, Control lastControl ) {
+    Label wlText = new Label( shell, SWT.RIGHT );
+    wlText.setText( BaseMessages.getString( PKG, labelKey ) );
+    props.setLook( wlText );
+    FormData fdlText = new FormData();
+    fdlText.left = new FormAttachment( 0, 0 );
+    fdlText.right = new FormAttachment( middle, -margin );
+    fdlText.top = new FormAttachment( lastControl, margin );
+    wlText.setLayoutData( fdlText );
+    TextVar wText = new TextVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wText );
+    FormData fdText = new FormData();
+    fdText.left = new FormAttachment( middle, 0 );
+    fdText.top = new FormAttachment( lastControl, margin );
+    fdText.right = new FormAttachment( 100, 0 );
+    wText.setLayoutData( fdText );
+    return wText;
+  }
+
+  private void getData() {
+
+    wServer.setText( Const.NVL( input.getOpcUaConnectionName(), "" ) );
+    wObjectId.setText( Const.NVL( input.getObjectId(), "" ) );
+    wMethodId.setText( Const.NVL( input.getMethodId(), "" ) );
+    wMaxCallsPerRequest.setText( Const.NVL( input.getMaxCallsPerRequest(), "" ) );
+    wMaxRequestsInFlight.setText( Const.NVL( input.getMaxRequestsInFlight(), "" ) );
+    wStatusField.setText( Const.NVL( input.getStatusField(), "" ) );
+
+    for ( int i = 0; i < input.getInputFields().size(); i++ ) {
+      TableItem item = wInputs.table.getItem( i );
+      item.setText( 1, Const.NVL( input.getInputFields().get( i ), "" ) );
+    }
+    wInputs.removeEmptyRows();
+    wInputs.setRowNums();
+    wInputs.optWidth( true );
+
+    for ( int i = 0; i < input.getOutputs().size(); i++ ) {
+      OpcUaCallOutput output = input.getOutputs().get( i );
+      TableItem item = wOutputs.table.getItem( i );
+      item.setText( 1, Const.NVL( output.getName(), "" ) );
+      item.setText( 2, Const.NVL( output.getType(), "" ) );
+    }
+    wOutputs.removeEmptyRows();
+    wOutputs.setRowNums();
+    wOutputs.optWidth( true );
+
+    wStepname.selectAll();
+    wStepname.setFocus();
+  }
+
+  private void cancel() {
+    stepname = null;
+    input.setChanged( changed );
+    dispose();
+  }
+
+  private void ok() {
+    if ( Const.isEmpty( wStepname.getText() ) ) {
+      return;
+    }
+
+    stepname = wStepname.getText(); // return value
+
+    input.setChanged();
+
+    input.setOpcUaConnectionName( wServer.getText() );
+    input.setObjectId( wObjectId.getText() );
+    input.setMethodId( wMethodId.getText() );
+    input.setMaxCallsPerRequest( wMaxCallsPerRequest.getText() );
+    input.setMaxRequestsInFlight( wMaxRequestsInFlight.getText() );
+    input.setStatusField( wStatusField.getText() );
+
+    List<String> inputFields = new ArrayList<>();
+    for ( int i = 0; i < wInputs.nrNonEmpty(); i++ ) {
+      inputFields.add( wInputs.getNonEmpty( i ).getText( 1 ) );
+    }
+    input.setInputFields( inputFields );
+
+    List<OpcUaCallOutput> outputs = new ArrayList<>();
+    for ( int i = 0; i < wOutputs.nrNonEmpty(); i++ ) {
+      TableItem item = wOutputs.getNonEmpty( i );
+      outputs.add( new OpcUaCallOutput( item.getText( 1 ), item.getText( 2 ) ) );
+    }
+    input.setOutputs( outputs );
+
+    dispose();
+  }
+}
@@ -0,0 +1,356 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.annotations.Step;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.metastore.api.IMetaStore;
+import org.w3c.dom.Node;
+
+@Step(
+  id = "OpcUaMethodCall",
+  description = "Calls a method on an OPC UA server for every row",
+  name = "OPC UA Method Call",
+  image = "ui/images/TIP.svg",
+  categoryDescription = "Lookup"
+)
+public class OpcUaCallMeta extends BaseStepMeta implements StepMetaInterface {
+
+  private static final String TAG_OPC_UA_CONNECTION = "opc_ua_connection";
+  private static final String TAG_OBJECT_ID = "object_id";
+  private static final String TAG_METHOD_ID = "method_id";
+  private static final String TAG_MAX_CALLS_PER_REQUEST = "max_calls_per_request";
+  private static final String TAG_MAX_REQUESTS_IN_FLIGHT = "max_requests_in_flight";
+  private static final String TAG_STATUS_FIELD = "status_field";
+  private static final String TAG_INPUTS = "inputs";
+  private static final String TAG_INPUT = "input";
+  private static final String TAG_INPUT_FIELD = "field";
+  private static final String TAG_OUTPUTS = "outputs";
+  private static final String TAG_OUTPUT = "output";
+  private static final String TAG_OUTPUT_NAME = "name";
+  private static final String TAG_OUTPUT_TYPE = "type";
+
+  private static final String REP_INPUT_FIELD = "input_field";
+  private static final String REP_OUTPUT_NAME = "output_name";
+  private static final String REP_OUTPUT_TYPE = "output_type";
+
+  private String opcUaConnectionName;
+
+  /**
+   * The node ID of the object the method is called on
+   */
+  private String objectId;
+
+  /**
+   * The node ID of the method
+   */
+  private String methodId;
+
+  /**
+   * The number of method calls in a single Call request. Empty or 0 means we use the server's MaxNodesPerMethodCall.
+   */
+  private String maxCallsPerRequest;
+
+  /**
+   * The number of Call requests waiting for an answer at the same time
+   */
+  private String maxRequestsInFlight;
+
+  /**
+   * The output field with the status code of the call
+   */
+  private String statusField;
+
+  /**
+   * The fields with the input arguments, in the order of the arguments of the method
+   */
+  private List<String> inputFields;
+
+  /**
+   * The fields to put the output arguments in, in the order of the arguments of the method
+   */
+  private List<OpcUaCallOutput> outputs;
+
+  public OpcUaCallMeta() {
+    super();
+    inputFields = new ArrayList<>();
+    outputs = new ArrayList<>();
+  }
+
+  @Override
+  public Object clone() {
+    OpcUaCallMeta meta = (OpcUaCallMeta) super.clone();
+    meta.inputFields = new ArrayList<>( inputFields );
+    meta.outputs = new ArrayList<>();
+    for ( OpcUaCallOutput output : outputs ) {
+      meta.outputs.add( new OpcUaCallOutput( output ) );
+    }
+    return meta;
+  }
+
+  @Override
+  public void getFields( RowMetaInterface inputRowMeta, String name, RowMetaInterface[] info, StepMeta nextStep,
+                         VariableSpace space, Repository repository, IMetaStore metaStore ) throws KettleStepException {
+    for ( OpcUaCallOutput output : outputs ) {
+      int type = ValueMetaFactory.getIdForValueMeta( output.getType() );
+      if ( type == ValueMetaInterface.TYPE_NONE ) {
+        type = ValueMetaInterface.TYPE_STRING;
+      }
+      try {
+        addValueMeta( inputRowMeta, ValueMetaFactory.createValueMeta( output.getName(), type ), name );
+      } catch ( Exception e ) {
+        throw new KettleStepException( "Unable to create output field '" + output.getName() + "'", e );
+      }
+    }
+    if ( !Const.isEmpty( statusField ) ) {
+      addValueMeta( inputRowMeta, new ValueMetaInteger( space.environmentSubstitute( statusField ) ), name );
+    }
+  }
+
+  private void addValueMeta( RowMetaInterface rowMeta, ValueMetaInterface valueMeta, String origin ) {
+    valueMeta.setOrigin( origin );
+    rowMeta.addValueMeta( valueMeta );
+  }
+
+  @Override
+  public String getXML() throws KettleException {
+    StringBuilder xml = new StringBuilder();
+
+    xml.append( XMLHandler.addTagValue( TAG_OPC_UA_CONNECTION, opcUaConnectionName ) );
+    xml.append( XMLHandler.addTagValue( TAG_OBJECT_ID, objectId ) );
+    xml.append( XMLHandler.addTagValue( TAG_METHOD_ID, methodId ) );
+    xml.append( XMLHandler.addTagValue( TAG_MAX_CALLS_PER_REQUEST, maxCallsPerRequest ) );
+    xml.append( XMLHandler.addTagValue( TAG_MAX_REQUESTS_IN_FLIGHT, maxRequestsInFlight ) );
+    xml.append( XMLHandler.addTagValue( TAG_STATUS_FIELD, statusField ) );
+
+    xml.append( XMLHandler.openTag( TAG_INPUTS ) );
+    for ( String inputField : inputFields ) {
+      xml.append( XMLHandler.openTag( TAG_INPUT ) );
+      xml.append( XMLHandler.addTagValue( TAG_INPUT_FIELD, inputField ) );
+      xml.append( XMLHandler.closeTag( TAG_INPUT ) );
+    }
+    xml.append( XMLHandler.closeTag( TAG_INPUTS ) );
+
+    xml.append( XMLHandler.openTag( TAG_OUTPUTS ) );
+    for ( OpcUaCallOutput output : outputs ) {
+      xml.append( XMLHandler.openTag( TAG_OUTPUT ) );
+      xml.append( XMLHandler.addTagValue( TAG_OUTPUT_NAME, output.getName() ) );
+      xml.append( XMLHandler.addTagValue( TAG_OUTPUT_TYPE, output.getType() ) );
+      xml.append( XMLHandler.closeTag( TAG_OUTPUT ) );
+    }
+    xml.append( XMLHandler.closeTag( TAG_OUTPUTS ) );
+
+    return xml.toString();
+  }
+
+  @Override
+  public void loadXML( Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore ) throws KettleXMLException {
+    try {
+
+      opcUaConnectionName = XMLHandler.getTagValue( stepnode, TAG_OPC_UA_CONNECTION );
+      objectId = XMLHandler.getTagValue( stepnode, TAG_OBJECT_ID );
+      methodId = XMLHandler.getTagValue( stepnode, TAG_METHOD_ID );
+      maxCallsPerRequest = XMLHandler.getTagValue( stepnode, TAG_MAX_CALLS_PER_REQUEST );
+      maxRequestsInFlight = XMLHandler.getTagValue( stepnode, TAG_MAX_REQUESTS_IN_FLIGHT );
+      statusField = XMLHandler.getTagValue( stepnode, TAG_STATUS_FIELD );
+
+      inputFields = new ArrayList<>();
+      Node inputsNode = XMLHandler.getSubNode( stepnode, TAG_INPUTS );
+      for ( Node inputNode : XMLHandler.getNodes( inputsNode, TAG_INPUT ) ) {
+        inputFields.add( XMLHandler.getTagValue( inputNode, TAG_INPUT_FIELD ) );
+      }
+
+      outputs = new ArrayList<>();
+      Node outputsNode = XMLHandler.getSubNode( stepnode, TAG_OUTPUTS );
+      for ( Node outputNode : XMLHandler.getNodes( outputsNode, TAG_OUTPUT ) ) {
+        outputs.add( new OpcUaCallOutput(
+          XMLHandler.getTagValue( outputNode, TAG_OUTPUT_NAME ),
+          XMLHandler.getTagValue( outputNode, TAG_OUTPUT_TYPE )
+        ) );
+      }
+
+    } catch ( Exception e ) {
+      throw new KettleXMLException( "Unable to load OPC UA method call step details", e );
+    }
+  }
+
+  @Override
+  public void saveRep( Repository rep, IMetaStore metaStore, ObjectId id_transformation, ObjectId id_step ) throws KettleException {
+
+    rep.saveStepAttribute( id_transformation, id_step, TAG_OPC_UA_CONNECTION, opcUaConnectionName );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_OBJECT_ID, objectId );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_METHOD_ID, methodId );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_MAX_CALLS_PER_REQUEST, maxCallsPerRequest );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_MAX_REQUESTS_IN_FLIGHT, maxRequestsInFlight );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_STATUS_FIELD, statusField );
+
+    for ( int i = 0; i < inputFields.size(); i++ ) {
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_INPUT_FIELD, inputFields.get( i ) );
+    }
+    for ( int i = 0; i < outputs.size(); i++ ) {
+      OpcUaCallOutput output = outputs.get( i );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_OUTPUT_NAME, output.getName() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_OUTPUT_TYPE, output.getType() );
+    }
+  }
+
+  @Override
+  public void readRep( Repository rep, IMetaStore metaStore, ObjectId id_step, List<DatabaseMeta> databases ) throws KettleException {
+
+    opcUaConnectionName = rep.getStepAttributeString( id_step, TAG_OPC_UA_CONNECTION );
+    objectId = rep.getStepAttributeString( id_step, TAG_OBJECT_ID );
+    methodId = rep.getStepAttributeString( id_step, TAG_METHOD_ID );
+    maxCallsPerRequest = rep.getStepAttributeString( id_step, TAG_MAX_CALLS_PER_REQUEST );
+    maxRequestsInFlight = rep.getStepAttributeString( id_step, TAG_MAX_REQUESTS_IN_FLIGHT );
+    statusField = rep.getStepAttributeString( id_step, TAG_STATUS_FIELD );
+
+    inputFields = new ArrayList<>();
+    int nrInputs = rep.countNrStepAttributes( id_step, REP_INPUT_FIELD );
+    for ( int i = 0; i < nrInputs; i++ ) {
+      inputFields.add( rep.getStepAttributeString( id_step, i, REP_INPUT_FIELD ) );
+    }
+
+    outputs = new ArrayList<>();
+    int nrOutputs = rep.countNrStepAttributes( id_step, REP_OUTPUT_NAME );
+    for ( int i = 0; i < nrOutputs; i++ ) {
+      outputs.add( new OpcUaCallOutput(
+        rep.getStepAttributeString( id_step, i, REP_OUTPUT_NAME ),
+        rep.getStepAttributeString( id_step, i, REP_OUTPUT_TYPE )
+      ) );
+    }
+  }
+
+  @Override
+  public StepInterface getStep( StepMeta meta, StepDataInterface data, int copy, TransMeta transMeta, Trans trans ) {
+    return new OpcUaCall( meta, data, copy, transMeta, trans );
+  }
+
+  @Override
+  public StepDataInterface getStepData() {
+    return new OpcUaCallData();
+  }
+
+  @Override
+  public String getDialogClassName() {
+    return OpcUaCallDialog.class.getName();
+  }
+
+  @Override
+  public void setDefault() {
+    opcUaConnectionName = "";
+    objectId = "";
+    methodId = "";
+    maxCallsPerRequest = "";
+    maxRequestsInFlight = "4";
+    statusField = "StatusCode";
+    inputFields = new ArrayList<>();
+    outputs = new ArrayList<>();
+  }
+
+  public String getOpcUaConnectionName() {
+    return opcUaConnectionName;
+  }
+
+  public void setOpcUaConnectionName( String opcUaConnectionName ) {
+    this.opcUaConnectionName = opcUaConnectionName;
+  }
+
+  public String getObjectId() {
+    return objectId;
+  }
+
+  public void setObjectId( String objectId ) {
+    this.objectId = objectId;
+  }
+
+  public String getMethodId() {
+    return methodId;
+  }
+
+  public void setMethodId( String methodId ) {
+    this.methodId = methodId;
+  }
+
+  public String getMaxCallsPerRequest() {
+    return maxCallsPerRequest;
+  }
+
+  public void setMaxCallsPerRequest( String maxCallsPerRequest ) {
+    this.maxCallsPerRequest = maxCallsPerRequest;
+  }
+
+  public String getMaxRequestsInFlight() {
+    return maxRequestsInFlight;
+  }
+
+  public void setMaxRequestsInFlight( String maxRequestsInFlight ) {
+    this.maxRequestsInFlight = maxRequestsInFlight;
+  }
+
+  public String getStatusField() {
+    return statusField;
+  }
+
+  public void setStatusField( String statusField ) {
+    this.statusField = statusField;
+  }
+
+  public List<String> getInputFields() {
+    return inputFields;
+  }
+
+  public void setInputFields( List<String> inputFields ) {
+    this.inputFields = inputFields;
+  }
+
+  public List<OpcUaCallOutput> getOutputs() {
+    return outputs;
+  }
+
+  public void setOutputs( List<OpcUaCallOutput> outputs ) {
+    this.outputs = outputs;
+  }
+}
@@ -0,0 +1,66 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+/**
+ * An output argument of a method, mapped by position to an output field of the OPC UA Method Call step.
+ */
+public class OpcUaCallOutput {
+
+  private String name;
+
+  /**
+   * The name of the Kettle value type of the field, String, Integer, Number, ...
+   */
+  private String type;
+
+  public OpcUaCallOutput() {
+  }
+
+  public OpcUaCallOutput( String name, String type ) {
+    this();
+    this.name = name;
+    this.type = type;
+  }
+
+  public OpcUaCallOutput( OpcUaCallOutput output ) {
+    this( output.name, output.type );
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName( String name ) {
+    this.name = name;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public void setType( String type ) {
+    this.type = type;
+  }
+}
@@ -22,9 +22,17 @@
 
 package org.pentaho.di.opcua.step;
 
+import java.util.List;
+
 import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.opcua.connection.OpcUaConnection;
+import org.pentaho.di.opcua.util.OpcUaHandoffQueue;
+import org.pentaho.di.opcua.util.OpcUaNodeRegistry;
+import org.pentaho.di.opcua.util.OpcUaRequestSizer;
+import org.pentaho.di.opcua.util.OpcUaSessionSupervisor;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.metastore.api.IMetaStore;
@@ -36,4 +44,81 @@ public class OpcUaData extends BaseStepData implements StepDataInterface {
   public IMetaStore store;
   public RowMetaInterface outputRowMeta;
   public OpcUaClient client;
+
+  public List<OpcUaTag> tags;
+
+  /**
+   * The Kettle type of the Value column, derived from the data types of the tags
+   */
+  public int valueType;
+
+  public OpcUaOutputLayout outputLayout;
+
+  /**
+   * The type of the timestamp columns and, in the narrow layout, which metadata of a value to emit
+   */
+  public OpcUaTimestampFormat timestampFormat;
+  public boolean includeSourceTimestamp;
+  public boolean includeServerTimestamp;
+  public boolean includePicoseconds;
+  public boolean includeStatusCode;
+  public boolean includeStatusDetails;
+
+  /**
+   * Wide layout: the output column and the Kettle type of every tag of this copy
+   */
+  public int[] tagColumns;
+  public int[] tagValueTypes;
+
+  /**
+   * Wide layout: the last known value of every tag, the basis of every streamed row
+   */
+  public Object[] snapshot;
+
+  /**
+   * The parsed node IDs of the tags, in the same order
+   */
+  public List<NodeId> nodeIds;
+
+  /**
+   * The subscription in SUBSCRIBE mode. While it runs the supervisor owns it and may replace it,
+   * it's taken back from the supervisor once that is stopped.
+   */
+  public volatile UaSubscription subscription;
+
+  /**
+   * Watches the session in SUBSCRIBE and POLL mode
+   */
+  public OpcUaSessionSupervisor supervisor;
+
+  /**
+   * The poller in POLL mode
+   */
+  public OpcUaPoller poller;
+
+  /**
+   * The registered node IDs of the tags in POLL mode
+   */
+  public OpcUaNodeRegistry registry;
+
+  /**
+   * How many tags to read per request in READ and POLL mode
+   */
+  public OpcUaRequestSizer readSizer;
+
+  /**
+   * The number of Read requests kept in flight in READ and POLL mode
+   */
+  public int maxRequestsInFlight;
+
+  /**
+   * How many monitored items to create per request in SUBSCRIBE mode
+   */
+  public OpcUaRequestSizer monitoredItemSizer;
+
+  /**
+   * Values received on the Milo notification threads, waiting to be turned into rows.
+   * Bounded, what happens when it's full depends on the queue policy of the step.
+   */
+  public OpcUaHandoffQueue<OpcUaSample> samples;
 }
@@ -22,7 +22,19 @@
 
 package org.pentaho.di.opcua.step;
 
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.identity.AnonymousProvider;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CCombo;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.events.ShellAdapter;
@@ -36,14 +48,30 @@ import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.MessageBox;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.swt.widgets.Text;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.opcua.connection.OpcUaConnection;
+import org.pentaho.di.opcua.util.ClientKeyStore;
+import org.pentaho.di.opcua.util.OpcUaHandoffQueue;
+import org.pentaho.di.opcua.util.OpcUaNodeIndex;
+import org.pentaho.di.opcua.util.OpcUaSessionPool;
+import org.pentaho.di.opcua.util.OpcUaUtil;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStepMeta;
 import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.ui.core.dialog.EnterSelectionDialog;
+import org.pentaho.di.ui.core.dialog.EnterStringDialog;
+import org.pentaho.di.ui.core.dialog.ErrorDialog;
+import org.pentaho.di.ui.core.widget.ColumnInfo;
 import org.pentaho.di.ui.core.widget.ComboVar;
+import org.pentaho.di.ui.core.widget.TableView;
+import org.pentaho.di.ui.core.widget.TextVar;
 import org.pentaho.di.ui.trans.step.BaseStepDialog;
 
 public class OpcUaDialog extends BaseStepDialog implements StepDialogInterface {
@@ -53,7 +81,25 @@ public class OpcUaDialog extends BaseStepDialog implements StepDialogInterface {
   private OpcUaMeta input;
 
   private ComboVar wServer;
-
+  private CCombo wReadMode;
+  private CCombo wTagPartitioning;
+  private CCombo wOutputLayout;
+  private CCombo wTimestampFormat;
+  private Button wIncludeSourceTimestamp;
+  private Button wIncludeServerTimestamp;
+  private Button wIncludePicoseconds;
+  private Button wIncludeStatusCode;
+  private Button wIncludeStatusDetails;
+  private Button wRebuild;
+  private TextVar wPublishingInterval;
+  private TextVar wSamplingInterval;
+  private TextVar wPollInterval;
+  private TextVar wQueueSize;
+  private CCombo wQueuePolicy;
+  private TableView wGroups;
+  private TextVar wMaxNodesPerRead;
+  private TextVar wMaxRequestsInFlight;
+  private TableView wTags;
 
   public OpcUaDialog( Shell parent, Object baseStepMeta, TransMeta transMeta, String stepname) {
     super(parent, (BaseStepMeta) baseStepMeta, transMeta, stepname);
@@ -121,6 +167,230 @@ public class OpcUaDialog extends BaseStepDialog implements StepDialogInterface {
     wServer.setLayoutData( fdServer );
     lastControl = wServer;
 
+    // Read mode
+    //
+    Label wlReadMode = new Label( shell, SWT.RIGHT );
+    wlReadMode.setText( BaseMessages.getString( PKG, "OpcUaDialog.ReadMode.Label" ) );
+    props.setLook( wlReadMode );
+    FormData fdlReadMode = new FormData();
+    fdlReadMode.left = new FormAttachment( 0, 0 );
+    fdlReadMode.right = new FormAttachment( middle, -margin );
+    fdlReadMode.top = new FormAttachment( lastControl, margin );
+    wlReadMode.setLayoutData( fdlReadMode );
+    wReadMode = new CCombo( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER | SWT.READ_ONLY );
+    wReadMode.setItems( OpcUaReadMode.getDescriptions() );
+    props.setLook( wReadMode );
+    FormData fdReadMode = new FormData();
+    fdReadMode.left = new FormAttachment( middle, 0 );
+    fdReadMode.top = new FormAttachment( lastControl, margin );
+    fdReadMode.right = new FormAttachment( 100, 0 );
+    wReadMode.setLayoutData( fdReadMode );
+    lastControl = wReadMode;
+
+    // One row per value or one row per read cycle
+    //
+    Label wlOutputLayout = new Label( shell, SWT.RIGHT );
+    wlOutputLayout.setText( BaseMessages.getString( PKG, "OpcUaDialog.OutputLayout.Label" ) );
+    props.setLook( wlOutputLayout );
+    FormData fdlOutputLayout = new FormData();
+    fdlOutputLayout.left = new FormAttachment( 0, 0 );
+    fdlOutputLayout.right = new FormAttachment( middle, -margin );
+    fdlOutputLayout.top = new FormAttachment( lastControl, margin );
+    wlOutputLayout.setLayoutData( fdlOutputLayout );
+    wOutputLayout = new CCombo( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER | SWT.READ_ONLY );
+    wOutputLayout.setItems( OpcUaOutputLayout.getDescriptions() );
+    props.setLook( wOutputLayout );
+    FormData fdOutputLayout = new FormData();
+    fdOutputLayout.left = new FormAttachment( middle, 0 );
+    fdOutputLayout.top = new FormAttachment( lastControl, margin );
+    fdOutputLayout.right = new FormAttachment( 100, 0 );
+    wOutputLayout.setLayoutData( fdOutputLayout );
+    lastControl = wOutputLayout;
+
+    // The Kettle type of the timestamps
+    //
+    Label wlTimestampFormat = new Label( shell, SWT.RIGHT );
+    wlTimestampFormat.setText( BaseMessages.getString( PKG, "OpcUaDialog.TimestampFormat.Label" ) );
+    props.setLook( wlTimestampFormat );
+    FormData fdlTimestampFormat = new FormData();
+    fdlTimestampFormat.left = new FormAttachment( 0, 0 );
+    fdlTimestampFormat.right = new FormAttachment( middle, -margin );
+    fdlTimestampFormat.top = new FormAttachment( lastControl, margin );
+    wlTimestampFormat.setLayoutData( fdlTimestampFormat );
+    wTimestampFormat = new CCombo( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER | SWT.READ_ONLY );
+    wTimestampFormat.setItems( OpcUaTimestampFormat.getDescriptions() );
+    props.setLook( wTimestampFormat );
+    FormData fdTimestampFormat = new FormData();
+    fdTimestampFormat.left = new FormAttachment( middle, 0 );
+    fdTimestampFormat.top = new FormAttachment( lastControl, margin );
+    fdTimestampFormat.right = new FormAttachment( 100, 0 );
+    wTimestampFormat.setLayoutData( fdTimestampFormat );
+    lastControl = wTimestampFormat;
+
+    // The metadata of every value in the narrow layout
+    //
+    wIncludeSourceTimestamp = addCheckbox( "OpcUaDialog.IncludeSourceTimestamp.Label", lastControl );
+    wIncludeServerTimestamp = addCheckbox( "OpcUaDialog.IncludeServerTimestamp.Label", wIncludeSourceTimestamp );
+    wIncludePicoseconds = addCheckbox( "OpcUaDialog.IncludePicoseconds.Label", wIncludeServerTimestamp );
+    wIncludeStatusCode = addCheckbox( "OpcUaDialog.IncludeStatusCode.Label", wIncludePicoseconds );
+    wIncludeStatusDetails = addCheckbox( "OpcUaDialog.IncludeStatusDetails.Label", wIncludeStatusCode );
+    lastControl = wIncludeStatusDetails;
+
+    // Publishing interval
+    //
+    Label wlPublishingInterval = new Label( shell, SWT.RIGHT );
+    wlPublishingInterval.setText( BaseMessages.getString( PKG, "OpcUaDialog.PublishingInterval.Label" ) );
+    props.setLook( wlPublishingInterval );
+    FormData fdlPublishingInterval = new FormData();
+    fdlPublishingInterval.left = new FormAttachment( 0, 0 );
+    fdlPublishingInterval.right = new FormAttachment( middle, -margin );
+    fdlPublishingInterval.top = new FormAttachment( lastControl, margin );
+    wlPublishingInterval.setLayoutData( fdlPublishingInterval );
+    wPublishingInterval = new TextVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wPublishingInterval );
+    FormData fdPublishingInterval = new FormData();
+    fdPublishingInterval.left = new FormAttachment( middle, 0 );
+    fdPublishingInterval.top = new FormAttachment( lastControl, margin );
+    fdPublishingInterval.right = new FormAttachment( 100, 0 );
+    wPublishingInterval.setLayoutData( fdPublishingInterval );
+    lastControl = wPublishingInterval;
+
+    // Sampling interval
+    //
+    Label wlSamplingInterval = new Label( shell, SWT.RIGHT );
+    wlSamplingInterval.setText( BaseMessages.getString( PKG, "OpcUaDialog.SamplingInterval.Label" ) );
+    props.setLook( wlSamplingInterval );
+    FormData fdlSamplingInterval = new FormData();
+    fdlSamplingInterval.left = new FormAttachment( 0, 0 );
+    fdlSamplingInterval.right = new FormAttachment( middle, -margin );
+    fdlSamplingInterval.top = new FormAttachment( lastControl, margin );
+    wlSamplingInterval.setLayoutData( fdlSamplingInterval );
+    wSamplingInterval = new TextVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wSamplingInterval );
+    FormData fdSamplingInterval = new FormData();
+    fdSamplingInterval.left = new FormAttachment( middle, 0 );
+    fdSamplingInterval.top = new FormAttachment( lastControl, margin );
+    fdSamplingInterval.right = new FormAttachment( 100, 0 );
+    wSamplingInterval.setLayoutData( fdSamplingInterval );
+    lastControl = wSamplingInterval;
+
+    // Polling interval of the tags without a group
+    //
+    Label wlPollInterval = new Label( shell, SWT.RIGHT );
+    wlPollInterval.setText( BaseMessages.getString( PKG, "OpcUaDialog.PollInterval.Label" ) );
+    props.setLook( wlPollInterval );
+    FormData fdlPollInterval = new FormData();
+    fdlPollInterval.left = new FormAttachment( 0, 0 );
+    fdlPollInterval.right = new FormAttachment( middle, -margin );
+    fdlPollInterval.top = new FormAttachment( lastControl, margin );
+    wlPollInterval.setLayoutData( fdlPollInterval );
+    wPollInterval = new TextVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wPollInterval );
+    FormData fdPollInterval = new FormData();
+    fdPollInterval.left = new FormAttachment( middle, 0 );
+    fdPollInterval.top = new FormAttachment( lastControl, margin );
+    fdPollInterval.right = new FormAttachment( 100, 0 );
+    wPollInterval.setLayoutData( fdPollInterval );
+    lastControl = wPollInterval;
+
+    // Size of the queue between the OPC UA client and the step
+    //
+    Label wlQueueSize = new Label( shell, SWT.RIGHT );
+    wlQueueSize.setText( BaseMessages.getString( PKG, "OpcUaDialog.QueueSize.Label" ) );
+    props.setLook( wlQueueSize );
+    FormData fdlQueueSize = new FormData();
+    fdlQueueSize.left = new FormAttachment( 0, 0 );
+    fdlQueueSize.right = new FormAttachment( middle, -margin );
+    fdlQueueSize.top = new FormAttachment( lastControl, margin );
+    wlQueueSize.setLayoutData( fdlQueueSize );
+    wQueueSize = new TextVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wQueueSize );
+    FormData fdQueueSize = new FormData();
+    fdQueueSize.left = new FormAttachment( middle, 0 );
+    fdQueueSize.top = new FormAttachment( lastControl, margin );
+    fdQueueSize.right = new FormAttachment( 100, 0 );
+    wQueueSize.setLayoutData( fdQueueSize );
+    lastControl = wQueueSize;
+
+    // What to do when the queue is full
+    //
+    Label wlQueuePolicy = new Label( shell, SWT.RIGHT );
+    wlQueuePolicy.setText( BaseMessages.getString( PKG, "OpcUaDialog.QueuePolicy.Label" ) );
+    props.setLook( wlQueuePolicy );
+    FormData fdlQueuePolicy = new FormData();
+    fdlQueuePolicy.left = new FormAttachment( 0, 0 );
+    fdlQueuePolicy.right = new FormAttachment( middle, -margin );
+    fdlQueuePolicy.top = new FormAttachment( lastControl, margin );
+    wlQueuePolicy.setLayoutData( fdlQueuePolicy );
+    wQueuePolicy = new CCombo( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER | SWT.READ_ONLY );
+    wQueuePolicy.setItems( OpcUaHandoffQueue.Policy.getDescriptions() );
+    props.setLook( wQueuePolicy );
+    FormData fdQueuePolicy = new FormData();
+    fdQueuePolicy.left = new FormAttachment( middle, 0 );
+    fdQueuePolicy.top = new FormAttachment( lastControl, margin );
+    fdQueuePolicy.right = new FormAttachment( 100, 0 );
+    wQueuePolicy.setLayoutData( fdQueuePolicy );
+    lastControl = wQueuePolicy;
+
+    // Maximum number of nodes per read request
+    //
+    Label wlMaxNodesPerRead = new Label( shell, SWT.RIGHT );
+    wlMaxNodesPerRead.setText( BaseMessages.getString( PKG, "OpcUaDialog.MaxNodesPerRead.Label" ) );
+    props.setLook( wlMaxNodesPerRead );
+    FormData fdlMaxNodesPerRead = new FormData();
+    fdlMaxNodesPerRead.left = new FormAttachment( 0, 0 );
+    fdlMaxNodesPerRead.right = new FormAttachment( middle, -margin );
+    fdlMaxNodesPerRead.top = new FormAttachment( lastControl, margin );
+    wlMaxNodesPerRead.setLayoutData( fdlMaxNodesPerRead );
+    wMaxNodesPerRead = new TextVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wMaxNodesPerRead.setToolTipText( BaseMessages.getString( PKG, "OpcUaDialog.MaxNodesPerRead.Tooltip" ) );
+    props.setLook( wMaxNodesPerRead );
+    FormData fdMaxNodesPerRead = new FormData();
+    fdMaxNodesPerRead.left = new FormAttachment( middle, 0 );
+    fdMaxNodesPerRead.top = new FormAttachment( lastControl, margin );
+    fdMaxNodesPerRead.right = new FormAttachment( 100, 0 );
+    wMaxNodesPerRead.setLayoutData( fdMaxNodesPerRead );
+    lastControl = wMaxNodesPerRead;
+
+    Label wlMaxRequestsInFlight = new Label( shell, SWT.RIGHT );
+    wlMaxRequestsInFlight.setText( BaseMessages.getString( PKG, "OpcUaDialog.MaxRequestsInFlight.Label" ) );
+    props.setLook( wlMaxRequestsInFlight );
+    FormData fdlMaxRequestsInFlight = new FormData();
+    fdlMaxRequestsInFlight.left = new FormAttachment( 0, 0 );
+    fdlMaxRequestsInFlight.right = new FormAttachment( middle, -margin );
+    fdlMaxRequestsInFlight.top = new FormAttachment( lastControl, margin );
+    wlMaxRequestsInFlight.setLayoutData( fdlMaxRequestsInFlight );
+    wMaxRequestsInFlight = new TextVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wMaxRequestsInFlight.setToolTipText( BaseMessages.getString( PKG, "OpcUaDialog.MaxRequestsInFlight.Tooltip" ) );
+    props.setLook( wMaxRequestsInFlight );
+    FormData fdMaxRequestsInFlight = new FormData();
+    fdMaxRequestsInFlight.left = new FormAttachment( middle, 0 );
+    fdMaxRequestsInFlight.top = new FormAttachment( lastControl, margin );
+    fdMaxRequestsInFlight.right = new FormAttachment( 100, 0 );
+    wMaxRequestsInFlight.setLayoutData( fdMaxRequestsInFlight );
+    lastControl = wMaxRequestsInFlight;
+
+    // How to divide the tags over the step copies
+    //
+    Label wlTagPartitioning = new Label( shell, SWT.RIGHT );
+    wlTagPartitioning.setText( BaseMessages.getString( PKG, "OpcUaDialog.TagPartitioning.Label" ) );
+    props.setLook( wlTagPartitioning );
+    FormData fdlTagPartitioning = new FormData();
+    fdlTagPartitioning.left = new FormAttachment( 0, 0 );
+    fdlTagPartitioning.right = new FormAttachment( middle, -margin );
+    fdlTagPartitioning.top = new FormAttachment( lastControl, margin );
+    wlTagPartitioning.setLayoutData( fdlTagPartitioning );
+    wTagPartitioning = new CCombo( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER | SWT.READ_ONLY );
+    wTagPartitioning.setItems( OpcUaTagPartitioning.getDescriptions() );
+    wTagPartitioning.setToolTipText( BaseMessages.getString( PKG, "OpcUaDialog.TagPartitioning.Tooltip" ) );
+    props.setLook( wTagPartitioning );
+    FormData fdTagPartitioning = new FormData();
+    fdTagPartitioning.left = new FormAttachment( middle, 0 );
+    fdTagPartitioning.top = new FormAttachment( lastControl, margin );
+    fdTagPartitioning.right = new FormAttachment( 100, 0 );
+    wTagPartitioning.setLayoutData( fdTagPartitioning );
+    lastControl = wTagPartitioning;
+
     // Some buttons
     wOK = new Button( shell, SWT.PUSH );
     wOK.setText( BaseMessages.getString( PKG, "System.Button.OK" ) );
@@ -140,7 +410,83 @@ public class OpcUaDialog extends BaseStepDialog implements StepDialogInterface {
 
     wCancel.addListener( SWT.Selection, lsCancel );
     wOK.addListener( SWT.Selection, lsOK );
-    setButtonPositions( new Button[] { wOK, wCancel }, margin, null );
+    wGet = new Button( shell, SWT.PUSH );
+    wGet.setText( BaseMessages.getString( PKG, "OpcUaDialog.GetTags.Button" ) );
+    wGet.addListener( SWT.Selection, e -> getTags( false ) );
+    wRebuild = new Button( shell, SWT.PUSH );
+    wRebuild.setText( BaseMessages.getString( PKG, "OpcUaDialog.RebuildIndex.Button" ) );
+    wRebuild.addListener( SWT.Selection, e -> getTags( true ) );
+    setButtonPositions( new Button[] { wOK, wGet, wRebuild, wCancel }, margin, null );
+
+    // The tag groups with their own polling interval
+    //
+    Label wlGroups = new Label( shell, SWT.LEFT );
+    wlGroups.setText( BaseMessages.getString( PKG, "OpcUaDialog.Groups.Label" ) );
+    props.setLook( wlGroups );
+    FormData fdlGroups = new FormData();
+    fdlGroups.left = new FormAttachment( 0, 0 );
+    fdlGroups.right = new FormAttachment( 100, 0 );
+    fdlGroups.top = new FormAttachment( lastControl, margin );
+    wlGroups.setLayoutData( fdlGroups );
+    lastControl = wlGroups;
+
+    ColumnInfo[] groupColumns = new ColumnInfo[] {
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Groups.Column.Name" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Groups.Column.Interval" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Groups.Column.SamplingInterval" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Groups.Column.QueueSize" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Groups.Column.Trigger" ), ColumnInfo.COLUMN_TYPE_CCOMBO,
+        new String[] { "", "Status", "StatusValue", "StatusValueTimestamp" }, true ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Groups.Column.DeadbandType" ), ColumnInfo.COLUMN_TYPE_CCOMBO,
+        new String[] { "", "None", "Absolute", "Percent" }, true ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Groups.Column.Deadband" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+    };
+    for ( int i = 1; i < groupColumns.length; i++ ) {
+      if ( groupColumns[ i ].getType() == ColumnInfo.COLUMN_TYPE_TEXT ) {
+        groupColumns[ i ].setUsingVariables( true );
+      }
+    }
+
+    wGroups = new TableView( transMeta, shell, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, groupColumns,
+      input.getGroups().size(), null, props );
+    props.setLook( wGroups );
+    FormData fdGroups = new FormData();
+    fdGroups.left = new FormAttachment( 0, 0 );
+    fdGroups.right = new FormAttachment( 100, 0 );
+    fdGroups.top = new FormAttachment( lastControl, margin );
+    fdGroups.bottom = new FormAttachment( lastControl, margin + 120 );
+    wGroups.setLayoutData( fdGroups );
+    lastControl = wGroups;
+
+    // The tags to read or monitor
+    //
+    Label wlTags = new Label( shell, SWT.LEFT );
+    wlTags.setText( BaseMessages.getString( PKG, "OpcUaDialog.Tags.Label" ) );
+    props.setLook( wlTags );
+    FormData fdlTags = new FormData();
+    fdlTags.left = new FormAttachment( 0, 0 );
+    fdlTags.right = new FormAttachment( 100, 0 );
+    fdlTags.top = new FormAttachment( lastControl, margin );
+    wlTags.setLayoutData( fdlTags );
+    lastControl = wlTags;
+
+    ColumnInfo[] columns = new ColumnInfo[] {
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Tags.Column.NodeId" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Tags.Column.Name" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Tags.Column.DataType" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Tags.Column.Group" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+    };
+    columns[ 0 ].setUsingVariables( true );
+
+    wTags = new TableView( transMeta, shell, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, columns,
+      input.getTags().size(), null, props );
+    props.setLook( wTags );
+    FormData fdTags = new FormData();
+    fdTags.left = new FormAttachment( 0, 0 );
+    fdTags.right = new FormAttachment( 100, 0 );
+    fdTags.top = new FormAttachment( lastControl, margin );
+    fdTags.bottom = new FormAttachment( wOK, -2 * margin );
+    wTags.setLayoutData( fdTags );
 
 
     lsDef = new SelectionAdapter() {
@@ -150,6 +496,12 @@ public class OpcUaDialog extends BaseStepDialog implements StepDialogInterface {
     };
 
     wServer.addSelectionListener( lsDef );
+    wPublishingInterval.addSelectionListener( lsDef );
+    wSamplingInterval.addSelectionListener( lsDef );
+    wPollInterval.addSelectionListener( lsDef );
+    wQueueSize.addSelectionListener( lsDef );
+    wMaxNodesPerRead.addSelectionListener( lsDef );
+    wMaxRequestsInFlight.addSelectionListener( lsDef );
 
     // Detect X or ALT-F4 or something that kills this window...
     shell.addShellListener( new ShellAdapter() {
@@ -173,14 +525,186 @@ public class OpcUaDialog extends BaseStepDialog implements StepDialogInterface {
     return stepname;
   }
 
+  private Button addCheckbox( String labelKey, Control lastControl ) {
+    int middle = props.getMiddlePct();
+    int margin = Const.MARGIN;
+
+    Label wlCheckbox = new Label( shell, SWT.RIGHT );
+    wlCheckbox.setText( BaseMessages.getString( PKG, labelKey ) );
+    props.setLook( wlCheckbox );
+    FormData fdlCheckbox = new FormData();
+    fdlCheckbox.left = new FormAttachment( 0, 0 );
+    fdlCheckbox.right = new FormAttachment( middle, -margin );
+    fdlCheckbox.top = new FormAttachment( lastControl, margin );
+    wlCheckbox.setLayoutData( fdlCheckbox );
+    Button wCheckbox = new Button( shell, SWT.CHECK );
+    props.setLook( wCheckbox );
+    FormData fdCheckbox = new FormData();
+    fdCheckbox.left = new FormAttachment( middle, 0 );
+    fdCheckbox.top = new FormAttachment( lastControl, margin );
+    fdCheckbox.right = new FormAttachment( 100, 0 );
+    wCheckbox.setLayoutData( fdCheckbox );
+    return wCheckbox;
+  }
+
   private void getData() {
 
     wServer.setText( Const.NVL(input.getOpcUaConnectionName(), ""));
+    wReadMode.setText( input.getReadMode().getDescription() );
+    wOutputLayout.setText( input.getOutputLayout().getDescription() );
+    wTimestampFormat.setText( input.getTimestampFormat().getDescription() );
+    wIncludeSourceTimestamp.setSelection( input.isIncludeSourceTimestamp() );
+    wIncludeServerTimestamp.setSelection( input.isIncludeServerTimestamp() );
+    wIncludePicoseconds.setSelection( input.isIncludePicoseconds() );
+    wIncludeStatusCode.setSelection( input.isIncludeStatusCode() );
+    wIncludeStatusDetails.setSelection( input.isIncludeStatusDetails() );
+    wPublishingInterval.setText( Const.NVL( input.getPublishingInterval(), "" ) );
+    wSamplingInterval.setText( Const.NVL( input.getSamplingInterval(), "" ) );
+    wPollInterval.setText( Const.NVL( input.getPollInterval(), "" ) );
+    wQueueSize.setText( Const.NVL( input.getQueueSize(), "" ) );
+    wQueuePolicy.setText( input.getQueuePolicy().getDescription() );
+
+    for ( int i = 0; i < input.getGroups().size(); i++ ) {
+      OpcUaTagGroup group = input.getGroups().get( i );
+      TableItem item = wGroups.table.getItem( i );
+      item.setText( 1, Const.NVL( group.getName(), "" ) );
+      item.setText( 2, Const.NVL( group.getInterval(), "" ) );
+      item.setText( 3, Const.NVL( group.getSamplingInterval(), "" ) );
+      item.setText( 4, Const.NVL( group.getQueueSize(), "" ) );
+      item.setText( 5, Const.NVL( group.getTrigger(), "" ) );
+      item.setText( 6, Const.NVL( group.getDeadbandType(), "" ) );
+      item.setText( 7, Const.NVL( group.getDeadband(), "" ) );
+    }
+    wGroups.removeEmptyRows();
+    wGroups.setRowNums();
+    wGroups.optWidth( true );
+    wMaxNodesPerRead.setText( Const.NVL( input.getMaxNodesPerRead(), "" ) );
+    wMaxRequestsInFlight.setText( Const.NVL( input.getMaxRequestsInFlight(), "" ) );
+    wTagPartitioning.setText( input.getTagPartitioning().getDescription() );
+
+    for ( int i = 0; i < input.getTags().size(); i++ ) {
+      OpcUaTag tag = input.getTags().get( i );
+      TableItem item = wTags.table.getItem( i );
+      item.setText( 1, Const.NVL( tag.getNodeId(), "" ) );
+      item.setText( 2, Const.NVL( tag.getName(), "" ) );
+      item.setText( 3, Const.NVL( tag.getDataType(), "" ) );
+      item.setText( 4, Const.NVL( tag.getGroup(), "" ) );
+    }
+    wTags.removeEmptyRows();
+    wTags.setRowNums();
+    wTags.optWidth( true );
 
     wStepname.selectAll();
     wStepname.setFocus();
   }
 
+  /**
+   * Let the user pick variables from the local node index of the server, building the index if needed.
+   *
+   * @param rebuild true to crawl the server again even if there is an index already
+   */
+  private void getTags( boolean rebuild ) {
+    String connectionName = transMeta.environmentSubstitute( wServer.getText() );
+    String title = BaseMessages.getString( PKG, "OpcUaDialog.GetTags.Title" );
+    try {
+      OpcUaConnection connection = OpcUaUtil.getFactory( metaStore ).loadElement( connectionName );
+      if ( connection == null ) {
+        MessageBox box = new MessageBox( shell, SWT.ICON_ERROR | SWT.OK );
+        box.setText( title );
+        box.setMessage( BaseMessages.getString( PKG, "OpcUaDialog.GetTags.NoConnection", connectionName ) );
+        box.open();
+        return;
+      }
+
+      String filter = new EnterStringDialog( shell, "", title, BaseMessages.getString( PKG, "OpcUaDialog.GetTags.Filter" ) ).open();
+      if ( filter == null ) {
+        return;
+      }
+
+      List<OpcUaNodeIndex.IndexedNode> nodes;
+      try ( OpcUaNodeIndex index = openIndex( connection, connectionName, rebuild ) ) {
+        if ( Const.isEmpty( filter ) ) {
+          nodes = index.findByPrefix( "" );
+        } else if ( filter.startsWith( "/" ) && !filter.matches( ".*[\\\\\\[\\]().*+?^$|{}].*" ) ) {
+          nodes = index.findByPrefix( filter );
+        } else {
+          nodes = index.findByRegex( filter );
+        }
+      }
+
+      List<OpcUaNodeIndex.IndexedNode> variables = new ArrayList<>();
+      for ( OpcUaNodeIndex.IndexedNode node : nodes ) {
+        if ( node.isVariable() ) {
+          variables.add( node );
+        }
+      }
+      String[] paths = new String[ variables.size() ];
+      for ( int i = 0; i < paths.length; i++ ) {
+        paths[ i ] = variables.get( i ).getBrowsePath();
+      }
+
+      EnterSelectionDialog dialog = new EnterSelectionDialog( shell, paths, title, BaseMessages.getString( PKG, "OpcUaDialog.GetTags.Select" ) );
+      dialog.setMulti( true );
+      if ( dialog.open() == null ) {
+        return;
+      }
+      for ( int index : dialog.getSelectionIndeces() ) {
+        OpcUaNodeIndex.IndexedNode node = variables.get( index );
+        TableItem item = new TableItem( wTags.table, SWT.NONE );
+        item.setText( 1, node.getNodeId() );
+        item.setText( 2, node.getBrowsePath() );
+        item.setText( 3, Const.NVL( node.getDataType(), "" ) );
+      }
+      wTags.removeEmptyRows();
+      wTags.setRowNums();
+      wTags.optWidth( true );
+    } catch ( Exception e ) {
+      new ErrorDialog( shell, title, BaseMessages.getString( PKG, "OpcUaDialog.GetTags.Error", connectionName ), e );
+    }
+  }
+
+  /**
+   * Open the index of the server in the background while showing progress.
+   * The existing index is kept as long as the server's stamp didn't change, otherwise the server is crawled again.
+   * When the server can't be reached the existing index is used as is.
+   */
+  private OpcUaNodeIndex openIndex( OpcUaConnection connection, String connectionName, boolean rebuild ) throws Exception {
+    File file = OpcUaNodeIndex.getIndexFile( connectionName );
+    String url = transMeta.environmentSubstitute( connection.getUrl() );
+    ClientKeyStore keyStore = connection.getClientKeyStore( transMeta );
+    AtomicReference<OpcUaNodeIndex> index = new AtomicReference<>();
+    try {
+      new ProgressMonitorDialog( shell ).run( true, false, monitor -> {
+        monitor.beginTask( BaseMessages.getString( PKG, "OpcUaDialog.RebuildIndex.Progress", connectionName ), IProgressMonitor.UNKNOWN );
+        try {
+          OpcUaClient client;
+          try {
+            client = OpcUaSessionPool.getInstance().borrow( LogChannel.UI, url, SecurityPolicy.None, new AnonymousProvider(), keyStore );
+          } catch ( KettleException e ) {
+            if ( rebuild || !file.exists() ) {
+              throw e;
+            }
+            LogChannel.UI.logBasic( "Unable to check the node index of OPC UA server '" + connectionName + "', using the existing one : " + e.getMessage() );
+            index.set( OpcUaNodeIndex.open( file ) );
+            return;
+          }
+          try {
+            index.set( rebuild ? OpcUaNodeIndex.build( client, file ) : OpcUaNodeIndex.openOrBuild( client, file ) );
+          } finally {
+            OpcUaSessionPool.getInstance().release( client );
+          }
+        } catch ( Exception e ) {
+          throw new InvocationTargetException( e );
+        } finally {
+          monitor.done();
+        }
+      } );
+    } catch ( InvocationTargetException e ) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+    return index.get();
+  }
+
   private void cancel() {
     stepname = null;
     input.setChanged( changed );
@@ -197,6 +721,45 @@ public class OpcUaDialog extends BaseStepDialog implements StepDialogInterface {
     input.setChanged();
 
     input.setOpcUaConnectionName( wServer.getText() );
+    input.setReadMode( OpcUaReadMode.getModeForDescription( wReadMode.getText() ) );
+    input.setOutputLayout( OpcUaOutputLayout.getLayoutForDescription( wOutputLayout.getText() ) );
+    input.setTimestampFormat( OpcUaTimestampFormat.getFormatForDescription( wTimestampFormat.getText() ) );
+    input.setIncludeSourceTimestamp( wIncludeSourceTimestamp.getSelection() );
+    input.setIncludeServerTimestamp( wIncludeServerTimestamp.getSelection() );
+    input.setIncludePicoseconds( wIncludePicoseconds.getSelection() );
+    input.setIncludeStatusCode( wIncludeStatusCode.getSelection() );
+    input.setIncludeStatusDetails( wIncludeStatusDetails.getSelection() );
+    input.setPublishingInterval( wPublishingInterval.getText() );
+    input.setSamplingInterval( wSamplingInterval.getText() );
+    input.setPollInterval( wPollInterval.getText() );
+    input.setQueueSize( wQueueSize.getText() );
+    input.setQueuePolicy( OpcUaHandoffQueue.Policy.getPolicyForDescription( wQueuePolicy.getText() ) );
+
+    List<OpcUaTagGroup> groups = new ArrayList<>();
+    for ( int i = 0; i < wGroups.nrNonEmpty(); i++ ) {
+      TableItem item = wGroups.getNonEmpty( i );
+      OpcUaTagGroup group = new OpcUaTagGroup( item.getText( 1 ), item.getText( 2 ) );
+      group.setSamplingInterval( item.getText( 3 ) );
+      group.setQueueSize( item.getText( 4 ) );
+      group.setTrigger( item.getText( 5 ) );
+      group.setDeadbandType( item.getText( 6 ) );
+      group.setDeadband( item.getText( 7 ) );
+      groups.add( group );
+    }
+    input.setGroups( groups );
+    input.setMaxNodesPerRead( wMaxNodesPerRead.getText() );
+    input.setMaxRequestsInFlight( wMaxRequestsInFlight.getText() );
+    input.setTagPartitioning( OpcUaTagPartitioning.getPartitioningForDescription( wTagPartitioning.getText() ) );
+
+    List<OpcUaTag> tags = new ArrayList<>();
+    for ( int i = 0; i < wTags.nrNonEmpty(); i++ ) {
+      TableItem item = wTags.getNonEmpty( i );
+      OpcUaTag tag = new OpcUaTag( item.getText( 1 ), item.getText( 2 ) );
+      tag.setDataType( Const.isEmpty( item.getText( 3 ) ) ? null : item.getText( 3 ) );
+      tag.setGroup( Const.isEmpty( item.getText( 4 ) ) ? null : item.getText( 4 ) );
+      tags.add( tag );
+    }
+    input.setTags( tags );
 
     dispose();
   }
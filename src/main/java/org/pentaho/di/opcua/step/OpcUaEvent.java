@@ -0,0 +1,382 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.FilterOperator;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.ContentFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.ContentFilterElement;
+import org.eclipse.milo.opcua.stack.core.types.structured.ElementOperand;
+import org.eclipse.milo.opcua.stack.core.types.structured.EventFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.LiteralOperand;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.SimpleAttributeOperand;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.opcua.util.OpcUaHandoffQueue;
+import org.pentaho.di.opcua.util.OpcUaSessionSupervisor;
+import org.pentaho.di.opcua.util.OpcUaUtil;
+import org.pentaho.di.opcua.util.OpcUaValueMapper;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+
+/**
+ * Streams the events of an OPC UA server, alarms and conditions included, until the transformation is stopped.
+ * An event monitored item selects the configured fields. The server filters the events with the where clause
+ * so that only the events we keep cross the wire. Events are handed to the step thread through a bounded queue.
+ */
+public class OpcUaEvent extends BaseOpcUaStep implements StepInterface {
+
+  public OpcUaEvent( StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr,
+                     TransMeta transMeta, Trans trans ) {
+    super( stepMeta, stepDataInterface, copyNr, transMeta, trans );
+  }
+
+  @Override
+  public boolean init( StepMetaInterface smi, StepDataInterface sdi ) {
+    OpcUaEventData data = (OpcUaEventData) sdi;
+
+    data.connection = null;
+
+    return super.init( smi, sdi );
+  }
+
+  @Override
+  public boolean processRow( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
+    OpcUaEventMeta meta = (OpcUaEventMeta) smi;
+    OpcUaEventData data = (OpcUaEventData) sdi;
+
+    if ( first ) {
+      first = false;
+
+      // Every copy would receive the same events, only the first one subscribes
+      //
+      if ( getCopy() > 0 ) {
+        logBasic( "Only the first step copy receives events" );
+        setOutputDone();
+        return false;
+      }
+
+      data.outputRowMeta = new RowMeta();
+      meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, metaStore );
+      data.valueTypes = new int[ meta.getFields().size() ];
+      for ( int i = 0; i < data.valueTypes.length; i++ ) {
+        data.valueTypes[ i ] = OpcUaEventMeta.getValueType( meta.getFields().get( i ) );
+      }
+
+      String connectionName = environmentSubstitute( meta.getOpcUaConnectionName() );
+      try {
+        data.store = getAMetaStore();
+      } catch ( Exception e ) {
+        throw new KettleException( "Unable to connect to OPC UA server '" + connectionName + "'", e );
+      }
+      data.connection = loadConnection( data.store, connectionName );
+      data.client = borrowClient( data.connection );
+
+      createSubscription( meta, data );
+    }
+
+    Variant[] values = data.events.poll( 100, TimeUnit.MILLISECONDS );
+    if ( Thread.currentThread().isInterrupted() ) {
+      setOutputDone();
+      return false;
+    }
+    if ( values == null ) {
+      // No events, wait some more
+      //
+      return true;
+    }
+
+    Object[] row = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
+    for ( int i = 0; i < data.valueTypes.length && i < values.length; i++ ) {
+      Object value = values[ i ] == null ? null : values[ i ].getValue();
+      row[ i ] = OpcUaValueMapper.convert( value, data.valueTypes[ i ] );
+    }
+    putRow( data.outputRowMeta, row );
+    return true;
+  }
+
+  /**
+   * Create a subscription with an event monitored item on the notifier.
+   * Events are put on the queue by the Milo notification threads.
+   * The session supervisor creates the subscription again if the server lost it during a reconnect.
+   */
+  private void createSubscription( OpcUaEventMeta meta, OpcUaEventData data ) throws KettleException {
+    double publishingInterval = Const.toDouble( environmentSubstitute( meta.getPublishingInterval() ), 1000.0 );
+    int queueSize = Const.toInt( environmentSubstitute( meta.getQueueSize() ), 10000 );
+    logDetailed( "Queueing at most " + queueSize + " events, policy: " + meta.getQueuePolicy().getDescription() );
+
+    // Events have no key to coalesce on: with COALESCE only the last event waiting is kept
+    //
+    data.events = new OpcUaHandoffQueue<>( queueSize, meta.getQueuePolicy(), 1 );
+    metrics.setQueue( data.events );
+
+    NodeId notifierId = parseNodeId( environmentSubstitute( Const.NVL( meta.getNotifierId(), "i=2253" ) ) );
+    EventFilter filter = new EventFilter( createSelectClauses( meta ), createWhereClause( meta, this ) );
+    MonitoringParameters parameters = new MonitoringParameters( uint( 0 ), 0.0, ExtensionObject.encode( filter ),
+      uint( Math.min( queueSize, 10000 ) ), true );
+
+    data.subscription = subscribe( data, publishingInterval, notifierId, parameters );
+
+    data.supervisor = new OpcUaSessionSupervisor( log, data.client,
+      () -> subscribe( data, publishingInterval, notifierId, parameters ) );
+    data.supervisor.start( data.subscription, "OPC UA supervisor " + getStepname() + "." + getCopy() );
+    metrics.setSupervisor( data.supervisor );
+  }
+
+  private UaSubscription subscribe( OpcUaEventData data, double publishingInterval, NodeId notifierId,
+                                    MonitoringParameters parameters ) throws KettleException {
+    UaSubscription subscription = null;
+    try {
+      subscription = OpcUaUtil.createSubscription( data.client, publishingInterval );
+
+      ReadValueId readValueId = new ReadValueId( notifierId, AttributeId.EventNotifier.uid(), null, QualifiedName.NULL_VALUE );
+      MonitoredItemCreateRequest request = new MonitoredItemCreateRequest( readValueId, MonitoringMode.Reporting, parameters );
+
+      List<UaMonitoredItem> items = subscription.createMonitoredItems( TimestampsToReturn.Neither,
+        Collections.singletonList( request ),
+        ( item, index ) -> item.setEventConsumer( values -> {
+          metrics.recordNotification();
+          data.events.offer( 0, values );
+        } )
+      ).get();
+
+      if ( items.get( 0 ).getStatusCode().isBad() ) {
+        throw new KettleException( "Unable to monitor the events of node '" + notifierId.toParseableString() + "' : "
+          + items.get( 0 ).getStatusCode() );
+      }
+      return subscription;
+    } catch ( Exception e ) {
+      if ( subscription != null ) {
+        data.client.getSubscriptionManager().deleteSubscription( subscription.getSubscriptionId() );
+      }
+      if ( e instanceof KettleException ) {
+        throw (KettleException) e;
+      }
+      throw new KettleException( "Unable to create event subscription on server '" + data.connection.getName() + "'", e );
+    }
+  }
+
+  private SimpleAttributeOperand[] createSelectClauses( OpcUaEventMeta meta ) throws KettleException {
+    List<OpcUaEventField> fields = meta.getFields();
+    SimpleAttributeOperand[] selectClauses = new SimpleAttributeOperand[ fields.size() ];
+    for ( int i = 0; i < selectClauses.length; i++ ) {
+      OpcUaEventField field = fields.get( i );
+      String browsePath = environmentSubstitute( field.getBrowsePath() );
+      String eventType = environmentSubstitute( field.getEventType() );
+      if ( Const.isEmpty( browsePath ) ) {
+        // The node ID of the condition itself: ConditionId
+        //
+        NodeId typeId = Const.isEmpty( eventType ) ? Identifiers.ConditionType : parseNodeId( eventType );
+        selectClauses[ i ] = new SimpleAttributeOperand( typeId, new QualifiedName[ 0 ], AttributeId.NodeId.uid(), null );
+      } else {
+        NodeId typeId = Const.isEmpty( eventType ) ? Identifiers.BaseEventType : parseNodeId( eventType );
+        selectClauses[ i ] = new SimpleAttributeOperand( typeId, parseBrowsePath( browsePath ), AttributeId.Value.uid(), null );
+      }
+    }
+    return selectClauses;
+  }
+
+  /**
+   * All the conditions of the step combined with And.
+   * The event type and minimum severity are the usual ones, the condition list can compare any BaseEventType field.
+   *
+   * @param space The variables to substitute in the settings of the step
+   * @return The where clause or null to receive all events
+   */
+  static ContentFilter createWhereClause( OpcUaEventMeta meta, VariableSpace space ) throws KettleException {
+    List<ContentFilterElement> conditions = new ArrayList<>();
+
+    String eventType = space.environmentSubstitute( meta.getEventType() );
+    if ( !Const.isEmpty( eventType ) ) {
+      conditions.add( new ContentFilterElement( FilterOperator.OfType, new ExtensionObject[] {
+        ExtensionObject.encode( new LiteralOperand( new Variant( parseNodeId( eventType ) ) ) ) } ) );
+    }
+    String minimumSeverity = space.environmentSubstitute( meta.getMinimumSeverity() );
+    if ( !Const.isEmpty( minimumSeverity ) ) {
+      int severity = Const.toInt( minimumSeverity, -1 );
+      if ( severity < 1 || severity > 1000 ) {
+        throw new KettleException( "The minimum severity needs to be between 1 and 1000, not '" + minimumSeverity + "'" );
+      }
+      conditions.add( new ContentFilterElement( FilterOperator.GreaterThanOrEqual, new ExtensionObject[] {
+        ExtensionObject.encode( createFieldOperand( "Severity" ) ),
+        ExtensionObject.encode( new LiteralOperand( new Variant( ushort( severity ) ) ) ) } ) );
+    }
+    for ( OpcUaEventCondition condition : meta.getConditions() ) {
+      String operatorName = space.environmentSubstitute( condition.getOperator() );
+      FilterOperator operator = null;
+      for ( FilterOperator value : FilterOperator.values() ) {
+        if ( value.name().equalsIgnoreCase( operatorName ) ) {
+          operator = value;
+        }
+      }
+      if ( operator == null ) {
+        throw new KettleException( "Unknown filter operator '" + operatorName + "'" );
+      }
+      ExtensionObject field = ExtensionObject.encode( createFieldOperand( space.environmentSubstitute( condition.getBrowsePath() ) ) );
+      if ( operator == FilterOperator.IsNull ) {
+        conditions.add( new ContentFilterElement( operator, new ExtensionObject[] { field } ) );
+      } else {
+        Object literal = parseLiteral( space.environmentSubstitute( condition.getValue() ) );
+        conditions.add( new ContentFilterElement( operator, new ExtensionObject[] {
+          field, ExtensionObject.encode( new LiteralOperand( new Variant( literal ) ) ) } ) );
+      }
+    }
+
+    if ( conditions.isEmpty() ) {
+      return null;
+    }
+
+    // The server evaluates the first element. With n conditions, elements 0 to n-2 chain them with And
+    // and the conditions themselves follow.
+    //
+    int n = conditions.size();
+    List<ContentFilterElement> elements = new ArrayList<>();
+    for ( int i = 0; i < n - 1; i++ ) {
+      int next = ( i == n - 2 ) ? n + i : i + 1;
+      elements.add( new ContentFilterElement( FilterOperator.And, new ExtensionObject[] {
+        ExtensionObject.encode( new ElementOperand( uint( n - 1 + i ) ) ),
+        ExtensionObject.encode( new ElementOperand( uint( next ) ) ) } ) );
+    }
+    elements.addAll( conditions );
+    return new ContentFilter( elements.toArray( new ContentFilterElement[ 0 ] ) );
+  }
+
+  private static SimpleAttributeOperand createFieldOperand( String browsePath ) throws KettleException {
+    return new SimpleAttributeOperand( Identifiers.BaseEventType, parseBrowsePath( browsePath ), AttributeId.Value.uid(), null );
+  }
+
+  /**
+   * @param browsePath browse names separated by '/', prefixed with "ns:" outside of namespace 0
+   */
+  private static QualifiedName[] parseBrowsePath( String browsePath ) throws KettleException {
+    if ( Const.isEmpty( browsePath ) ) {
+      throw new KettleException( "Please specify the browse path of the event field" );
+    }
+    String[] names = browsePath.split( "/" );
+    QualifiedName[] path = new QualifiedName[ names.length ];
+    for ( int i = 0; i < names.length; i++ ) {
+      String name = names[ i ].trim();
+      int colon = name.indexOf( ':' );
+      int namespaceIndex = colon > 0 ? Const.toInt( name.substring( 0, colon ), -1 ) : 0;
+      if ( namespaceIndex < 0 ) {
+        // Not a namespace prefix, the colon is part of the name
+        //
+        path[ i ] = new QualifiedName( 0, name );
+      } else {
+        path[ i ] = new QualifiedName( namespaceIndex, colon > 0 ? name.substring( colon + 1 ) : name );
+      }
+    }
+    return path;
+  }
+
+  /**
+   * The server converts the literal to the type of the field: we only need to pick a type which converts well.
+   */
+  private static Object parseLiteral( String value ) {
+    if ( value == null ) {
+      return null;
+    }
+    if ( "true".equalsIgnoreCase( value ) || "false".equalsIgnoreCase( value ) ) {
+      return Boolean.valueOf( value );
+    }
+    try {
+      return Long.valueOf( value );
+    } catch ( NumberFormatException e ) {
+      // Not an integer
+    }
+    try {
+      return Double.valueOf( value );
+    } catch ( NumberFormatException e ) {
+      // Not a number
+    }
+    return value;
+  }
+
+  private static NodeId parseNodeId( String nodeIdString ) throws KettleException {
+    try {
+      return NodeId.parse( nodeIdString );
+    } catch ( Exception e ) {
+      throw new KettleException( "Invalid node ID '" + nodeIdString + "'", e );
+    }
+  }
+
+  @Override public void dispose( StepMetaInterface smi, StepDataInterface sdi ) {
+    OpcUaEventData data = (OpcUaEventData) sdi;
+
+    if ( data.supervisor != null ) {
+      data.supervisor.stop();
+      data.subscription = data.supervisor.getSubscription();
+      logBasic( "Reconnected " + data.supervisor.getNrReconnects() + " times, longest gap " + data.supervisor.getMaxGap()
+        + "ms, total gap " + data.supervisor.getTotalGap() + "ms, subscribed again " + data.supervisor.getNrResubscribes()
+        + " times, notifications lost " + data.supervisor.getNrDataLost() + " times" );
+      data.supervisor = null;
+    }
+
+    // Release the OPC UA threads which are waiting for room in the queue
+    //
+    if ( data.events != null ) {
+      data.events.close();
+      logBasic( "Received " + data.events.getNrOffered() + " events: " + data.events.getNrDropped() + " dropped, "
+        + data.events.getNrCoalesced() + " coalesced, waited for room " + data.events.getNrBlocked() + " times" );
+    }
+    if ( data.subscription != null ) {
+      try {
+        data.client.getSubscriptionManager().deleteSubscription( data.subscription.getSubscriptionId() ).get();
+      } catch ( Exception e ) {
+        log.logError( "Error deleting subscription", e );
+      }
+      data.subscription = null;
+    }
+    releaseClient( data.client );
+    data.client = null;
+    super.dispose( smi, sdi );
+  }
+}
@@ -0,0 +1,80 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+/**
+ * A condition of the where clause of the event filter: the server only sends the events which match all conditions.
+ */
+public class OpcUaEventCondition {
+
+  /**
+   * The browse path of the BaseEventType field to compare, see {@link OpcUaEventField#getBrowsePath()}
+   */
+  private String browsePath;
+
+  /**
+   * The name of the OPC UA FilterOperator: Equals, GreaterThan, LessThan, GreaterThanOrEqual, LessThanOrEqual, Like, IsNull
+   */
+  private String operator;
+
+  private String value;
+
+  public OpcUaEventCondition() {
+  }
+
+  public OpcUaEventCondition( String browsePath, String operator, String value ) {
+    this();
+    this.browsePath = browsePath;
+    this.operator = operator;
+    this.value = value;
+  }
+
+  public OpcUaEventCondition( OpcUaEventCondition condition ) {
+    this( condition.browsePath, condition.operator, condition.value );
+  }
+
+  public String getBrowsePath() {
+    return browsePath;
+  }
+
+  public void setBrowsePath( String browsePath ) {
+    this.browsePath = browsePath;
+  }
+
+  public String getOperator() {
+    return operator;
+  }
+
+  public void setOperator( String operator ) {
+    this.operator = operator;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  public void setValue( String value ) {
+    this.value = value;
+  }
+}
@@ -0,0 +1,61 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.opcua.connection.OpcUaConnection;
+import org.pentaho.di.opcua.util.OpcUaHandoffQueue;
+import org.pentaho.di.opcua.util.OpcUaSessionSupervisor;
+import org.pentaho.di.trans.step.BaseStepData;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.metastore.api.IMetaStore;
+
+public class OpcUaEventData extends BaseStepData implements StepDataInterface {
+
+  public OpcUaConnection connection;
+
+  public IMetaStore store;
+  public RowMetaInterface outputRowMeta;
+  public OpcUaClient client;
+
+  /**
+   * The Kettle type of every selected event field
+   */
+  public int[] valueTypes;
+
+  /**
+   * Owned by the supervisor while it runs, taken back once that is stopped
+   */
+  public volatile UaSubscription subscription;
+
+  public OpcUaSessionSupervisor supervisor;
+
+  /**
+   * The values of the selected fields of every event, in the order of the select clauses
+   */
+  public OpcUaHandoffQueue<Variant[]> events;
+}
@@ -0,0 +1,390 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CCombo;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.events.ShellAdapter;
+import org.eclipse.swt.events.ShellEvent;
+import org.eclipse.swt.layout.FormAttachment;
+import org.eclipse.swt.layout.FormData;
+import org.eclipse.swt.layout.FormLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.opcua.util.OpcUaHandoffQueue;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.ui.core.widget.ColumnInfo;
+import org.pentaho.di.ui.core.widget.ComboVar;
+import org.pentaho.di.ui.core.widget.TableView;
+import org.pentaho.di.ui.core.widget.TextVar;
+import org.pentaho.di.ui.trans.step.BaseStepDialog;
+
+public class OpcUaEventDialog extends BaseStepDialog implements StepDialogInterface {
+
+  private static Class<?> PKG = OpcUaEventDialog.class; // i18n
+
+  private static final String[] OPERATORS = new String[] {
+    "Equals", "GreaterThan", "LessThan", "GreaterThanOrEqual", "LessThanOrEqual", "Like", "IsNull" };
+
+  private OpcUaEventMeta input;
+
+  private ComboVar wServer;
+  private TextVar wNotifierId;
+  private TextVar wEventType;
+  private TextVar wMinimumSeverity;
+  private TextVar wPublishingInterval;
+  private TextVar wQueueSize;
+  private CCombo wQueuePolicy;
+  private TableView wFields;
+  private TableView wConditions;
+
+  private int middle;
+  private int margin;
+
+  public OpcUaEventDialog( Shell parent, Object baseStepMeta, TransMeta transMeta, String stepname ) {
+    super( parent, (BaseStepMeta) baseStepMeta, transMeta, stepname );
+
+    input = (OpcUaEventMeta) baseStepMeta;
+  }
+
+  @Override
+  public String open() {
+
+    Shell parent = getParent();
+    Display display = parent.getDisplay();
+
+    shell = new Shell( parent, SWT.DIALOG_TRIM | SWT.RESIZE | SWT.MIN | SWT.MAX );
+    props.setLook( shell );
+    setShellImage( shell, input );
+
+    FormLayout formLayout = new FormLayout();
+    formLayout.marginWidth = Const.FORM_MARGIN;
+    formLayout.marginHeight = Const.FORM_MARGIN;
+
+    shell.setLayout( formLayout );
+    shell.setText( BaseMessages.getString( PKG, "OpcUaEventDialog.Shell.Title" ) );
+
+    middle = props.getMiddlePct();
+    margin = Const.MARGIN;
+
+    // Step name...
+    //
+    wlStepname = new Label( shell, SWT.RIGHT );
+    wlStepname.setText( BaseMessages.getString( PKG, "OpcUaDialog.Stepname.Label" ) );
+    props.setLook( wlStepname );
+    fdlStepname = new FormData();
+    fdlStepname.left = new FormAttachment( 0, 0 );
+    fdlStepname.right = new FormAttachment( middle, -margin );
+    fdlStepname.top = new FormAttachment( 0, margin );
+    wlStepname.setLayoutData( fdlStepname );
+    wStepname = new Text( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wStepname.setText( stepname );
+    props.setLook( wStepname );
+    fdStepname = new FormData();
+    fdStepname.left = new FormAttachment( middle, 0 );
+    fdStepname.top = new FormAttachment( 0, margin );
+    fdStepname.right = new FormAttachment( 100, 0 );
+    wStepname.setLayoutData( fdStepname );
+    Control lastControl = wStepname;
+
+    // The OPC UA server
+    //
+    Label wlServer = new Label( shell, SWT.RIGHT );
+    wlServer.setText( BaseMessages.getString( PKG, "OpcUaDialog.Server.Label" ) );
+    props.setLook( wlServer );
+    FormData fdlServer = new FormData();
+    fdlServer.left = new FormAttachment( 0, 0 );
+    fdlServer.right = new FormAttachment( middle, -margin );
+    fdlServer.top = new FormAttachment( lastControl, margin );
+    wlServer.setLayoutData( fdlServer );
+    wServer = new ComboVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wServer );
+    FormData fdServer = new FormData();
+    fdServer.left = new FormAttachment( middle, 0 );
+    fdServer.top = new FormAttachment( lastControl, margin );
+    fdServer.right = new FormAttachment( 100, 0 );
+    wServer.setLayoutData( fdServer );
+    lastControl = wServer;
+
+    wNotifierId = addTextVar( "OpcUaEventDialog.NotifierId.Label", lastControl );
+    wNotifierId.setToolTipText( BaseMessages.getString( PKG, "OpcUaEventDialog.NotifierId.Tooltip" ) );
+    lastControl = wNotifierId;
+    wEventType = addTextVar( "OpcUaEventDialog.EventType.Label", lastControl );
+    wEventType.setToolTipText( BaseMessages.getString( PKG, "OpcUaEventDialog.EventType.Tooltip" ) );
+    lastControl = wEventType;
+    wMinimumSeverity = addTextVar( "OpcUaEventDialog.MinimumSeverity.Label", lastControl );
+    lastControl = wMinimumSeverity;
+    wPublishingInterval = addTextVar( "OpcUaDialog.PublishingInterval.Label", lastControl );
+    lastControl = wPublishingInterval;
+    wQueueSize = addTextVar( "OpcUaEventDialog.QueueSize.Label", lastControl );
+    lastControl = wQueueSize;
+
+    Label wlQueuePolicy = new Label( shell, SWT.RIGHT );
+    wlQueuePolicy.setText( BaseMessages.getString( PKG, "OpcUaDialog.QueuePolicy.Label" ) );
+    props.setLook( wlQueuePolicy );
+    FormData fdlQueuePolicy = new FormData();
+    fdlQueuePolicy.left = new FormAttachment( 0, 0 );
+    fdlQueuePolicy.right = new FormAttachment( middle, -margin );
+    fdlQueuePolicy.top = new FormAttachment( lastControl, margin );
+    wlQueuePolicy.setLayoutData( fdlQueuePolicy );
+    wQueuePolicy = new CCombo( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER | SWT.READ_ONLY );
+    wQueuePolicy.setItems( OpcUaHandoffQueue.Policy.getDescriptions() );
+    props.setLook( wQueuePolicy );
+    FormData fdQueuePolicy = new FormData();
+    fdQueuePolicy.left = new FormAttachment( middle, 0 );
+    fdQueuePolicy.top = new FormAttachment( lastControl, margin );
+    fdQueuePolicy.right = new FormAttachment( 100, 0 );
+    wQueuePolicy.setLayoutData( fdQueuePolicy );
+    lastControl = wQueuePolicy;
+
+    // Some buttons
+    wOK = new Button( shell, SWT.PUSH );
+    wOK.setText( BaseMessages.getString( PKG, "System.Button.OK" ) );
+    wCancel = new Button( shell, SWT.PUSH );
+    wCancel.setText( BaseMessages.getString( PKG, "System.Button.Cancel" ) );
+    // Add listeners
+    lsCancel = new Listener() {
+      public void handleEvent( Event e ) {
+        cancel();
+      }
+    };
+    lsOK = new Listener() {
+      public void handleEvent( Event e ) {
+        ok();
+      }
+    };
+
+    wCancel.addListener( SWT.Selection, lsCancel );
+    wOK.addListener( SWT.Selection, lsOK );
+    setButtonPositions( new Button[] { wOK, wCancel }, margin, null );
+
+    // The where clause
+    //
+    Label wlConditions = new Label( shell, SWT.LEFT );
+    wlConditions.setText( BaseMessages.getString( PKG, "OpcUaEventDialog.Conditions.Label" ) );
+    props.setLook( wlConditions );
+    FormData fdlConditions = new FormData();
+    fdlConditions.left = new FormAttachment( 0, 0 );
+    fdlConditions.right = new FormAttachment( 100, 0 );
+    fdlConditions.top = new FormAttachment( lastControl, margin );
+    wlConditions.setLayoutData( fdlConditions );
+    lastControl = wlConditions;
+
+    ColumnInfo[] conditionColumns = new ColumnInfo[] {
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaEventDialog.Conditions.Column.BrowsePath" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaEventDialog.Conditions.Column.Operator" ), ColumnInfo.COLUMN_TYPE_CCOMBO,
+        OPERATORS, true ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaEventDialog.Conditions.Column.Value" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+    };
+    conditionColumns[ 2 ].setUsingVariables( true );
+
+    wConditions = new TableView( transMeta, shell, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, conditionColumns,
+      input.getConditions().size(), null, props );
+    props.setLook( wConditions );
+    FormData fdConditions = new FormData();
+    fdConditions.left = new FormAttachment( 0, 0 );
+    fdConditions.right = new FormAttachment( 100, 0 );
+    fdConditions.top = new FormAttachment( lastControl, margin );
+    fdConditions.bottom = new FormAttachment( lastControl, margin + 120 );
+    wConditions.setLayoutData( fdConditions );
+    lastControl = wConditions;
+
+    // The select clauses
+    //
+    Label wlFields = new Label( shell, SWT.LEFT );
+    wlFields.setText( BaseMessages.getString( PKG, "OpcUaEventDialog.Fields.Label" ) );
+    props.setLook( wlFields );
+    FormData fdlFields = new FormData();
+    fdlFields.left = new FormAttachment( 0, 0 );
+    fdlFields.right = new FormAttachment( 100, 0 );
+    fdlFields.top = new FormAttachment( lastControl, margin );
+    wlFields.setLayoutData( fdlFields );
+    lastControl = wlFields;
+
+    ColumnInfo[] fieldColumns = new ColumnInfo[] {
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaEventDialog.Fields.Column.Name" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaEventDialog.Fields.Column.EventType" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaEventDialog.Fields.Column.BrowsePath" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaEventDialog.Fields.Column.Type" ), ColumnInfo.COLUMN_TYPE_CCOMBO,
+        ValueMetaFactory.getValueMetaNames(), true ),
+    };
+
+    wFields = new TableView( transMeta, shell, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, fieldColumns,
+      input.getFields().size(), null, props );
+    props.setLook( wFields );
+    FormData fdFields = new FormData();
+    fdFields.left = new FormAttachment( 0, 0 );
+    fdFields.right = new FormAttachment( 100, 0 );
+    fdFields.top = new FormAttachment( lastControl, margin );
+    fdFields.bottom = new FormAttachment( wOK, -2 * margin );
+    wFields.setLayoutData( fdFields );
+
+    lsDef = new SelectionAdapter() {
+      public void widgetDefaultSelected( SelectionEvent e ) {
+        ok();
+      }
+    };
+
+    wServer.addSelectionListener( lsDef );
+    wNotifierId.addSelectionListener( lsDef );
+    wEventType.addSelectionListener( lsDef );
+    wMinimumSeverity.addSelectionListener( lsDef );
+    wPublishingInterval.addSelectionListener( lsDef );
+    wQueueSize.addSelectionListener( lsDef );
+
+    // Detect X or ALT-F4 or something that kills this window...
+    shell.addShellListener( new ShellAdapter() {
+      public void shellClosed( ShellEvent e ) {
+        cancel();
+      }
+    } );
+
+    // Set the shell size, based upon previous time...
+    setSize();
+
+    getData();
+    input.setChanged( changed );
+
+    shell.open();
+    while ( !shell.isDisposed() ) {
+      if ( !display.readAndDispatch() ) {
+        display.sleep();
+      }
+    }
+    return stepname;
+  }
+
+  private TextVar addTextVar( String labelKey, Control lastControl ) {
+    Label wlText = new Label( shell, SWT.RIGHT );
+    wlText.setText( BaseMessages.getString( PKG, labelKey ) );
+    props.setLook( wlText );
+    FormData fdlText = new FormData();
+    fdlText.left = new FormAttachment( 0, 0 );
+    fdlText.right = new FormAttachment( middle, -margin );
+    fdlText.top = new FormAttachment( lastControl, margin );
+    wlText.setLayoutData( fdlText );
+    TextVar wText = new TextVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wText );
+    FormData fdText = new FormData();
+    fdText.left = new FormAttachment( middle, 0 );
+    fdText.top = new FormAttachment( lastControl, margin );
+    fdText.right = new FormAttachment( 100, 0 );
+    wText.setLayoutData( fdText );
+    return wText;
+  }
+
+  private void getData() {
+
+    wServer.setText( Const.NVL( input.getOpcUaConnectionName(), "" ) );
+    wNotifierId.setText( Const.NVL( input.getNotifierId(), "" ) );
+    wEventType.setText( Const.NVL( input.getEventType(), "" ) );
+    wMinimumSeverity.setText( Const.NVL( input.getMinimumSeverity(), "" ) );
+    wPublishingInterval.setText( Const.NVL( input.getPublishingInterval(), "" ) );
+    wQueueSize.setText( Const.NVL( input.getQueueSize(), "" ) );
+    wQueuePolicy.setText( input.getQueuePolicy().getDescription() );
+
+    for ( int i = 0; i < input.getConditions().size(); i++ ) {
+      OpcUaEventCondition condition = input.getConditions().get( i );
+      TableItem item = wConditions.table.getItem( i );
+      item.setText( 1, Const.NVL( condition.getBrowsePath(), "" ) );
+      item.setText( 2, Const.NVL( condition.getOperator(), "" ) );
+      item.setText( 3, Const.NVL( condition.getValue(), "" ) );
+    }
+    wConditions.removeEmptyRows();
+    wConditions.setRowNums();
+    wConditions.optWidth( true );
+
+    for ( int i = 0; i < input.getFields().size(); i++ ) {
+      OpcUaEventField field = input.getFields().get( i );
+      TableItem item = wFields.table.getItem( i );
+      item.setText( 1, Const.NVL( field.getName(), "" ) );
+      item.setText( 2, Const.NVL( field.getEventType(), "" ) );
+      item.setText( 3, Const.NVL( field.getBrowsePath(), "" ) );
+      item.setText( 4, Const.NVL( field.getType(), "" ) );
+    }
+    wFields.removeEmptyRows();
+    wFields.setRowNums();
+    wFields.optWidth( true );
+
+    wStepname.selectAll();
+    wStepname.setFocus();
+  }
+
+  private void cancel() {
+    stepname = null;
+    input.setChanged( changed );
+    dispose();
+  }
+
+  private void ok() {
+    if ( Const.isEmpty( wStepname.getText() ) ) {
+      return;
+    }
+
+    stepname = wStepname.getText(); // return value
+
+    input.setChanged();
+
+    input.setOpcUaConnectionName( wServer.getText() );
+    input.setNotifierId( wNotifierId.getText() );
+    input.setEventType( wEventType.getText() );
+    input.setMinimumSeverity( wMinimumSeverity.getText() );
+    input.setPublishingInterval( wPublishingInterval.getText() );
+    input.setQueueSize( wQueueSize.getText() );
+    input.setQueuePolicy( OpcUaHandoffQueue.Policy.getPolicyForDescription( wQueuePolicy.getText() ) );
+
+    List<OpcUaEventCondition> conditions = new ArrayList<>();
+    for ( int i = 0; i < wConditions.nrNonEmpty(); i++ ) {
+      TableItem item = wConditions.getNonEmpty( i );
+      conditions.add( new OpcUaEventCondition( item.getText( 1 ), item.getText( 2 ), item.getText( 3 ) ) );
+    }
+    input.setConditions( conditions );
+
+    List<OpcUaEventField> fields = new ArrayList<>();
+    for ( int i = 0; i < wFields.nrNonEmpty(); i++ ) {
+      TableItem item = wFields.getNonEmpty( i );
+      fields.add( new OpcUaEventField( item.getText( 1 ), item.getText( 2 ), item.getText( 3 ), item.getText( 4 ) ) );
+    }
+    input.setFields( fields );
+
+    dispose();
+  }
+}
@@ -0,0 +1,96 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+/**
+ * A field of the events the event input step receives, selected with a select clause of the event filter.
+ */
+public class OpcUaEventField {
+
+  private String name;
+
+  /**
+   * The node ID of the event type which defines the field, empty for BaseEventType
+   */
+  private String eventType;
+
+  /**
+   * The browse names from the event type to the field separated by '/', for example "Severity" or "EnabledState/Id".
+   * Names outside of namespace 0 are prefixed with the namespace index: "2:MyField".
+   * An empty path selects the node ID of the condition (ConditionId).
+   */
+  private String browsePath;
+
+  /**
+   * The name of the Kettle value type of the field, String, Integer, Date, ...
+   */
+  private String type;
+
+  public OpcUaEventField() {
+  }
+
+  public OpcUaEventField( String name, String eventType, String browsePath, String type ) {
+    this();
+    this.name = name;
+    this.eventType = eventType;
+    this.browsePath = browsePath;
+    this.type = type;
+  }
+
+  public OpcUaEventField( OpcUaEventField field ) {
+    this( field.name, field.eventType, field.browsePath, field.type );
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName( String name ) {
+    this.name = name;
+  }
+
+  public String getEventType() {
+    return eventType;
+  }
+
+  public void setEventType( String eventType ) {
+    this.eventType = eventType;
+  }
+
+  public String getBrowsePath() {
+    return browsePath;
+  }
+
+  public void setBrowsePath( String browsePath ) {
+    this.browsePath = browsePath;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public void setType( String type ) {
+    this.type = type;
+  }
+}
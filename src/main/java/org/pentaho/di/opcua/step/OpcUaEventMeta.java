@@ -0,0 +1,413 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pentaho.di.core.annotations.Step;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.opcua.util.OpcUaHandoffQueue;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.metastore.api.IMetaStore;
+import org.w3c.dom.Node;
+
+@Step(
+  id = "OpcUaEventInput",
+  description = "Streams the events and alarms of an OPC UA server",
+  name = "OPC UA Event Input",
+  image = "ui/images/TIP.svg",
+  categoryDescription = "Input"
+)
+public class OpcUaEventMeta extends BaseStepMeta implements StepMetaInterface {
+
+  private static final String TAG_OPC_UA_CONNECTION = "opc_ua_connection";
+  private static final String TAG_NOTIFIER_ID = "notifier_id";
+  private static final String TAG_EVENT_TYPE = "event_type";
+  private static final String TAG_MINIMUM_SEVERITY = "minimum_severity";
+  private static final String TAG_PUBLISHING_INTERVAL = "publishing_interval";
+  private static final String TAG_QUEUE_SIZE = "queue_size";
+  private static final String TAG_QUEUE_POLICY = "queue_policy";
+  private static final String TAG_FIELDS = "fields";
+  private static final String TAG_FIELD = "field";
+  private static final String TAG_FIELD_NAME = "name";
+  private static final String TAG_FIELD_EVENT_TYPE = "event_type";
+  private static final String TAG_FIELD_BROWSE_PATH = "browse_path";
+  private static final String TAG_FIELD_TYPE = "type";
+  private static final String TAG_CONDITIONS = "conditions";
+  private static final String TAG_CONDITION = "condition";
+  private static final String TAG_CONDITION_BROWSE_PATH = "browse_path";
+  private static final String TAG_CONDITION_OPERATOR = "operator";
+  private static final String TAG_CONDITION_VALUE = "value";
+
+  private static final String REP_FIELD_NAME = "field_name";
+  private static final String REP_FIELD_EVENT_TYPE = "field_event_type";
+  private static final String REP_FIELD_BROWSE_PATH = "field_browse_path";
+  private static final String REP_FIELD_TYPE = "field_type";
+  private static final String REP_CONDITION_BROWSE_PATH = "condition_browse_path";
+  private static final String REP_CONDITION_OPERATOR = "condition_operator";
+  private static final String REP_CONDITION_VALUE = "condition_value";
+
+  private String opcUaConnectionName;
+
+  /**
+   * The node which reports the events, the Server object (i=2253) reports all events of the server
+   */
+  private String notifierId;
+
+  /**
+   * Only receive events of this type or its subtypes, empty for all events
+   */
+  private String eventType;
+
+  /**
+   * Only receive events with at least this severity (1-1000), empty for all events
+   */
+  private String minimumSeverity;
+
+  private String publishingInterval;
+
+  /**
+   * The maximum number of events waiting for the step in the queue between the OPC UA client and the step
+   */
+  private String queueSize;
+
+  /**
+   * What to do with new events when the queue is full
+   */
+  private OpcUaHandoffQueue.Policy queuePolicy;
+
+  /**
+   * The event fields to select, one output field each
+   */
+  private List<OpcUaEventField> fields;
+
+  /**
+   * Extra conditions of the where clause, evaluated by the server
+   */
+  private List<OpcUaEventCondition> conditions;
+
+  public OpcUaEventMeta() {
+    super();
+    fields = new ArrayList<>();
+    conditions = new ArrayList<>();
+    queuePolicy = OpcUaHandoffQueue.Policy.BLOCK;
+  }
+
+  @Override
+  public Object clone() {
+    OpcUaEventMeta meta = (OpcUaEventMeta) super.clone();
+    meta.fields = new ArrayList<>();
+    for ( OpcUaEventField field : fields ) {
+      meta.fields.add( new OpcUaEventField( field ) );
+    }
+    meta.conditions = new ArrayList<>();
+    for ( OpcUaEventCondition condition : conditions ) {
+      meta.conditions.add( new OpcUaEventCondition( condition ) );
+    }
+    return meta;
+  }
+
+  @Override
+  public void getFields( RowMetaInterface inputRowMeta, String name, RowMetaInterface[] info, StepMeta nextStep,
+                         VariableSpace space, Repository repository, IMetaStore metaStore ) throws KettleStepException {
+    inputRowMeta.clear();
+    for ( OpcUaEventField field : fields ) {
+      ValueMetaInterface valueMeta;
+      try {
+        valueMeta = ValueMetaFactory.createValueMeta( field.getName(), getValueType( field ) );
+      } catch ( Exception e ) {
+        throw new KettleStepException( "Unable to create output field '" + field.getName() + "'", e );
+      }
+      valueMeta.setOrigin( name );
+      inputRowMeta.addValueMeta( valueMeta );
+    }
+  }
+
+  /**
+   * @return The Kettle value type of the output field of an event field, String if none is set
+   */
+  public static int getValueType( OpcUaEventField field ) {
+    int type = ValueMetaFactory.getIdForValueMeta( field.getType() );
+    return type == ValueMetaInterface.TYPE_NONE ? ValueMetaInterface.TYPE_STRING : type;
+  }
+
+  @Override
+  public String getXML() throws KettleException {
+    StringBuilder xml = new StringBuilder();
+
+    xml.append( XMLHandler.addTagValue( TAG_OPC_UA_CONNECTION, opcUaConnectionName ) );
+    xml.append( XMLHandler.addTagValue( TAG_NOTIFIER_ID, notifierId ) );
+    xml.append( XMLHandler.addTagValue( TAG_EVENT_TYPE, eventType ) );
+    xml.append( XMLHandler.addTagValue( TAG_MINIMUM_SEVERITY, minimumSeverity ) );
+    xml.append( XMLHandler.addTagValue( TAG_PUBLISHING_INTERVAL, publishingInterval ) );
+    xml.append( XMLHandler.addTagValue( TAG_QUEUE_SIZE, queueSize ) );
+    xml.append( XMLHandler.addTagValue( TAG_QUEUE_POLICY, queuePolicy.name() ) );
+
+    xml.append( XMLHandler.openTag( TAG_FIELDS ) );
+    for ( OpcUaEventField field : fields ) {
+      xml.append( XMLHandler.openTag( TAG_FIELD ) );
+      xml.append( XMLHandler.addTagValue( TAG_FIELD_NAME, field.getName() ) );
+      xml.append( XMLHandler.addTagValue( TAG_FIELD_EVENT_TYPE, field.getEventType() ) );
+      xml.append( XMLHandler.addTagValue( TAG_FIELD_BROWSE_PATH, field.getBrowsePath() ) );
+      xml.append( XMLHandler.addTagValue( TAG_FIELD_TYPE, field.getType() ) );
+      xml.append( XMLHandler.closeTag( TAG_FIELD ) );
+    }
+    xml.append( XMLHandler.closeTag( TAG_FIELDS ) );
+
+    xml.append( XMLHandler.openTag( TAG_CONDITIONS ) );
+    for ( OpcUaEventCondition condition : conditions ) {
+      xml.append( XMLHandler.openTag( TAG_CONDITION ) );
+      xml.append( XMLHandler.addTagValue( TAG_CONDITION_BROWSE_PATH, condition.getBrowsePath() ) );
+      xml.append( XMLHandler.addTagValue( TAG_CONDITION_OPERATOR, condition.getOperator() ) );
+      xml.append( XMLHandler.addTagValue( TAG_CONDITION_VALUE, condition.getValue() ) );
+      xml.append( XMLHandler.closeTag( TAG_CONDITION ) );
+    }
+    xml.append( XMLHandler.closeTag( TAG_CONDITIONS ) );
+
+    return xml.toString();
+  }
+
+  @Override
+  public void loadXML( Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore ) throws KettleXMLException {
+    try {
+
+      opcUaConnectionName = XMLHandler.getTagValue( stepnode, TAG_OPC_UA_CONNECTION );
+      notifierId = XMLHandler.getTagValue( stepnode, TAG_NOTIFIER_ID );
+      eventType = XMLHandler.getTagValue( stepnode, TAG_EVENT_TYPE );
+      minimumSeverity = XMLHandler.getTagValue( stepnode, TAG_MINIMUM_SEVERITY );
+      publishingInterval = XMLHandler.getTagValue( stepnode, TAG_PUBLISHING_INTERVAL );
+      queueSize = XMLHandler.getTagValue( stepnode, TAG_QUEUE_SIZE );
+      queuePolicy = OpcUaHandoffQueue.Policy.getPolicyForCode( XMLHandler.getTagValue( stepnode, TAG_QUEUE_POLICY ) );
+
+      fields = new ArrayList<>();
+      Node fieldsNode = XMLHandler.getSubNode( stepnode, TAG_FIELDS );
+      for ( Node fieldNode : XMLHandler.getNodes( fieldsNode, TAG_FIELD ) ) {
+        fields.add( new OpcUaEventField(
+          XMLHandler.getTagValue( fieldNode, TAG_FIELD_NAME ),
+          XMLHandler.getTagValue( fieldNode, TAG_FIELD_EVENT_TYPE ),
+          XMLHandler.getTagValue( fieldNode, TAG_FIELD_BROWSE_PATH ),
+          XMLHandler.getTagValue( fieldNode, TAG_FIELD_TYPE )
+        ) );
+      }
+
+      conditions = new ArrayList<>();
+      Node conditionsNode = XMLHandler.getSubNode( stepnode, TAG_CONDITIONS );
+      for ( Node conditionNode : XMLHandler.getNodes( conditionsNode, TAG_CONDITION ) ) {
+        conditions.add( new OpcUaEventCondition(
+          XMLHandler.getTagValue( conditionNode, TAG_CONDITION_BROWSE_PATH ),
+          XMLHandler.getTagValue( conditionNode, TAG_CONDITION_OPERATOR ),
+          XMLHandler.getTagValue( conditionNode, TAG_CONDITION_VALUE )
+        ) );
+      }
+
+    } catch ( Exception e ) {
+      throw new KettleXMLException( "Unable to load OPC UA event input step details", e );
+    }
+  }
+
+  @Override
+  public void saveRep( Repository rep, IMetaStore metaStore, ObjectId id_transformation, ObjectId id_step ) throws KettleException {
+
+    rep.saveStepAttribute( id_transformation, id_step, TAG_OPC_UA_CONNECTION, opcUaConnectionName );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_NOTIFIER_ID, notifierId );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_EVENT_TYPE, eventType );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_MINIMUM_SEVERITY, minimumSeverity );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_PUBLISHING_INTERVAL, publishingInterval );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_QUEUE_SIZE, queueSize );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_QUEUE_POLICY, queuePolicy.name() );
+
+    for ( int i = 0; i < fields.size(); i++ ) {
+      OpcUaEventField field = fields.get( i );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_FIELD_NAME, field.getName() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_FIELD_EVENT_TYPE, field.getEventType() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_FIELD_BROWSE_PATH, field.getBrowsePath() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_FIELD_TYPE, field.getType() );
+    }
+    for ( int i = 0; i < conditions.size(); i++ ) {
+      OpcUaEventCondition condition = conditions.get( i );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_CONDITION_BROWSE_PATH, condition.getBrowsePath() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_CONDITION_OPERATOR, condition.getOperator() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_CONDITION_VALUE, condition.getValue() );
+    }
+  }
+
+  @Override
+  public void readRep( Repository rep, IMetaStore metaStore, ObjectId id_step, List<DatabaseMeta> databases ) throws KettleException {
+
+    opcUaConnectionName = rep.getStepAttributeString( id_step, TAG_OPC_UA_CONNECTION );
+    notifierId = rep.getStepAttributeString( id_step, TAG_NOTIFIER_ID );
+    eventType = rep.getStepAttributeString( id_step, TAG_EVENT_TYPE );
+    minimumSeverity = rep.getStepAttributeString( id_step, TAG_MINIMUM_SEVERITY );
+    publishingInterval = rep.getStepAttributeString( id_step, TAG_PUBLISHING_INTERVAL );
+    queueSize = rep.getStepAttributeString( id_step, TAG_QUEUE_SIZE );
+    queuePolicy = OpcUaHandoffQueue.Policy.getPolicyForCode( rep.getStepAttributeString( id_step, TAG_QUEUE_POLICY ) );
+
+    fields = new ArrayList<>();
+    int nrFields = rep.countNrStepAttributes( id_step, REP_FIELD_NAME );
+    for ( int i = 0; i < nrFields; i++ ) {
+      fields.add( new OpcUaEventField(
+        rep.getStepAttributeString( id_step, i, REP_FIELD_NAME ),
+        rep.getStepAttributeString( id_step, i, REP_FIELD_EVENT_TYPE ),
+        rep.getStepAttributeString( id_step, i, REP_FIELD_BROWSE_PATH ),
+        rep.getStepAttributeString( id_step, i, REP_FIELD_TYPE )
+      ) );
+    }
+
+    conditions = new ArrayList<>();
+    int nrConditions = rep.countNrStepAttributes( id_step, REP_CONDITION_BROWSE_PATH );
+    for ( int i = 0; i < nrConditions; i++ ) {
+      conditions.add( new OpcUaEventCondition(
+        rep.getStepAttributeString( id_step, i, REP_CONDITION_BROWSE_PATH ),
+        rep.getStepAttributeString( id_step, i, REP_CONDITION_OPERATOR ),
+        rep.getStepAttributeString( id_step, i, REP_CONDITION_VALUE )
+      ) );
+    }
+  }
+
+  @Override
+  public StepInterface getStep( StepMeta meta, StepDataInterface data, int copy, TransMeta transMeta, Trans trans ) {
+    return new OpcUaEvent( meta, data, copy, transMeta, trans );
+  }
+
+  @Override
+  public StepDataInterface getStepData() {
+    return new OpcUaEventData();
+  }
+
+  @Override
+  public String getDialogClassName() {
+    return OpcUaEventDialog.class.getName();
+  }
+
+  @Override
+  public void setDefault() {
+    opcUaConnectionName = "";
+    notifierId = "i=2253";
+    eventType = "";
+    minimumSeverity = "";
+    publishingInterval = "1000";
+    queueSize = "10000";
+    queuePolicy = OpcUaHandoffQueue.Policy.BLOCK;
+
+    // The fields every event has
+    //
+    fields = new ArrayList<>();
+    fields.add( new OpcUaEventField( "EventId", "", "EventId", "Binary" ) );
+    fields.add( new OpcUaEventField( "EventType", "", "EventType", "String" ) );
+    fields.add( new OpcUaEventField( "SourceName", "", "SourceName", "String" ) );
+    fields.add( new OpcUaEventField( "Time", "", "Time", "Date" ) );
+    fields.add( new OpcUaEventField( "Severity", "", "Severity", "Integer" ) );
+    fields.add( new OpcUaEventField( "Message", "", "Message", "String" ) );
+    conditions = new ArrayList<>();
+  }
+
+  public String getOpcUaConnectionName() {
+    return opcUaConnectionName;
+  }
+
+  public void setOpcUaConnectionName( String opcUaConnectionName ) {
+    this.opcUaConnectionName = opcUaConnectionName;
+  }
+
+  public String getNotifierId() {
+    return notifierId;
+  }
+
+  public void setNotifierId( String notifierId ) {
+    this.notifierId = notifierId;
+  }
+
+  public String getEventType() {
+    return eventType;
+  }
+
+  public void setEventType( String eventType ) {
+    this.eventType = eventType;
+  }
+
+  public String getMinimumSeverity() {
+    return minimumSeverity;
+  }
+
+  public void setMinimumSeverity( String minimumSeverity ) {
+    this.minimumSeverity = minimumSeverity;
+  }
+
+  public String getPublishingInterval() {
+    return publishingInterval;
+  }
+
+  public void setPublishingInterval( String publishingInterval ) {
+    this.publishingInterval = publishingInterval;
+  }
+
+  public String getQueueSize() {
+    return queueSize;
+  }
+
+  public void setQueueSize( String queueSize ) {
+    this.queueSize = queueSize;
+  }
+
+  public OpcUaHandoffQueue.Policy getQueuePolicy() {
+    return queuePolicy;
+  }
+
+  public void setQueuePolicy( OpcUaHandoffQueue.Policy queuePolicy ) {
+    this.queuePolicy = queuePolicy;
+  }
+
+  public List<OpcUaEventField> getFields() {
+    return fields;
+  }
+
+  public void setFields( List<OpcUaEventField> fields ) {
+    this.fields = fields;
+  }
+
+  public List<OpcUaEventCondition> getConditions() {
+    return conditions;
+  }
+
+  public void setConditions( List<OpcUaEventCondition> conditions ) {
+    this.conditions = conditions;
+  }
+}
@@ -0,0 +1,410 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryData;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadRawModifiedDetails;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.opcua.util.OpcUaOperationLimits;
+import org.pentaho.di.opcua.util.OpcUaRequestSizer;
+import org.pentaho.di.opcua.util.OpcUaValueMapper;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Reads the raw history of a list of tags with HistoryRead.
+ * The requested period is split into windows which are spread over the step copies.
+ * Every call to processRow() emits one page of values for a batch of tags, following the continuation points the
+ * server returns until a window is complete.
+ * <p>
+ * Several requests are kept in flight and their pages are emitted in the order the requests were sent. The next page
+ * of a batch is only asked for once the previous page is in, so the pages of a batch stay in order but pages of
+ * different windows and batches can interleave.
+ */
+public class OpcUaHistory extends BaseOpcUaStep implements StepInterface {
+
+  /**
+   * How long a stopped step waits for the pages in flight, to release their continuation points
+   */
+  private static final long RELEASE_TIMEOUT = 5000L;
+
+  public OpcUaHistory( StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr,
+                       TransMeta transMeta, Trans trans ) {
+    super( stepMeta, stepDataInterface, copyNr, transMeta, trans );
+  }
+
+  @Override
+  public boolean init( StepMetaInterface smi, StepDataInterface sdi ) {
+    OpcUaHistoryData data = (OpcUaHistoryData) sdi;
+
+    data.connection = null;
+    data.inFlight.clear();
+
+    return super.init( smi, sdi );
+  }
+
+  @Override
+  public boolean processRow( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
+    OpcUaHistoryMeta meta = (OpcUaHistoryMeta) smi;
+    OpcUaHistoryData data = (OpcUaHistoryData) sdi;
+
+    if ( first ) {
+      first = false;
+
+      String connectionName = environmentSubstitute( meta.getOpcUaConnectionName() );
+      try {
+        data.store = getAMetaStore();
+      } catch ( Exception e ) {
+        throw new KettleException( "Unable to connect to OPC UA server '" + connectionName + "'", e );
+      }
+      data.connection = loadConnection( data.store, connectionName );
+      data.client = borrowClient( data.connection );
+
+      data.outputRowMeta = new RowMeta();
+      meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, data.store );
+      data.valueType = data.outputRowMeta.getValueMeta( data.outputRowMeta.indexOfValue( "Value" ) ).getType();
+      data.timestampFormat = meta.getTimestampFormat();
+      data.includePicoseconds = meta.isIncludePicoseconds();
+
+      data.tags = meta.getTags();
+      data.nodeIds = new ArrayList<>( data.tags.size() );
+      for ( OpcUaTag tag : data.tags ) {
+        String nodeId = environmentSubstitute( tag.getNodeId() );
+        try {
+          data.nodeIds.add( NodeId.parse( nodeId ) );
+        } catch ( Exception e ) {
+          throw new KettleException( "Invalid node ID '" + nodeId + "' for tag '" + OpcUaMeta.getTagName( tag ) + "'", e );
+        }
+      }
+
+      data.maxValuesPerNode = Const.toInt( environmentSubstitute( meta.getMaxValuesPerNode() ), 10000 );
+      data.maxRequestsInFlight = Math.max( 1, Const.toInt( environmentSubstitute( meta.getMaxRequestsInFlight() ), 4 ) );
+      data.requests = new ArrayDeque<>();
+      planRequests( meta, data );
+
+      if ( log.isDetailed() ) {
+        logDetailed( "Reading history in " + data.requests.size() + " window/tag batches, with at most "
+          + data.maxRequestsInFlight + " requests in flight" );
+      }
+    }
+
+    // Keep the pipeline full, then emit the page of the oldest request
+    //
+    while ( data.inFlight.size() < data.maxRequestsInFlight && !data.requests.isEmpty() ) {
+      sendRequest( data, data.requests.poll() );
+    }
+    if ( data.inFlight.isEmpty() ) {
+      setOutputDone();
+      return false;
+    }
+
+    emitPage( data );
+
+    return true;
+  }
+
+  /**
+   * Split the period into windows, keep the windows for this step copy and cut the tag list into batches.
+   */
+  private void planRequests( OpcUaHistoryMeta meta, OpcUaHistoryData data ) throws KettleException {
+    SimpleDateFormat format = new SimpleDateFormat( OpcUaHistoryMeta.DATE_FORMAT );
+    long start;
+    long end;
+    try {
+      start = format.parse( environmentSubstitute( meta.getStartTime() ) ).getTime();
+      String endTime = environmentSubstitute( meta.getEndTime() );
+      end = Const.isEmpty( endTime ) ? System.currentTimeMillis() : format.parse( endTime ).getTime();
+    } catch ( Exception e ) {
+      throw new KettleException( "Please specify the start and end time in format " + OpcUaHistoryMeta.DATE_FORMAT, e );
+    }
+    if ( end <= start ) {
+      throw new KettleException( "The end time needs to be after the start time" );
+    }
+
+    int nrCopies = Math.max( 1, getStepMeta().getCopies() );
+    int copyNr = getCopy();
+
+    long windowMs = Const.toLong( environmentSubstitute( meta.getWindowSize() ), 0L ) * 1000L;
+    if ( windowMs <= 0 ) {
+      windowMs = ( end - start + nrCopies - 1 ) / nrCopies;
+    }
+
+    // Every tag in a request can return up to maxValuesPerNode values
+    //
+    int bytesPerNode = (int) Math.min( Integer.MAX_VALUE, (long) OpcUaOperationLimits.ESTIMATED_BYTES_PER_VALUE * Math.max( 1, data.maxValuesPerNode ) );
+    data.historySizer = createRequestSizer( data.client, "HistoryRead", meta.getMaxNodesPerRequest(),
+      OpcUaOperationLimits::getMaxNodesPerHistoryReadData, bytesPerNode, data.nodeIds.size() );
+    int maxNodes = Math.max( 1, data.historySizer.getSize() );
+
+    int window = 0;
+    for ( long windowStart = start; windowStart < end; windowStart += windowMs, window++ ) {
+      if ( window % nrCopies != copyNr ) {
+        continue;
+      }
+      DateTime from = new DateTime( new Date( windowStart ) );
+      DateTime to = new DateTime( new Date( Math.min( windowStart + windowMs, end ) ) );
+
+      for ( int batchStart = 0; batchStart < data.nodeIds.size(); batchStart += maxNodes ) {
+        int batchEnd = Math.min( batchStart + maxNodes, data.nodeIds.size() );
+        int[] tagIndexes = new int[ batchEnd - batchStart ];
+        for ( int i = 0; i < tagIndexes.length; i++ ) {
+          tagIndexes[ i ] = batchStart + i;
+        }
+        data.requests.add( new OpcUaHistoryRequest( from, to, tagIndexes, null ) );
+      }
+    }
+  }
+
+  /**
+   * Ask for one page of history for a batch of tags without waiting for the answer
+   */
+  private void sendRequest( OpcUaHistoryData data, OpcUaHistoryRequest request ) {
+    int[] tagIndexes = request.getTagIndexes();
+    if ( tagIndexes.length > data.historySizer.getSize() ) {
+      // Planned before the server asked for smaller requests
+      //
+      splitRequest( data, request, data.historySizer.getSize() );
+      return;
+    }
+    ByteString[] continuationPoints = request.getContinuationPoints();
+
+    List<HistoryReadValueId> readValueIds = new ArrayList<>( tagIndexes.length );
+    for ( int i = 0; i < tagIndexes.length; i++ ) {
+      ByteString continuationPoint = continuationPoints == null ? ByteString.NULL_VALUE : continuationPoints[ i ];
+      readValueIds.add( new HistoryReadValueId( data.nodeIds.get( tagIndexes[ i ] ), null, QualifiedName.NULL_VALUE, continuationPoint ) );
+    }
+
+    ReadRawModifiedDetails details = new ReadRawModifiedDetails( false, request.getStart(), request.getEnd(), uint( data.maxValuesPerNode ), false );
+
+    long start = System.nanoTime();
+    CompletableFuture<HistoryReadResponse> response = data.client.historyRead( details, TimestampsToReturn.Both, false, readValueIds )
+      .whenComplete( ( r, error ) -> metrics.recordHistoryRead( start, readValueIds.size(), error ) );
+    data.inFlight.addLast( new OpcUaHistoryData.HistoryPage( request, response ) );
+  }
+
+  /**
+   * Wait for the oldest page and emit its values.
+   * Tags for which the server has more data in the window are queued again with their continuation point.
+   */
+  private void emitPage( OpcUaHistoryData data ) throws KettleException {
+    OpcUaHistoryData.HistoryPage page = data.inFlight.removeFirst();
+    OpcUaHistoryRequest request = page.request;
+    int[] tagIndexes = request.getTagIndexes();
+
+    HistoryReadResponse response;
+    try {
+      response = page.response.get();
+    } catch ( Exception e ) {
+      if ( tagIndexes.length > 1 && OpcUaRequestSizer.isTooLarge( e ) ) {
+        splitRequest( data, request, data.historySizer.backOff( tagIndexes.length ) );
+        return;
+      }
+      throw new KettleException( "Unable to read history from server '" + data.connection.getName() + "'", e );
+    }
+    data.historySizer.onSuccess( tagIndexes.length );
+
+    HistoryReadResult[] results = response.getResults();
+
+    // Queue the next pages before emitting anything. If a bad status or a conversion error stops the step half way
+    // through this page, dispose() still finds the continuation points and releases them.
+    //
+    int[] nextTagIndexes = new int[ tagIndexes.length ];
+    ByteString[] nextContinuationPoints = new ByteString[ tagIndexes.length ];
+    int nrNext = 0;
+    for ( int i = 0; i < results.length; i++ ) {
+      ByteString continuationPoint = results[ i ].getContinuationPoint();
+      if ( continuationPoint != null && !continuationPoint.isNull() ) {
+        nextTagIndexes[ nrNext ] = tagIndexes[ i ];
+        nextContinuationPoints[ nrNext ] = continuationPoint;
+        nrNext++;
+      }
+    }
+    if ( nrNext > 0 ) {
+      // Ask for the next page of these tags before any other batch
+      //
+      data.requests.addFirst( new OpcUaHistoryRequest( request.getStart(), request.getEnd(),
+        Arrays.copyOf( nextTagIndexes, nrNext ), Arrays.copyOf( nextContinuationPoints, nrNext ) ) );
+    }
+
+    for ( int i = 0; i < results.length; i++ ) {
+      HistoryReadResult result = results[ i ];
+      int tagIndex = tagIndexes[ i ];
+      if ( result.getStatusCode() != null && result.getStatusCode().isBad() ) {
+        throw new KettleException( "Unable to read history of tag '" + OpcUaMeta.getTagName( data.tags.get( tagIndex ) ) + "' : " + result.getStatusCode() );
+      }
+
+      if ( result.getHistoryData() != null ) {
+        HistoryData historyData = (HistoryData) result.getHistoryData().decode();
+        DataValue[] dataValues = historyData.getDataValues();
+        if ( dataValues != null ) {
+          for ( DataValue dataValue : dataValues ) {
+            putValue( data, tagIndex, dataValue );
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Put the parts of a request in front of the queue, in order, each with at most size tags
+   */
+  private void splitRequest( OpcUaHistoryData data, OpcUaHistoryRequest request, int size ) {
+    int[] tagIndexes = request.getTagIndexes();
+    ByteString[] continuationPoints = request.getContinuationPoints();
+    int nrParts = ( tagIndexes.length + size - 1 ) / size;
+    for ( int part = nrParts - 1; part >= 0; part-- ) {
+      int from = part * size;
+      int to = Math.min( from + size, tagIndexes.length );
+      data.requests.addFirst( new OpcUaHistoryRequest( request.getStart(), request.getEnd(), Arrays.copyOfRange( tagIndexes, from, to ),
+        continuationPoints == null ? null : Arrays.copyOfRange( continuationPoints, from, to ) ) );
+    }
+  }
+
+  private void putValue( OpcUaHistoryData data, int tagIndex, DataValue dataValue ) throws KettleException {
+    OpcUaTag tag = data.tags.get( tagIndex );
+    Object value = dataValue.getValue() == null ? null : dataValue.getValue().getValue();
+
+    Object[] row = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
+    int index = 0;
+    row[ index++ ] = OpcUaMeta.getTagName( tag );
+    row[ index++ ] = OpcUaValueMapper.convert( value, data.valueType );
+    row[ index++ ] = data.timestampFormat.convert( dataValue.getSourceTime(), dataValue.getSourcePicoseconds() );
+    if ( data.includePicoseconds ) {
+      row[ index++ ] = dataValue.getSourcePicoseconds() == null ? null : dataValue.getSourcePicoseconds().longValue();
+    }
+    row[ index++ ] = data.timestampFormat.convert( dataValue.getServerTime(), dataValue.getServerPicoseconds() );
+    if ( data.includePicoseconds ) {
+      row[ index++ ] = dataValue.getServerPicoseconds() == null ? null : dataValue.getServerPicoseconds().longValue();
+    }
+    row[ index++ ] = dataValue.getStatusCode() == null ? null : dataValue.getStatusCode().getValue();
+
+    putRow( data.outputRowMeta, row );
+  }
+
+  @Override public void dispose( StepMetaInterface smi, StepDataInterface sdi ) {
+    OpcUaHistoryData data = (OpcUaHistoryData) sdi;
+
+    // The step stopped early, nobody is waiting for these pages anymore.
+    // Cancelling doesn't stop a HistoryRead the server is working on, so wait a while for the answers and release the
+    // continuation points the server keeps for them.
+    //
+    List<HistoryReadValueId> toRelease = new ArrayList<>();
+    long deadline = System.currentTimeMillis() + RELEASE_TIMEOUT;
+    for ( OpcUaHistoryData.HistoryPage page : data.inFlight ) {
+      HistoryReadResponse response;
+      try {
+        response = page.response.get( Math.max( 0L, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch ( TimeoutException e ) {
+        log.logError( "Gave up waiting for a history page to release its continuation points" );
+        break;
+      } catch ( ExecutionException e ) {
+        continue;
+      }
+      addContinuationPoints( data, page.request.getTagIndexes(), response.getResults(), toRelease );
+    }
+    data.inFlight.clear();
+    if ( data.requests != null ) {
+      for ( OpcUaHistoryRequest request : data.requests ) {
+        if ( request.getContinuationPoints() != null ) {
+          addContinuationPoints( data, request.getTagIndexes(), request.getContinuationPoints(), toRelease );
+        }
+      }
+      data.requests.clear();
+    }
+    if ( data.client != null && !toRelease.isEmpty() ) {
+      releaseContinuationPoints( data, toRelease );
+    }
+    releaseClient( data.client );
+    data.client = null;
+
+    super.dispose( smi, sdi );
+  }
+
+  private void addContinuationPoints( OpcUaHistoryData data, int[] tagIndexes, HistoryReadResult[] results,
+                                      List<HistoryReadValueId> readValueIds ) {
+    if ( results == null ) {
+      return;
+    }
+    ByteString[] continuationPoints = new ByteString[ results.length ];
+    for ( int i = 0; i < results.length; i++ ) {
+      continuationPoints[ i ] = results[ i ].getContinuationPoint();
+    }
+    addContinuationPoints( data, tagIndexes, continuationPoints, readValueIds );
+  }
+
+  private void addContinuationPoints( OpcUaHistoryData data, int[] tagIndexes, ByteString[] continuationPoints,
+                                      List<HistoryReadValueId> readValueIds ) {
+    for ( int i = 0; i < continuationPoints.length && i < tagIndexes.length; i++ ) {
+      ByteString continuationPoint = continuationPoints[ i ];
+      if ( continuationPoint != null && !continuationPoint.isNull() ) {
+        readValueIds.add( new HistoryReadValueId( data.nodeIds.get( tagIndexes[ i ] ), null,
+          QualifiedName.NULL_VALUE, continuationPoint ) );
+      }
+    }
+  }
+
+  /**
+   * When the step is stopped half way, tell the server to forget about the pages we're not going to read.
+   */
+  private void releaseContinuationPoints( OpcUaHistoryData data, List<HistoryReadValueId> readValueIds ) {
+    try {
+      ReadRawModifiedDetails details = new ReadRawModifiedDetails( false, DateTime.MIN_VALUE, DateTime.now(), uint( 0 ), false );
+      data.client.historyRead( details, TimestampsToReturn.Neither, true, readValueIds ).get();
+    } catch ( Exception e ) {
+      log.logError( "Error releasing history continuation points", e );
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResponse;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.opcua.connection.OpcUaConnection;
+import org.pentaho.di.opcua.util.OpcUaRequestSizer;
+import org.pentaho.di.trans.step.BaseStepData;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.metastore.api.IMetaStore;
+
+public class OpcUaHistoryData extends BaseStepData implements StepDataInterface {
+
+  public OpcUaConnection connection;
+
+  public IMetaStore store;
+  public RowMetaInterface outputRowMeta;
+  public OpcUaClient client;
+
+  public List<OpcUaTag> tags;
+  public List<NodeId> nodeIds;
+
+  /**
+   * The Kettle type of the Value column, derived from the data types of the tags
+   */
+  public int valueType;
+
+  public OpcUaTimestampFormat timestampFormat;
+  public boolean includePicoseconds;
+
+  public int maxValuesPerNode;
+  public int maxRequestsInFlight;
+
+  /**
+   * How many tags to read per HistoryRead request
+   */
+  public OpcUaRequestSizer historySizer;
+
+  /**
+   * The pages this step copy still has to read
+   */
+  public Deque<OpcUaHistoryRequest> requests;
+
+  /**
+   * The pages asked for, oldest first. Their values are emitted in this order.
+   */
+  public Deque<HistoryPage> inFlight;
+
+  public OpcUaHistoryData() {
+    inFlight = new ArrayDeque<>();
+  }
+
+  /**
+   * A HistoryRead request sent to the server and the answer to it
+   */
+  public static class HistoryPage {
+    public final OpcUaHistoryRequest request;
+    public final CompletableFuture<HistoryReadResponse> response;
+
+    public HistoryPage( OpcUaHistoryRequest request, CompletableFuture<HistoryReadResponse> response ) {
+      this.request = request;
+      this.response = response;
+    }
+  }
+}
@@ -0,0 +1,365 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CCombo;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.events.ShellAdapter;
+import org.eclipse.swt.events.ShellEvent;
+import org.eclipse.swt.layout.FormAttachment;
+import org.eclipse.swt.layout.FormData;
+import org.eclipse.swt.layout.FormLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.ui.core.widget.ColumnInfo;
+import org.pentaho.di.ui.core.widget.ComboVar;
+import org.pentaho.di.ui.core.widget.TableView;
+import org.pentaho.di.ui.core.widget.TextVar;
+import org.pentaho.di.ui.trans.step.BaseStepDialog;
+
+public class OpcUaHistoryDialog extends BaseStepDialog implements StepDialogInterface {
+
+  private static Class<?> PKG = OpcUaHistoryDialog.class; // i18n
+
+  private OpcUaHistoryMeta input;
+
+  private ComboVar wServer;
+  private TextVar wStartTime;
+  private TextVar wEndTime;
+  private TextVar wWindowSize;
+  private TextVar wMaxNodesPerRequest;
+  private TextVar wMaxValuesPerNode;
+  private TextVar wMaxRequestsInFlight;
+  private CCombo wTimestampFormat;
+  private Button wIncludePicoseconds;
+  private TableView wTags;
+
+  private int middle;
+  private int margin;
+
+  public OpcUaHistoryDialog( Shell parent, Object baseStepMeta, TransMeta transMeta, String stepname ) {
+    super( parent, (BaseStepMeta) baseStepMeta, transMeta, stepname );
+
+    input = (OpcUaHistoryMeta) baseStepMeta;
+  }
+
+  @Override
+  public String open() {
+
+    Shell parent = getParent();
+    Display display = parent.getDisplay();
+
+    shell = new Shell( parent, SWT.DIALOG_TRIM | SWT.RESIZE | SWT.MIN | SWT.MAX );
+    props.setLook( shell );
+    setShellImage( shell, input );
+
+    FormLayout formLayout = new FormLayout();
+    formLayout.marginWidth = Const.FORM_MARGIN;
+    formLayout.marginHeight = Const.FORM_MARGIN;
+
+    shell.setLayout( formLayout );
+    shell.setText( BaseMessages.getString( PKG, "OpcUaHistoryDialog.Shell.Title" ) );
+
+    middle = props.getMiddlePct();
+    margin = Const.MARGIN;
+
+    // Step name...
+    //
+    wlStepname = new Label( shell, SWT.RIGHT );
+    wlStepname.setText( BaseMessages.getString( PKG, "OpcUaDialog.Stepname.Label" ) );
+    props.setLook( wlStepname );
+    fdlStepname = new FormData();
+    fdlStepname.left = new FormAttachment( 0, 0 );
+    fdlStepname.right = new FormAttachment( middle, -margin );
+    fdlStepname.top = new FormAttachment( 0, margin );
+    wlStepname.setLayoutData( fdlStepname );
+    wStepname = new Text( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wStepname.setText( stepname );
+    props.setLook( wStepname );
+    fdStepname = new FormData();
+    fdStepname.left = new FormAttachment( middle, 0 );
+    fdStepname.top = new FormAttachment( 0, margin );
+    fdStepname.right = new FormAttachment( 100, 0 );
+    wStepname.setLayoutData( fdStepname );
+    Control lastControl = wStepname;
+
+    // The OPC UA server
+    //
+    Label wlServer = new Label( shell, SWT.RIGHT );
+    wlServer.setText( BaseMessages.getString( PKG, "OpcUaDialog.Server.Label" ) );
+    props.setLook( wlServer );
+    FormData fdlServer = new FormData();
+    fdlServer.left = new FormAttachment( 0, 0 );
+    fdlServer.right = new FormAttachment( middle, -margin );
+    fdlServer.top = new FormAttachment( lastControl, margin );
+    wlServer.setLayoutData( fdlServer );
+    wServer = new ComboVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wServer );
+    FormData fdServer = new FormData();
+    fdServer.left = new FormAttachment( middle, 0 );
+    fdServer.top = new FormAttachment( lastControl, margin );
+    fdServer.right = new FormAttachment( 100, 0 );
+    wServer.setLayoutData( fdServer );
+    lastControl = wServer;
+
+    wStartTime = addTextVar( "OpcUaHistoryDialog.StartTime.Label", lastControl );
+    lastControl = wStartTime;
+    wEndTime = addTextVar( "OpcUaHistoryDialog.EndTime.Label", lastControl );
+    wEndTime.setToolTipText( BaseMessages.getString( PKG, "OpcUaHistoryDialog.EndTime.Tooltip" ) );
+    lastControl = wEndTime;
+    wWindowSize = addTextVar( "OpcUaHistoryDialog.WindowSize.Label", lastControl );
+    wWindowSize.setToolTipText( BaseMessages.getString( PKG, "OpcUaHistoryDialog.WindowSize.Tooltip" ) );
+    lastControl = wWindowSize;
+    wMaxNodesPerRequest = addTextVar( "OpcUaHistoryDialog.MaxNodesPerRequest.Label", lastControl );
+    wMaxNodesPerRequest.setToolTipText( BaseMessages.getString( PKG, "OpcUaHistoryDialog.MaxNodesPerRequest.Tooltip" ) );
+    lastControl = wMaxNodesPerRequest;
+    wMaxValuesPerNode = addTextVar( "OpcUaHistoryDialog.MaxValuesPerNode.Label", lastControl );
+    lastControl = wMaxValuesPerNode;
+    wMaxRequestsInFlight = addTextVar( "OpcUaHistoryDialog.MaxRequestsInFlight.Label", lastControl );
+    wMaxRequestsInFlight.setToolTipText( BaseMessages.getString( PKG, "OpcUaHistoryDialog.MaxRequestsInFlight.Tooltip" ) );
+    lastControl = wMaxRequestsInFlight;
+
+    // The type of the timestamp columns
+    //
+    Label wlTimestampFormat = new Label( shell, SWT.RIGHT );
+    wlTimestampFormat.setText( BaseMessages.getString( PKG, "OpcUaDialog.TimestampFormat.Label" ) );
+    props.setLook( wlTimestampFormat );
+    FormData fdlTimestampFormat = new FormData();
+    fdlTimestampFormat.left = new FormAttachment( 0, 0 );
+    fdlTimestampFormat.right = new FormAttachment( middle, -margin );
+    fdlTimestampFormat.top = new FormAttachment( lastControl, margin );
+    wlTimestampFormat.setLayoutData( fdlTimestampFormat );
+    wTimestampFormat = new CCombo( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER | SWT.READ_ONLY );
+    wTimestampFormat.setItems( OpcUaTimestampFormat.getDescriptions() );
+    props.setLook( wTimestampFormat );
+    FormData fdTimestampFormat = new FormData();
+    fdTimestampFormat.left = new FormAttachment( middle, 0 );
+    fdTimestampFormat.top = new FormAttachment( lastControl, margin );
+    fdTimestampFormat.right = new FormAttachment( 100, 0 );
+    wTimestampFormat.setLayoutData( fdTimestampFormat );
+    lastControl = wTimestampFormat;
+
+    Label wlIncludePicoseconds = new Label( shell, SWT.RIGHT );
+    wlIncludePicoseconds.setText( BaseMessages.getString( PKG, "OpcUaDialog.IncludePicoseconds.Label" ) );
+    props.setLook( wlIncludePicoseconds );
+    FormData fdlIncludePicoseconds = new FormData();
+    fdlIncludePicoseconds.left = new FormAttachment( 0, 0 );
+    fdlIncludePicoseconds.right = new FormAttachment( middle, -margin );
+    fdlIncludePicoseconds.top = new FormAttachment( lastControl, margin );
+    wlIncludePicoseconds.setLayoutData( fdlIncludePicoseconds );
+    wIncludePicoseconds = new Button( shell, SWT.CHECK );
+    props.setLook( wIncludePicoseconds );
+    FormData fdIncludePicoseconds = new FormData();
+    fdIncludePicoseconds.left = new FormAttachment( middle, 0 );
+    fdIncludePicoseconds.top = new FormAttachment( lastControl, margin );
+    fdIncludePicoseconds.right = new FormAttachment( 100, 0 );
+    wIncludePicoseconds.setLayoutData( fdIncludePicoseconds );
+    lastControl = wIncludePicoseconds;
+
+    // Some buttons
+    wOK = new Button( shell, SWT.PUSH );
+    wOK.setText( BaseMessages.getString( PKG, "System.Button.OK" ) );
+    wCancel = new Button( shell, SWT.PUSH );
+    wCancel.setText( BaseMessages.getString( PKG, "System.Button.Cancel" ) );
+    // Add listeners
+    lsCancel = new Listener() {
+      public void handleEvent( Event e ) {
+        cancel();
+      }
+    };
+    lsOK = new Listener() {
+      public void handleEvent( Event e ) {
+        ok();
+      }
+    };
+
+    wCancel.addListener( SWT.Selection, lsCancel );
+    wOK.addListener( SWT.Selection, lsOK );
+    setButtonPositions( new Button[] { wOK, wCancel }, margin, null );
+
+    // The tags to read the history of
+    //
+    Label wlTags = new Label( shell, SWT.LEFT );
+    wlTags.setText( BaseMessages.getString( PKG, "OpcUaDialog.Tags.Label" ) );
+    props.setLook( wlTags );
+    FormData fdlTags = new FormData();
+    fdlTags.left = new FormAttachment( 0, 0 );
+    fdlTags.right = new FormAttachment( 100, 0 );
+    fdlTags.top = new FormAttachment( lastControl, margin );
+    wlTags.setLayoutData( fdlTags );
+    lastControl = wlTags;
+
+    ColumnInfo[] columns = new ColumnInfo[] {
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Tags.Column.NodeId" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Tags.Column.Name" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+      new ColumnInfo( BaseMessages.getString( PKG, "OpcUaDialog.Tags.Column.DataType" ), ColumnInfo.COLUMN_TYPE_TEXT, false ),
+    };
+    columns[ 0 ].setUsingVariables( true );
+
+    wTags = new TableView( transMeta, shell, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, columns,
+      input.getTags().size(), null, props );
+    props.setLook( wTags );
+    FormData fdTags = new FormData();
+    fdTags.left = new FormAttachment( 0, 0 );
+    fdTags.right = new FormAttachment( 100, 0 );
+    fdTags.top = new FormAttachment( lastControl, margin );
+    fdTags.bottom = new FormAttachment( wOK, -2 * margin );
+    wTags.setLayoutData( fdTags );
+
+    lsDef = new SelectionAdapter() {
+      public void widgetDefaultSelected( SelectionEvent e ) {
+        ok();
+      }
+    };
+
+    wServer.addSelectionListener( lsDef );
+    wStartTime.addSelectionListener( lsDef );
+    wEndTime.addSelectionListener( lsDef );
+    wWindowSize.addSelectionListener( lsDef );
+    wMaxNodesPerRequest.addSelectionListener( lsDef );
+    wMaxValuesPerNode.addSelectionListener( lsDef );
+    wMaxRequestsInFlight.addSelectionListener( lsDef );
+
+    // Detect X or ALT-F4 or something that kills this window...
+    shell.addShellListener( new ShellAdapter() {
+      public void shellClosed( ShellEvent e ) {
+        cancel();
+      }
+    } );
+
+    // Set the shell size, based upon previous time...
+    setSize();
+
+    getData();
+    input.setChanged( changed );
+
+    shell.open();
+    while ( !shell.isDisposed() ) {
+      if ( !display.readAndDispatch() ) {
+        display.sleep();
+      }
+    }
+    return stepname;
+  }
+
+  private TextVar addTextVar( String labelKey, Control lastControl ) {
+    Label wlText = new Label( shell, SWT.RIGHT );
+    wlText.setText( BaseMessages.getString( PKG, labelKey ) );
+    props.setLook( wlText );
+    FormData fdlText = new FormData();
+    fdlText.left = new FormAttachment( 0, 0 );
+    fdlText.right = new FormAttachment( middle, -margin );
+    fdlText.top = new FormAttachment( lastControl, margin );
+    wlText.setLayoutData( fdlText );
+    TextVar wText = new TextVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wText );
+    FormData fdText = new FormData();
+    fdText.left = new FormAttachment( middle, 0 );
+    fdText.top = new FormAttachment( lastControl, margin );
+    fdText.right = new FormAttachment( 100, 0 );
+    wText.setLayoutData( fdText );
+    return wText;
+  }
+
+  private void getData() {
+
+    wServer.setText( Const.NVL( input.getOpcUaConnectionName(), "" ) );
+    wStartTime.setText( Const.NVL( input.getStartTime(), "" ) );
+    wEndTime.setText( Const.NVL( input.getEndTime(), "" ) );
+    wWindowSize.setText( Const.NVL( input.getWindowSize(), "" ) );
+    wMaxNodesPerRequest.setText( Const.NVL( input.getMaxNodesPerRequest(), "" ) );
+    wMaxValuesPerNode.setText( Const.NVL( input.getMaxValuesPerNode(), "" ) );
+    wMaxRequestsInFlight.setText( Const.NVL( input.getMaxRequestsInFlight(), "" ) );
+    wTimestampFormat.setText( input.getTimestampFormat().getDescription() );
+    wIncludePicoseconds.setSelection( input.isIncludePicoseconds() );
+
+    for ( int i = 0; i < input.getTags().size(); i++ ) {
+      OpcUaTag tag = input.getTags().get( i );
+      TableItem item = wTags.table.getItem( i );
+      item.setText( 1, Const.NVL( tag.getNodeId(), "" ) );
+      item.setText( 2, Const.NVL( tag.getName(), "" ) );
+      item.setText( 3, Const.NVL( tag.getDataType(), "" ) );
+    }
+    wTags.removeEmptyRows();
+    wTags.setRowNums();
+    wTags.optWidth( true );
+
+    wStepname.selectAll();
+    wStepname.setFocus();
+  }
+
+  private void cancel() {
+    stepname = null;
+    input.setChanged( changed );
+    dispose();
+  }
+
+  private void ok() {
+    if ( Const.isEmpty( wStepname.getText() ) ) {
+      return;
+    }
+
+    stepname = wStepname.getText(); // return value
+
+    input.setChanged();
+
+    input.setOpcUaConnectionName( wServer.getText() );
+    input.setStartTime( wStartTime.getText() );
+    input.setEndTime( wEndTime.getText() );
+    input.setWindowSize( wWindowSize.getText() );
+    input.setMaxNodesPerRequest( wMaxNodesPerRequest.getText() );
+    input.setMaxValuesPerNode( wMaxValuesPerNode.getText() );
+    input.setMaxRequestsInFlight( wMaxRequestsInFlight.getText() );
+    input.setTimestampFormat( OpcUaTimestampFormat.getFormatForDescription( wTimestampFormat.getText() ) );
+    input.setIncludePicoseconds( wIncludePicoseconds.getSelection() );
+
+    List<OpcUaTag> tags = new ArrayList<>();
+    for ( int i = 0; i < wTags.nrNonEmpty(); i++ ) {
+      TableItem item = wTags.getNonEmpty( i );
+      OpcUaTag tag = new OpcUaTag( item.getText( 1 ), item.getText( 2 ) );
+      tag.setDataType( Const.isEmpty( item.getText( 3 ) ) ? null : item.getText( 3 ) );
+      tags.add( tag );
+    }
+    input.setTags( tags );
+
+    dispose();
+  }
+}
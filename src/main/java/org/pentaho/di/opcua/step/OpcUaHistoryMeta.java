@@ -0,0 +1,337 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pentaho.di.core.annotations.Step;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.opcua.util.OpcUaValueMapper;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.metastore.api.IMetaStore;
+import org.w3c.dom.Node;
+
+@Step(
+  id = "OpcUaHistoryInput",
+  description = "Reads the raw history of tags from an OPC UA server",
+  name = "OPC UA History Input",
+  image = "ui/images/TIP.svg",
+  categoryDescription = "Input"
+)
+public class OpcUaHistoryMeta extends BaseStepMeta implements StepMetaInterface {
+
+  /**
+   * The format of the start and end time of the period to read
+   */
+  public static final String DATE_FORMAT = "yyyy/MM/dd HH:mm:ss";
+
+  private static final String TAG_OPC_UA_CONNECTION = "opc_ua_connection";
+  private static final String TAG_START_TIME = "start_time";
+  private static final String TAG_END_TIME = "end_time";
+  private static final String TAG_WINDOW_SIZE = "window_size";
+  private static final String TAG_MAX_NODES_PER_REQUEST = "max_nodes_per_request";
+  private static final String TAG_MAX_VALUES_PER_NODE = "max_values_per_node";
+  private static final String TAG_MAX_REQUESTS_IN_FLIGHT = "max_requests_in_flight";
+  private static final String TAG_TIMESTAMP_FORMAT = "timestamp_format";
+  private static final String TAG_INCLUDE_PICOSECONDS = "include_picoseconds";
+
+  private String opcUaConnectionName;
+
+  private String startTime;
+
+  private String endTime;
+
+  /**
+   * The length in seconds of the sub-windows the period is split into.
+   * The windows are spread over the step copies. Empty means one window per step copy.
+   */
+  private String windowSize;
+
+  /**
+   * The number of tags to read history for in a single request. Empty or 0 means we use the server's MaxNodesPerHistoryReadData.
+   */
+  private String maxNodesPerRequest;
+
+  /**
+   * The number of values the server returns per tag in a single page
+   */
+  private String maxValuesPerNode;
+
+  /**
+   * The number of HistoryRead requests sent before waiting for the answer to the oldest one
+   */
+  private String maxRequestsInFlight;
+
+  /**
+   * The Kettle type of the timestamp columns
+   */
+  private OpcUaTimestampFormat timestampFormat;
+
+  /**
+   * Add the picoseconds of the timestamps in separate columns
+   */
+  private boolean includePicoseconds;
+
+  private List<OpcUaTag> tags;
+
+  public OpcUaHistoryMeta() {
+    super();
+    timestampFormat = OpcUaTimestampFormat.DATE;
+    tags = new ArrayList<>();
+  }
+
+  @Override
+  public Object clone() {
+    OpcUaHistoryMeta meta = (OpcUaHistoryMeta) super.clone();
+    meta.tags = new ArrayList<>();
+    for ( OpcUaTag tag : tags ) {
+      meta.tags.add( new OpcUaTag( tag ) );
+    }
+    return meta;
+  }
+
+  @Override
+  public void getFields( RowMetaInterface inputRowMeta, String name, RowMetaInterface[] info, StepMeta nextStep,
+                         VariableSpace space, Repository repository, IMetaStore metaStore ) throws KettleStepException {
+    addValueMeta( inputRowMeta, new ValueMetaString( "TagName" ), name );
+    addValueMeta( inputRowMeta, OpcUaMeta.getValueMeta( "Value", tags ), name );
+    addValueMeta( inputRowMeta, getTimestampMeta( "SourceTimestamp" ), name );
+    if ( includePicoseconds ) {
+      addValueMeta( inputRowMeta, new ValueMetaInteger( "SourcePicoseconds" ), name );
+    }
+    addValueMeta( inputRowMeta, getTimestampMeta( "ServerTimestamp" ), name );
+    if ( includePicoseconds ) {
+      addValueMeta( inputRowMeta, new ValueMetaInteger( "ServerPicoseconds" ), name );
+    }
+    addValueMeta( inputRowMeta, new ValueMetaInteger( "StatusCode" ), name );
+  }
+
+  private ValueMetaInterface getTimestampMeta( String valueName ) throws KettleStepException {
+    try {
+      return OpcUaValueMapper.createValueMeta( valueName, timestampFormat.getValueType() );
+    } catch ( Exception e ) {
+      throw new KettleStepException( "Unable to create value metadata for '" + valueName + "'", e );
+    }
+  }
+
+  private void addValueMeta( RowMetaInterface rowMeta, ValueMetaInterface valueMeta, String origin ) {
+    valueMeta.setOrigin( origin );
+    rowMeta.addValueMeta( valueMeta );
+  }
+
+  @Override
+  public String getXML() throws KettleException {
+    StringBuilder xml = new StringBuilder();
+
+    xml.append( XMLHandler.addTagValue( TAG_OPC_UA_CONNECTION, opcUaConnectionName ) );
+    xml.append( XMLHandler.addTagValue( TAG_START_TIME, startTime ) );
+    xml.append( XMLHandler.addTagValue( TAG_END_TIME, endTime ) );
+    xml.append( XMLHandler.addTagValue( TAG_WINDOW_SIZE, windowSize ) );
+    xml.append( XMLHandler.addTagValue( TAG_MAX_NODES_PER_REQUEST, maxNodesPerRequest ) );
+    xml.append( XMLHandler.addTagValue( TAG_MAX_VALUES_PER_NODE, maxValuesPerNode ) );
+    xml.append( XMLHandler.addTagValue( TAG_MAX_REQUESTS_IN_FLIGHT, maxRequestsInFlight ) );
+    xml.append( XMLHandler.addTagValue( TAG_TIMESTAMP_FORMAT, timestampFormat.name() ) );
+    xml.append( XMLHandler.addTagValue( TAG_INCLUDE_PICOSECONDS, includePicoseconds ) );
+    xml.append( OpcUaMeta.getTagsXML( tags ) );
+
+    return xml.toString();
+  }
+
+  @Override
+  public void loadXML( Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore ) throws KettleXMLException {
+    try {
+
+      opcUaConnectionName = XMLHandler.getTagValue( stepnode, TAG_OPC_UA_CONNECTION );
+      startTime = XMLHandler.getTagValue( stepnode, TAG_START_TIME );
+      endTime = XMLHandler.getTagValue( stepnode, TAG_END_TIME );
+      windowSize = XMLHandler.getTagValue( stepnode, TAG_WINDOW_SIZE );
+      maxNodesPerRequest = XMLHandler.getTagValue( stepnode, TAG_MAX_NODES_PER_REQUEST );
+      maxValuesPerNode = XMLHandler.getTagValue( stepnode, TAG_MAX_VALUES_PER_NODE );
+      maxRequestsInFlight = XMLHandler.getTagValue( stepnode, TAG_MAX_REQUESTS_IN_FLIGHT );
+      timestampFormat = OpcUaTimestampFormat.getFormatForCode( XMLHandler.getTagValue( stepnode, TAG_TIMESTAMP_FORMAT ) );
+      includePicoseconds = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, TAG_INCLUDE_PICOSECONDS ) );
+      tags = OpcUaMeta.loadTagsXML( stepnode );
+
+    } catch ( Exception e ) {
+      throw new KettleXMLException( "Unable to load OPC UA history input step details", e );
+    }
+  }
+
+  @Override
+  public void saveRep( Repository rep, IMetaStore metaStore, ObjectId id_transformation, ObjectId id_step ) throws KettleException {
+
+    rep.saveStepAttribute( id_transformation, id_step, TAG_OPC_UA_CONNECTION, opcUaConnectionName );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_START_TIME, startTime );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_END_TIME, endTime );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_WINDOW_SIZE, windowSize );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_MAX_NODES_PER_REQUEST, maxNodesPerRequest );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_MAX_VALUES_PER_NODE, maxValuesPerNode );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_MAX_REQUESTS_IN_FLIGHT, maxRequestsInFlight );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_TIMESTAMP_FORMAT, timestampFormat.name() );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_INCLUDE_PICOSECONDS, includePicoseconds );
+    OpcUaMeta.saveTagsRep( rep, id_transformation, id_step, tags );
+  }
+
+  @Override
+  public void readRep( Repository rep, IMetaStore metaStore, ObjectId id_step, List<DatabaseMeta> databases ) throws KettleException {
+
+    opcUaConnectionName = rep.getStepAttributeString( id_step, TAG_OPC_UA_CONNECTION );
+    startTime = rep.getStepAttributeString( id_step, TAG_START_TIME );
+    endTime = rep.getStepAttributeString( id_step, TAG_END_TIME );
+    windowSize = rep.getStepAttributeString( id_step, TAG_WINDOW_SIZE );
+    maxNodesPerRequest = rep.getStepAttributeString( id_step, TAG_MAX_NODES_PER_REQUEST );
+    maxValuesPerNode = rep.getStepAttributeString( id_step, TAG_MAX_VALUES_PER_NODE );
+    maxRequestsInFlight = rep.getStepAttributeString( id_step, TAG_MAX_REQUESTS_IN_FLIGHT );
+    timestampFormat = OpcUaTimestampFormat.getFormatForCode( rep.getStepAttributeString( id_step, TAG_TIMESTAMP_FORMAT ) );
+    includePicoseconds = rep.getStepAttributeBoolean( id_step, TAG_INCLUDE_PICOSECONDS );
+    tags = OpcUaMeta.readTagsRep( rep, id_step );
+  }
+
+  @Override
+  public StepInterface getStep( StepMeta meta, StepDataInterface data, int copy, TransMeta transMeta, Trans trans ) {
+    return new OpcUaHistory( meta, data, copy, transMeta, trans );
+  }
+
+  @Override
+  public StepDataInterface getStepData() {
+    return new OpcUaHistoryData();
+  }
+
+  @Override
+  public String getDialogClassName() {
+    return OpcUaHistoryDialog.class.getName();
+  }
+
+  @Override
+  public void setDefault() {
+    opcUaConnectionName = "";
+    startTime = "";
+    endTime = "";
+    windowSize = "3600";
+    maxNodesPerRequest = "";
+    maxValuesPerNode = "10000";
+    maxRequestsInFlight = "4";
+    timestampFormat = OpcUaTimestampFormat.DATE;
+    includePicoseconds = false;
+    tags = new ArrayList<>();
+  }
+
+  public String getOpcUaConnectionName() {
+    return opcUaConnectionName;
+  }
+
+  public void setOpcUaConnectionName( String opcUaConnectionName ) {
+    this.opcUaConnectionName = opcUaConnectionName;
+  }
+
+  public String getStartTime() {
+    return startTime;
+  }
+
+  public void setStartTime( String startTime ) {
+    this.startTime = startTime;
+  }
+
+  public String getEndTime() {
+    return endTime;
+  }
+
+  public void setEndTime( String endTime ) {
+    this.endTime = endTime;
+  }
+
+  public String getWindowSize() {
+    return windowSize;
+  }
+
+  public void setWindowSize( String windowSize ) {
+    this.windowSize = windowSize;
+  }
+
+  public String getMaxNodesPerRequest() {
+    return maxNodesPerRequest;
+  }
+
+  public void setMaxNodesPerRequest( String maxNodesPerRequest ) {
+    this.maxNodesPerRequest = maxNodesPerRequest;
+  }
+
+  public String getMaxValuesPerNode() {
+    return maxValuesPerNode;
+  }
+
+  public void setMaxValuesPerNode( String maxValuesPerNode ) {
+    this.maxValuesPerNode = maxValuesPerNode;
+  }
+
+  public String getMaxRequestsInFlight() {
+    return maxRequestsInFlight;
+  }
+
+  public void setMaxRequestsInFlight( String maxRequestsInFlight ) {
+    this.maxRequestsInFlight = maxRequestsInFlight;
+  }
+
+  public OpcUaTimestampFormat getTimestampFormat() {
+    return timestampFormat;
+  }
+
+  public void setTimestampFormat( OpcUaTimestampFormat timestampFormat ) {
+    this.timestampFormat = timestampFormat;
+  }
+
+  public boolean isIncludePicoseconds() {
+    return includePicoseconds;
+  }
+
+  public void setIncludePicoseconds( boolean includePicoseconds ) {
+    this.includePicoseconds = includePicoseconds;
+  }
+
+  public List<OpcUaTag> getTags() {
+    return tags;
+  }
+
+  public void setTags( List<OpcUaTag> tags ) {
+    this.tags = tags;
+  }
+}
@@ -0,0 +1,68 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+
+/**
+ * One page of history to read: a time window for a batch of tags.
+ * When the server returns continuation points, a request for the next page is created with only the tags which have more data.
+ */
+public class OpcUaHistoryRequest {
+
+  private final DateTime start;
+
+  private final DateTime end;
+
+  private final int[] tagIndexes;
+
+  private final ByteString[] continuationPoints;
+
+  public OpcUaHistoryRequest( DateTime start, DateTime end, int[] tagIndexes, ByteString[] continuationPoints ) {
+    this.start = start;
+    this.end = end;
+    this.tagIndexes = tagIndexes;
+    this.continuationPoints = continuationPoints;
+  }
+
+  public DateTime getStart() {
+    return start;
+  }
+
+  public DateTime getEnd() {
+    return end;
+  }
+
+  public int[] getTagIndexes() {
+    return tagIndexes;
+  }
+
+  /**
+   * @return The continuation point per tag, null for the first page
+   */
+  public ByteString[] getContinuationPoints() {
+    return continuationPoints;
+  }
+}
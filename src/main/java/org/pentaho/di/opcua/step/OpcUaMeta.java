@@ -22,8 +22,11 @@
 
 package org.pentaho.di.opcua.step;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.annotations.Step;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
@@ -32,10 +35,14 @@ import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
 import org.pentaho.di.core.row.value.ValueMetaString;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.opcua.connection.OpcUaConnection;
+import org.pentaho.di.opcua.connection.OpcUaConnectionCache;
+import org.pentaho.di.opcua.util.OpcUaHandoffQueue;
+import org.pentaho.di.opcua.util.OpcUaValueMapper;
 import org.pentaho.di.repository.ObjectId;
 import org.pentaho.di.repository.Repository;
 
@@ -47,8 +54,6 @@ import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
 import org.pentaho.metastore.api.IMetaStore;
-import org.pentaho.metastore.persist.MetaStoreFactory;
-import org.pentaho.metastore.util.PentahoDefaults;
 import org.w3c.dom.Node;
 
 @Step(
@@ -61,39 +66,250 @@ import org.w3c.dom.Node;
 public class OpcUaMeta extends BaseStepMeta implements StepMetaInterface {
 
   private static final String TAG_OPC_UA_CONNECTION = "opc_ua_connection";
+  private static final String TAG_READ_MODE = "read_mode";
+  private static final String TAG_PUBLISHING_INTERVAL = "publishing_interval";
+  private static final String TAG_SAMPLING_INTERVAL = "sampling_interval";
+  private static final String TAG_MAX_NODES_PER_READ = "max_nodes_per_read";
+  private static final String TAG_MAX_REQUESTS_IN_FLIGHT = "max_requests_in_flight";
+  private static final String TAG_TAG_PARTITIONING = "tag_partitioning";
+  private static final String TAG_POLL_INTERVAL = "poll_interval";
+  private static final String TAG_QUEUE_SIZE = "queue_size";
+  private static final String TAG_OUTPUT_LAYOUT = "output_layout";
+  private static final String TAG_QUEUE_POLICY = "queue_policy";
+  private static final String TAG_TIMESTAMP_FORMAT = "timestamp_format";
+  private static final String TAG_INCLUDE_SOURCE_TIMESTAMP = "include_source_timestamp";
+  private static final String TAG_INCLUDE_SERVER_TIMESTAMP = "include_server_timestamp";
+  private static final String TAG_INCLUDE_PICOSECONDS = "include_picoseconds";
+  private static final String TAG_INCLUDE_STATUS_CODE = "include_status_code";
+  private static final String TAG_INCLUDE_STATUS_DETAILS = "include_status_details";
+  private static final String TAG_GROUPS = "groups";
+  private static final String TAG_GROUP = "group";
+  private static final String TAG_GROUP_NAME = "name";
+  private static final String TAG_GROUP_INTERVAL = "interval";
+  private static final String TAG_GROUP_SAMPLING_INTERVAL = "sampling_interval";
+  private static final String TAG_GROUP_QUEUE_SIZE = "queue_size";
+  private static final String TAG_GROUP_TRIGGER = "trigger";
+  private static final String TAG_GROUP_DEADBAND_TYPE = "deadband_type";
+  private static final String TAG_GROUP_DEADBAND = "deadband";
+  private static final String TAG_TAGS = "tags";
+  private static final String TAG_TAG = "tag";
+  private static final String TAG_TAG_NODE_ID = "node_id";
+  private static final String TAG_TAG_NAME = "name";
+  private static final String TAG_TAG_DATA_TYPE = "data_type";
+  private static final String TAG_TAG_GROUP = "group";
+
+  private static final String REP_TAG_NODE_ID = "tag_node_id";
+  private static final String REP_TAG_NAME = "tag_name";
+  private static final String REP_TAG_DATA_TYPE = "tag_data_type";
+  private static final String REP_TAG_GROUP = "tag_group";
+  private static final String REP_GROUP_NAME = "group_name";
+  private static final String REP_GROUP_INTERVAL = "group_interval";
+  private static final String REP_GROUP_SAMPLING_INTERVAL = "group_sampling_interval";
+  private static final String REP_GROUP_QUEUE_SIZE = "group_queue_size";
+  private static final String REP_GROUP_TRIGGER = "group_trigger";
+  private static final String REP_GROUP_DEADBAND_TYPE = "group_deadband_type";
+  private static final String REP_GROUP_DEADBAND = "group_deadband";
 
   private String opcUaConnectionName;
 
+  private OpcUaReadMode readMode;
+
+  /**
+   * The publishing interval of the subscription in ms
+   */
+  private String publishingInterval;
+
+  /**
+   * The sampling interval of the monitored items in ms
+   */
+  private String samplingInterval;
+
+  /**
+   * The maximum number of tags to read in a single request. Empty or 0 means we use the server's MaxNodesPerRead.
+   */
+  private String maxNodesPerRead;
+
+  /**
+   * The number of Read requests sent before waiting for the answer to the oldest one, when the tags don't fit in one
+   */
+  private String maxRequestsInFlight;
+
+  /**
+   * How the tags are divided over the step copies when the step runs in multiple copies
+   */
+  private OpcUaTagPartitioning tagPartitioning;
+
+  /**
+   * The polling interval in ms of the tags which are not in a group
+   */
+  private String pollInterval;
+
+  /**
+   * A row per tag value or a row per read cycle with a column per tag
+   */
+  private OpcUaOutputLayout outputLayout;
+
+  /**
+   * The maximum number of values waiting between the OPC UA client threads and the step
+   */
+  private String queueSize;
+
+  /**
+   * What to do when values arrive faster than the step can pass them on
+   */
+  private OpcUaHandoffQueue.Policy queuePolicy;
+
+  /**
+   * The Kettle type of the timestamp columns
+   */
+  private OpcUaTimestampFormat timestampFormat;
+
+  /**
+   * Narrow layout: which of the metadata of a value to emit next to the tag name and value
+   */
+  private boolean includeSourceTimestamp;
+  private boolean includeServerTimestamp;
+
+  /**
+   * Add the picoseconds of the included timestamps in separate columns
+   */
+  private boolean includePicoseconds;
+  private boolean includeStatusCode;
+
+  /**
+   * Add the severity (Good, Uncertain or Bad) and the symbolic name of the status code
+   */
+  private boolean includeStatusDetails;
+
+  /**
+   * Groups of tags with their own polling interval
+   */
+  private List<OpcUaTagGroup> groups;
+
+  private List<OpcUaTag> tags;
+
   public OpcUaMeta() {
     super();
+    readMode = OpcUaReadMode.SERVER_STATUS;
+    tagPartitioning = OpcUaTagPartitioning.ROUND_ROBIN;
+    queuePolicy = OpcUaHandoffQueue.Policy.BLOCK;
+    outputLayout = OpcUaOutputLayout.NARROW;
+    timestampFormat = OpcUaTimestampFormat.DATE;
+    includeSourceTimestamp = true;
+    includeServerTimestamp = true;
+    includeStatusCode = true;
+    tags = new ArrayList<>();
+    groups = new ArrayList<>();
+  }
+
+  @Override
+  public Object clone() {
+    OpcUaMeta meta = (OpcUaMeta) super.clone();
+    meta.tags = new ArrayList<>();
+    for ( OpcUaTag tag : tags ) {
+      meta.tags.add( new OpcUaTag( tag ) );
+    }
+    meta.groups = new ArrayList<>();
+    for ( OpcUaTagGroup group : groups ) {
+      meta.groups.add( new OpcUaTagGroup( group ) );
+    }
+    return meta;
   }
 
   @Override
   public void getFields(RowMetaInterface inputRowMeta, String name, RowMetaInterface[] info, StepMeta nextStep,
                         VariableSpace space, Repository repository, IMetaStore metaStore) throws KettleStepException {
 
-    // load OPC UA connection from the shared metastore objects...
+    // Check that the OPC UA connection exists in the shared metastore objects.
+    // We use the connection cache since this method is called a lot.
+    // The output itself is described by the step settings and tag data types only.
     //
-    String connectionName = space.environmentSubstitute( opcUaConnectionName );
-    try {
-
-      MetaStoreFactory<OpcUaConnection> factory = new MetaStoreFactory<OpcUaConnection>(OpcUaConnection.class, metaStore, PentahoDefaults.NAMESPACE );
-      OpcUaConnection connection = factory.loadElement( connectionName );
-      if (connection==null) {
-        throw new KettleException("Unable to find OPC UA connection with name '"+connectionName+"'");
+    if ( metaStore != null ) {
+      String connectionName = space.environmentSubstitute( opcUaConnectionName );
+      try {
+        OpcUaConnection connection = OpcUaConnectionCache.load( metaStore, connectionName );
+        if ( connection == null ) {
+          throw new KettleException( "Unable to find OPC UA connection with name '" + connectionName + "'" );
+        }
+      } catch ( Exception e ) {
+        throw new KettleStepException( "Unable to connect to OPC UA server '" + connectionName + "'", e );
       }
+    }
 
-      // All is fine, we could get metadata from the connection but we just wanted to test existence.
-      //
-    } catch(Exception e) {
-      throw new KettleStepException("Unable to connect to OPC UA server '"+connectionName+"'", e);
+    switch ( readMode ) {
+      case READ:
+      case POLL:
+      case SUBSCRIBE:
+        if ( outputLayout == OpcUaOutputLayout.WIDE ) {
+          // The time of the read cycle followed by a column per tag, typed by the data type of the tag
+          //
+          addValueMeta( inputRowMeta, getTimestampMeta( "Timestamp" ), name );
+          for ( OpcUaTag tag : tags ) {
+            addValueMeta( inputRowMeta, getValueMeta( getTagName( tag ), Collections.singletonList( tag ) ), name );
+          }
+        } else {
+          addValueMeta( inputRowMeta, new ValueMetaString( "TagName" ), name );
+          addValueMeta( inputRowMeta, getValueMeta( "Value", tags ), name );
+          if ( includeSourceTimestamp ) {
+            addValueMeta( inputRowMeta, getTimestampMeta( "Timestamp" ), name );
+            if ( includePicoseconds ) {
+              addValueMeta( inputRowMeta, new ValueMetaInteger( "SourcePicoseconds" ), name );
+            }
+          }
+          if ( includeServerTimestamp ) {
+            addValueMeta( inputRowMeta, getTimestampMeta( "ServerTimestamp" ), name );
+            if ( includePicoseconds ) {
+              addValueMeta( inputRowMeta, new ValueMetaInteger( "ServerPicoseconds" ), name );
+            }
+          }
+          if ( includeStatusCode ) {
+            addValueMeta( inputRowMeta, new ValueMetaInteger( "StatusCode" ), name );
+          }
+          if ( includeStatusDetails ) {
+            addValueMeta( inputRowMeta, new ValueMetaString( "StatusSeverity" ), name );
+            addValueMeta( inputRowMeta, new ValueMetaString( "StatusName" ), name );
+          }
+        }
+        break;
+      default:
+        addValueMeta( inputRowMeta, new ValueMetaString( "ServerState" ), name );
+        addValueMeta( inputRowMeta, new ValueMetaDate( "ServerCurrentTime" ), name );
+        addValueMeta( inputRowMeta, new ValueMetaDate( "ServerStartTime" ), name );
+        addValueMeta( inputRowMeta, new ValueMetaString( "ProductName" ), name );
+        addValueMeta( inputRowMeta, new ValueMetaString( "SoftwareVersion" ), name );
+        addValueMeta( inputRowMeta, new ValueMetaString( "BuildNumber" ), name );
+        addValueMeta( inputRowMeta, new ValueMetaInteger( "SecondsTillShutdown" ), name );
+        break;
+    }
+  }
+
+  /**
+   * Describe a column holding the values of the given tags.
+   * The Kettle type is derived from the OPC UA data types of the tags, String if they don't agree.
+   */
+  static ValueMetaInterface getValueMeta( String valueName, List<OpcUaTag> tags ) throws KettleStepException {
+    List<String> dataTypes = new ArrayList<>( tags.size() );
+    for ( OpcUaTag tag : tags ) {
+      dataTypes.add( tag.getDataType() );
+    }
+    try {
+      return OpcUaValueMapper.createValueMeta( valueName, OpcUaValueMapper.getCommonValueType( dataTypes ) );
+    } catch ( Exception e ) {
+      throw new KettleStepException( "Unable to create value metadata for '" + valueName + "'", e );
     }
+  }
 
-    ValueMetaInterface serverState = new ValueMetaString("ServerState");
-    inputRowMeta.addValueMeta(serverState);
+  private ValueMetaInterface getTimestampMeta( String valueName ) throws KettleStepException {
+    try {
+      return OpcUaValueMapper.createValueMeta( valueName, timestampFormat.getValueType() );
+    } catch ( Exception e ) {
+      throw new KettleStepException( "Unable to create value metadata for '" + valueName + "'", e );
+    }
+  }
 
-    ValueMetaInterface serverCurrentTime = new ValueMetaDate("ServerCurrentTime");
-    inputRowMeta.addValueMeta(serverCurrentTime);
+  private void addValueMeta( RowMetaInterface rowMeta, ValueMetaInterface valueMeta, String origin ) {
+    valueMeta.setOrigin( origin );
+    rowMeta.addValueMeta( valueMeta );
   }
 
   @Override
@@ -101,6 +317,38 @@ public class OpcUaMeta extends BaseStepMeta implements StepMetaInterface {
     StringBuilder xml = new StringBuilder();
 
     xml.append( XMLHandler.addTagValue( TAG_OPC_UA_CONNECTION, opcUaConnectionName ) );
+    xml.append( XMLHandler.addTagValue( TAG_READ_MODE, readMode.name() ) );
+    xml.append( XMLHandler.addTagValue( TAG_PUBLISHING_INTERVAL, publishingInterval ) );
+    xml.append( XMLHandler.addTagValue( TAG_SAMPLING_INTERVAL, samplingInterval ) );
+    xml.append( XMLHandler.addTagValue( TAG_MAX_NODES_PER_READ, maxNodesPerRead ) );
+    xml.append( XMLHandler.addTagValue( TAG_MAX_REQUESTS_IN_FLIGHT, maxRequestsInFlight ) );
+    xml.append( XMLHandler.addTagValue( TAG_TAG_PARTITIONING, tagPartitioning.name() ) );
+    xml.append( XMLHandler.addTagValue( TAG_POLL_INTERVAL, pollInterval ) );
+    xml.append( XMLHandler.addTagValue( TAG_QUEUE_SIZE, queueSize ) );
+    xml.append( XMLHandler.addTagValue( TAG_OUTPUT_LAYOUT, outputLayout.name() ) );
+    xml.append( XMLHandler.addTagValue( TAG_QUEUE_POLICY, queuePolicy.name() ) );
+    xml.append( XMLHandler.addTagValue( TAG_TIMESTAMP_FORMAT, timestampFormat.name() ) );
+    xml.append( XMLHandler.addTagValue( TAG_INCLUDE_SOURCE_TIMESTAMP, includeSourceTimestamp ) );
+    xml.append( XMLHandler.addTagValue( TAG_INCLUDE_SERVER_TIMESTAMP, includeServerTimestamp ) );
+    xml.append( XMLHandler.addTagValue( TAG_INCLUDE_PICOSECONDS, includePicoseconds ) );
+    xml.append( XMLHandler.addTagValue( TAG_INCLUDE_STATUS_CODE, includeStatusCode ) );
+    xml.append( XMLHandler.addTagValue( TAG_INCLUDE_STATUS_DETAILS, includeStatusDetails ) );
+
+    xml.append( XMLHandler.openTag( TAG_GROUPS ) );
+    for ( OpcUaTagGroup group : groups ) {
+      xml.append( XMLHandler.openTag( TAG_GROUP ) );
+      xml.append( XMLHandler.addTagValue( TAG_GROUP_NAME, group.getName() ) );
+      xml.append( XMLHandler.addTagValue( TAG_GROUP_INTERVAL, group.getInterval() ) );
+      xml.append( XMLHandler.addTagValue( TAG_GROUP_SAMPLING_INTERVAL, group.getSamplingInterval() ) );
+      xml.append( XMLHandler.addTagValue( TAG_GROUP_QUEUE_SIZE, group.getQueueSize() ) );
+      xml.append( XMLHandler.addTagValue( TAG_GROUP_TRIGGER, group.getTrigger() ) );
+      xml.append( XMLHandler.addTagValue( TAG_GROUP_DEADBAND_TYPE, group.getDeadbandType() ) );
+      xml.append( XMLHandler.addTagValue( TAG_GROUP_DEADBAND, group.getDeadband() ) );
+      xml.append( XMLHandler.closeTag( TAG_GROUP ) );
+    }
+    xml.append( XMLHandler.closeTag( TAG_GROUPS ) );
+
+    xml.append( getTagsXML( tags ) );
 
     return xml.toString();
   }
@@ -110,6 +358,42 @@ public class OpcUaMeta extends BaseStepMeta implements StepMetaInterface {
     try {
 
       opcUaConnectionName = XMLHandler.getTagValue( stepnode, TAG_OPC_UA_CONNECTION );
+      readMode = OpcUaReadMode.getModeForCode( XMLHandler.getTagValue( stepnode, TAG_READ_MODE ) );
+      publishingInterval = XMLHandler.getTagValue( stepnode, TAG_PUBLISHING_INTERVAL );
+      samplingInterval = XMLHandler.getTagValue( stepnode, TAG_SAMPLING_INTERVAL );
+      maxNodesPerRead = XMLHandler.getTagValue( stepnode, TAG_MAX_NODES_PER_READ );
+      maxRequestsInFlight = XMLHandler.getTagValue( stepnode, TAG_MAX_REQUESTS_IN_FLIGHT );
+      tagPartitioning = OpcUaTagPartitioning.getPartitioningForCode( XMLHandler.getTagValue( stepnode, TAG_TAG_PARTITIONING ) );
+      pollInterval = XMLHandler.getTagValue( stepnode, TAG_POLL_INTERVAL );
+      queueSize = XMLHandler.getTagValue( stepnode, TAG_QUEUE_SIZE );
+      outputLayout = OpcUaOutputLayout.getLayoutForCode( XMLHandler.getTagValue( stepnode, TAG_OUTPUT_LAYOUT ) );
+      queuePolicy = OpcUaHandoffQueue.Policy.getPolicyForCode( XMLHandler.getTagValue( stepnode, TAG_QUEUE_POLICY ) );
+      timestampFormat = OpcUaTimestampFormat.getFormatForCode( XMLHandler.getTagValue( stepnode, TAG_TIMESTAMP_FORMAT ) );
+
+      // Steps saved before these options existed emitted the timestamps and the status code
+      //
+      includeSourceTimestamp = !"N".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, TAG_INCLUDE_SOURCE_TIMESTAMP ) );
+      includeServerTimestamp = !"N".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, TAG_INCLUDE_SERVER_TIMESTAMP ) );
+      includePicoseconds = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, TAG_INCLUDE_PICOSECONDS ) );
+      includeStatusCode = !"N".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, TAG_INCLUDE_STATUS_CODE ) );
+      includeStatusDetails = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, TAG_INCLUDE_STATUS_DETAILS ) );
+
+      groups = new ArrayList<>();
+      Node groupsNode = XMLHandler.getSubNode( stepnode, TAG_GROUPS );
+      for ( Node groupNode : XMLHandler.getNodes( groupsNode, TAG_GROUP ) ) {
+        OpcUaTagGroup group = new OpcUaTagGroup(
+          XMLHandler.getTagValue( groupNode, TAG_GROUP_NAME ),
+          XMLHandler.getTagValue( groupNode, TAG_GROUP_INTERVAL )
+        );
+        group.setSamplingInterval( XMLHandler.getTagValue( groupNode, TAG_GROUP_SAMPLING_INTERVAL ) );
+        group.setQueueSize( XMLHandler.getTagValue( groupNode, TAG_GROUP_QUEUE_SIZE ) );
+        group.setTrigger( XMLHandler.getTagValue( groupNode, TAG_GROUP_TRIGGER ) );
+        group.setDeadbandType( XMLHandler.getTagValue( groupNode, TAG_GROUP_DEADBAND_TYPE ) );
+        group.setDeadband( XMLHandler.getTagValue( groupNode, TAG_GROUP_DEADBAND ) );
+        groups.add( group );
+      }
+
+      tags = loadTagsXML( stepnode );
 
     } catch ( Exception e ) {
       throw new KettleXMLException( "Unable to load execute test step details", e );
@@ -120,12 +404,133 @@ public class OpcUaMeta extends BaseStepMeta implements StepMetaInterface {
   public void saveRep( Repository rep, IMetaStore metaStore, ObjectId id_transformation, ObjectId id_step ) throws KettleException {
 
     rep.saveStepAttribute( id_transformation, id_step, TAG_OPC_UA_CONNECTION, opcUaConnectionName );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_READ_MODE, readMode.name() );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_PUBLISHING_INTERVAL, publishingInterval );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_SAMPLING_INTERVAL, samplingInterval );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_MAX_NODES_PER_READ, maxNodesPerRead );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_MAX_REQUESTS_IN_FLIGHT, maxRequestsInFlight );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_TAG_PARTITIONING, tagPartitioning.name() );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_POLL_INTERVAL, pollInterval );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_QUEUE_SIZE, queueSize );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_OUTPUT_LAYOUT, outputLayout.name() );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_QUEUE_POLICY, queuePolicy.name() );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_TIMESTAMP_FORMAT, timestampFormat.name() );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_INCLUDE_SOURCE_TIMESTAMP, includeSourceTimestamp );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_INCLUDE_SERVER_TIMESTAMP, includeServerTimestamp );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_INCLUDE_PICOSECONDS, includePicoseconds );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_INCLUDE_STATUS_CODE, includeStatusCode );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_INCLUDE_STATUS_DETAILS, includeStatusDetails );
+
+    for ( int i = 0; i < groups.size(); i++ ) {
+      OpcUaTagGroup group = groups.get( i );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_GROUP_NAME, group.getName() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_GROUP_INTERVAL, group.getInterval() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_GROUP_SAMPLING_INTERVAL, group.getSamplingInterval() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_GROUP_QUEUE_SIZE, group.getQueueSize() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_GROUP_TRIGGER, group.getTrigger() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_GROUP_DEADBAND_TYPE, group.getDeadbandType() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_GROUP_DEADBAND, group.getDeadband() );
+    }
+
+    saveTagsRep( rep, id_transformation, id_step, tags );
   }
 
   @Override
   public void readRep( Repository rep, IMetaStore metaStore, ObjectId id_step, List<DatabaseMeta> databases ) throws KettleException {
 
     opcUaConnectionName = rep.getStepAttributeString( id_step, TAG_OPC_UA_CONNECTION );
+    readMode = OpcUaReadMode.getModeForCode( rep.getStepAttributeString( id_step, TAG_READ_MODE ) );
+    publishingInterval = rep.getStepAttributeString( id_step, TAG_PUBLISHING_INTERVAL );
+    samplingInterval = rep.getStepAttributeString( id_step, TAG_SAMPLING_INTERVAL );
+    maxNodesPerRead = rep.getStepAttributeString( id_step, TAG_MAX_NODES_PER_READ );
+    maxRequestsInFlight = rep.getStepAttributeString( id_step, TAG_MAX_REQUESTS_IN_FLIGHT );
+    tagPartitioning = OpcUaTagPartitioning.getPartitioningForCode( rep.getStepAttributeString( id_step, TAG_TAG_PARTITIONING ) );
+    pollInterval = rep.getStepAttributeString( id_step, TAG_POLL_INTERVAL );
+    queueSize = rep.getStepAttributeString( id_step, TAG_QUEUE_SIZE );
+    outputLayout = OpcUaOutputLayout.getLayoutForCode( rep.getStepAttributeString( id_step, TAG_OUTPUT_LAYOUT ) );
+    queuePolicy = OpcUaHandoffQueue.Policy.getPolicyForCode( rep.getStepAttributeString( id_step, TAG_QUEUE_POLICY ) );
+    timestampFormat = OpcUaTimestampFormat.getFormatForCode( rep.getStepAttributeString( id_step, TAG_TIMESTAMP_FORMAT ) );
+    includeSourceTimestamp = rep.getStepAttributeBoolean( id_step, 0, TAG_INCLUDE_SOURCE_TIMESTAMP, true );
+    includeServerTimestamp = rep.getStepAttributeBoolean( id_step, 0, TAG_INCLUDE_SERVER_TIMESTAMP, true );
+    includePicoseconds = rep.getStepAttributeBoolean( id_step, TAG_INCLUDE_PICOSECONDS );
+    includeStatusCode = rep.getStepAttributeBoolean( id_step, 0, TAG_INCLUDE_STATUS_CODE, true );
+    includeStatusDetails = rep.getStepAttributeBoolean( id_step, TAG_INCLUDE_STATUS_DETAILS );
+
+    groups = new ArrayList<>();
+    int nrGroups = rep.countNrStepAttributes( id_step, REP_GROUP_NAME );
+    for ( int i = 0; i < nrGroups; i++ ) {
+      OpcUaTagGroup group = new OpcUaTagGroup(
+        rep.getStepAttributeString( id_step, i, REP_GROUP_NAME ),
+        rep.getStepAttributeString( id_step, i, REP_GROUP_INTERVAL )
+      );
+      group.setSamplingInterval( rep.getStepAttributeString( id_step, i, REP_GROUP_SAMPLING_INTERVAL ) );
+      group.setQueueSize( rep.getStepAttributeString( id_step, i, REP_GROUP_QUEUE_SIZE ) );
+      group.setTrigger( rep.getStepAttributeString( id_step, i, REP_GROUP_TRIGGER ) );
+      group.setDeadbandType( rep.getStepAttributeString( id_step, i, REP_GROUP_DEADBAND_TYPE ) );
+      group.setDeadband( rep.getStepAttributeString( id_step, i, REP_GROUP_DEADBAND ) );
+      groups.add( group );
+    }
+
+    tags = readTagsRep( rep, id_step );
+  }
+
+  /**
+   * Serialize a tag list, shared by the OPC UA input steps
+   */
+  static String getTagsXML( List<OpcUaTag> tags ) {
+    StringBuilder xml = new StringBuilder();
+    xml.append( XMLHandler.openTag( TAG_TAGS ) );
+    for ( OpcUaTag tag : tags ) {
+      xml.append( XMLHandler.openTag( TAG_TAG ) );
+      xml.append( XMLHandler.addTagValue( TAG_TAG_NODE_ID, tag.getNodeId() ) );
+      xml.append( XMLHandler.addTagValue( TAG_TAG_NAME, tag.getName() ) );
+      xml.append( XMLHandler.addTagValue( TAG_TAG_DATA_TYPE, tag.getDataType() ) );
+      xml.append( XMLHandler.addTagValue( TAG_TAG_GROUP, tag.getGroup() ) );
+      xml.append( XMLHandler.closeTag( TAG_TAG ) );
+    }
+    xml.append( XMLHandler.closeTag( TAG_TAGS ) );
+    return xml.toString();
+  }
+
+  static List<OpcUaTag> loadTagsXML( Node stepnode ) {
+    List<OpcUaTag> tags = new ArrayList<>();
+    Node tagsNode = XMLHandler.getSubNode( stepnode, TAG_TAGS );
+    List<Node> tagNodes = XMLHandler.getNodes( tagsNode, TAG_TAG );
+    for ( Node tagNode : tagNodes ) {
+      OpcUaTag tag = new OpcUaTag(
+        XMLHandler.getTagValue( tagNode, TAG_TAG_NODE_ID ),
+        XMLHandler.getTagValue( tagNode, TAG_TAG_NAME )
+      );
+      tag.setDataType( XMLHandler.getTagValue( tagNode, TAG_TAG_DATA_TYPE ) );
+      tag.setGroup( XMLHandler.getTagValue( tagNode, TAG_TAG_GROUP ) );
+      tags.add( tag );
+    }
+    return tags;
+  }
+
+  static void saveTagsRep( Repository rep, ObjectId id_transformation, ObjectId id_step, List<OpcUaTag> tags ) throws KettleException {
+    for ( int i = 0; i < tags.size(); i++ ) {
+      OpcUaTag tag = tags.get( i );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_TAG_NODE_ID, tag.getNodeId() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_TAG_NAME, tag.getName() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_TAG_DATA_TYPE, tag.getDataType() );
+      rep.saveStepAttribute( id_transformation, id_step, i, REP_TAG_GROUP, tag.getGroup() );
+    }
+  }
+
+  static List<OpcUaTag> readTagsRep( Repository rep, ObjectId id_step ) throws KettleException {
+    List<OpcUaTag> tags = new ArrayList<>();
+    int nrTags = rep.countNrStepAttributes( id_step, REP_TAG_NODE_ID );
+    for ( int i = 0; i < nrTags; i++ ) {
+      OpcUaTag tag = new OpcUaTag(
+        rep.getStepAttributeString( id_step, i, REP_TAG_NODE_ID ),
+        rep.getStepAttributeString( id_step, i, REP_TAG_NAME )
+      );
+      tag.setDataType( rep.getStepAttributeString( id_step, i, REP_TAG_DATA_TYPE ) );
+      tag.setGroup( rep.getStepAttributeString( id_step, i, REP_TAG_GROUP ) );
+      tags.add( tag );
+    }
+    return tags;
   }
 
 
@@ -147,6 +552,48 @@ public class OpcUaMeta extends BaseStepMeta implements StepMetaInterface {
   @Override
   public void setDefault() {
     opcUaConnectionName = "";
+    readMode = OpcUaReadMode.SERVER_STATUS;
+    publishingInterval = "1000";
+    samplingInterval = "1000";
+    maxNodesPerRead = "";
+    maxRequestsInFlight = "4";
+    tagPartitioning = OpcUaTagPartitioning.ROUND_ROBIN;
+    pollInterval = "1000";
+    queueSize = "10000";
+    queuePolicy = OpcUaHandoffQueue.Policy.BLOCK;
+    outputLayout = OpcUaOutputLayout.NARROW;
+    timestampFormat = OpcUaTimestampFormat.DATE;
+    includeSourceTimestamp = true;
+    includeServerTimestamp = true;
+    includePicoseconds = false;
+    includeStatusCode = true;
+    includeStatusDetails = false;
+    tags = new ArrayList<>();
+    groups = new ArrayList<>();
+  }
+
+  /**
+   * @param name The name of the group, empty for the default group
+   * @return The tag group with the given name or null if there is no such group
+   */
+  public OpcUaTagGroup findGroup( String name ) {
+    if ( Const.isEmpty( name ) ) {
+      return null;
+    }
+    for ( OpcUaTagGroup group : groups ) {
+      if ( name.equalsIgnoreCase( group.getName() ) ) {
+        return group;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param tag The tag to describe
+   * @return The name of the tag or its node ID if no name was given
+   */
+  public static String getTagName( OpcUaTag tag ) {
+    return Const.NVL( tag.getName(), tag.getNodeId() );
   }
 
   public String getOpcUaConnectionName() {
@@ -156,4 +603,148 @@ public class OpcUaMeta extends BaseStepMeta implements StepMetaInterface {
   public void setOpcUaConnectionName( String opcUaConnectionName ) {
     this.opcUaConnectionName = opcUaConnectionName;
   }
+
+  public OpcUaReadMode getReadMode() {
+    return readMode;
+  }
+
+  public void setReadMode( OpcUaReadMode readMode ) {
+    this.readMode = readMode;
+  }
+
+  public String getPublishingInterval() {
+    return publishingInterval;
+  }
+
+  public void setPublishingInterval( String publishingInterval ) {
+    this.publishingInterval = publishingInterval;
+  }
+
+  public String getSamplingInterval() {
+    return samplingInterval;
+  }
+
+  public void setSamplingInterval( String samplingInterval ) {
+    this.samplingInterval = samplingInterval;
+  }
+
+  public String getMaxNodesPerRead() {
+    return maxNodesPerRead;
+  }
+
+  public void setMaxNodesPerRead( String maxNodesPerRead ) {
+    this.maxNodesPerRead = maxNodesPerRead;
+  }
+
+  public String getMaxRequestsInFlight() {
+    return maxRequestsInFlight;
+  }
+
+  public void setMaxRequestsInFlight( String maxRequestsInFlight ) {
+    this.maxRequestsInFlight = maxRequestsInFlight;
+  }
+
+  public OpcUaTagPartitioning getTagPartitioning() {
+    return tagPartitioning;
+  }
+
+  public void setTagPartitioning( OpcUaTagPartitioning tagPartitioning ) {
+    this.tagPartitioning = tagPartitioning;
+  }
+
+  public String getPollInterval() {
+    return pollInterval;
+  }
+
+  public void setPollInterval( String pollInterval ) {
+    this.pollInterval = pollInterval;
+  }
+
+  public OpcUaOutputLayout getOutputLayout() {
+    return outputLayout;
+  }
+
+  public void setOutputLayout( OpcUaOutputLayout outputLayout ) {
+    this.outputLayout = outputLayout;
+  }
+
+  public String getQueueSize() {
+    return queueSize;
+  }
+
+  public void setQueueSize( String queueSize ) {
+    this.queueSize = queueSize;
+  }
+
+  public OpcUaHandoffQueue.Policy getQueuePolicy() {
+    return queuePolicy;
+  }
+
+  public void setQueuePolicy( OpcUaHandoffQueue.Policy queuePolicy ) {
+    this.queuePolicy = queuePolicy;
+  }
+
+  public OpcUaTimestampFormat getTimestampFormat() {
+    return timestampFormat;
+  }
+
+  public void setTimestampFormat( OpcUaTimestampFormat timestampFormat ) {
+    this.timestampFormat = timestampFormat;
+  }
+
+  public boolean isIncludeSourceTimestamp() {
+    return includeSourceTimestamp;
+  }
+
+  public void setIncludeSourceTimestamp( boolean includeSourceTimestamp ) {
+    this.includeSourceTimestamp = includeSourceTimestamp;
+  }
+
+  public boolean isIncludeServerTimestamp() {
+    return includeServerTimestamp;
+  }
+
+  public void setIncludeServerTimestamp( boolean includeServerTimestamp ) {
+    this.includeServerTimestamp = includeServerTimestamp;
+  }
+
+  public boolean isIncludePicoseconds() {
+    return includePicoseconds;
+  }
+
+  public void setIncludePicoseconds( boolean includePicoseconds ) {
+    this.includePicoseconds = includePicoseconds;
+  }
+
+  public boolean isIncludeStatusCode() {
+    return includeStatusCode;
+  }
+
+  public void setIncludeStatusCode( boolean includeStatusCode ) {
+    this.includeStatusCode = includeStatusCode;
+  }
+
+  public boolean isIncludeStatusDetails() {
+    return includeStatusDetails;
+  }
+
+  public void setIncludeStatusDetails( boolean includeStatusDetails ) {
+    this.includeStatusDetails = includeStatusDetails;
+  }
+
+  public List<OpcUaTagGroup> getGroups() {
+    return groups;
+  }
+
+  public void setGroups( List<OpcUaTagGroup> groups ) {
+    this.groups = groups;
+  }
+
+  public List<OpcUaTag> getTags() {
+    return tags;
+  }
+
+  public void setTags( List<OpcUaTag> tags ) {
+    this.tags = tags;
+  }
 }
@@ -0,0 +1,149 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.HashMap;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.opcua.util.OpcUaOperationLimits;
+import org.pentaho.di.opcua.util.OpcUaRequestSizer;
+import org.pentaho.di.opcua.util.OpcUaWriteBatcher;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+
+/**
+ * Writes the values of the incoming rows to OPC UA variables.
+ * Rows are collected into multi-node Write requests, see {@link OpcUaWriteBatcher}, and passed on unchanged.
+ */
+public class OpcUaOutput extends BaseOpcUaStep implements StepInterface {
+
+  public OpcUaOutput( StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr,
+                      TransMeta transMeta, Trans trans ) {
+    super( stepMeta, stepDataInterface, copyNr, transMeta, trans );
+  }
+
+  @Override
+  public boolean init( StepMetaInterface smi, StepDataInterface sdi ) {
+    OpcUaOutputData data = (OpcUaOutputData) sdi;
+
+    data.connection = null;
+
+    return super.init( smi, sdi );
+  }
+
+  @Override
+  public boolean processRow( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
+    OpcUaOutputMeta meta = (OpcUaOutputMeta) smi;
+    OpcUaOutputData data = (OpcUaOutputData) sdi;
+
+    Object[] row = getRow();
+    if ( row == null ) {
+      // Write what is left
+      //
+      if ( data.batcher != null ) {
+        data.batcher.flush();
+      }
+      setOutputDone();
+      return false;
+    }
+
+    if ( first ) {
+      first = false;
+
+      data.nodeIdFieldIndex = getInputRowMeta().indexOfValue( environmentSubstitute( meta.getNodeIdField() ) );
+      if ( data.nodeIdFieldIndex < 0 ) {
+        throw new KettleException( "Unable to find node ID field '" + meta.getNodeIdField() + "'" );
+      }
+      data.valueFieldIndex = getInputRowMeta().indexOfValue( environmentSubstitute( meta.getValueField() ) );
+      if ( data.valueFieldIndex < 0 ) {
+        throw new KettleException( "Unable to find value field '" + meta.getValueField() + "'" );
+      }
+      data.nodeIds = new HashMap<>();
+
+      String connectionName = environmentSubstitute( meta.getOpcUaConnectionName() );
+      try {
+        data.store = getAMetaStore();
+      } catch ( Exception e ) {
+        throw new KettleException( "Unable to connect to OPC UA server '" + connectionName + "'", e );
+      }
+      data.connection = loadConnection( data.store, connectionName );
+      data.client = borrowClient( data.connection );
+
+      OpcUaRequestSizer sizer = createRequestSizer( data.client, "Write", meta.getMaxNodesPerWrite(),
+        OpcUaOperationLimits::getMaxNodesPerWrite, OpcUaOperationLimits.ESTIMATED_BYTES_PER_VALUE, 1000 );
+      OpcUaRequestSizer readSizer = createRequestSizer( data.client, "Read", null,
+        OpcUaOperationLimits::getMaxNodesPerRead, OpcUaOperationLimits.ESTIMATED_BYTES_PER_VALUE, 0 );
+      long maxLatency = Const.toLong( environmentSubstitute( meta.getMaxLatency() ), 100L );
+      logDetailed( "Writing at most " + sizer.getSize() + " values per request, waiting at most " + maxLatency + "ms" );
+
+      data.registry = createNodeRegistry( data.client );
+      data.batcher = new OpcUaWriteBatcher( log, data.client, sizer, readSizer, maxLatency, meta.isCoalesce(), data.registry, metrics );
+      data.batcher.start( "OPC UA writer " + getStepname() + "." + getCopy() );
+    }
+
+    String nodeIdString = getInputRowMeta().getString( row, data.nodeIdFieldIndex );
+    if ( Const.isEmpty( nodeIdString ) ) {
+      throw new KettleException( "No node ID to write to in field '" + meta.getNodeIdField() + "'" );
+    }
+    NodeId nodeId = data.nodeIds.get( nodeIdString );
+    if ( nodeId == null ) {
+      try {
+        nodeId = NodeId.parse( nodeIdString );
+      } catch ( Exception e ) {
+        throw new KettleException( "Invalid node ID '" + nodeIdString + "'", e );
+      }
+      data.nodeIds.put( nodeIdString, nodeId );
+    }
+
+    Object value = getInputRowMeta().getValueMeta( data.valueFieldIndex ).convertToNormalStorageType( row[ data.valueFieldIndex ] );
+    data.batcher.add( nodeId, value );
+
+    putRow( getInputRowMeta(), row );
+    return true;
+  }
+
+  @Override public void dispose( StepMetaInterface smi, StepDataInterface sdi ) {
+    OpcUaOutputData data = (OpcUaOutputData) sdi;
+
+    if ( data.batcher != null ) {
+      data.batcher.stop();
+      logBasic( "Wrote " + data.batcher.getNrValues() + " values in " + data.batcher.getNrWrites() + " requests, "
+        + data.batcher.getNrCoalesced() + " values coalesced" );
+      data.batcher = null;
+    }
+    if ( data.registry != null ) {
+      data.registry.stop();
+      data.registry = null;
+    }
+    releaseClient( data.client );
+    data.client = null;
+    super.dispose( smi, sdi );
+  }
+}
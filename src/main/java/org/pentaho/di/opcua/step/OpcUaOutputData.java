@@ -0,0 +1,58 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.Map;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.pentaho.di.opcua.connection.OpcUaConnection;
+import org.pentaho.di.opcua.util.OpcUaNodeRegistry;
+import org.pentaho.di.opcua.util.OpcUaWriteBatcher;
+import org.pentaho.di.trans.step.BaseStepData;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.metastore.api.IMetaStore;
+
+public class OpcUaOutputData extends BaseStepData implements StepDataInterface {
+
+  public OpcUaConnection connection;
+
+  public IMetaStore store;
+  public OpcUaClient client;
+
+  public int nodeIdFieldIndex;
+  public int valueFieldIndex;
+
+  /**
+   * The node IDs we parsed before, the same few nodes tend to be written over and over
+   */
+  public Map<String, NodeId> nodeIds;
+
+  public OpcUaWriteBatcher batcher;
+
+  /**
+   * The registered node IDs of the nodes written to so far
+   */
+  public OpcUaNodeRegistry registry;
+}
@@ -0,0 +1,300 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CCombo;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.events.ShellAdapter;
+import org.eclipse.swt.events.ShellEvent;
+import org.eclipse.swt.layout.FormAttachment;
+import org.eclipse.swt.layout.FormData;
+import org.eclipse.swt.layout.FormLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Text;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.ui.core.widget.ComboVar;
+import org.pentaho.di.ui.core.widget.TextVar;
+import org.pentaho.di.ui.trans.step.BaseStepDialog;
+
+public class OpcUaOutputDialog extends BaseStepDialog implements StepDialogInterface {
+
+  private static Class<?> PKG = OpcUaOutputDialog.class; // i18n
+
+  private OpcUaOutputMeta input;
+
+  private ComboVar wServer;
+  private CCombo wNodeIdField;
+  private CCombo wValueField;
+  private TextVar wMaxNodesPerWrite;
+  private TextVar wMaxLatency;
+  private Button wCoalesce;
+
+  private int middle;
+  private int margin;
+
+  public OpcUaOutputDialog( Shell parent, Object baseStepMeta, TransMeta transMeta, String stepname ) {
+    super( parent, (BaseStepMeta) baseStepMeta, transMeta, stepname );
+
+    input = (OpcUaOutputMeta) baseStepMeta;
+  }
+
+  @Override
+  public String open() {
+
+    Shell parent = getParent();
+    Display display = parent.getDisplay();
+
+    shell = new Shell( parent, SWT.DIALOG_TRIM | SWT.RESIZE | SWT.MIN | SWT.MAX );
+    props.setLook( shell );
+    setShellImage( shell, input );
+
+    FormLayout formLayout = new FormLayout();
+    formLayout.marginWidth = Const.FORM_MARGIN;
+    formLayout.marginHeight = Const.FORM_MARGIN;
+
+    shell.setLayout( formLayout );
+    shell.setText( BaseMessages.getString( PKG, "OpcUaOutputDialog.Shell.Title" ) );
+
+    middle = props.getMiddlePct();
+    margin = Const.MARGIN;
+
+    // Step name...
+    //
+    wlStepname = new Label( shell, SWT.RIGHT );
+    wlStepname.setText( BaseMessages.getString( PKG, "OpcUaDialog.Stepname.Label" ) );
+    props.setLook( wlStepname );
+    fdlStepname = new FormData();
+    fdlStepname.left = new FormAttachment( 0, 0 );
+    fdlStepname.right = new FormAttachment( middle, -margin );
+    fdlStepname.top = new FormAttachment( 0, margin );
+    wlStepname.setLayoutData( fdlStepname );
+    wStepname = new Text( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wStepname.setText( stepname );
+    props.setLook( wStepname );
+    fdStepname = new FormData();
+    fdStepname.left = new FormAttachment( middle, 0 );
+    fdStepname.top = new FormAttachment( 0, margin );
+    fdStepname.right = new FormAttachment( 100, 0 );
+    wStepname.setLayoutData( fdStepname );
+    Control lastControl = wStepname;
+
+    // The OPC UA server
+    //
+    Label wlServer = new Label( shell, SWT.RIGHT );
+    wlServer.setText( BaseMessages.getString( PKG, "OpcUaDialog.Server.Label" ) );
+    props.setLook( wlServer );
+    FormData fdlServer = new FormData();
+    fdlServer.left = new FormAttachment( 0, 0 );
+    fdlServer.right = new FormAttachment( middle, -margin );
+    fdlServer.top = new FormAttachment( lastControl, margin );
+    wlServer.setLayoutData( fdlServer );
+    wServer = new ComboVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wServer );
+    FormData fdServer = new FormData();
+    fdServer.left = new FormAttachment( middle, 0 );
+    fdServer.top = new FormAttachment( lastControl, margin );
+    fdServer.right = new FormAttachment( 100, 0 );
+    wServer.setLayoutData( fdServer );
+    lastControl = wServer;
+
+    String[] fieldNames;
+    try {
+      fieldNames = transMeta.getPrevStepFields( stepname ).getFieldNames();
+    } catch ( KettleException e ) {
+      log.logError( "Unable to get the fields of the previous steps", e );
+      fieldNames = new String[] {};
+    }
+
+    wNodeIdField = addField( "OpcUaOutputDialog.NodeIdField.Label", fieldNames, lastControl );
+    lastControl = wNodeIdField;
+    wValueField = addField( "OpcUaOutputDialog.ValueField.Label", fieldNames, lastControl );
+    lastControl = wValueField;
+    wMaxNodesPerWrite = addTextVar( "OpcUaOutputDialog.MaxNodesPerWrite.Label", lastControl );
+    wMaxNodesPerWrite.setToolTipText( BaseMessages.getString( PKG, "OpcUaOutputDialog.MaxNodesPerWrite.Tooltip" ) );
+    lastControl = wMaxNodesPerWrite;
+    wMaxLatency = addTextVar( "OpcUaOutputDialog.MaxLatency.Label", lastControl );
+    wMaxLatency.setToolTipText( BaseMessages.getString( PKG, "OpcUaOutputDialog.MaxLatency.Tooltip" ) );
+    lastControl = wMaxLatency;
+
+    Label wlCoalesce = new Label( shell, SWT.RIGHT );
+    wlCoalesce.setText( BaseMessages.getString( PKG, "OpcUaOutputDialog.Coalesce.Label" ) );
+    props.setLook( wlCoalesce );
+    FormData fdlCoalesce = new FormData();
+    fdlCoalesce.left = new FormAttachment( 0, 0 );
+    fdlCoalesce.right = new FormAttachment( middle, -margin );
+    fdlCoalesce.top = new FormAttachment( lastControl, margin );
+    wlCoalesce.setLayoutData( fdlCoalesce );
+    wCoalesce = new Button( shell, SWT.CHECK );
+    wCoalesce.setToolTipText( BaseMessages.getString( PKG, "OpcUaOutputDialog.Coalesce.Tooltip" ) );
+    props.setLook( wCoalesce );
+    FormData fdCoalesce = new FormData();
+    fdCoalesce.left = new FormAttachment( middle, 0 );
+    fdCoalesce.top = new FormAttachment( lastControl, margin );
+    fdCoalesce.right = new FormAttachment( 100, 0 );
+    wCoalesce.setLayoutData( fdCoalesce );
+    lastControl = wCoalesce;
+
+    // Some buttons
+    wOK = new Button( shell, SWT.PUSH );
+    wOK.setText( BaseMessages.getString( PKG, "System.Button.OK" ) );
+    wCancel = new Button( shell, SWT.PUSH );
+    wCancel.setText( BaseMessages.getString( PKG, "System.Button.Cancel" ) );
+    // Add listeners
+    lsCancel = new Listener() {
+      public void handleEvent( Event e ) {
+        cancel();
+      }
+    };
+    lsOK = new Listener() {
+      public void handleEvent( Event e ) {
+        ok();
+      }
+    };
+
+    wCancel.addListener( SWT.Selection, lsCancel );
+    wOK.addListener( SWT.Selection, lsOK );
+    setButtonPositions( new Button[] { wOK, wCancel }, margin, lastControl );
+
+    lsDef = new SelectionAdapter() {
+      public void widgetDefaultSelected( SelectionEvent e ) {
+        ok();
+      }
+    };
+
+    wServer.addSelectionListener( lsDef );
+    wMaxNodesPerWrite.addSelectionListener( lsDef );
+    wMaxLatency.addSelectionListener( lsDef );
+
+    // Detect X or ALT-F4 or something that kills this window...
+    shell.addShellListener( new ShellAdapter() {
+      public void shellClosed( ShellEvent e ) {
+        cancel();
+      }
+    } );
+
+    // Set the shell size, based upon previous time...
+    setSize();
+
+    getData();
+    input.setChanged( changed );
+
+    shell.open();
+    while ( !shell.isDisposed() ) {
+      if ( !display.readAndDispatch() ) {
+        display.sleep();
+      }
+    }
+    return stepname;
+  }
+
+  private CCombo addField( String labelKey, String[] fieldNames, Control lastControl ) {
+    Label wlField = new Label( shell, SWT.RIGHT );
+    wlField.setText( BaseMessages.getString( PKG, labelKey ) );
+    props.setLook( wlField );
+    FormData fdlField = new FormData();
+    fdlField.left = new FormAttachment( 0, 0 );
+    fdlField.right = new FormAttachment( middle, -margin );
+    fdlField.top = new FormAttachment( lastControl, margin );
+    wlField.setLayoutData( fdlField );
+    CCombo wField = new CCombo( shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wField.setItems( fieldNames );
+    props.setLook( wField );
+    FormData fdField = new FormData();
+    fdField.left = new FormAttachment( middle, 0 );
+    fdField.top = new FormAttachment( lastControl, margin );
+    fdField.right = new FormAttachment( 100, 0 );
+    wField.setLayoutData( fdField );
+    return wField;
+  }
+
+  private TextVar addTextVar( String labelKey, Control lastControl ) {
+    Label wlText = new Label( shell, SWT.RIGHT );
+    wlText.setText( BaseMessages.getString( PKG, labelKey ) );
+    props.setLook( wlText );
+    FormData fdlText = new FormData();
+    fdlText.left = new FormAttachment( 0, 0 );
+    fdlText.right = new FormAttachment( middle, -margin );
+    fdlText.top = new FormAttachment( lastControl, margin );
+    wlText.setLayoutData( fdlText );
+    TextVar wText = new TextVar( transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wText );
+    FormData fdText = new FormData();
+    fdText.left = new FormAttachment( middle, 0 );
+    fdText.top = new FormAttachment( lastControl, margin );
+    fdText.right = new FormAttachment( 100, 0 );
+    wText.setLayoutData( fdText );
+    return wText;
+  }
+
+  private void getData() {
+
+    wServer.setText( Const.NVL( input.getOpcUaConnectionName(), "" ) );
+    wNodeIdField.setText( Const.NVL( input.getNodeIdField(), "" ) );
+    wValueField.setText( Const.NVL( input.getValueField(), "" ) );
+    wMaxNodesPerWrite.setText( Const.NVL( input.getMaxNodesPerWrite(), "" ) );
+    wMaxLatency.setText( Const.NVL( input.getMaxLatency(), "" ) );
+    wCoalesce.setSelection( input.isCoalesce() );
+
+    wStepname.selectAll();
+    wStepname.setFocus();
+  }
+
+  private void cancel() {
+    stepname = null;
+    input.setChanged( changed );
+    dispose();
+  }
+
+  private void ok() {
+    if ( Const.isEmpty( wStepname.getText() ) ) {
+      return;
+    }
+
+    stepname = wStepname.getText(); // return value
+
+    input.setChanged();
+
+    input.setOpcUaConnectionName( wServer.getText() );
+    input.setNodeIdField( wNodeIdField.getText() );
+    input.setValueField( wValueField.getText() );
+    input.setMaxNodesPerWrite( wMaxNodesPerWrite.getText() );
+    input.setMaxLatency( wMaxLatency.getText() );
+    input.setCoalesce( wCoalesce.getSelection() );
+
+    dispose();
+  }
+}
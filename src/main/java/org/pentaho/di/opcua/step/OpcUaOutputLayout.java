@@ -0,0 +1,81 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+/**
+ * The shape of the rows the OPC UA Input step emits for the tag values.
+ */
+public enum OpcUaOutputLayout {
+
+  /**
+   * One row per tag value: tag name, value, timestamps and status
+   */
+  NARROW( "One row per value (narrow)" ),
+
+  /**
+   * One row per read cycle with a column per tag, holding the last known value of every tag
+   */
+  WIDE( "One row per read cycle (wide)" ),
+  ;
+
+  private String description;
+
+  OpcUaOutputLayout( String description ) {
+    this.description = description;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public static String[] getDescriptions() {
+    String[] descriptions = new String[ values().length ];
+    for ( int i = 0; i < descriptions.length; i++ ) {
+      descriptions[ i ] = values()[ i ].getDescription();
+    }
+    return descriptions;
+  }
+
+  public static OpcUaOutputLayout getLayoutForDescription( String description ) {
+    for ( OpcUaOutputLayout layout : values() ) {
+      if ( layout.getDescription().equalsIgnoreCase( description ) ) {
+        return layout;
+      }
+    }
+    return NARROW;
+  }
+
+  /**
+   * @param code The name of the layout as stored in XML or the repository
+   * @return The layout or NARROW if the code is empty or unknown
+   */
+  public static OpcUaOutputLayout getLayoutForCode( String code ) {
+    for ( OpcUaOutputLayout layout : values() ) {
+      if ( layout.name().equalsIgnoreCase( code ) ) {
+        return layout;
+      }
+    }
+    return NARROW;
+  }
+}
@@ -0,0 +1,216 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.List;
+
+import org.pentaho.di.core.annotations.Step;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.metastore.api.IMetaStore;
+import org.w3c.dom.Node;
+
+@Step(
+  id = "OpcUaOutput",
+  description = "Writes values to the variables of an OPC UA server",
+  name = "OPC UA Output",
+  image = "ui/images/TOP.svg",
+  categoryDescription = "Output"
+)
+public class OpcUaOutputMeta extends BaseStepMeta implements StepMetaInterface {
+
+  private static final String TAG_OPC_UA_CONNECTION = "opc_ua_connection";
+  private static final String TAG_NODE_ID_FIELD = "node_id_field";
+  private static final String TAG_VALUE_FIELD = "value_field";
+  private static final String TAG_MAX_NODES_PER_WRITE = "max_nodes_per_write";
+  private static final String TAG_MAX_LATENCY = "max_latency";
+  private static final String TAG_COALESCE = "coalesce";
+
+  private String opcUaConnectionName;
+
+  /**
+   * The input field with the node ID to write to
+   */
+  private String nodeIdField;
+
+  /**
+   * The input field with the value to write
+   */
+  private String valueField;
+
+  /**
+   * The number of values to write in a single request. Empty or 0 means we use the server's MaxNodesPerWrite.
+   */
+  private String maxNodesPerWrite;
+
+  /**
+   * The maximum time in ms a value waits in a batch before it's written
+   */
+  private String maxLatency;
+
+  /**
+   * Only write the last value for a node when it appears more than once in a batch
+   */
+  private boolean coalesce;
+
+  public OpcUaOutputMeta() {
+    super();
+  }
+
+  @Override
+  public String getXML() throws KettleException {
+    StringBuilder xml = new StringBuilder();
+
+    xml.append( XMLHandler.addTagValue( TAG_OPC_UA_CONNECTION, opcUaConnectionName ) );
+    xml.append( XMLHandler.addTagValue( TAG_NODE_ID_FIELD, nodeIdField ) );
+    xml.append( XMLHandler.addTagValue( TAG_VALUE_FIELD, valueField ) );
+    xml.append( XMLHandler.addTagValue( TAG_MAX_NODES_PER_WRITE, maxNodesPerWrite ) );
+    xml.append( XMLHandler.addTagValue( TAG_MAX_LATENCY, maxLatency ) );
+    xml.append( XMLHandler.addTagValue( TAG_COALESCE, coalesce ) );
+
+    return xml.toString();
+  }
+
+  @Override
+  public void loadXML( Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore ) throws KettleXMLException {
+    try {
+
+      opcUaConnectionName = XMLHandler.getTagValue( stepnode, TAG_OPC_UA_CONNECTION );
+      nodeIdField = XMLHandler.getTagValue( stepnode, TAG_NODE_ID_FIELD );
+      valueField = XMLHandler.getTagValue( stepnode, TAG_VALUE_FIELD );
+      maxNodesPerWrite = XMLHandler.getTagValue( stepnode, TAG_MAX_NODES_PER_WRITE );
+      maxLatency = XMLHandler.getTagValue( stepnode, TAG_MAX_LATENCY );
+      coalesce = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, TAG_COALESCE ) );
+
+    } catch ( Exception e ) {
+      throw new KettleXMLException( "Unable to load OPC UA output step details", e );
+    }
+  }
+
+  @Override
+  public void saveRep( Repository rep, IMetaStore metaStore, ObjectId id_transformation, ObjectId id_step ) throws KettleException {
+
+    rep.saveStepAttribute( id_transformation, id_step, TAG_OPC_UA_CONNECTION, opcUaConnectionName );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_NODE_ID_FIELD, nodeIdField );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_VALUE_FIELD, valueField );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_MAX_NODES_PER_WRITE, maxNodesPerWrite );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_MAX_LATENCY, maxLatency );
+    rep.saveStepAttribute( id_transformation, id_step, TAG_COALESCE, coalesce );
+  }
+
+  @Override
+  public void readRep( Repository rep, IMetaStore metaStore, ObjectId id_step, List<DatabaseMeta> databases ) throws KettleException {
+
+    opcUaConnectionName = rep.getStepAttributeString( id_step, TAG_OPC_UA_CONNECTION );
+    nodeIdField = rep.getStepAttributeString( id_step, TAG_NODE_ID_FIELD );
+    valueField = rep.getStepAttributeString( id_step, TAG_VALUE_FIELD );
+    maxNodesPerWrite = rep.getStepAttributeString( id_step, TAG_MAX_NODES_PER_WRITE );
+    maxLatency = rep.getStepAttributeString( id_step, TAG_MAX_LATENCY );
+    coalesce = rep.getStepAttributeBoolean( id_step, TAG_COALESCE );
+  }
+
+  @Override
+  public StepInterface getStep( StepMeta meta, StepDataInterface data, int copy, TransMeta transMeta, Trans trans ) {
+    return new OpcUaOutput( meta, data, copy, transMeta, trans );
+  }
+
+  @Override
+  public StepDataInterface getStepData() {
+    return new OpcUaOutputData();
+  }
+
+  @Override
+  public String getDialogClassName() {
+    return OpcUaOutputDialog.class.getName();
+  }
+
+  @Override
+  public void setDefault() {
+    opcUaConnectionName = "";
+    nodeIdField = "";
+    valueField = "";
+    maxNodesPerWrite = "";
+    maxLatency = "100";
+    coalesce = false;
+  }
+
+  public String getOpcUaConnectionName() {
+    return opcUaConnectionName;
+  }
+
+  public void setOpcUaConnectionName( String opcUaConnectionName ) {
+    this.opcUaConnectionName = opcUaConnectionName;
+  }
+
+  public String getNodeIdField() {
+    return nodeIdField;
+  }
+
+  public void setNodeIdField( String nodeIdField ) {
+    this.nodeIdField = nodeIdField;
+  }
+
+  public String getValueField() {
+    return valueField;
+  }
+
+  public void setValueField( String valueField ) {
+    this.valueField = valueField;
+  }
+
+  public String getMaxNodesPerWrite() {
+    return maxNodesPerWrite;
+  }
+
+  public void setMaxNodesPerWrite( String maxNodesPerWrite ) {
+    this.maxNodesPerWrite = maxNodesPerWrite;
+  }
+
+  public String getMaxLatency() {
+    return maxLatency;
+  }
+
+  public void setMaxLatency( String maxLatency ) {
+    this.maxLatency = maxLatency;
+  }
+
+  public boolean isCoalesce() {
+    return coalesce;
+  }
+
+  public void setCoalesce( boolean coalesce ) {
+    this.coalesce = coalesce;
+  }
+}
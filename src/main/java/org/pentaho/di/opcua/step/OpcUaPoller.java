@@ -0,0 +1,251 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.opcua.util.OpcUaMetrics;
+import org.pentaho.di.opcua.util.OpcUaNodeRegistry;
+import org.pentaho.di.opcua.util.OpcUaRequestSizer;
+import org.pentaho.di.opcua.util.OpcUaUtil;
+
+/**
+ * Reads groups of tags on a fixed schedule, each group at its own rate.
+ * <p>
+ * The ticks of a group are calculated from the moment the poller started (start + n * interval) so that the time
+ * spent reading or emitting values doesn't add up to drift. A tick is missed when the poller wakes up after the next
+ * tick was already due, or when the read of the previous tick of the group hasn't come back yet. Missed ticks are
+ * skipped, not made up for, and counted.
+ * <p>
+ * Reads are sent asynchronously so a slow group never holds up a fast one. The values are handed to the consumer
+ * on the Milo threads. With a node registry the reads use the registered NodeIds of the current session.
+ */
+public class OpcUaPoller implements Runnable {
+
+  private final LogChannelInterface log;
+  private final OpcUaClient client;
+  private final OpcUaRequestSizer sizer;
+  private final int maxRequestsInFlight;
+  private final OpcUaMetrics metrics;
+  private final OpcUaNodeRegistry registry;
+  private final Consumer<OpcUaSample> consumer;
+
+  private final List<PollGroup> groups;
+
+  private volatile boolean running;
+  private Thread thread;
+
+  private final AtomicLong nrTicks;
+  private final AtomicLong nrMissedTicks;
+  private final AtomicLong nrFailedReads;
+
+  /**
+   * @param sizer    Decides how many nodes to read per request
+   * @param maxRequestsInFlight The number of Read requests of a group sent before waiting for an answer
+   * @param metrics  Where to record the round trip time of the reads, null to not record them
+   * @param registry The registered NodeIds to read with, null to read with the configured NodeIds
+   */
+  public OpcUaPoller( LogChannelInterface log, OpcUaClient client, OpcUaRequestSizer sizer, int maxRequestsInFlight, OpcUaMetrics metrics,
+                      OpcUaNodeRegistry registry, Consumer<OpcUaSample> consumer ) {
+    this.log = log;
+    this.client = client;
+    this.sizer = sizer;
+    this.maxRequestsInFlight = maxRequestsInFlight;
+    this.metrics = metrics;
+    this.registry = registry;
+    this.consumer = consumer;
+    this.groups = new ArrayList<>();
+    this.nrTicks = new AtomicLong();
+    this.nrMissedTicks = new AtomicLong();
+    this.nrFailedReads = new AtomicLong();
+  }
+
+  /**
+   * Add a group of tags to read at the given rate. Call this before {@link #start(String)}.
+   *
+   * @param name       The name of the group, for logging
+   * @param intervalMs The polling interval in ms
+   * @param tagIndexes The indexes of the tags, reported with every sample
+   * @param nodeIds    The node IDs of the tags, in the same order
+   */
+  public void addGroup( String name, long intervalMs, int[] tagIndexes, List<NodeId> nodeIds ) {
+    groups.add( new PollGroup( name, TimeUnit.MILLISECONDS.toNanos( Math.max( 1L, intervalMs ) ), tagIndexes, nodeIds ) );
+  }
+
+  public void start( String threadName ) {
+    running = true;
+    thread = new Thread( this, threadName );
+    thread.setDaemon( true );
+    thread.start();
+  }
+
+  public void stop() {
+    running = false;
+    if ( thread != null ) {
+      LockSupport.unpark( thread );
+      try {
+        thread.join( 5000 );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+      thread = null;
+    }
+  }
+
+  @Override
+  public void run() {
+    if ( groups.isEmpty() ) {
+      return;
+    }
+    long start = System.nanoTime();
+    for ( PollGroup group : groups ) {
+      group.nextTick = start;
+    }
+
+    while ( running ) {
+      PollGroup group = groups.get( 0 );
+      for ( int i = 1; i < groups.size(); i++ ) {
+        if ( groups.get( i ).nextTick - group.nextTick < 0 ) {
+          group = groups.get( i );
+        }
+      }
+
+      long wait = group.nextTick - System.nanoTime();
+      if ( wait > 0 ) {
+        // We might wake up early, simply look again
+        //
+        LockSupport.parkNanos( this, wait );
+        continue;
+      }
+
+      tick( group );
+
+      // Schedule the next tick from the original start, skipping the ticks we were too late for
+      //
+      group.nextTick += group.intervalNanos;
+      long late = System.nanoTime() - group.nextTick;
+      if ( late >= 0 ) {
+        long missed = late / group.intervalNanos + 1;
+        group.nextTick += missed * group.intervalNanos;
+        missed( group, missed );
+      }
+    }
+  }
+
+  private void tick( PollGroup group ) {
+    if ( !group.reading.compareAndSet( false, true ) ) {
+      // The previous read didn't come back yet
+      //
+      missed( group, 1 );
+      return;
+    }
+    nrTicks.incrementAndGet();
+    OpcUaUtil.readValuesAsync( client, group.getReadNodeIds( registry ), sizer, maxRequestsInFlight, metrics ).whenComplete( ( values, error ) -> {
+      try {
+        if ( error != null ) {
+          nrFailedReads.incrementAndGet();
+          if ( running ) {
+            log.logError( "Unable to poll the " + group.nodeIds.size() + " tags of group '" + group.name + "'", error );
+          }
+          return;
+        }
+        for ( int i = 0; i < values.size(); i++ ) {
+          consumer.accept( new OpcUaSample( group.tagIndexes[ i ], values.get( i ) ) );
+        }
+      } finally {
+        group.reading.set( false );
+      }
+    } );
+  }
+
+  private void missed( PollGroup group, long missed ) {
+    nrMissedTicks.addAndGet( missed );
+    if ( log.isDetailed() ) {
+      log.logDetailed( "Missed " + missed + " tick(s) of poll group '" + group.name + "', "
+        + nrMissedTicks.get() + " ticks missed in total" );
+    }
+  }
+
+  /**
+   * @return The number of reads sent
+   */
+  public long getNrTicks() {
+    return nrTicks.get();
+  }
+
+  /**
+   * @return The number of ticks skipped because the poller or the server couldn't keep up
+   */
+  public long getNrMissedTicks() {
+    return nrMissedTicks.get();
+  }
+
+  public long getNrFailedReads() {
+    return nrFailedReads.get();
+  }
+
+  private static class PollGroup {
+    private final String name;
+    private final long intervalNanos;
+    private final int[] tagIndexes;
+    private final List<NodeId> nodeIds;
+    private final AtomicBoolean reading;
+    private long nextTick;
+
+    /**
+     * The NodeIds to read with, resolved for the given registry version. Only used on the poller thread.
+     */
+    private List<NodeId> readNodeIds;
+    private long readNodeIdsVersion;
+
+    private PollGroup( String name, long intervalNanos, int[] tagIndexes, List<NodeId> nodeIds ) {
+      this.name = name;
+      this.intervalNanos = intervalNanos;
+      this.tagIndexes = tagIndexes;
+      this.nodeIds = nodeIds;
+      this.reading = new AtomicBoolean();
+    }
+
+    private List<NodeId> getReadNodeIds( OpcUaNodeRegistry registry ) {
+      if ( registry == null ) {
+        return nodeIds;
+      }
+      long version = registry.getVersion();
+      if ( readNodeIds == null || readNodeIdsVersion != version ) {
+        readNodeIds = registry.resolve( nodeIds );
+        readNodeIdsVersion = version;
+      }
+      return readNodeIds;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+/**
+ * The ways the OPC UA Input step can obtain data from a server.
+ */
+public enum OpcUaReadMode {
+
+  /**
+   * Read the server status once and emit a single row.
+   */
+  SERVER_STATUS( "Server status (one row)" ),
+
+  /**
+   * Read the current value of all configured tags once and emit a row per tag.
+   */
+  READ( "Read tags (one pass)" ),
+
+  /**
+   * Read the configured tags on a fixed schedule, per tag group, and emit a row per tag and read until the
+   * transformation is stopped. For servers where subscriptions are unreliable.
+   */
+  POLL( "Polling (fixed rate)" ),
+
+  /**
+   * Monitor the configured tags and emit a row for every data change until the transformation is stopped.
+   */
+  SUBSCRIBE( "Subscription (streaming)" ),
+  ;
+
+  private String description;
+
+  OpcUaReadMode( String description ) {
+    this.description = description;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public static String[] getDescriptions() {
+    String[] descriptions = new String[ values().length ];
+    for ( int i = 0; i < descriptions.length; i++ ) {
+      descriptions[ i ] = values()[ i ].getDescription();
+    }
+    return descriptions;
+  }
+
+  public static OpcUaReadMode getModeForDescription( String description ) {
+    for ( OpcUaReadMode mode : values() ) {
+      if ( mode.getDescription().equalsIgnoreCase( description ) ) {
+        return mode;
+      }
+    }
+    return SERVER_STATUS;
+  }
+
+  /**
+   * @param code The name of the mode as stored in XML or the repository
+   * @return The mode or SERVER_STATUS if the code is empty or unknown
+   */
+  public static OpcUaReadMode getModeForCode( String code ) {
+    for ( OpcUaReadMode mode : values() ) {
+      if ( mode.name().equalsIgnoreCase( code ) ) {
+        return mode;
+      }
+    }
+    return SERVER_STATUS;
+  }
+}
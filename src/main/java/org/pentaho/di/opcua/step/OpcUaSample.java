@@ -0,0 +1,50 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+
+/**
+ * A value received from the server for one of the configured tags.
+ * Samples are handed from the Milo notification threads to the step thread which turns them into rows.
+ */
+public class OpcUaSample {
+
+  private final int tagIndex;
+
+  private final DataValue value;
+
+  public OpcUaSample( int tagIndex, DataValue value ) {
+    this.tagIndex = tagIndex;
+    this.value = value;
+  }
+
+  public int getTagIndex() {
+    return tagIndex;
+  }
+
+  public DataValue getValue() {
+    return value;
+  }
+}
@@ -0,0 +1,92 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+/**
+ * A single OPC UA variable (tag) the input step reads or monitors.
+ */
+public class OpcUaTag {
+
+  private String nodeId;
+
+  private String name;
+
+  /**
+   * The node ID of the OPC UA DataType of the variable, as found when the tag was picked from the node index.
+   * This lets us describe the output of the step without asking the server.
+   */
+  private String dataType;
+
+  /**
+   * The name of the tag group this tag belongs to, empty for the default group
+   */
+  private String group;
+
+  public OpcUaTag() {
+  }
+
+  public OpcUaTag( String nodeId, String name ) {
+    this();
+    this.nodeId = nodeId;
+    this.name = name;
+  }
+
+  public OpcUaTag( OpcUaTag tag ) {
+    this( tag.nodeId, tag.name );
+    this.dataType = tag.dataType;
+    this.group = tag.group;
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public void setNodeId( String nodeId ) {
+    this.nodeId = nodeId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName( String name ) {
+    this.name = name;
+  }
+
+  public String getDataType() {
+    return dataType;
+  }
+
+  public void setDataType( String dataType ) {
+    this.dataType = dataType;
+  }
+
+  public String getGroup() {
+    return group;
+  }
+
+  public void setGroup( String group ) {
+    this.group = group;
+  }
+}
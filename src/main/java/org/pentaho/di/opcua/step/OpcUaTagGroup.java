@@ -0,0 +1,138 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+/**
+ * A named group of tags which share the same polling interval and monitoring settings.
+ * This keeps slow counters from using the bandwidth of the fast control loops.
+ * Settings which are left empty fall back to those of the step.
+ */
+public class OpcUaTagGroup {
+
+  private String name;
+
+  /**
+   * The polling interval of the tags in this group in ms
+   */
+  private String interval;
+
+  /**
+   * The sampling interval of the monitored items in ms
+   */
+  private String samplingInterval;
+
+  /**
+   * The size of the queue of the monitored items on the server
+   */
+  private String queueSize;
+
+  /**
+   * The DataChangeTrigger: Status, StatusValue or StatusValueTimestamp
+   */
+  private String trigger;
+
+  /**
+   * The DeadbandType: None, Absolute or Percent
+   */
+  private String deadbandType;
+
+  /**
+   * The deadband, in engineering units for Absolute or as a percentage of the EURange for Percent
+   */
+  private String deadband;
+
+  public OpcUaTagGroup() {
+  }
+
+  public OpcUaTagGroup( String name, String interval ) {
+    this();
+    this.name = name;
+    this.interval = interval;
+  }
+
+  public OpcUaTagGroup( OpcUaTagGroup group ) {
+    this( group.name, group.interval );
+    this.samplingInterval = group.samplingInterval;
+    this.queueSize = group.queueSize;
+    this.trigger = group.trigger;
+    this.deadbandType = group.deadbandType;
+    this.deadband = group.deadband;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName( String name ) {
+    this.name = name;
+  }
+
+  public String getInterval() {
+    return interval;
+  }
+
+  public void setInterval( String interval ) {
+    this.interval = interval;
+  }
+
+  public String getSamplingInterval() {
+    return samplingInterval;
+  }
+
+  public void setSamplingInterval( String samplingInterval ) {
+    this.samplingInterval = samplingInterval;
+  }
+
+  public String getQueueSize() {
+    return queueSize;
+  }
+
+  public void setQueueSize( String queueSize ) {
+    this.queueSize = queueSize;
+  }
+
+  public String getTrigger() {
+    return trigger;
+  }
+
+  public void setTrigger( String trigger ) {
+    this.trigger = trigger;
+  }
+
+  public String getDeadbandType() {
+    return deadbandType;
+  }
+
+  public void setDeadbandType( String deadbandType ) {
+    this.deadbandType = deadbandType;
+  }
+
+  public String getDeadband() {
+    return deadband;
+  }
+
+  public void setDeadband( String deadband ) {
+    this.deadband = deadband;
+  }
+}
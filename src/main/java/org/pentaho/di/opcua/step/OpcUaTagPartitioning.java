@@ -0,0 +1,112 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.step;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * The ways the tags of the OPC UA Input step are divided over the step copies.
+ */
+public enum OpcUaTagPartitioning {
+
+  /**
+   * Hand out the tags in turn: tag i goes to copy i modulo the number of copies.
+   */
+  ROUND_ROBIN( "Round robin" ),
+
+  /**
+   * Use a hash of the node ID so that a tag stays with the same copy when other tags are added or removed.
+   */
+  NODE_ID_HASH( "Hash of node ID" ),
+
+  /**
+   * Keep all the tags of a namespace together on the same copy.
+   */
+  NAMESPACE( "Namespace" ),
+  ;
+
+  private String description;
+
+  OpcUaTagPartitioning( String description ) {
+    this.description = description;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * Calculate which step copy is going to handle a tag.
+   *
+   * @param tagIndex The index of the tag in the list of tags
+   * @param nodeId   The parsed node ID of the tag
+   * @param nrCopies The number of step copies
+   * @return The copy number, between 0 and nrCopies-1
+   */
+  public int getCopyNr( int tagIndex, NodeId nodeId, int nrCopies ) {
+    if ( nrCopies <= 1 ) {
+      return 0;
+    }
+    switch ( this ) {
+      case NODE_ID_HASH:
+        // The parseable string hashes the same in every JVM
+        //
+        return Math.floorMod( nodeId.toParseableString().hashCode(), nrCopies );
+      case NAMESPACE:
+        return nodeId.getNamespaceIndex().intValue() % nrCopies;
+      default:
+        return tagIndex % nrCopies;
+    }
+  }
+
+  public static String[] getDescriptions() {
+    String[] descriptions = new String[ values().length ];
+    for ( int i = 0; i < descriptions.length; i++ ) {
+      descriptions[ i ] = values()[ i ].getDescription();
+    }
+    return descriptions;
+  }
+
+  public static OpcUaTagPartitioning getPartitioningForDescription( String description ) {
+    for ( OpcUaTagPartitioning partitioning : values() ) {
+      if ( partitioning.getDescription().equalsIgnoreCase( description ) ) {
+        return partitioning;
+      }
+    }
+    return ROUND_ROBIN;
+  }
+
+  /**
+   * @param code The name of the partitioning as stored in XML or the repository
+   * @return The partitioning or ROUND_ROBIN if the code is empty or unknown
+   */
+  public static OpcUaTagPartitioning getPartitioningForCode( String code ) {
+    for ( OpcUaTagPartitioning partitioning : values() ) {
+      if ( partitioning.name().equalsIgnoreCase( code ) ) {
+        return partitioning;
+      }
+    }
+    return ROUND_ROBIN;
+  }
+}
@@ -0,0 +1,127 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+
+package org.pentaho.di.opcua.step;
+
+import java.util.Date;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.opcua.util.OpcUaValueMapper;
+
+/**
+ * The Kettle type of the timestamp columns of the OPC UA Input and History Input steps.
+ */
+public enum OpcUaTimestampFormat {
+
+  /**
+   * A Date, millisecond precision
+   */
+  DATE( "Date", ValueMetaInterface.TYPE_DATE ),
+
+  /**
+   * A Timestamp keeping the 100ns ticks and picoseconds of the server as nanoseconds
+   */
+  TIMESTAMP( "Timestamp (nanoseconds)", ValueMetaInterface.TYPE_TIMESTAMP ),
+
+  /**
+   * An Integer with the milliseconds since 1970-01-01 UTC, the cheapest to produce
+   */
+  EPOCH_MILLIS( "Integer (ms since 1970)", ValueMetaInterface.TYPE_INTEGER ),
+  ;
+
+  private String description;
+  private int valueType;
+
+  OpcUaTimestampFormat( String description, int valueType ) {
+    this.description = description;
+    this.valueType = valueType;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * @return The Kettle value type of the timestamp columns
+   */
+  public int getValueType() {
+    return valueType;
+  }
+
+  /**
+   * Convert an OPC UA time to this type, straight from the ticks
+   *
+   * @param utcTicks    The 100ns ticks since 1601-01-01 UTC
+   * @param picoseconds The 10 picosecond intervals on top of the ticks, only kept by TIMESTAMP
+   */
+  public Object convert( long utcTicks, int picoseconds ) {
+    switch ( this ) {
+      case TIMESTAMP:
+        return OpcUaValueMapper.toTimestamp( utcTicks, picoseconds );
+      case EPOCH_MILLIS:
+        return OpcUaValueMapper.toJavaTime( utcTicks );
+      default:
+        return new Date( OpcUaValueMapper.toJavaTime( utcTicks ) );
+    }
+  }
+
+  public Object convert( DateTime dateTime, UShort picoseconds ) {
+    if ( dateTime == null ) {
+      return null;
+    }
+    return convert( dateTime.getUtcTime(), picoseconds == null ? 0 : picoseconds.intValue() );
+  }
+
+  public static String[] getDescriptions() {
+    String[] descriptions = new String[ values().length ];
+    for ( int i = 0; i < descriptions.length; i++ ) {
+      descriptions[ i ] = values()[ i ].getDescription();
+    }
+    return descriptions;
+  }
+
+  public static OpcUaTimestampFormat getFormatForDescription( String description ) {
+    for ( OpcUaTimestampFormat format : values() ) {
+      if ( format.getDescription().equalsIgnoreCase( description ) ) {
+        return format;
+      }
+    }
+    return DATE;
+  }
+
+  /**
+   * @param code The name of the format as stored in XML or the repository
+   * @return The format or DATE if the code is empty or unknown
+   */
+  public static OpcUaTimestampFormat getFormatForCode( String code ) {
+    for ( OpcUaTimestampFormat format : values() ) {
+      if ( format.name().equalsIgnoreCase( code ) ) {
+        return format;
+      }
+    }
+    return DATE;
+  }
+}
@@ -0,0 +1,182 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.io.InputStream;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.vfs.KettleVFS;
+
+/**
+ * The client certificate and key pair used to create OPC UA clients.
+ * Without a key store on the classpath, or without a private key for the alias, the certificate and key pair are
+ * null. That is fine for endpoints without security, the other security policies refuse to create a client then.
+ * A key store is read and parsed only once per JVM for every location and alias, after that the same immutable
+ * instance is handed out, even when many step copies ask for it at the same time.
+ */
+public final class ClientKeyStore {
+
+  /**
+   * The key store looked for on the classpath when no location is given
+   */
+  public static final String DEFAULT_LOCATION = "example-certs.pfx";
+  public static final String DEFAULT_ALIAS = "client-ai";
+  public static final String DEFAULT_PASSWORD = "password";
+
+  private static final Map<String, FutureTask<ClientKeyStore>> keyStores = new ConcurrentHashMap<>();
+
+  private final String location;
+  private final String alias;
+  private final X509Certificate certificate;
+  private final KeyPair keyPair;
+
+  private ClientKeyStore( String location, String alias, X509Certificate certificate, KeyPair keyPair ) {
+    this.location = location;
+    this.alias = alias;
+    this.certificate = certificate;
+    this.keyPair = keyPair;
+  }
+
+  /**
+   * @return The client certificate in the key store on the classpath, without certificate if there is no such key store
+   * @throws Exception
+   */
+  public static ClientKeyStore getDefault() throws Exception {
+    return get( null, null, null );
+  }
+
+  /**
+   * Get the client certificate and key pair from a PKCS12 key store, loading it the first time it is asked for.
+   *
+   * @param location The file or VFS URL of the key store, empty for the default key store on the classpath
+   * @param alias The alias of the client key, empty for the default alias
+   * @param password The password of the key store, empty for the default password
+   * @return The loaded client certificate and key pair, both null if the key store has no private key for the alias
+   * @throws Exception in case the given key store can't be read
+   */
+  public static ClientKeyStore get( String location, String alias, String password ) throws Exception {
+    final String realLocation = Const.NVL( location, DEFAULT_LOCATION );
+    final String realAlias = Const.NVL( alias, DEFAULT_ALIAS );
+    final char[] realPassword = Const.NVL( password, DEFAULT_PASSWORD ).toCharArray();
+    final boolean classpath = Const.isEmpty( location );
+
+    String key = realLocation + "|" + realAlias;
+    FutureTask<ClientKeyStore> task = keyStores.get( key );
+    if ( task == null ) {
+      FutureTask<ClientKeyStore> newTask = new FutureTask<>( () -> load( realLocation, classpath, realAlias, realPassword ) );
+      task = keyStores.putIfAbsent( key, newTask );
+      if ( task == null ) {
+        task = newTask;
+        task.run();
+      }
+    }
+
+    try {
+      return task.get();
+    } catch ( ExecutionException e ) {
+      // Allow a retry after for example fixing the password
+      //
+      keyStores.remove( key, task );
+      if ( e.getCause() instanceof Exception ) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static ClientKeyStore load( String location, boolean classpath, String alias, char[] password ) throws Exception {
+    KeyStore keyStore = KeyStore.getInstance( "PKCS12" );
+    InputStream inputStream = classpath
+      ? ClientKeyStore.class.getClassLoader().getResourceAsStream( location )
+      : KettleVFS.getInputStream( location );
+    if ( inputStream == null ) {
+      if ( classpath ) {
+        // No default key store shipped: only endpoints without security can be used
+        //
+        return new ClientKeyStore( location, alias, null, null );
+      }
+      throw new Exception( "Unable to find key store '" + location + "'" );
+    }
+    try {
+      keyStore.load( inputStream, password );
+    } finally {
+      inputStream.close();
+    }
+
+    Key privateKey = keyStore.getKey( alias, password );
+    if ( !( privateKey instanceof PrivateKey ) ) {
+      return new ClientKeyStore( location, alias, null, null );
+    }
+    X509Certificate certificate = (X509Certificate) keyStore.getCertificate( alias );
+    KeyPair keyPair = new KeyPair( certificate.getPublicKey(), (PrivateKey) privateKey );
+
+    return new ClientKeyStore( location, alias, certificate, keyPair );
+  }
+
+  public String getLocation() {
+    return location;
+  }
+
+  public String getAlias() {
+    return alias;
+  }
+
+  public X509Certificate getCertificate() {
+    return certificate;
+  }
+
+  public KeyPair getKeyPair() {
+    return keyPair;
+  }
+
+  /**
+   * @return true if the key store holds a certificate and private key for the alias
+   */
+  public boolean hasKeyPair() {
+    return certificate != null && keyPair != null;
+  }
+
+  /**
+   * Make sure there is a certificate and private key when the security policy needs them
+   *
+   * @param securityPolicy The security policy of the endpoint
+   * @throws Exception in case the policy needs a certificate and there is none
+   */
+  public void checkSecurityPolicy( SecurityPolicy securityPolicy ) throws Exception {
+    if ( securityPolicy != SecurityPolicy.None && !hasKeyPair() ) {
+      throw new Exception( "Security policy " + securityPolicy + " needs a client certificate but no private key with alias '"
+        + alias + "' was found in key store '" + location + "'" );
+    }
+  }
+}
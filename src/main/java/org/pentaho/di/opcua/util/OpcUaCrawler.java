@@ -0,0 +1,450 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseDirection;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseResultMask;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReferenceDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.ViewDescription;
+import org.pentaho.di.core.exception.KettleException;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Walks the address space of a server following the hierarchical references.
+ * <p>
+ * Many nodes are browsed in a single Browse request and several requests are kept in flight at the same time.
+ * Browse names, node classes and type definitions come back in the Browse response itself so no extra reads are
+ * needed per node. Every node is visited only once, so servers with loops in their references are safe to crawl.
+ * The consumer is always called on the thread calling {@link #crawl(NodeId, Consumer)}.
+ * <p>
+ * Objects, Views and Variables (for their properties and components) are browsed further, and only nodes in the
+ * selected namespaces (if any) are reported and browsed. The start node itself is always browsed.
+ * <p>
+ * When the crawl stops early, because of an error or an interrupt, the continuation points the server still holds
+ * for us are released.
+ */
+public class OpcUaCrawler {
+
+  private static final int DEFAULT_MAX_NODES_PER_BROWSE = 250;
+
+  /**
+   * How long an aborted crawl waits for the answers in flight, to release their continuation points
+   */
+  private static final long RELEASE_TIMEOUT = 5000L;
+
+  private final OpcUaClient client;
+
+  private int maxConcurrentRequests;
+  private int maxNodesPerBrowse;
+  private int maxReferencesPerNode;
+  private int maxDepth;
+  private Set<Integer> namespaceIndexes;
+  private OpcUaMetrics metrics;
+
+  private long nrRequests;
+  private long nrNodes;
+  private long nrFailedNodes;
+
+  public OpcUaCrawler( OpcUaClient client ) {
+    this.client = client;
+    this.maxConcurrentRequests = 4;
+    this.maxNodesPerBrowse = 0;
+    this.maxReferencesPerNode = 1000;
+    this.maxDepth = 0;
+  }
+
+  /**
+   * @param maxConcurrentRequests The number of Browse/BrowseNext requests to keep in flight
+   */
+  public OpcUaCrawler setMaxConcurrentRequests( int maxConcurrentRequests ) {
+    this.maxConcurrentRequests = Math.max( 1, maxConcurrentRequests );
+    return this;
+  }
+
+  /**
+   * @param maxNodesPerBrowse The number of nodes to browse in one request, 0 uses the server's MaxNodesPerBrowse
+   */
+  public OpcUaCrawler setMaxNodesPerBrowse( int maxNodesPerBrowse ) {
+    this.maxNodesPerBrowse = maxNodesPerBrowse;
+    return this;
+  }
+
+  /**
+   * @param maxReferencesPerNode The number of references the server returns per node before handing out a continuation point
+   */
+  public OpcUaCrawler setMaxReferencesPerNode( int maxReferencesPerNode ) {
+    this.maxReferencesPerNode = maxReferencesPerNode;
+    return this;
+  }
+
+  /**
+   * @param maxDepth The number of levels below the start node to crawl, 0 is unlimited
+   */
+  public OpcUaCrawler setMaxDepth( int maxDepth ) {
+    this.maxDepth = maxDepth;
+    return this;
+  }
+
+  /**
+   * @param namespaceIndexes The namespaces to crawl, null or empty for all namespaces
+   */
+  public OpcUaCrawler setNamespaceIndexes( Set<Integer> namespaceIndexes ) {
+    this.namespaceIndexes = namespaceIndexes;
+    return this;
+  }
+
+  /**
+   * @param metrics Where to record the round trip time of the Browse and BrowseNext requests, null to not record them
+   */
+  public OpcUaCrawler setMetrics( OpcUaMetrics metrics ) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  /**
+   * Crawl the address space below a node.
+   *
+   * @param root The node to start from, for example Identifiers.ObjectsFolder
+   * @param consumer Receives every node found, the start node excluded
+   * @throws KettleException in case a request fails
+   */
+  public void crawl( NodeId root, Consumer<CrawledNode> consumer ) throws KettleException {
+    int nodesPerBrowse = maxNodesPerBrowse;
+    if ( nodesPerBrowse <= 0 ) {
+      try {
+        nodesPerBrowse = OpcUaOperationLimits.get( client ).getMaxNodesPerBrowse();
+      } catch ( Exception e ) {
+        throw new KettleException( "Unable to read the browse operation limits of the server", e );
+      }
+      if ( nodesPerBrowse <= 0 ) {
+        nodesPerBrowse = DEFAULT_MAX_NODES_PER_BROWSE;
+      }
+    }
+    OpcUaRequestSizer sizer = new OpcUaRequestSizer( null, "Browse", nodesPerBrowse );
+
+    Deque<CrawledNode> toBrowse = new ArrayDeque<>();
+    Deque<Continuation> toContinue = new ArrayDeque<>();
+    BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+    Set<NodeId> visited = new HashSet<>();
+    int inFlight = 0;
+
+    visited.add( root );
+    toBrowse.add( new CrawledNode( root, "", QualifiedName.NULL_VALUE, NodeClass.Object, NodeId.NULL_VALUE, 0 ) );
+
+    try {
+      while ( !toBrowse.isEmpty() || !toContinue.isEmpty() || inFlight > 0 ) {
+
+        // Keep the pipeline full. Continuation points are a scarce server resource so they go first.
+        //
+        while ( inFlight < maxConcurrentRequests && ( !toContinue.isEmpty() || !toBrowse.isEmpty() ) ) {
+          if ( !toContinue.isEmpty() ) {
+            browseNext( toContinue, sizer.getSize(), completions );
+          } else {
+            browse( toBrowse, sizer.getSize(), completions );
+          }
+          inFlight++;
+        }
+
+        Completion completion;
+        try {
+          completion = completions.take();
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          throw new KettleException( "Interrupted while browsing the server", e );
+        }
+        inFlight--;
+
+        if ( completion.error != null ) {
+          if ( completion.browse && completion.parents.size() > 1 && OpcUaRequestSizer.isTooLarge( completion.error ) ) {
+            // Browse these nodes again in smaller requests
+            //
+            sizer.backOff( completion.parents.size() );
+            for ( int i = completion.parents.size() - 1; i >= 0; i-- ) {
+              toBrowse.addFirst( completion.parents.get( i ) );
+            }
+            continue;
+          }
+          throw new KettleException( "Unable to browse the server", completion.error );
+        }
+        if ( completion.browse ) {
+          sizer.onSuccess( completion.parents.size() );
+        }
+
+        for ( int i = 0; i < completion.results.length; i++ ) {
+          CrawledNode parent = completion.parents.get( i );
+          BrowseResult result = completion.results[ i ];
+
+          if ( result.getStatusCode() != null && result.getStatusCode().isBad() ) {
+            nrFailedNodes++;
+            continue;
+          }
+
+          ReferenceDescription[] references = result.getReferences();
+          if ( references != null ) {
+            for ( ReferenceDescription reference : references ) {
+              CrawledNode node = toCrawledNode( parent, reference );
+              if ( node == null || !visited.add( node.getNodeId() ) ) {
+                continue;
+              }
+              nrNodes++;
+              consumer.accept( node );
+
+              if ( ( maxDepth <= 0 || node.getDepth() < maxDepth ) &&
+                ( node.getNodeClass() == NodeClass.Object || node.getNodeClass() == NodeClass.View
+                  || node.getNodeClass() == NodeClass.Variable ) ) {
+                toBrowse.add( node );
+              }
+            }
+          }
+
+          ByteString continuationPoint = result.getContinuationPoint();
+          if ( continuationPoint != null && !continuationPoint.isNull() ) {
+            toContinue.add( new Continuation( parent, continuationPoint ) );
+          }
+        }
+      }
+    } catch ( KettleException | RuntimeException e ) {
+      releaseContinuationPoints( toContinue, completions, inFlight );
+      throw e;
+    }
+  }
+
+  /**
+   * The crawl stopped early: release the continuation points we hold, including those in the answers still on their
+   * way, so the server doesn't keep them until the session closes.
+   */
+  private void releaseContinuationPoints( Deque<Continuation> toContinue, BlockingQueue<Completion> completions, int inFlight ) {
+    List<ByteString> continuationPoints = new ArrayList<>();
+    for ( Continuation continuation : toContinue ) {
+      continuationPoints.add( continuation.continuationPoint );
+    }
+    long deadline = System.currentTimeMillis() + RELEASE_TIMEOUT;
+    for ( int i = 0; i < inFlight; i++ ) {
+      Completion completion;
+      try {
+        completion = completions.poll( Math.max( 0L, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      if ( completion == null ) {
+        break;
+      }
+      if ( completion.results != null ) {
+        for ( BrowseResult result : completion.results ) {
+          ByteString continuationPoint = result.getContinuationPoint();
+          if ( continuationPoint != null && !continuationPoint.isNull() ) {
+            continuationPoints.add( continuationPoint );
+          }
+        }
+      }
+    }
+    if ( !continuationPoints.isEmpty() ) {
+      nrRequests++;
+      client.browseNext( true, continuationPoints );
+    }
+  }
+
+  private CrawledNode toCrawledNode( CrawledNode parent, ReferenceDescription reference ) {
+    NodeId nodeId = reference.getNodeId().local().orElse( null );
+    if ( nodeId == null ) {
+      // On another server
+      //
+      return null;
+    }
+    if ( namespaceIndexes != null && !namespaceIndexes.isEmpty() && !namespaceIndexes.contains( nodeId.getNamespaceIndex().intValue() ) ) {
+      return null;
+    }
+    QualifiedName browseName = reference.getBrowseName();
+    String name = browseName == null ? nodeId.toParseableString() : browseName.getName();
+    NodeId typeDefinition = reference.getTypeDefinition() == null ? NodeId.NULL_VALUE : reference.getTypeDefinition().local().orElse( NodeId.NULL_VALUE );
+
+    return new CrawledNode( nodeId, parent.getBrowsePath() + "/" + name, browseName, reference.getNodeClass(), typeDefinition, parent.getDepth() + 1 );
+  }
+
+  private void browse( Deque<CrawledNode> toBrowse, int nodesPerBrowse, BlockingQueue<Completion> completions ) {
+    List<CrawledNode> parents = new ArrayList<>();
+    List<BrowseDescription> descriptions = new ArrayList<>();
+    while ( !toBrowse.isEmpty() && parents.size() < nodesPerBrowse ) {
+      CrawledNode node = toBrowse.poll();
+      parents.add( node );
+      descriptions.add( new BrowseDescription(
+        node.getNodeId(),
+        BrowseDirection.Forward,
+        Identifiers.HierarchicalReferences,
+        true,
+        uint( 0 ),
+        uint( BrowseResultMask.All.getValue() )
+      ) );
+    }
+
+    nrRequests++;
+    long start = System.nanoTime();
+    ViewDescription view = new ViewDescription( NodeId.NULL_VALUE, DateTime.MIN_VALUE, uint( 0 ) );
+    CompletableFuture<BrowseResult[]> future = client.browse( view, uint( maxReferencesPerNode ), descriptions )
+      .thenApply( response -> response.getResults() );
+    whenComplete( future, start, parents, true, completions );
+  }
+
+  private void browseNext( Deque<Continuation> toContinue, int nodesPerBrowse, BlockingQueue<Completion> completions ) {
+    List<CrawledNode> parents = new ArrayList<>();
+    List<ByteString> continuationPoints = new ArrayList<>();
+    while ( !toContinue.isEmpty() && parents.size() < nodesPerBrowse ) {
+      Continuation continuation = toContinue.poll();
+      parents.add( continuation.parent );
+      continuationPoints.add( continuation.continuationPoint );
+    }
+
+    nrRequests++;
+    long start = System.nanoTime();
+    CompletableFuture<BrowseResult[]> future = client.browseNext( false, continuationPoints )
+      .thenApply( response -> response.getResults() );
+    whenComplete( future, start, parents, false, completions );
+  }
+
+  private void whenComplete( CompletableFuture<BrowseResult[]> future, long start, List<CrawledNode> parents, boolean browse,
+                             BlockingQueue<Completion> completions ) {
+    future.whenComplete( ( results, error ) -> {
+      if ( metrics != null ) {
+        metrics.recordBrowse( start, parents.size(), error );
+      }
+      completions.add( new Completion( parents, browse, results, error ) );
+    } );
+  }
+
+  /**
+   * @return The number of Browse and BrowseNext requests sent
+   */
+  public long getNrRequests() {
+    return nrRequests;
+  }
+
+  /**
+   * @return The number of distinct nodes found
+   */
+  public long getNrNodes() {
+    return nrNodes;
+  }
+
+  /**
+   * @return The number of nodes the server couldn't browse
+   */
+  public long getNrFailedNodes() {
+    return nrFailedNodes;
+  }
+
+  /**
+   * A node found while crawling
+   */
+  public static class CrawledNode {
+    private final NodeId nodeId;
+    private final String browsePath;
+    private final QualifiedName browseName;
+    private final NodeClass nodeClass;
+    private final NodeId typeDefinition;
+    private final int depth;
+
+    public CrawledNode( NodeId nodeId, String browsePath, QualifiedName browseName, NodeClass nodeClass, NodeId typeDefinition, int depth ) {
+      this.nodeId = nodeId;
+      this.browsePath = browsePath;
+      this.browseName = browseName;
+      this.nodeClass = nodeClass;
+      this.typeDefinition = typeDefinition;
+      this.depth = depth;
+    }
+
+    public NodeId getNodeId() {
+      return nodeId;
+    }
+
+    /**
+     * @return The browse names from the start node down to this node, separated by /
+     */
+    public String getBrowsePath() {
+      return browsePath;
+    }
+
+    public QualifiedName getBrowseName() {
+      return browseName;
+    }
+
+    public NodeClass getNodeClass() {
+      return nodeClass;
+    }
+
+    public NodeId getTypeDefinition() {
+      return typeDefinition;
+    }
+
+    public int getDepth() {
+      return depth;
+    }
+  }
+
+  private static class Continuation {
+    private final CrawledNode parent;
+    private final ByteString continuationPoint;
+
+    private Continuation( CrawledNode parent, ByteString continuationPoint ) {
+      this.parent = parent;
+      this.continuationPoint = continuationPoint;
+    }
+  }
+
+  private static class Completion {
+    private final List<CrawledNode> parents;
+    private final boolean browse;
+    private final BrowseResult[] results;
+    private final Throwable error;
+
+    private Completion( List<CrawledNode> parents, boolean browse, BrowseResult[] results, Throwable error ) {
+      this.parents = parents;
+      this.browse = browse;
+      this.results = results;
+      this.error = error;
+    }
+  }
+}
@@ -0,0 +1,308 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free queue which hands the values received on the Milo threads over to the step thread.
+ * <p>
+ * Any number of threads can offer items, a single step thread polls them. What happens when the queue is full
+ * is decided by the {@link Policy}. With COALESCE only the last value of every key (tag) is kept so the memory
+ * used is bounded by the number of keys rather than by the capacity.
+ *
+ * @param <T> The type of the items handed over
+ */
+public class OpcUaHandoffQueue<T> {
+
+  public enum Policy {
+    /**
+     * Make the producer wait until there is room, pushing back on the server
+     */
+    BLOCK( "Block until there is room" ),
+
+    /**
+     * Throw away the oldest item in the queue to make room for the new one
+     */
+    DROP_OLDEST( "Drop the oldest value" ),
+
+    /**
+     * Throw away the new item
+     */
+    DROP_NEWEST( "Drop the newest value" ),
+
+    /**
+     * Only keep the last value of every tag which wasn't handled yet
+     */
+    COALESCE( "Keep the last value per tag" ),
+    ;
+
+    private String description;
+
+    Policy( String description ) {
+      this.description = description;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+
+    public static String[] getDescriptions() {
+      String[] descriptions = new String[ values().length ];
+      for ( int i = 0; i < descriptions.length; i++ ) {
+        descriptions[ i ] = values()[ i ].getDescription();
+      }
+      return descriptions;
+    }
+
+    public static Policy getPolicyForDescription( String description ) {
+      for ( Policy policy : values() ) {
+        if ( policy.getDescription().equalsIgnoreCase( description ) ) {
+          return policy;
+        }
+      }
+      return BLOCK;
+    }
+
+    /**
+     * @param code The name of the policy as stored in XML or the repository
+     * @return The policy or BLOCK if the code is empty or unknown
+     */
+    public static Policy getPolicyForCode( String code ) {
+      for ( Policy policy : values() ) {
+        if ( policy.name().equalsIgnoreCase( code ) ) {
+          return policy;
+        }
+      }
+      return BLOCK;
+    }
+  }
+
+  /**
+   * How long a blocked producer parks before it looks again
+   */
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos( 100 );
+
+  private final int capacity;
+  private final Policy policy;
+
+  private final ConcurrentLinkedQueue<T> items;
+  private final AtomicInteger size;
+
+  /**
+   * COALESCE: the last value per key and the keys which have a value waiting, in order of arrival
+   */
+  private final AtomicReferenceArray<T> latest;
+  private final ConcurrentLinkedQueue<Integer> pendingKeys;
+
+  private volatile Thread waiter;
+  private volatile boolean closed;
+
+  private final AtomicLong nrOffered;
+  private final AtomicLong nrDropped;
+  private final AtomicLong nrCoalesced;
+  private final AtomicLong nrBlocked;
+
+  /**
+   * @param capacity The maximum number of items in the queue
+   * @param policy   What to do when the queue is full
+   * @param nrKeys   The number of distinct keys (tags) which are offered, used by COALESCE
+   */
+  public OpcUaHandoffQueue( int capacity, Policy policy, int nrKeys ) {
+    this.capacity = Math.max( 1, capacity );
+    this.policy = policy;
+    this.items = new ConcurrentLinkedQueue<>();
+    this.size = new AtomicInteger();
+    this.latest = policy == Policy.COALESCE ? new AtomicReferenceArray<>( Math.max( 1, nrKeys ) ) : null;
+    this.pendingKeys = policy == Policy.COALESCE ? new ConcurrentLinkedQueue<>() : null;
+    this.nrOffered = new AtomicLong();
+    this.nrDropped = new AtomicLong();
+    this.nrCoalesced = new AtomicLong();
+    this.nrBlocked = new AtomicLong();
+  }
+
+  /**
+   * Hand over an item. Called from any thread.
+   *
+   * @param key  The key of the item (tag index), between 0 and nrKeys-1
+   * @param item The item
+   * @return false if the item (or, with DROP_OLDEST, an older one) was dropped
+   */
+  public boolean offer( int key, T item ) {
+    nrOffered.incrementAndGet();
+
+    if ( policy == Policy.COALESCE ) {
+      if ( latest.getAndSet( key, item ) == null ) {
+        pendingKeys.add( key );
+        size.incrementAndGet();
+        signal();
+      } else {
+        nrCoalesced.incrementAndGet();
+      }
+      return true;
+    }
+
+    boolean blocked = false;
+    while ( true ) {
+      int current = size.get();
+      if ( current < capacity ) {
+        if ( size.compareAndSet( current, current + 1 ) ) {
+          items.add( item );
+          signal();
+          return true;
+        }
+        continue;
+      }
+
+      // The queue is full
+      //
+      switch ( policy ) {
+        case DROP_NEWEST:
+          nrDropped.incrementAndGet();
+          return false;
+        case DROP_OLDEST:
+          if ( items.poll() != null ) {
+            // We took the place of the oldest item, the size stays the same
+            //
+            nrDropped.incrementAndGet();
+            items.add( item );
+            signal();
+            return false;
+          }
+          // The step thread emptied the queue in the mean time, try again
+          //
+          break;
+        default:
+          if ( closed ) {
+            nrDropped.incrementAndGet();
+            return false;
+          }
+          if ( !blocked ) {
+            blocked = true;
+            nrBlocked.incrementAndGet();
+          }
+          LockSupport.parkNanos( this, BLOCK_PARK_NANOS );
+          break;
+      }
+    }
+  }
+
+  /**
+   * Take the next item, waiting at most the given time. Only to be called from the step thread.
+   *
+   * @return The next item or null if nothing arrived in time
+   */
+  public T poll( long timeout, TimeUnit unit ) {
+    T item = poll();
+    if ( item != null ) {
+      return item;
+    }
+    long deadline = System.nanoTime() + unit.toNanos( timeout );
+    waiter = Thread.currentThread();
+    try {
+      while ( ( item = poll() ) == null && !closed ) {
+        long wait = deadline - System.nanoTime();
+        if ( wait <= 0 || Thread.currentThread().isInterrupted() ) {
+          break;
+        }
+        LockSupport.parkNanos( this, wait );
+      }
+    } finally {
+      waiter = null;
+    }
+    return item;
+  }
+
+  /**
+   * Take the next item without waiting
+   *
+   * @return The next item or null if the queue is empty
+   */
+  public T poll() {
+    if ( policy == Policy.COALESCE ) {
+      Integer key = pendingKeys.poll();
+      if ( key == null ) {
+        return null;
+      }
+      size.decrementAndGet();
+      return latest.getAndSet( key, null );
+    }
+    T item = items.poll();
+    if ( item != null ) {
+      size.decrementAndGet();
+    }
+    return item;
+  }
+
+  /**
+   * Stop blocking producers, the items which are still queued can be polled.
+   */
+  public void close() {
+    closed = true;
+    signal();
+  }
+
+  private void signal() {
+    Thread thread = waiter;
+    if ( thread != null ) {
+      LockSupport.unpark( thread );
+    }
+  }
+
+  public int size() {
+    return Math.max( 0, size.get() );
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  public long getNrOffered() {
+    return nrOffered.get();
+  }
+
+  public long getNrDropped() {
+    return nrDropped.get();
+  }
+
+  public long getNrCoalesced() {
+    return nrCoalesced.get();
+  }
+
+  /**
+   * @return The number of times a producer had to wait for room with the BLOCK policy
+   */
+  public long getNrBlocked() {
+    return nrBlocked.get();
+  }
+}
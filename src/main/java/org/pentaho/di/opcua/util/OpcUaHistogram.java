@@ -0,0 +1,125 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values, cheap enough to update from the Milo threads for every request.
+ * <p>
+ * Values are counted in power of 2 buckets: bucket b holds the values from 2^(b-1) up to 2^b - 1.
+ * Percentiles are therefore reported as the upper bound of their bucket, at most a factor 2 off,
+ * which is plenty to tell a 2ms from a 200ms round trip.
+ */
+public class OpcUaHistogram {
+
+  private static final int NR_BUCKETS = 64;
+
+  private final AtomicLongArray buckets;
+  private final LongAdder count;
+  private final LongAdder sum;
+  private final AtomicLong max;
+
+  public OpcUaHistogram() {
+    buckets = new AtomicLongArray( NR_BUCKETS );
+    count = new LongAdder();
+    sum = new LongAdder();
+    max = new AtomicLong();
+  }
+
+  public void record( long value ) {
+    if ( value < 0 ) {
+      value = 0;
+    }
+    buckets.incrementAndGet( NR_BUCKETS - Long.numberOfLeadingZeros( value ) );
+    count.increment();
+    sum.add( value );
+    long current = max.get();
+    while ( value > current && !max.compareAndSet( current, value ) ) {
+      current = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getSum() {
+    return sum.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0.0 : (double) sum.sum() / n;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return The upper bound of the bucket holding the given percentile, never more than the maximum
+   */
+  public long getPercentile( double percentile ) {
+    long total = 0;
+    long[] counts = new long[ NR_BUCKETS ];
+    for ( int b = 0; b < NR_BUCKETS; b++ ) {
+      counts[ b ] = buckets.get( b );
+      total += counts[ b ];
+    }
+    if ( total == 0 ) {
+      return 0;
+    }
+    long rank = (long) Math.ceil( total * percentile / 100.0 );
+    long seen = 0;
+    for ( int b = 0; b < NR_BUCKETS; b++ ) {
+      seen += counts[ b ];
+      if ( seen >= rank && counts[ b ] > 0 ) {
+        return Math.min( ( 1L << b ) - 1, max.get() );
+      }
+    }
+    return max.get();
+  }
+
+  public void reset() {
+    for ( int b = 0; b < NR_BUCKETS; b++ ) {
+      buckets.set( b, 0 );
+    }
+    count.reset();
+    sum.reset();
+    max.set( 0 );
+  }
+
+  /**
+   * @param unit The unit of the values, for example "ms"
+   * @return count, mean, median, 99th percentile and maximum in one line
+   */
+  public String toString( String unit ) {
+    return getCount() + "x, mean " + Math.round( getMean() ) + unit + ", p50 " + getPercentile( 50 ) + unit
+      + ", p99 " + getPercentile( 99 ) + unit + ", max " + getMax() + unit;
+  }
+}
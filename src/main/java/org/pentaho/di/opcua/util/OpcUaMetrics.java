@@ -0,0 +1,450 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.logging.Metrics;
+import org.pentaho.di.core.metrics.MetricsSnapshotType;
+
+/**
+ * Counters and latency histograms of an OPC UA step copy: how long it took to connect, how long the Read, HistoryRead,
+ * Browse, Write and Call requests to the server take and how many nodes they carry, how many notifications arrive and what happens to them in the handoff
+ * queue, and how often the session was lost.
+ * <p>
+ * Recording is lock free so the Milo threads can do it for every response. The numbers are published as Kettle
+ * metrics snapshots when the transformation gathers metrics, and as an MBean under
+ * org.pentaho.di.opcua:type=Step,transformation=...,step=...,copy=... unless OPCUA_METRICS_JMX is N.
+ */
+public class OpcUaMetrics implements OpcUaMetricsMBean {
+
+  public static final String VARIABLE_METRICS_JMX = "OPCUA_METRICS_JMX";
+
+  public static final Metrics METRIC_CONNECT_START =
+    new Metrics( MetricsSnapshotType.START, "OPCUA_CONNECT_START", "Start of connecting to the OPC UA server" );
+  public static final Metrics METRIC_CONNECT_STOP =
+    new Metrics( MetricsSnapshotType.STOP, "OPCUA_CONNECT_STOP", "End of connecting to the OPC UA server" );
+  public static final Metrics METRIC_REQUEST_COUNT =
+    new Metrics( MetricsSnapshotType.COUNT, "OPCUA_REQUEST_COUNT", "Number of OPC UA read requests" );
+  public static final Metrics METRIC_NODE_COUNT =
+    new Metrics( MetricsSnapshotType.COUNT, "OPCUA_NODE_COUNT", "Number of OPC UA nodes read" );
+  public static final Metrics METRIC_READ_LATENCY_SUM =
+    new Metrics( MetricsSnapshotType.SUM, "OPCUA_READ_LATENCY_SUM", "Total OPC UA read round trip time (ms)" );
+  public static final Metrics METRIC_READ_LATENCY_MAX =
+    new Metrics( MetricsSnapshotType.MAX, "OPCUA_READ_LATENCY_MAX", "Longest OPC UA read round trip time (ms)" );
+  public static final Metrics METRIC_HISTORY_LATENCY_SUM =
+    new Metrics( MetricsSnapshotType.SUM, "OPCUA_HISTORY_LATENCY_SUM", "Total OPC UA history read round trip time (ms)" );
+  public static final Metrics METRIC_HISTORY_LATENCY_MAX =
+    new Metrics( MetricsSnapshotType.MAX, "OPCUA_HISTORY_LATENCY_MAX", "Longest OPC UA history read round trip time (ms)" );
+  public static final Metrics METRIC_BROWSE_LATENCY_SUM =
+    new Metrics( MetricsSnapshotType.SUM, "OPCUA_BROWSE_LATENCY_SUM", "Total OPC UA browse round trip time (ms)" );
+  public static final Metrics METRIC_BROWSE_LATENCY_MAX =
+    new Metrics( MetricsSnapshotType.MAX, "OPCUA_BROWSE_LATENCY_MAX", "Longest OPC UA browse round trip time (ms)" );
+  public static final Metrics METRIC_WRITE_LATENCY_SUM =
+    new Metrics( MetricsSnapshotType.SUM, "OPCUA_WRITE_LATENCY_SUM", "Total OPC UA write round trip time (ms)" );
+  public static final Metrics METRIC_WRITE_LATENCY_MAX =
+    new Metrics( MetricsSnapshotType.MAX, "OPCUA_WRITE_LATENCY_MAX", "Longest OPC UA write round trip time (ms)" );
+  public static final Metrics METRIC_CALL_LATENCY_SUM =
+    new Metrics( MetricsSnapshotType.SUM, "OPCUA_CALL_LATENCY_SUM", "Total OPC UA method call round trip time (ms)" );
+  public static final Metrics METRIC_CALL_LATENCY_MAX =
+    new Metrics( MetricsSnapshotType.MAX, "OPCUA_CALL_LATENCY_MAX", "Longest OPC UA method call round trip time (ms)" );
+  public static final Metrics METRIC_NOTIFICATION_COUNT =
+    new Metrics( MetricsSnapshotType.COUNT, "OPCUA_NOTIFICATION_COUNT", "Number of OPC UA values received" );
+  public static final Metrics METRIC_DROPPED_COUNT =
+    new Metrics( MetricsSnapshotType.COUNT, "OPCUA_DROPPED_COUNT", "Number of OPC UA values dropped from the queue" );
+  public static final Metrics METRIC_RECONNECT_COUNT =
+    new Metrics( MetricsSnapshotType.COUNT, "OPCUA_RECONNECT_COUNT", "Number of OPC UA session reconnects" );
+
+  /**
+   * Latencies are kept in microseconds, the fast requests on a local network take less than a ms
+   */
+  private final OpcUaHistogram readLatency;
+  private final OpcUaHistogram historyLatency;
+  private final OpcUaHistogram browseLatency;
+  private final OpcUaHistogram writeLatency;
+  private final OpcUaHistogram callLatency;
+  private final OpcUaHistogram nodesPerRequest;
+
+  private final LongAdder nrFailedRequests;
+  private final LongAdder nrNodesRead;
+  private final LongAdder nrNotifications;
+
+  private volatile long connectTimeMs;
+  private volatile long startTime;
+
+  private volatile OpcUaHandoffQueue<?> queue;
+  private volatile OpcUaSessionSupervisor supervisor;
+
+  private ObjectName objectName;
+
+  public OpcUaMetrics() {
+    readLatency = new OpcUaHistogram();
+    historyLatency = new OpcUaHistogram();
+    browseLatency = new OpcUaHistogram();
+    writeLatency = new OpcUaHistogram();
+    callLatency = new OpcUaHistogram();
+    nodesPerRequest = new OpcUaHistogram();
+    nrFailedRequests = new LongAdder();
+    nrNodesRead = new LongAdder();
+    nrNotifications = new LongAdder();
+    startTime = System.currentTimeMillis();
+  }
+
+  /**
+   * @param startNanos System.nanoTime() before connecting
+   */
+  public void recordConnect( long startNanos ) {
+    connectTimeMs = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startNanos );
+  }
+
+  /**
+   * Record the answer to a read request
+   *
+   * @param startNanos System.nanoTime() when the request was sent
+   * @param nrNodes    The number of nodes in the request
+   * @param error      The reason the request failed or null
+   */
+  public void recordRead( long startNanos, int nrNodes, Throwable error ) {
+    readLatency.record( TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - startNanos ) );
+    nodesPerRequest.record( nrNodes );
+    if ( error != null ) {
+      nrFailedRequests.increment();
+    } else {
+      nrNodesRead.add( nrNodes );
+    }
+  }
+
+  /**
+   * Record the answer to a history read request
+   */
+  public void recordHistoryRead( long startNanos, int nrNodes, Throwable error ) {
+    record( historyLatency, startNanos, nrNodes, error );
+  }
+
+  /**
+   * Record the answer to a Browse or BrowseNext request
+   */
+  public void recordBrowse( long startNanos, int nrNodes, Throwable error ) {
+    record( browseLatency, startNanos, nrNodes, error );
+  }
+
+  /**
+   * Record the answer to a write request
+   */
+  public void recordWrite( long startNanos, int nrNodes, Throwable error ) {
+    record( writeLatency, startNanos, nrNodes, error );
+  }
+
+  /**
+   * Record the answer to a method call request
+   *
+   * @param nrCalls The number of method calls in the request
+   */
+  public void recordCall( long startNanos, int nrCalls, Throwable error ) {
+    record( callLatency, startNanos, nrCalls, error );
+  }
+
+  private void record( OpcUaHistogram latency, long startNanos, int nrNodes, Throwable error ) {
+    latency.record( TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - startNanos ) );
+    nodesPerRequest.record( nrNodes );
+    if ( error != null ) {
+      nrFailedRequests.increment();
+    }
+  }
+
+  /**
+   * Record a value which arrived from a subscription or the poller
+   */
+  public void recordNotification() {
+    nrNotifications.increment();
+  }
+
+  /**
+   * @param queue The handoff queue to report the depth, drops and coalesced values of
+   */
+  public void setQueue( OpcUaHandoffQueue<?> queue ) {
+    this.queue = queue;
+  }
+
+  /**
+   * @param supervisor The session supervisor to report the reconnects of
+   */
+  public void setSupervisor( OpcUaSessionSupervisor supervisor ) {
+    this.supervisor = supervisor;
+  }
+
+  /**
+   * Make the metrics visible through JMX, unless OPCUA_METRICS_JMX is N
+   *
+   * @return true if the MBean was registered
+   */
+  public boolean register( LogChannelInterface log, String transformationName, String stepName, int copyNr ) {
+    if ( "N".equalsIgnoreCase( Const.NVL( System.getProperty( VARIABLE_METRICS_JMX ), "Y" ) ) ) {
+      return false;
+    }
+    try {
+      ObjectName name = new ObjectName( "org.pentaho.di.opcua:type=Step,transformation=" + ObjectName.quote( Const.NVL( transformationName, "" ) )
+        + ",step=" + ObjectName.quote( stepName ) + ",copy=" + copyNr );
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if ( server.isRegistered( name ) ) {
+        // Left behind by an earlier run of the same transformation which didn't clean up
+        //
+        server.unregisterMBean( name );
+      }
+      server.registerMBean( this, name );
+      objectName = name;
+      return true;
+    } catch ( Exception e ) {
+      log.logError( "Unable to register the OPC UA metrics with JMX", e );
+      return false;
+    }
+  }
+
+  public void unregister( LogChannelInterface log ) {
+    if ( objectName == null ) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+    } catch ( Exception e ) {
+      log.logError( "Unable to unregister the OPC UA metrics from JMX", e );
+    }
+    objectName = null;
+  }
+
+  /**
+   * Store the counters as Kettle metrics snapshots, if the transformation gathers metrics
+   */
+  public void snap( LogChannelInterface log ) {
+    if ( !log.isGatheringMetrics() ) {
+      return;
+    }
+    log.snap( METRIC_REQUEST_COUNT, getNrRequests() );
+    log.snap( METRIC_NODE_COUNT, getNrNodesRead() );
+    log.snap( METRIC_READ_LATENCY_SUM, TimeUnit.MICROSECONDS.toMillis( readLatency.getSum() ) );
+    log.snap( METRIC_READ_LATENCY_MAX, getReadLatencyMaxMs() );
+    log.snap( METRIC_HISTORY_LATENCY_SUM, TimeUnit.MICROSECONDS.toMillis( historyLatency.getSum() ) );
+    log.snap( METRIC_HISTORY_LATENCY_MAX, getHistoryLatencyMaxMs() );
+    log.snap( METRIC_BROWSE_LATENCY_SUM, TimeUnit.MICROSECONDS.toMillis( browseLatency.getSum() ) );
+    log.snap( METRIC_BROWSE_LATENCY_MAX, getBrowseLatencyMaxMs() );
+    log.snap( METRIC_WRITE_LATENCY_SUM, TimeUnit.MICROSECONDS.toMillis( writeLatency.getSum() ) );
+    log.snap( METRIC_WRITE_LATENCY_MAX, getWriteLatencyMaxMs() );
+    log.snap( METRIC_CALL_LATENCY_SUM, TimeUnit.MICROSECONDS.toMillis( callLatency.getSum() ) );
+    log.snap( METRIC_CALL_LATENCY_MAX, getCallLatencyMaxMs() );
+    log.snap( METRIC_NOTIFICATION_COUNT, getNrNotifications() );
+    log.snap( METRIC_DROPPED_COUNT, getNrDropped() );
+    log.snap( METRIC_RECONNECT_COUNT, getNrReconnects() );
+  }
+
+  /**
+   * @return The metrics which saw some action, in one line for the log
+   */
+  @Override
+  public String toString() {
+    StringBuilder summary = new StringBuilder( "connect " + connectTimeMs + "ms" );
+    if ( readLatency.getCount() > 0 ) {
+      summary.append( ", reads " ).append( readLatency.toString( "us" ) );
+    }
+    if ( historyLatency.getCount() > 0 ) {
+      summary.append( ", history reads " ).append( historyLatency.toString( "us" ) );
+    }
+    if ( browseLatency.getCount() > 0 ) {
+      summary.append( ", browses " ).append( browseLatency.toString( "us" ) );
+    }
+    if ( writeLatency.getCount() > 0 ) {
+      summary.append( ", writes " ).append( writeLatency.toString( "us" ) );
+    }
+    if ( callLatency.getCount() > 0 ) {
+      summary.append( ", calls " ).append( callLatency.toString( "us" ) );
+    }
+    if ( nodesPerRequest.getCount() > 0 ) {
+      summary.append( ", nodes per request mean " ).append( Math.round( nodesPerRequest.getMean() ) )
+        .append( " max " ).append( nodesPerRequest.getMax() );
+    }
+    if ( getNrFailedRequests() > 0 ) {
+      summary.append( ", failed requests " ).append( getNrFailedRequests() );
+    }
+    if ( getNrNotifications() > 0 ) {
+      summary.append( ", values received " ).append( getNrNotifications() )
+        .append( " (" ).append( Math.round( getNotificationsPerSecond() ) ).append( "/s)" );
+    }
+    return summary.toString();
+  }
+
+  @Override public long getConnectTimeMs() {
+    return connectTimeMs;
+  }
+
+  @Override public long getNrRequests() {
+    return readLatency.getCount();
+  }
+
+  @Override public long getNrFailedRequests() {
+    return nrFailedRequests.sum();
+  }
+
+  @Override public long getNrNodesRead() {
+    return nrNodesRead.sum();
+  }
+
+  @Override public double getNodesPerRequestMean() {
+    return nodesPerRequest.getMean();
+  }
+
+  @Override public long getNodesPerRequestMax() {
+    return nodesPerRequest.getMax();
+  }
+
+  @Override public double getReadLatencyMeanMs() {
+    return readLatency.getMean() / 1000.0;
+  }
+
+  @Override public long getReadLatencyP50Ms() {
+    return TimeUnit.MICROSECONDS.toMillis( readLatency.getPercentile( 50 ) );
+  }
+
+  @Override public long getReadLatencyP99Ms() {
+    return TimeUnit.MICROSECONDS.toMillis( readLatency.getPercentile( 99 ) );
+  }
+
+  @Override public long getReadLatencyMaxMs() {
+    return TimeUnit.MICROSECONDS.toMillis( readLatency.getMax() );
+  }
+
+  @Override public long getNrHistoryRequests() {
+    return historyLatency.getCount();
+  }
+
+  @Override public double getHistoryLatencyMeanMs() {
+    return historyLatency.getMean() / 1000.0;
+  }
+
+  @Override public long getHistoryLatencyP99Ms() {
+    return TimeUnit.MICROSECONDS.toMillis( historyLatency.getPercentile( 99 ) );
+  }
+
+  @Override public long getHistoryLatencyMaxMs() {
+    return TimeUnit.MICROSECONDS.toMillis( historyLatency.getMax() );
+  }
+
+  @Override public long getNrBrowseRequests() {
+    return browseLatency.getCount();
+  }
+
+  @Override public double getBrowseLatencyMeanMs() {
+    return browseLatency.getMean() / 1000.0;
+  }
+
+  @Override public long getBrowseLatencyP99Ms() {
+    return TimeUnit.MICROSECONDS.toMillis( browseLatency.getPercentile( 99 ) );
+  }
+
+  @Override public long getBrowseLatencyMaxMs() {
+    return TimeUnit.MICROSECONDS.toMillis( browseLatency.getMax() );
+  }
+
+  @Override public long getNrWriteRequests() {
+    return writeLatency.getCount();
+  }
+
+  @Override public double getWriteLatencyMeanMs() {
+    return writeLatency.getMean() / 1000.0;
+  }
+
+  @Override public long getWriteLatencyP99Ms() {
+    return TimeUnit.MICROSECONDS.toMillis( writeLatency.getPercentile( 99 ) );
+  }
+
+  @Override public long getWriteLatencyMaxMs() {
+    return TimeUnit.MICROSECONDS.toMillis( writeLatency.getMax() );
+  }
+
+  @Override public long getNrCallRequests() {
+    return callLatency.getCount();
+  }
+
+  @Override public double getCallLatencyMeanMs() {
+    return callLatency.getMean() / 1000.0;
+  }
+
+  @Override public long getCallLatencyP99Ms() {
+    return TimeUnit.MICROSECONDS.toMillis( callLatency.getPercentile( 99 ) );
+  }
+
+  @Override public long getCallLatencyMaxMs() {
+    return TimeUnit.MICROSECONDS.toMillis( callLatency.getMax() );
+  }
+
+  @Override public long getNrNotifications() {
+    return nrNotifications.sum();
+  }
+
+  @Override public double getNotificationsPerSecond() {
+    long elapsed = System.currentTimeMillis() - startTime;
+    return elapsed <= 0 ? 0.0 : getNrNotifications() * 1000.0 / elapsed;
+  }
+
+  @Override public int getQueueDepth() {
+    OpcUaHandoffQueue<?> current = queue;
+    return current == null ? 0 : current.size();
+  }
+
+  @Override public long getNrDropped() {
+    OpcUaHandoffQueue<?> current = queue;
+    return current == null ? 0 : current.getNrDropped();
+  }
+
+  @Override public long getNrCoalesced() {
+    OpcUaHandoffQueue<?> current = queue;
+    return current == null ? 0 : current.getNrCoalesced();
+  }
+
+  @Override public long getNrReconnects() {
+    OpcUaSessionSupervisor current = supervisor;
+    return current == null ? 0 : current.getNrReconnects();
+  }
+
+  /**
+   * Start counting again. The connect time and the queue and supervisor counters aren't ours to reset.
+   */
+  @Override public void reset() {
+    readLatency.reset();
+    historyLatency.reset();
+    browseLatency.reset();
+    writeLatency.reset();
+    callLatency.reset();
+    nodesPerRequest.reset();
+    nrFailedRequests.reset();
+    nrNodesRead.reset();
+    nrNotifications.reset();
+    startTime = System.currentTimeMillis();
+  }
+}
@@ -0,0 +1,96 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+/**
+ * The metrics of an OPC UA step copy as seen through JMX, latencies in ms.
+ */
+public interface OpcUaMetricsMBean {
+
+  long getConnectTimeMs();
+
+  long getNrRequests();
+
+  long getNrFailedRequests();
+
+  long getNrNodesRead();
+
+  double getNodesPerRequestMean();
+
+  long getNodesPerRequestMax();
+
+  double getReadLatencyMeanMs();
+
+  long getReadLatencyP50Ms();
+
+  long getReadLatencyP99Ms();
+
+  long getReadLatencyMaxMs();
+
+  long getNrHistoryRequests();
+
+  double getHistoryLatencyMeanMs();
+
+  long getHistoryLatencyP99Ms();
+
+  long getHistoryLatencyMaxMs();
+
+  long getNrBrowseRequests();
+
+  double getBrowseLatencyMeanMs();
+
+  long getBrowseLatencyP99Ms();
+
+  long getBrowseLatencyMaxMs();
+
+  long getNrWriteRequests();
+
+  double getWriteLatencyMeanMs();
+
+  long getWriteLatencyP99Ms();
+
+  long getWriteLatencyMaxMs();
+
+  long getNrCallRequests();
+
+  double getCallLatencyMeanMs();
+
+  long getCallLatencyP99Ms();
+
+  long getCallLatencyMaxMs();
+
+  long getNrNotifications();
+
+  double getNotificationsPerSecond();
+
+  int getQueueDepth();
+
+  long getNrDropped();
+
+  long getNrCoalesced();
+
+  long getNrReconnects();
+
+  void reset();
+}
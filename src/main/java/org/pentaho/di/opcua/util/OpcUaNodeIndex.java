@@ -0,0 +1,479 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.BuildInfo;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+
+/**
+ * A local, memory mapped index of the nodes of a server: node ID, browse path, node class, data type and value rank.
+ * Once built, looking up tags by browse path prefix or regular expression doesn't need a connection to the server.
+ * <p>
+ * The file holds the entries sorted by browse path followed by a table with the offset of every entry, so prefix
+ * lookups are a binary search over the mapped file. A stamp made of the server's build information and namespace
+ * array is stored with the index; when it changes the index is rebuilt.
+ * <p>
+ * Closing the index unmaps the file right away instead of when the buffer is garbage collected, otherwise the file
+ * can't be replaced on Windows while the old mapping is still around.
+ */
+public class OpcUaNodeIndex implements Closeable {
+
+  private static final int MAGIC = 0x4F504349; // OPCI
+  private static final int VERSION = 1;
+
+  private final RandomAccessFile randomAccessFile;
+  private MappedByteBuffer buffer;
+  private final String serverStamp;
+  private final int size;
+  private final int offsetsPosition;
+
+  private OpcUaNodeIndex( File file ) throws IOException {
+    randomAccessFile = new RandomAccessFile( file, "r" );
+    FileChannel channel = randomAccessFile.getChannel();
+    buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+
+    if ( buffer.getInt( 0 ) != MAGIC || buffer.getInt( 4 ) != VERSION ) {
+      randomAccessFile.close();
+      throw new IOException( "File '" + file + "' is not an OPC UA node index" );
+    }
+    int position = 8;
+    int stampLength = buffer.getInt( position );
+    serverStamp = readString( position );
+    position += 4 + stampLength;
+    size = buffer.getInt( position );
+    offsetsPosition = buffer.getInt( (int) channel.size() - 4 );
+  }
+
+  /**
+   * @param connectionName The name of the OPC UA connection
+   * @return The file in the Kettle home folder where the index of the connection is kept
+   */
+  public static File getIndexFile( String connectionName ) {
+    String fileName = connectionName.replaceAll( "[^a-zA-Z0-9_\\-.]", "_" ) + ".idx";
+    return new File( Const.getKettleDirectory() + Const.FILE_SEPARATOR + "opcua" + Const.FILE_SEPARATOR + fileName );
+  }
+
+  /**
+   * Open the index of a server, (re-)building it if it doesn't exist yet or if the server changed since it was built.
+   *
+   * @param client The connected client
+   * @param file The index file
+   * @return The opened index
+   * @throws KettleException
+   */
+  public static OpcUaNodeIndex openOrBuild( OpcUaClient client, File file ) throws KettleException {
+    String stamp = getServerStamp( client );
+    if ( file.exists() ) {
+      try {
+        OpcUaNodeIndex index = open( file );
+        if ( stamp.equals( index.getServerStamp() ) ) {
+          return index;
+        }
+        index.close();
+      } catch ( IOException e ) {
+        // Unreadable or from an older version, we'll build a new one
+      }
+    }
+    return build( client, file );
+  }
+
+  /**
+   * @param file The index file
+   * @return The index, memory mapped
+   * @throws IOException
+   */
+  public static OpcUaNodeIndex open( File file ) throws IOException {
+    return new OpcUaNodeIndex( file );
+  }
+
+  /**
+   * Crawl the Objects folder of the server and write a new index.
+   *
+   * @param client The connected client
+   * @param file The index file to (over)write
+   * @return The new index
+   * @throws KettleException
+   */
+  public static OpcUaNodeIndex build( OpcUaClient client, File file ) throws KettleException {
+    String stamp = getServerStamp( client );
+    List<IndexedNode> nodes = crawl( client, Identifiers.ObjectsFolder, "" );
+    return write( file, stamp, nodes );
+  }
+
+  /**
+   * The stamp changes when the server software or its namespaces change, a good sign that the address space changed.
+   *
+   * @param client The connected client
+   * @return The stamp of the server
+   * @throws KettleException
+   */
+  public static String getServerStamp( OpcUaClient client ) throws KettleException {
+    try {
+      List<DataValue> values = client.readValues( 0.0, TimestampsToReturn.Neither, Arrays.asList(
+        Identifiers.Server_ServerStatus_BuildInfo,
+        Identifiers.Server_NamespaceArray
+      ) ).get();
+
+      StringBuilder stamp = new StringBuilder();
+      Object buildInfo = values.get( 0 ).getValue().getValue();
+      if ( buildInfo instanceof ExtensionObject ) {
+        buildInfo = ( (ExtensionObject) buildInfo ).decode();
+      }
+      if ( buildInfo instanceof BuildInfo ) {
+        BuildInfo info = (BuildInfo) buildInfo;
+        stamp.append( info.getProductUri() ).append( '|' ).append( info.getSoftwareVersion() ).append( '|' )
+          .append( info.getBuildNumber() ).append( '|' ).append( info.getBuildDate() );
+      }
+      Object namespaces = values.get( 1 ).getValue().getValue();
+      if ( namespaces instanceof String[] ) {
+        stamp.append( '|' ).append( Arrays.toString( (String[]) namespaces ) );
+      }
+      return stamp.toString();
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to read the server status", e );
+    }
+  }
+
+  private static List<IndexedNode> crawl( OpcUaClient client, NodeId root, String basePath ) throws KettleException {
+    List<OpcUaCrawler.CrawledNode> crawledNodes = new ArrayList<>();
+    new OpcUaCrawler( client ).crawl( root, crawledNodes::add );
+
+    // Read the data type and value rank of all variables in as few requests as possible
+    //
+    List<ReadValueId> readValueIds = new ArrayList<>();
+    for ( OpcUaCrawler.CrawledNode node : crawledNodes ) {
+      if ( node.getNodeClass() == NodeClass.Variable ) {
+        readValueIds.add( new ReadValueId( node.getNodeId(), AttributeId.DataType.uid(), null, QualifiedName.NULL_VALUE ) );
+        readValueIds.add( new ReadValueId( node.getNodeId(), AttributeId.ValueRank.uid(), null, QualifiedName.NULL_VALUE ) );
+      }
+    }
+    List<DataValue> attributes = new ArrayList<>( readValueIds.size() );
+    try {
+      OpcUaOperationLimits limits = OpcUaOperationLimits.get( client );
+      OpcUaRequestSizer sizer = new OpcUaRequestSizer( null, "Read",
+        limits.capByMessageSize( limits.getMaxNodesPerRead(), OpcUaOperationLimits.ESTIMATED_BYTES_PER_VALUE ) );
+      int start = 0;
+      while ( start < readValueIds.size() ) {
+        int end = Math.min( start + sizer.getSize(), readValueIds.size() );
+        try {
+          List<ReadValueId> chunk = readValueIds.subList( start, end );
+          attributes.addAll( Arrays.asList( client.read( 0.0, TimestampsToReturn.Neither, chunk ).get().getResults() ) );
+        } catch ( ExecutionException e ) {
+          if ( end - start > 1 && OpcUaRequestSizer.isTooLarge( e ) ) {
+            sizer.backOff( end - start );
+            continue;
+          }
+          throw e;
+        }
+        sizer.onSuccess( end - start );
+        start = end;
+      }
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to read the data types of the variables", e );
+    }
+
+    List<IndexedNode> nodes = new ArrayList<>( crawledNodes.size() );
+    int attributeIndex = 0;
+    for ( OpcUaCrawler.CrawledNode node : crawledNodes ) {
+      String dataType = "";
+      int valueRank = 0;
+      if ( node.getNodeClass() == NodeClass.Variable ) {
+        Object type = attributes.get( attributeIndex++ ).getValue().getValue();
+        Object rank = attributes.get( attributeIndex++ ).getValue().getValue();
+        if ( type instanceof NodeId ) {
+          dataType = ( (NodeId) type ).toParseableString();
+        }
+        if ( rank instanceof Number ) {
+          valueRank = ( (Number) rank ).intValue();
+        }
+      }
+      nodes.add( new IndexedNode( node.getNodeId().toParseableString(), basePath + node.getBrowsePath(),
+        node.getNodeClass() == null ? 0 : node.getNodeClass().getValue(), dataType, valueRank ) );
+    }
+    return nodes;
+  }
+
+  private static OpcUaNodeIndex write( File file, String stamp, List<IndexedNode> nodes ) throws KettleException {
+    nodes.sort( Comparator.comparing( IndexedNode::getBrowsePath ) );
+
+    File folder = file.getParentFile();
+    if ( folder != null && !folder.exists() && !folder.mkdirs() ) {
+      throw new KettleException( "Unable to create folder '" + folder + "'" );
+    }
+    File tempFile = new File( file.getPath() + ".tmp" );
+    try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ), 65536 ) ) ) {
+      out.writeInt( MAGIC );
+      out.writeInt( VERSION );
+      writeString( out, stamp );
+      out.writeInt( nodes.size() );
+
+      int[] offsets = new int[ nodes.size() ];
+      for ( int i = 0; i < nodes.size(); i++ ) {
+        IndexedNode node = nodes.get( i );
+        offsets[ i ] = out.size();
+        writeString( out, node.getBrowsePath() );
+        writeString( out, node.getNodeId() );
+        out.writeInt( node.getNodeClass() );
+        writeString( out, node.getDataType() );
+        out.writeInt( node.getValueRank() );
+      }
+
+      int offsetsPosition = out.size();
+      for ( int offset : offsets ) {
+        out.writeInt( offset );
+      }
+      out.writeInt( offsetsPosition );
+    } catch ( IOException e ) {
+      throw new KettleException( "Unable to write node index '" + file + "'", e );
+    }
+
+    if ( file.exists() && !file.delete() ) {
+      throw new KettleException( "Unable to replace node index '" + file + "'" );
+    }
+    if ( !tempFile.renameTo( file ) ) {
+      throw new KettleException( "Unable to rename '" + tempFile + "' to '" + file + "'" );
+    }
+
+    try {
+      return open( file );
+    } catch ( IOException e ) {
+      throw new KettleException( "Unable to open node index '" + file + "'", e );
+    }
+  }
+
+  private static void writeString( DataOutputStream out, String string ) throws IOException {
+    byte[] bytes = Const.NVL( string, "" ).getBytes( StandardCharsets.UTF_8 );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  private String readString( int position ) {
+    int length = buffer.getInt( position );
+    byte[] bytes = new byte[ length ];
+    ByteBuffer view = buffer.duplicate();
+    view.position( position + 4 );
+    view.get( bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+
+  private int getOffset( int index ) {
+    return buffer.getInt( offsetsPosition + 4 * index );
+  }
+
+  private String getBrowsePath( int index ) {
+    return readString( getOffset( index ) );
+  }
+
+  /**
+   * @return The number of nodes in the index
+   */
+  public int size() {
+    return size;
+  }
+
+  public String getServerStamp() {
+    return serverStamp;
+  }
+
+  /**
+   * @param index The position of the node, 0 to size()-1
+   * @return The node, in the order of the browse paths
+   */
+  public IndexedNode get( int index ) {
+    int position = getOffset( index );
+    String browsePath = readString( position );
+    position += 4 + buffer.getInt( position );
+    String nodeId = readString( position );
+    position += 4 + buffer.getInt( position );
+    int nodeClass = buffer.getInt( position );
+    position += 4;
+    String dataType = readString( position );
+    position += 4 + buffer.getInt( position );
+    int valueRank = buffer.getInt( position );
+    return new IndexedNode( nodeId, browsePath, nodeClass, dataType, valueRank );
+  }
+
+  /**
+   * @param prefix The start of the browse path, for example /Plant1/Line2
+   * @return All nodes with a browse path starting with the prefix
+   */
+  public List<IndexedNode> findByPrefix( String prefix ) {
+    // Binary search for the first path which is not smaller than the prefix
+    //
+    int low = 0;
+    int high = size;
+    while ( low < high ) {
+      int middle = ( low + high ) >>> 1;
+      if ( getBrowsePath( middle ).compareTo( prefix ) < 0 ) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    List<IndexedNode> nodes = new ArrayList<>();
+    for ( int i = low; i < size; i++ ) {
+      IndexedNode node = get( i );
+      if ( !node.getBrowsePath().startsWith( prefix ) ) {
+        break;
+      }
+      nodes.add( node );
+    }
+    return nodes;
+  }
+
+  /**
+   * @param regex The regular expression the whole browse path has to match
+   * @return All matching nodes
+   */
+  public List<IndexedNode> findByRegex( String regex ) {
+    Pattern pattern = Pattern.compile( regex );
+    List<IndexedNode> nodes = new ArrayList<>();
+    for ( int i = 0; i < size; i++ ) {
+      if ( pattern.matcher( getBrowsePath( i ) ).matches() ) {
+        nodes.add( get( i ) );
+      }
+    }
+    return nodes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    MappedByteBuffer mapped = buffer;
+    buffer = null;
+    randomAccessFile.close();
+    if ( mapped != null ) {
+      unmap( mapped );
+    }
+  }
+
+  /**
+   * Release the mapping now: there is no public API for it, so try the cleaner of Java 8 and the Unsafe of Java 9+.
+   * If neither works the mapping is released when the buffer is garbage collected.
+   */
+  private static void unmap( MappedByteBuffer mapped ) {
+    try {
+      Method cleanerMethod = mapped.getClass().getMethod( "cleaner" );
+      cleanerMethod.setAccessible( true );
+      Object cleaner = cleanerMethod.invoke( mapped );
+      if ( cleaner != null ) {
+        cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+      }
+      return;
+    } catch ( Exception e ) {
+      // Not Java 8, try the Java 9+ way
+    }
+    try {
+      Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+      Field theUnsafe = unsafeClass.getDeclaredField( "theUnsafe" );
+      theUnsafe.setAccessible( true );
+      unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class ).invoke( theUnsafe.get( null ), mapped );
+    } catch ( Exception e ) {
+      // Left to the garbage collector
+    }
+  }
+
+  /**
+   * A node in the index
+   */
+  public static class IndexedNode {
+    private final String nodeId;
+    private final String browsePath;
+    private final int nodeClass;
+    private final String dataType;
+    private final int valueRank;
+
+    public IndexedNode( String nodeId, String browsePath, int nodeClass, String dataType, int valueRank ) {
+      this.nodeId = nodeId;
+      this.browsePath = browsePath;
+      this.nodeClass = nodeClass;
+      this.dataType = dataType;
+      this.valueRank = valueRank;
+    }
+
+    /**
+     * @return The parseable node ID
+     */
+    public String getNodeId() {
+      return nodeId;
+    }
+
+    public String getBrowsePath() {
+      return browsePath;
+    }
+
+    /**
+     * @return The value of the NodeClass enumeration
+     */
+    public int getNodeClass() {
+      return nodeClass;
+    }
+
+    public boolean isVariable() {
+      return nodeClass == NodeClass.Variable.getValue();
+    }
+
+    /**
+     * @return The parseable node ID of the data type of a variable, empty for other nodes
+     */
+    public String getDataType() {
+      return dataType;
+    }
+
+    public int getValueRank() {
+      return valueRank;
+    }
+  }
+}
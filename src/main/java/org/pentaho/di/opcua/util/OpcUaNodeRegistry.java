@@ -0,0 +1,319 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.SessionActivityListener;
+import org.eclipse.milo.opcua.sdk.client.api.UaSession;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.structured.RegisterNodesResponse;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Registers the nodes a step reads, writes or calls over and over with the RegisterNodes service, and hands out the
+ * NodeIds the server returned instead of the configured ones. Servers return shorter, pre-resolved NodeIds which make
+ * every later request smaller and cheaper to handle.
+ * <p>
+ * Registered NodeIds are only valid in the session they were registered in. When the session is lost the registry
+ * goes back to the configured NodeIds, and once the session is active again all the nodes are registered again in
+ * the background. If the server doesn't support RegisterNodes the configured NodeIds are simply used throughout.
+ * <p>
+ * Don't use registered NodeIds for monitored items: subscriptions move to a new session on reconnect.
+ * <p>
+ * Steps sharing a pooled session can register the same nodes. The registered NodeIds are counted per client and a
+ * registry only unregisters the ones no other registry uses anymore.
+ */
+public class OpcUaNodeRegistry implements SessionActivityListener {
+
+  /**
+   * The number of registries using every registered NodeId, per client
+   */
+  private static final Map<OpcUaClient, Map<NodeId, Integer>> registrations = new WeakHashMap<>();
+
+  private final LogChannelInterface log;
+  private final OpcUaClient client;
+  private final int maxNodesPerRegister;
+
+  /**
+   * All the nodes we were asked to register, to do it again in a new session
+   */
+  private final Set<NodeId> nodes;
+
+  /**
+   * The configured NodeId to the registered NodeId, replaced as a whole so readers never need a lock
+   */
+  private volatile Map<NodeId, NodeId> registered;
+
+  /**
+   * Changes every time the registered NodeIds change, to know when a cached resolved list is stale
+   */
+  private volatile long version;
+
+  private volatile boolean unsupported;
+
+  private final AtomicLong nrRegistrations;
+
+  /**
+   * @param log                 The logging channel
+   * @param client              The connected client
+   * @param maxNodesPerRegister The maximum number of nodes in a RegisterNodes request, 0 for no limit
+   */
+  public OpcUaNodeRegistry( LogChannelInterface log, OpcUaClient client, int maxNodesPerRegister ) {
+    this.log = log;
+    this.client = client;
+    this.maxNodesPerRegister = maxNodesPerRegister;
+    this.nodes = new LinkedHashSet<>();
+    this.registered = Collections.emptyMap();
+    this.nrRegistrations = new AtomicLong();
+  }
+
+  public void start() {
+    client.addSessionActivityListener( this );
+  }
+
+  /**
+   * Stop following the session and unregister the nodes no other registry on the client still uses. The session itself
+   * may live on in the pool.
+   */
+  public void stop() {
+    client.removeSessionActivityListener( this );
+    List<NodeId> registeredIds = clear();
+    if ( !registeredIds.isEmpty() ) {
+      for ( List<NodeId> chunk : chunks( registeredIds ) ) {
+        client.unregisterNodes( chunk ).exceptionally( e -> null );
+      }
+    }
+  }
+
+  /**
+   * Register the given nodes, the ones registered before are skipped.
+   * A failure is logged and the configured NodeIds are used instead, registering is only an optimization.
+   */
+  public void register( Collection<NodeId> nodeIds ) {
+    List<NodeId> todo = new ArrayList<>();
+    synchronized ( nodes ) {
+      Map<NodeId, NodeId> current = registered;
+      for ( NodeId nodeId : nodeIds ) {
+        if ( nodes.add( nodeId ) || !current.containsKey( nodeId ) ) {
+          todo.add( nodeId );
+        }
+      }
+    }
+    if ( todo.isEmpty() || unsupported ) {
+      return;
+    }
+    try {
+      registerAsync( todo, version ).get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    } catch ( Exception e ) {
+      // Already logged
+    }
+  }
+
+  private CompletableFuture<Void> registerAsync( List<NodeId> nodeIds, long startVersion ) {
+    List<CompletableFuture<RegisterNodesResponse>> responses = new ArrayList<>();
+    List<List<NodeId>> chunks = chunks( nodeIds );
+    for ( List<NodeId> chunk : chunks ) {
+      responses.add( client.registerNodes( chunk ) );
+    }
+    return CompletableFuture.allOf( responses.toArray( new CompletableFuture[ responses.size() ] ) ).handle( ( v, error ) -> {
+      if ( error != null ) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if ( cause instanceof UaException && ( (UaException) cause ).getStatusCode().getValue() == StatusCodes.Bad_ServiceUnsupported ) {
+          unsupported = true;
+        }
+        log.logBasic( "Unable to register " + nodeIds.size() + " nodes, using the configured node IDs : " + cause.getMessage() );
+        return null;
+      }
+      Map<NodeId, NodeId> added = new HashMap<>();
+      for ( int c = 0; c < chunks.size(); c++ ) {
+        List<NodeId> chunk = chunks.get( c );
+        NodeId[] registeredIds = responses.get( c ).join().getRegisteredNodeIds();
+        for ( int i = 0; registeredIds != null && i < registeredIds.length && i < chunk.size(); i++ ) {
+          added.put( chunk.get( i ), registeredIds[ i ] );
+        }
+      }
+      synchronized ( nodes ) {
+        // Registered in a session which is gone by now
+        //
+        if ( version != startVersion ) {
+          return null;
+        }
+        Map<NodeId, NodeId> merged = new HashMap<>( registered );
+        List<NodeId> newIds = new ArrayList<>( added.size() );
+        for ( Map.Entry<NodeId, NodeId> entry : added.entrySet() ) {
+          NodeId previous = merged.put( entry.getKey(), entry.getValue() );
+          if ( previous == null ) {
+            newIds.add( entry.getValue() );
+          }
+        }
+        retain( client, newIds );
+        registered = merged;
+        version++;
+      }
+      nrRegistrations.incrementAndGet();
+      if ( log.isDetailed() ) {
+        log.logDetailed( "Registered " + added.size() + " nodes" );
+      }
+      return null;
+    } );
+  }
+
+  private List<List<NodeId>> chunks( List<NodeId> nodeIds ) {
+    List<List<NodeId>> chunks = new ArrayList<>();
+    int size = maxNodesPerRegister <= 0 ? nodeIds.size() : maxNodesPerRegister;
+    for ( int start = 0; start < nodeIds.size(); start += size ) {
+      chunks.add( nodeIds.subList( start, Math.min( start + size, nodeIds.size() ) ) );
+    }
+    return chunks;
+  }
+
+  /**
+   * Forget the registered NodeIds
+   *
+   * @return The registered NodeIds no other registry on the client uses
+   */
+  private List<NodeId> clear() {
+    synchronized ( nodes ) {
+      List<NodeId> unused = release( client, registered.values() );
+      registered = Collections.emptyMap();
+      version++;
+      return unused;
+    }
+  }
+
+  private static void retain( OpcUaClient client, Collection<NodeId> registeredIds ) {
+    if ( registeredIds.isEmpty() ) {
+      return;
+    }
+    synchronized ( registrations ) {
+      Map<NodeId, Integer> counts = registrations.computeIfAbsent( client, c -> new HashMap<>() );
+      for ( NodeId registeredId : registeredIds ) {
+        counts.merge( registeredId, 1, Integer::sum );
+      }
+    }
+  }
+
+  private static List<NodeId> release( OpcUaClient client, Collection<NodeId> registeredIds ) {
+    List<NodeId> unused = new ArrayList<>();
+    if ( registeredIds.isEmpty() ) {
+      return unused;
+    }
+    synchronized ( registrations ) {
+      Map<NodeId, Integer> counts = registrations.get( client );
+      for ( NodeId registeredId : registeredIds ) {
+        Integer count = counts == null ? null : counts.get( registeredId );
+        if ( count == null || count <= 1 ) {
+          if ( counts != null ) {
+            counts.remove( registeredId );
+          }
+          unused.add( registeredId );
+        } else {
+          counts.put( registeredId, count - 1 );
+        }
+      }
+      if ( counts != null && counts.isEmpty() ) {
+        registrations.remove( client );
+      }
+    }
+    return unused;
+  }
+
+  /**
+   * @return The registered NodeId to use for the given node, or the node itself if it isn't registered
+   */
+  public NodeId resolve( NodeId nodeId ) {
+    NodeId registeredId = registered.get( nodeId );
+    return registeredId == null ? nodeId : registeredId;
+  }
+
+  /**
+   * @return The NodeIds to use for the given nodes, in the same order
+   */
+  public List<NodeId> resolve( List<NodeId> nodeIds ) {
+    Map<NodeId, NodeId> current = registered;
+    if ( current.isEmpty() ) {
+      return nodeIds;
+    }
+    List<NodeId> resolved = new ArrayList<>( nodeIds.size() );
+    for ( NodeId nodeId : nodeIds ) {
+      NodeId registeredId = current.get( nodeId );
+      resolved.add( registeredId == null ? nodeId : registeredId );
+    }
+    return resolved;
+  }
+
+  /**
+   * @return A number which changes whenever the NodeIds handed out by resolve() change
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  @Override
+  public void onSessionInactive( UaSession session ) {
+    clear();
+  }
+
+  @Override
+  public void onSessionActive( UaSession session ) {
+    List<NodeId> all;
+    synchronized ( nodes ) {
+      if ( nodes.isEmpty() || !registered.isEmpty() || unsupported ) {
+        return;
+      }
+      all = new ArrayList<>( nodes );
+    }
+    // Don't hold up the Milo thread, the configured NodeIds work in the mean time
+    //
+    registerAsync( all, version );
+  }
+
+  /**
+   * @return The number of successful RegisterNodes rounds, more than one means the nodes were registered again
+   */
+  public long getNrRegistrations() {
+    return nrRegistrations.get();
+  }
+
+  public int getNrRegistered() {
+    return registered.size();
+  }
+}
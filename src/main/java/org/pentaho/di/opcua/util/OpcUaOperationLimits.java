@@ -0,0 +1,218 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.channel.ChannelConfig;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+
+/**
+ * The limits a server puts on the size of requests, the operation limits under Server.ServerCapabilities.OperationLimits,
+ * and the maximum message and chunk size the client itself accepts.
+ * <p>
+ * The operation limits are all read in a single request the first time they're asked for and kept for as long as the
+ * client lives. An operation limit of 0 means the server doesn't impose (or expose) one.
+ * <p>
+ * The largest message the server accepts isn't known here. Requests which turn out too large for it are answered with
+ * Bad_RequestTooLarge and made smaller by {@link OpcUaRequestSizer}.
+ */
+public class OpcUaOperationLimits {
+
+  /**
+   * A rough upper estimate of the encoded size of a value in a response (a scalar DataValue with both timestamps).
+   * Used to keep requests without an operation limit from asking for more than fits in a single message.
+   */
+  public static final int ESTIMATED_BYTES_PER_VALUE = 64;
+
+  private static final NodeId[] LIMIT_NODE_IDS = new NodeId[] {
+    Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerRead,
+    Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerWrite,
+    Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerBrowse,
+    Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerHistoryReadData,
+    Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerMethodCall,
+    Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerRegisterNodes,
+    Identifiers.Server_ServerCapabilities_OperationLimits_MaxMonitoredItemsPerCall,
+  };
+
+  private static final Map<OpcUaClient, OpcUaOperationLimits> cache = new WeakHashMap<>();
+
+  private final int maxNodesPerRead;
+  private final int maxNodesPerWrite;
+  private final int maxNodesPerBrowse;
+  private final int maxNodesPerHistoryReadData;
+  private final int maxNodesPerMethodCall;
+  private final int maxNodesPerRegisterNodes;
+  private final int maxMonitoredItemsPerCall;
+  private final int maxMessageSize;
+  private final int maxChunkSize;
+
+  private OpcUaOperationLimits( int[] limits, int maxMessageSize, int maxChunkSize ) {
+    this.maxNodesPerRead = limits[ 0 ];
+    this.maxNodesPerWrite = limits[ 1 ];
+    this.maxNodesPerBrowse = limits[ 2 ];
+    this.maxNodesPerHistoryReadData = limits[ 3 ];
+    this.maxNodesPerMethodCall = limits[ 4 ];
+    this.maxNodesPerRegisterNodes = limits[ 5 ];
+    this.maxMonitoredItemsPerCall = limits[ 6 ];
+    this.maxMessageSize = maxMessageSize;
+    this.maxChunkSize = maxChunkSize;
+  }
+
+  /**
+   * Get the limits of the server a client is connected to, reading them the first time.
+   *
+   * @param client The connected client
+   * @return The limits
+   * @throws Exception in case the limits couldn't be read
+   */
+  public static OpcUaOperationLimits get( OpcUaClient client ) throws Exception {
+    synchronized ( cache ) {
+      OpcUaOperationLimits limits = cache.get( client );
+      if ( limits != null ) {
+        return limits;
+      }
+    }
+    OpcUaOperationLimits limits = read( client );
+    synchronized ( cache ) {
+      cache.put( client, limits );
+    }
+    return limits;
+  }
+
+  /**
+   * Read all the operation limits of a server in one request
+   *
+   * @param client The connected client
+   * @return The limits
+   * @throws Exception in case the Read request failed
+   */
+  public static OpcUaOperationLimits read( OpcUaClient client ) throws Exception {
+    List<ReadValueId> readValueIds = new ArrayList<>( LIMIT_NODE_IDS.length );
+    for ( NodeId nodeId : LIMIT_NODE_IDS ) {
+      readValueIds.add( new ReadValueId( nodeId, AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE ) );
+    }
+    DataValue[] results = client.read( 0.0, TimestampsToReturn.Neither, readValueIds ).get().getResults();
+
+    int[] limits = new int[ LIMIT_NODE_IDS.length ];
+    for ( int i = 0; i < limits.length && results != null && i < results.length; i++ ) {
+      limits[ i ] = toLimit( results[ i ] );
+    }
+
+    // These are the client's own limits, not the server's: the largest message and chunk the client accepts.
+    // They only bound the size of the responses. The server's limit on requests is left to the back-off on
+    // Bad_RequestTooLarge in OpcUaRequestSizer.
+    //
+    ChannelConfig channelConfig = client.getConfig().getChannelConfig();
+    return new OpcUaOperationLimits( limits, channelConfig.getMaxMessageSize(), channelConfig.getMaxChunkSize() );
+  }
+
+  private static int toLimit( DataValue dataValue ) {
+    if ( dataValue == null || dataValue.getStatusCode() != null && dataValue.getStatusCode().isBad() || dataValue.getValue() == null ) {
+      return 0;
+    }
+    Object value = dataValue.getValue().getValue();
+    if ( value instanceof Number ) {
+      long limit = ( (Number) value ).longValue();
+      return limit <= 0 || limit > Integer.MAX_VALUE ? 0 : (int) limit;
+    }
+    return 0;
+  }
+
+  /**
+   * Cap an operation limit by what fits in a single response message the client accepts
+   *
+   * @param limit The operation limit, 0 for none
+   * @param bytesPerOperation The estimated size of the result of one operation in the response
+   * @return The number of operations to put in one request, never 0
+   */
+  public int capByMessageSize( int limit, int bytesPerOperation ) {
+    int cap = maxMessageSize <= 0 ? Integer.MAX_VALUE : Math.max( 1, maxMessageSize / Math.max( 1, bytesPerOperation ) );
+    return limit <= 0 ? cap : Math.min( limit, cap );
+  }
+
+  public int getMaxNodesPerRead() {
+    return maxNodesPerRead;
+  }
+
+  public int getMaxNodesPerWrite() {
+    return maxNodesPerWrite;
+  }
+
+  public int getMaxNodesPerBrowse() {
+    return maxNodesPerBrowse;
+  }
+
+  public int getMaxNodesPerHistoryReadData() {
+    return maxNodesPerHistoryReadData;
+  }
+
+  public int getMaxNodesPerMethodCall() {
+    return maxNodesPerMethodCall;
+  }
+
+  public int getMaxNodesPerRegisterNodes() {
+    return maxNodesPerRegisterNodes;
+  }
+
+  public int getMaxMonitoredItemsPerCall() {
+    return maxMonitoredItemsPerCall;
+  }
+
+  /**
+   * @return The largest message the client accepts, 0 for no limit
+   */
+  public int getMaxMessageSize() {
+    return maxMessageSize;
+  }
+
+  /**
+   * @return The largest chunk the client accepts
+   */
+  public int getMaxChunkSize() {
+    return maxChunkSize;
+  }
+
+  @Override public String toString() {
+    return "MaxNodesPerRead=" + maxNodesPerRead
+      + ", MaxNodesPerWrite=" + maxNodesPerWrite
+      + ", MaxNodesPerBrowse=" + maxNodesPerBrowse
+      + ", MaxNodesPerHistoryReadData=" + maxNodesPerHistoryReadData
+      + ", MaxNodesPerMethodCall=" + maxNodesPerMethodCall
+      + ", MaxNodesPerRegisterNodes=" + maxNodesPerRegisterNodes
+      + ", MaxMonitoredItemsPerCall=" + maxMonitoredItemsPerCall
+      + ", MaxMessageSize=" + maxMessageSize
+      + ", MaxChunkSize=" + maxChunkSize;
+  }
+}
@@ -0,0 +1,134 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Sends a series of requests over a session with a bounded number of them in flight.
+ * As soon as one is answered the next one is sent, so on a link with a long round trip time the session keeps
+ * working instead of waiting. The answers are handed back in the order of the requests.
+ * <p>
+ * Requests are sent from a loop which only one thread runs at a time. An answer that comes in while the loop runs,
+ * or one that is already there when the request returns, frees a lane for the loop instead of sending from the
+ * callback, so a long series of quick answers doesn't grow the stack.
+ *
+ * @param <T> The type of the answer to a request
+ */
+public class OpcUaPipeline<T> {
+
+  private final int nrRequests;
+  private final IntFunction<CompletableFuture<T>> request;
+  private final Object[] results;
+  private final AtomicInteger freeLanes;
+  private final AtomicInteger done;
+  private final AtomicInteger sending;
+  private final CompletableFuture<List<T>> all;
+
+  /**
+   * The next request to send, only touched by the thread running the send loop
+   */
+  private int next;
+
+  private OpcUaPipeline( int nrRequests, int lanes, IntFunction<CompletableFuture<T>> request ) {
+    this.nrRequests = nrRequests;
+    this.request = request;
+    this.results = new Object[ nrRequests ];
+    this.freeLanes = new AtomicInteger( lanes );
+    this.done = new AtomicInteger();
+    this.sending = new AtomicInteger();
+    this.all = new CompletableFuture<>();
+  }
+
+  /**
+   * Send requests with at most maxInFlight of them waiting for an answer at any time.
+   *
+   * @param nrRequests  The number of requests to send
+   * @param maxInFlight The maximum number of requests in flight, 0 or less to send them all at once
+   * @param request     Sends request number i, 0 based
+   * @return The answers in the order of the requests, or the first error
+   */
+  public static <T> CompletableFuture<List<T>> send( int nrRequests, int maxInFlight, IntFunction<CompletableFuture<T>> request ) {
+    if ( nrRequests <= 0 ) {
+      return CompletableFuture.completedFuture( Collections.emptyList() );
+    }
+    int lanes = maxInFlight <= 0 ? nrRequests : Math.min( maxInFlight, nrRequests );
+    OpcUaPipeline<T> pipeline = new OpcUaPipeline<>( nrRequests, lanes, request );
+    pipeline.sendAll();
+    return pipeline.all;
+  }
+
+  /**
+   * Send requests for as long as there are free lanes.
+   * If another thread (or an outer call on this thread) is already sending, it is told to go round once more.
+   */
+  private void sendAll() {
+    if ( sending.getAndIncrement() != 0 ) {
+      return;
+    }
+    do {
+      while ( freeLanes.get() > 0 && next < nrRequests && !all.isDone() ) {
+        freeLanes.decrementAndGet();
+        sendRequest( next++ );
+      }
+    } while ( sending.decrementAndGet() != 0 );
+  }
+
+  private void sendRequest( int index ) {
+    CompletableFuture<T> answer;
+    try {
+      answer = request.apply( index );
+    } catch ( RuntimeException e ) {
+      all.completeExceptionally( e );
+      return;
+    }
+    answer.whenComplete( ( result, error ) -> {
+      if ( error != null ) {
+        all.completeExceptionally( error );
+        return;
+      }
+      results[ index ] = result;
+      if ( done.incrementAndGet() == nrRequests ) {
+        complete();
+      } else {
+        freeLanes.incrementAndGet();
+        sendAll();
+      }
+    } );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private void complete() {
+    List<T> answers = new ArrayList<>( nrRequests );
+    for ( Object result : results ) {
+      answers.add( (T) result );
+    }
+    all.complete( answers );
+  }
+}
@@ -0,0 +1,159 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Decides how many operations go into one request of a service.
+ * <p>
+ * It starts at the limit the server or the user imposes. When the server answers that a request has too many
+ * operations or that the response would be too large, the request is split and the size is halved. After a run of
+ * successful requests the size grows back by a quarter, never beyond the limit.
+ */
+public class OpcUaRequestSizer {
+
+  /**
+   * The number of successful requests after which we try bigger requests again
+   */
+  private static final int GROW_AFTER = 16;
+
+  private final LogChannelInterface log;
+  private final String service;
+  private final int limit;
+
+  private final AtomicInteger size;
+  private final AtomicInteger successes;
+  private final AtomicLong nrBackOffs;
+
+  /**
+   * @param log     The logging channel to report changes to, null to not report them
+   * @param service The name of the service, for logging
+   * @param limit   The maximum number of operations per request, 0 or less for no limit
+   */
+  public OpcUaRequestSizer( LogChannelInterface log, String service, int limit ) {
+    this.log = log;
+    this.service = service;
+    this.limit = limit <= 0 ? Integer.MAX_VALUE : limit;
+    this.size = new AtomicInteger( this.limit );
+    this.successes = new AtomicInteger();
+    this.nrBackOffs = new AtomicLong();
+  }
+
+  /**
+   * @return The number of operations to put in the next request
+   */
+  public int getSize() {
+    return size.get();
+  }
+
+  /**
+   * @return The maximum number of operations per request, Integer.MAX_VALUE for no limit
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * A request went through.
+   *
+   * @param requestSize The number of operations in the request
+   */
+  public void onSuccess( int requestSize ) {
+    int current = size.get();
+    if ( current >= limit || requestSize < current ) {
+      // Only full requests tell us the current size works
+      return;
+    }
+    if ( successes.incrementAndGet() < GROW_AFTER ) {
+      return;
+    }
+    successes.set( 0 );
+    int grown = (int) Math.min( limit, current + Math.max( 1L, current / 4L ) );
+    if ( size.compareAndSet( current, grown ) && log != null && log.isDetailed() ) {
+      log.logDetailed( "Sending up to " + grown + " operations per " + service + " request again" );
+    }
+  }
+
+  /**
+   * A request was refused because it was too large.
+   *
+   * @param requestSize The number of operations in the refused request
+   * @return The number of operations to split the refused request into, smaller than requestSize
+   */
+  public int backOff( int requestSize ) {
+    int smaller = Math.max( 1, requestSize / 2 );
+    successes.set( 0 );
+    nrBackOffs.incrementAndGet();
+    while ( true ) {
+      int current = size.get();
+      if ( current <= smaller ) {
+        return Math.min( current, smaller );
+      }
+      if ( size.compareAndSet( current, smaller ) ) {
+        if ( log != null ) {
+          log.logBasic( "The server refused a " + service + " request with " + requestSize + " operations, sending at most "
+            + smaller + " operations per request from now on" );
+        }
+        return smaller;
+      }
+    }
+  }
+
+  /**
+   * @return How often a request was refused because it was too large
+   */
+  public long getNrBackOffs() {
+    return nrBackOffs.get();
+  }
+
+  /**
+   * @param error The error a request failed with, wrapped or not
+   * @return true if the server (or the client stack) refused the request because it was too large
+   */
+  public static boolean isTooLarge( Throwable error ) {
+    for ( Throwable cause = error; cause != null; cause = cause.getCause() ) {
+      if ( cause instanceof UaException ) {
+        long code = ( (UaException) cause ).getStatusCode().getValue();
+        return code == StatusCodes.Bad_TooManyOperations
+          || code == StatusCodes.Bad_ResponseTooLarge
+          || code == StatusCodes.Bad_RequestTooLarge
+          || code == StatusCodes.Bad_EncodingLimitsExceeded;
+      }
+      if ( cause.getCause() == cause ) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  @Override public String toString() {
+    return service + " size " + size.get() + ( limit == Integer.MAX_VALUE ? "" : "/" + limit ) + ", back offs " + nrBackOffs.get();
+  }
+}
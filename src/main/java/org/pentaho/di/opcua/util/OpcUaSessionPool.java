@@ -0,0 +1,353 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.identity.IdentityProvider;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * A JVM wide pool of connected OPC UA clients (sessions).
+ * Sessions are shared between all borrowers using the same server URL, security settings and slot. Steps borrow with
+ * their copy number as the slot, so the copies of a step each get their own session while the same copy of different
+ * steps and transformations share one.
+ * Sessions are reference counted and kept open for a while after the last user released them so that the next
+ * transformation run doesn't have to go through endpoint discovery, secure channel and session setup again.
+ * An idle session is checked before it's handed out again and replaced when the server no longer answers on it.
+ *
+ * The pool is configured with the following system properties (or kettle.properties variables):
+ * <ul>
+ *   <li>OPCUA_SESSION_POOL_MAX_SESSIONS : the maximum number of open sessions (default 100)</li>
+ *   <li>OPCUA_SESSION_POOL_IDLE_TIMEOUT : ms after which an unused session is closed (default 300000, 0 closes sessions right away)</li>
+ * </ul>
+ */
+public class OpcUaSessionPool {
+
+  public static final String VARIABLE_MAX_SESSIONS = "OPCUA_SESSION_POOL_MAX_SESSIONS";
+  public static final String VARIABLE_IDLE_TIMEOUT = "OPCUA_SESSION_POOL_IDLE_TIMEOUT";
+
+  private static final int DEFAULT_MAX_SESSIONS = 100;
+  private static final long DEFAULT_IDLE_TIMEOUT = 300000L;
+
+  /**
+   * How long to wait for the server to answer on an idle session before connecting again
+   */
+  private static final long CHECK_TIMEOUT = 5000L;
+
+  private static OpcUaSessionPool instance;
+
+  private final int maxSessions;
+  private final long idleTimeout;
+
+  private final Map<String, PooledSession> sessions;
+  private final Map<OpcUaClient, PooledSession> clientSessions;
+
+  private ScheduledExecutorService evictor;
+
+  public static synchronized OpcUaSessionPool getInstance() {
+    if ( instance == null ) {
+      instance = new OpcUaSessionPool(
+        Const.toInt( System.getProperty( VARIABLE_MAX_SESSIONS ), DEFAULT_MAX_SESSIONS ),
+        Const.toLong( System.getProperty( VARIABLE_IDLE_TIMEOUT ), DEFAULT_IDLE_TIMEOUT )
+      );
+    }
+    return instance;
+  }
+
+  public OpcUaSessionPool( int maxSessions, long idleTimeout ) {
+    this.maxSessions = maxSessions;
+    this.idleTimeout = idleTimeout;
+    this.sessions = new HashMap<>();
+    this.clientSessions = new IdentityHashMap<>();
+  }
+
+  /**
+   * Get a connected client from the pool, connecting to the server if there is no session for these settings yet.
+   * Every borrowed client needs to be given back with {@link #release(OpcUaClient)}.
+   *
+   * @param log The logging channel to use
+   * @param endPointUrl The URL to the endpoint (variables resolved)
+   * @param securityPolicy
+   * @param identityProvider
+   * @param keyStore The client certificate and key pair to use
+   * @return A connected client
+   * @throws KettleException in case the maximum number of sessions is reached or the connection fails
+   */
+  public OpcUaClient borrow( LogChannelInterface log, String endPointUrl, SecurityPolicy securityPolicy,
+                             IdentityProvider identityProvider, ClientKeyStore keyStore ) throws KettleException {
+    return borrow( log, endPointUrl, securityPolicy, identityProvider, keyStore, 0 );
+  }
+
+  /**
+   * Get a connected client from the pool for the given slot.
+   * Borrowers using a different slot get a different session to the same server, for example the copies of a step
+   * which each want to read their own part of the tags.
+   *
+   * @param log The logging channel to use
+   * @param endPointUrl The URL to the endpoint (variables resolved)
+   * @param securityPolicy
+   * @param identityProvider
+   * @param keyStore The client certificate and key pair to use
+   * @param slot The session slot, 0 is the shared session
+   * @return A connected client
+   * @throws KettleException in case the maximum number of sessions is reached or the connection fails
+   */
+  public OpcUaClient borrow( LogChannelInterface log, String endPointUrl, SecurityPolicy securityPolicy,
+                             IdentityProvider identityProvider, ClientKeyStore keyStore, int slot ) throws KettleException {
+    String key = getKey( endPointUrl, securityPolicy, identityProvider, keyStore ) + "|" + slot;
+
+    while ( true ) {
+      PooledSession session;
+      boolean connect = false;
+      boolean idle = false;
+      synchronized ( this ) {
+        session = sessions.get( key );
+        if ( session == null ) {
+          if ( sessions.size() >= maxSessions && !evictLeastRecentlyUsed() ) {
+            throw new KettleException( "The maximum of " + maxSessions + " OPC UA sessions is reached, unable to connect to '" + endPointUrl + "'" );
+          }
+          session = new PooledSession( key );
+          sessions.put( key, session );
+          connect = true;
+        } else {
+          idle = session.references <= 0 && session.client != null;
+        }
+        session.references++;
+        session.lastUsed = System.currentTimeMillis();
+      }
+
+      if ( connect ) {
+        // Connect outside of the lock so that other servers can be borrowed in the mean time
+        //
+        try {
+          OpcUaClient client = OpcUaUtil.createConnectedClient( log, endPointUrl, securityPolicy, identityProvider, keyStore );
+          synchronized ( this ) {
+            session.client = client;
+            clientSessions.put( client, session );
+          }
+          session.connected.complete( client );
+        } catch ( Exception e ) {
+          synchronized ( this ) {
+            sessions.remove( key );
+          }
+          session.connected.completeExceptionally( e );
+        }
+      }
+
+      OpcUaClient client;
+      try {
+        client = session.connected.get();
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        release( session );
+        throw new KettleException( "Interrupted while connecting to OPC UA server '" + endPointUrl + "'", e );
+      } catch ( ExecutionException e ) {
+        throw new KettleException( "Unable to connect to OPC UA server '" + endPointUrl + "'", e.getCause() );
+      }
+
+      if ( idle && !isAlive( client ) ) {
+        // The server went away or dropped the session while nobody was using it, connect again
+        //
+        log.logBasic( "The idle OPC UA session to '" + endPointUrl + "' no longer answers, reconnecting" );
+        boolean dead = false;
+        synchronized ( this ) {
+          session.references--;
+          if ( session.references <= 0 && sessions.get( key ) == session ) {
+            remove( session );
+            dead = true;
+          }
+        }
+        if ( dead ) {
+          final PooledSession deadSession = session;
+          CompletableFuture.runAsync( () -> disconnect( deadSession ) );
+        }
+        continue;
+      }
+      return client;
+    }
+  }
+
+  /**
+   * @return true if the server answers a read of its state on the session in time
+   */
+  private static boolean isAlive( OpcUaClient client ) {
+    try {
+      List<DataValue> values = client.readValues( 0.0, TimestampsToReturn.Neither,
+        Collections.singletonList( Identifiers.Server_ServerStatus_State ) ).get( CHECK_TIMEOUT, TimeUnit.MILLISECONDS );
+      return !values.isEmpty() && ( values.get( 0 ).getStatusCode() == null || values.get( 0 ).getStatusCode().isGood() );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch ( Exception e ) {
+      return false;
+    }
+  }
+
+  /**
+   * Give a client back to the pool. The session stays open until it has been idle for longer than the idle timeout.
+   *
+   * @param client The client obtained with borrow()
+   */
+  public void release( OpcUaClient client ) {
+    PooledSession session;
+    synchronized ( this ) {
+      session = clientSessions.get( client );
+    }
+    if ( session == null ) {
+      // Not one of ours
+      //
+      client.disconnect();
+      return;
+    }
+    release( session );
+  }
+
+  private void release( PooledSession session ) {
+    synchronized ( this ) {
+      session.references--;
+      session.lastUsed = System.currentTimeMillis();
+      if ( session.references > 0 ) {
+        return;
+      }
+      if ( idleTimeout > 0 ) {
+        startEvictor();
+        return;
+      }
+      remove( session );
+    }
+    disconnect( session );
+  }
+
+  /**
+   * Close all sessions which are not in use and have been idle for longer than the idle timeout.
+   */
+  public void evictIdle() {
+    List<PooledSession> evicted = new ArrayList<>();
+    synchronized ( this ) {
+      long now = System.currentTimeMillis();
+      for ( PooledSession session : new ArrayList<>( sessions.values() ) ) {
+        if ( session.references <= 0 && session.client != null && now - session.lastUsed >= idleTimeout ) {
+          remove( session );
+          evicted.add( session );
+        }
+      }
+    }
+    for ( PooledSession session : evicted ) {
+      disconnect( session );
+    }
+  }
+
+  /**
+   * Close the idle session which was used the longest time ago to make room for a new one.
+   * Called with the lock held.
+   *
+   * @return true if a session was evicted
+   */
+  private boolean evictLeastRecentlyUsed() {
+    PooledSession oldest = null;
+    for ( PooledSession session : sessions.values() ) {
+      if ( session.references <= 0 && session.client != null && ( oldest == null || session.lastUsed < oldest.lastUsed ) ) {
+        oldest = session;
+      }
+    }
+    if ( oldest == null ) {
+      return false;
+    }
+    remove( oldest );
+    final PooledSession evicted = oldest;
+    CompletableFuture.runAsync( () -> disconnect( evicted ) );
+    return true;
+  }
+
+  private void remove( PooledSession session ) {
+    sessions.remove( session.key );
+    if ( session.client != null ) {
+      clientSessions.remove( session.client );
+    }
+  }
+
+  private void disconnect( PooledSession session ) {
+    if ( session.client != null ) {
+      try {
+        session.client.disconnect().get();
+      } catch ( Exception e ) {
+        LogChannel.GENERAL.logError( "Error disconnecting idle OPC UA session", e );
+      }
+    }
+  }
+
+  private synchronized void startEvictor() {
+    if ( evictor != null ) {
+      return;
+    }
+    evictor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+      Thread thread = new Thread( runnable, "OPC UA session pool evictor" );
+      thread.setDaemon( true );
+      return thread;
+    } );
+    long period = Math.max( 1000L, Math.min( idleTimeout / 2, 60000L ) );
+    evictor.scheduleWithFixedDelay( this::evictIdle, period, period, TimeUnit.MILLISECONDS );
+  }
+
+  /**
+   * Sessions are only shared between users with the same URL and security settings.
+   */
+  private static String getKey( String endPointUrl, SecurityPolicy securityPolicy, IdentityProvider identityProvider,
+                                ClientKeyStore keyStore ) {
+    return endPointUrl + "|" + securityPolicy.getSecurityPolicyUri() + "|" + identityProvider.getClass().getName()
+      + "|" + keyStore.getLocation() + "|" + keyStore.getAlias();
+  }
+
+  private static class PooledSession {
+    private final String key;
+    private final CompletableFuture<OpcUaClient> connected;
+    private OpcUaClient client;
+    private int references;
+    private long lastUsed;
+
+    private PooledSession( String key ) {
+      this.key = key;
+      this.connected = new CompletableFuture<>();
+    }
+  }
+}
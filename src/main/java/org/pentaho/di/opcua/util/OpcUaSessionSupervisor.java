@@ -0,0 +1,279 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.SessionActivityListener;
+import org.eclipse.milo.opcua.sdk.client.api.UaSession;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscriptionManager;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Watches the session of a streaming step and the subscription it depends on.
+ * <p>
+ * When the connection drops, the Milo client reactivates the session by itself and transfers its subscriptions
+ * to it. The server keeps the queued notifications of a subscription until its lifetime expires, so after a short
+ * drop they are republished and no samples are lost. The supervisor measures how long the session was gone.
+ * If the server no longer knows the subscription, the transfer fails and the supervisor creates it again,
+ * retrying with an exponential backoff. The supervisor owns the subscription from then on: once it's stopped no new
+ * subscription is adopted and {@link #getSubscription()} returns the one to delete.
+ * <p>
+ * The backoff is configured with the following system properties (or kettle.properties variables):
+ * <ul>
+ *   <li>OPCUA_RESUBSCRIBE_INITIAL_DELAY : ms before the first retry (default 100)</li>
+ *   <li>OPCUA_RESUBSCRIBE_MAX_DELAY : the maximum ms between retries (default 10000)</li>
+ * </ul>
+ */
+public class OpcUaSessionSupervisor implements SessionActivityListener, UaSubscriptionManager.SubscriptionListener {
+
+  public static final String VARIABLE_RESUBSCRIBE_INITIAL_DELAY = "OPCUA_RESUBSCRIBE_INITIAL_DELAY";
+  public static final String VARIABLE_RESUBSCRIBE_MAX_DELAY = "OPCUA_RESUBSCRIBE_MAX_DELAY";
+
+  private static final long DEFAULT_RESUBSCRIBE_INITIAL_DELAY = 100L;
+  private static final long DEFAULT_RESUBSCRIBE_MAX_DELAY = 10000L;
+
+  /**
+   * How long stop() waits for a subscription which is being created
+   */
+  private static final long STOP_TIMEOUT = 30000L;
+
+  /**
+   * Creates the subscription of the step again, monitored items included
+   */
+  public interface Resubscriber {
+    UaSubscription subscribe() throws Exception;
+  }
+
+  private final LogChannelInterface log;
+  private final OpcUaClient client;
+  private final Resubscriber resubscriber;
+  private final long initialDelay;
+  private final long maxDelay;
+
+  private final Object lock = new Object();
+  private volatile UaSubscription subscription;
+  private volatile boolean stopped;
+  private ScheduledExecutorService executor;
+
+  /**
+   * When the session was lost, 0 while it's active
+   */
+  private volatile long inactiveSince;
+
+  private final AtomicLong nrReconnects;
+  private final AtomicLong totalGap;
+  private final AtomicLong maxGap;
+  private final AtomicLong nrResubscribes;
+  private final AtomicLong nrDataLost;
+
+  /**
+   * @param log          The logging channel of the step
+   * @param client       The connected client
+   * @param resubscriber Creates the subscription again when it's lost, null if the step doesn't subscribe
+   */
+  public OpcUaSessionSupervisor( LogChannelInterface log, OpcUaClient client, Resubscriber resubscriber ) {
+    this.log = log;
+    this.client = client;
+    this.resubscriber = resubscriber;
+    this.initialDelay = Math.max( 1L, Const.toLong( System.getProperty( VARIABLE_RESUBSCRIBE_INITIAL_DELAY ), DEFAULT_RESUBSCRIBE_INITIAL_DELAY ) );
+    this.maxDelay = Math.max( initialDelay, Const.toLong( System.getProperty( VARIABLE_RESUBSCRIBE_MAX_DELAY ), DEFAULT_RESUBSCRIBE_MAX_DELAY ) );
+    this.nrReconnects = new AtomicLong();
+    this.totalGap = new AtomicLong();
+    this.maxGap = new AtomicLong();
+    this.nrResubscribes = new AtomicLong();
+    this.nrDataLost = new AtomicLong();
+  }
+
+  /**
+   * Start watching the session
+   *
+   * @param subscription The subscription of the step, null if the step doesn't subscribe
+   * @param threadName   The name of the thread which retries subscribing
+   */
+  public void start( UaSubscription subscription, String threadName ) {
+    this.subscription = subscription;
+    executor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+      Thread thread = new Thread( runnable, threadName );
+      thread.setDaemon( true );
+      return thread;
+    } );
+    client.addSessionActivityListener( this );
+    client.getSubscriptionManager().addSubscriptionListener( this );
+  }
+
+  /**
+   * Stop watching the session and wait until a subscription which is being created is finished or deleted.
+   * Afterwards {@link #getSubscription()} no longer changes.
+   */
+  public void stop() {
+    synchronized ( lock ) {
+      stopped = true;
+    }
+    client.removeSessionActivityListener( this );
+    client.getSubscriptionManager().removeSubscriptionListener( this );
+    if ( executor != null ) {
+      executor.shutdownNow();
+      try {
+        if ( !executor.awaitTermination( STOP_TIMEOUT, TimeUnit.MILLISECONDS ) ) {
+          log.logError( "Gave up waiting " + STOP_TIMEOUT + "ms for the subscription which is being created" );
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+      executor = null;
+    }
+  }
+
+  /**
+   * @return The current subscription: the one the supervisor was started with or the last one it created
+   */
+  public UaSubscription getSubscription() {
+    return subscription;
+  }
+
+  @Override
+  public void onSessionInactive( UaSession session ) {
+    if ( inactiveSince == 0L ) {
+      inactiveSince = System.currentTimeMillis();
+      log.logBasic( "Lost the OPC UA session, reconnecting" );
+    }
+  }
+
+  @Override
+  public void onSessionActive( UaSession session ) {
+    long since = inactiveSince;
+    if ( since == 0L ) {
+      return;
+    }
+    inactiveSince = 0L;
+    long gap = System.currentTimeMillis() - since;
+    nrReconnects.incrementAndGet();
+    totalGap.addAndGet( gap );
+    maxGap.accumulateAndGet( gap, Math::max );
+    log.logBasic( "Reconnected to the OPC UA server after " + gap + "ms" );
+  }
+
+  @Override
+  public void onSubscriptionTransferFailed( UaSubscription failed, StatusCode statusCode ) {
+    if ( !isOurs( failed ) ) {
+      return;
+    }
+    log.logBasic( "The server no longer has the subscription (" + statusCode + "), subscribing again" );
+    scheduleResubscribe( 0, 0L );
+  }
+
+  @Override
+  public void onNotificationDataLost( UaSubscription lost ) {
+    if ( isOurs( lost ) ) {
+      nrDataLost.incrementAndGet();
+      log.logError( "Notifications of the OPC UA subscription were lost" );
+    }
+  }
+
+  private boolean isOurs( UaSubscription other ) {
+    UaSubscription current = subscription;
+    return current != null && other != null && current.getSubscriptionId().equals( other.getSubscriptionId() );
+  }
+
+  private void scheduleResubscribe( int attempt, long delay ) {
+    ScheduledExecutorService service = executor;
+    if ( stopped || service == null || resubscriber == null ) {
+      return;
+    }
+    service.schedule( () -> resubscribe( attempt ), delay, TimeUnit.MILLISECONDS );
+  }
+
+  private void resubscribe( int attempt ) {
+    if ( stopped ) {
+      return;
+    }
+    try {
+      UaSubscription created = resubscriber.subscribe();
+      synchronized ( lock ) {
+        if ( !stopped ) {
+          subscription = created;
+          created = null;
+        }
+      }
+      if ( created != null ) {
+        // The step stopped while we were subscribing, nobody would delete this one
+        //
+        client.getSubscriptionManager().deleteSubscription( created.getSubscriptionId() );
+        return;
+      }
+      nrResubscribes.incrementAndGet();
+      log.logBasic( "Subscribed again after " + ( attempt + 1 ) + " attempt(s)" );
+    } catch ( Exception e ) {
+      if ( stopped ) {
+        return;
+      }
+      long delay = Math.min( maxDelay, initialDelay << Math.min( attempt, 20 ) );
+      log.logError( "Unable to subscribe again, retrying in " + delay + "ms : " + e.getMessage() );
+      scheduleResubscribe( attempt + 1, delay );
+    }
+  }
+
+  /**
+   * @return The number of times the session was restored after being lost
+   */
+  public long getNrReconnects() {
+    return nrReconnects.get();
+  }
+
+  /**
+   * @return The total number of ms the session was gone
+   */
+  public long getTotalGap() {
+    return totalGap.get();
+  }
+
+  /**
+   * @return The longest time in ms the session was gone
+   */
+  public long getMaxGap() {
+    return maxGap.get();
+  }
+
+  /**
+   * @return The number of times the subscription had to be created again
+   */
+  public long getNrResubscribes() {
+    return nrResubscribes.get();
+  }
+
+  /**
+   * @return The number of times notifications were lost because they couldn't be republished
+   */
+  public long getNrDataLost() {
+    return nrDataLost.get();
+  }
+}
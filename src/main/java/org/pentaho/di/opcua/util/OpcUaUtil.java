@@ -25,25 +25,76 @@ package org.pentaho.di.opcua.util;
 import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import org.eclipse.milo.opcua.sdk.client.api.config.OpcUaClientConfig;
 import org.eclipse.milo.opcua.sdk.client.api.identity.IdentityProvider;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
 import org.eclipse.milo.opcua.stack.client.UaTcpStackClient;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
 import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
 import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseDirection;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseResultMask;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
 import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReferenceDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.ViewDescription;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.opcua.connection.OpcUaConnection;
 import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.persist.MetaStoreFactory;
 import org.pentaho.metastore.util.PentahoDefaults;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 
 public class OpcUaUtil {
 
-  private static final KeyStoreLoader loader = new KeyStoreLoader();
+  /**
+   * The system property (or kettle.properties variable) with the number of ms discovered endpoints are cached
+   */
+  public static final String VARIABLE_ENDPOINT_CACHE_TTL = "OPCUA_ENDPOINT_CACHE_TTL";
+
+  private static final long DEFAULT_ENDPOINT_CACHE_TTL = 600000L;
 
   /**
-   * Create a new client connection to an OPC UA server
+   * The system property (or kettle.properties variable) with the number of ms a subscription survives without a session
+   */
+  public static final String VARIABLE_SUBSCRIPTION_LIFETIME = "OPCUA_SUBSCRIPTION_LIFETIME";
+
+  private static final long DEFAULT_SUBSCRIPTION_LIFETIME = 60000L;
+
+  private static final int SUBSCRIPTION_KEEP_ALIVE_COUNT = 10;
+
+  /**
+   * The system property (or kettle.properties variable) with the number of ms to wait for the answer to a request
+   */
+  public static final String VARIABLE_REQUEST_TIMEOUT = "OPCUA_REQUEST_TIMEOUT";
+
+  private static final long DEFAULT_REQUEST_TIMEOUT = 5000L;
+
+  private static final Map<String, CachedEndpoints> endpointCache = new ConcurrentHashMap<>();
+
+  /**
+   * Create a new client connection to an OPC UA server using the default client certificate
    *
    * @param log The logging channel to use
    * @param endPointUrl The URL to the endpoint
@@ -57,8 +108,30 @@ public class OpcUaUtil {
     String endPointUrl,
     SecurityPolicy securityPolicy,
     IdentityProvider identityProvider) throws Exception {
+    return createClient( log, endPointUrl, securityPolicy, identityProvider, ClientKeyStore.getDefault() );
+  }
+
+  /**
+   * Create a new client connection to an OPC UA server
+   *
+   * @param log The logging channel to use
+   * @param endPointUrl The URL to the endpoint
+   * @param securityPolicy
+   * @param identityProvider
+   * @param keyStore The client certificate and key pair to use
+   * @return The client (not connected)
+   * @throws Exception
+   */
+  public static OpcUaClient createClient(
+    LogChannelInterface log,
+    String endPointUrl,
+    SecurityPolicy securityPolicy,
+    IdentityProvider identityProvider,
+    ClientKeyStore keyStore ) throws Exception {
+
+    keyStore.checkSecurityPolicy( securityPolicy );
 
-    EndpointDescription[] endpoints = UaTcpStackClient.getEndpoints( endPointUrl ).get();
+    EndpointDescription[] endpoints = getEndpoints( endPointUrl );
 
     EndpointDescription endpoint = Arrays.stream( endpoints )
       .filter( e -> e.getSecurityPolicyUri().equals( securityPolicy.getSecurityPolicyUri() ) )
@@ -66,23 +139,352 @@ public class OpcUaUtil {
 
     log.logBasic( "Using endpoint: "+ endpoint.getEndpointUrl()+" security policy: "+securityPolicy );
 
-    loader.load();
+    long requestTimeout = Const.toLong( System.getProperty( VARIABLE_REQUEST_TIMEOUT ), DEFAULT_REQUEST_TIMEOUT );
+    if ( requestTimeout <= 0 || requestTimeout > UInteger.MAX_VALUE ) {
+      requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+    }
 
     OpcUaClientConfig config = OpcUaClientConfig.builder()
       .setApplicationName( LocalizedText.english( "opc-ua Kettle client test" ) )
       .setApplicationUri( "urn:kettle:milo:client:test" )
-      .setCertificate( loader.getClientCertificate() )
-      .setKeyPair( loader.getClientKeyPair() )
+      .setCertificate( keyStore.getCertificate() )
+      .setKeyPair( keyStore.getKeyPair() )
       .setEndpoint( endpoint )
       .setIdentityProvider( identityProvider )
-      .setRequestTimeout( UInteger.valueOf( 5000 ) )
+      .setRequestTimeout( UInteger.valueOf( requestTimeout ) )
       .build();
 
     return new OpcUaClient( config );
   }
 
+  /**
+   * Create a new client and connect it to the server.
+   * If the connection fails while we used cached endpoints, the endpoints are discovered again and we retry once
+   * because the server might have been reconfigured.
+   *
+   * @param log The logging channel to use
+   * @param endPointUrl The URL to the endpoint
+   * @param securityPolicy
+   * @param identityProvider
+   * @param keyStore The client certificate and key pair to use
+   * @return The connected client
+   * @throws Exception
+   */
+  public static OpcUaClient createConnectedClient(
+    LogChannelInterface log,
+    String endPointUrl,
+    SecurityPolicy securityPolicy,
+    IdentityProvider identityProvider,
+    ClientKeyStore keyStore ) throws Exception {
+
+    boolean cached = getCachedEndpoints( endPointUrl ) != null;
+
+    OpcUaClient client = createClient( log, endPointUrl, securityPolicy, identityProvider, keyStore );
+    try {
+      client.connect().get();
+      return client;
+    } catch ( Exception e ) {
+      client.disconnect();
+      if ( !cached ) {
+        throw e;
+      }
+      log.logDetailed( "Connecting to '" + endPointUrl + "' failed with cached endpoints, discovering endpoints again: " + e.getMessage() );
+    }
+
+    invalidateEndpoints( endPointUrl );
+    client = createClient( log, endPointUrl, securityPolicy, identityProvider, keyStore );
+    try {
+      client.connect().get();
+      return client;
+    } catch ( Exception e ) {
+      client.disconnect();
+      throw e;
+    }
+  }
+
+  /**
+   * Get the endpoints of a server. Discovered endpoints are cached for OPCUA_ENDPOINT_CACHE_TTL ms (default 10 minutes).
+   *
+   * @param endPointUrl The URL to the server
+   * @return The endpoints of the server
+   * @throws Exception
+   */
+  public static EndpointDescription[] getEndpoints( String endPointUrl ) throws Exception {
+    EndpointDescription[] endpoints = getCachedEndpoints( endPointUrl );
+    if ( endpoints == null ) {
+      endpoints = UaTcpStackClient.getEndpoints( endPointUrl ).get();
+
+      long ttl = Const.toLong( System.getProperty( VARIABLE_ENDPOINT_CACHE_TTL ), DEFAULT_ENDPOINT_CACHE_TTL );
+      if ( ttl > 0 ) {
+        endpointCache.put( endPointUrl, new CachedEndpoints( endpoints, System.currentTimeMillis() + ttl ) );
+      }
+    }
+    return endpoints;
+  }
+
+  /**
+   * Forget the cached endpoints of a server, the next client creation will discover them again.
+   *
+   * @param endPointUrl The URL to the server
+   */
+  public static void invalidateEndpoints( String endPointUrl ) {
+    endpointCache.remove( endPointUrl );
+  }
+
+  private static EndpointDescription[] getCachedEndpoints( String endPointUrl ) {
+    CachedEndpoints cachedEndpoints = endpointCache.get( endPointUrl );
+    if ( cachedEndpoints == null ) {
+      return null;
+    }
+    if ( cachedEndpoints.expires < System.currentTimeMillis() ) {
+      endpointCache.remove( endPointUrl, cachedEndpoints );
+      return null;
+    }
+    return cachedEndpoints.endpoints;
+  }
+
+  /**
+   * @return The maximum number of nodes the server accepts in a single RegisterNodes request, 0 if there is no limit
+   */
+  public static int getMaxNodesPerRegisterNodes( OpcUaClient client ) throws Exception {
+    return OpcUaOperationLimits.get( client ).getMaxNodesPerRegisterNodes();
+  }
+
+  /**
+   * Create a subscription which the server keeps, notifications included, for OPCUA_SUBSCRIPTION_LIFETIME ms
+   * (default 1 minute) after the connection is lost. That way the client can transfer it to its new session and
+   * have the missed notifications republished.
+   *
+   * @param client The connected client
+   * @param publishingInterval The publishing interval in ms
+   * @return The subscription
+   * @throws Exception
+   */
+  public static UaSubscription createSubscription( OpcUaClient client, double publishingInterval ) throws Exception {
+    long lifetime = Const.toLong( System.getProperty( VARIABLE_SUBSCRIPTION_LIFETIME ), DEFAULT_SUBSCRIPTION_LIFETIME );
+    long lifetimeCount = (long) Math.ceil( lifetime / Math.max( 1.0, publishingInterval ) );
+
+    // The lifetime count needs to be at least 3 times the keep alive count
+    //
+    lifetimeCount = Math.max( 3L * SUBSCRIPTION_KEEP_ALIVE_COUNT, Math.min( lifetimeCount, UInteger.MAX_VALUE ) );
+
+    return client.getSubscriptionManager().createSubscription(
+      publishingInterval,
+      uint( lifetimeCount ),
+      uint( SUBSCRIPTION_KEEP_ALIVE_COUNT ),
+      uint( 0 ),
+      true,
+      ubyte( 0 )
+    ).get();
+  }
+
+  /**
+   * Read the values of a list of nodes with as few Read service calls as possible.
+   *
+   * @param client The connected client
+   * @param nodeIds The nodes to read
+   * @param maxNodesPerRead The maximum number of nodes to read in one request, 0 means unlimited
+   * @return The values in the same order as the given nodes
+   * @throws Exception
+   */
+  public static List<DataValue> readValues( OpcUaClient client, List<NodeId> nodeIds, int maxNodesPerRead ) throws Exception {
+    return readValues( client, nodeIds, maxNodesPerRead, null );
+  }
+
+  /**
+   * Read the values of a list of nodes with as few Read service calls as possible, one request after the other.
+   *
+   * @param metrics Where to record the round trip time and size of every request, null to not record them
+   */
+  public static List<DataValue> readValues( OpcUaClient client, List<NodeId> nodeIds, int maxNodesPerRead,
+                                            OpcUaMetrics metrics ) throws Exception {
+    return readValues( client, nodeIds, new OpcUaRequestSizer( null, "Read", maxNodesPerRead ), 1, metrics );
+  }
+
+  /**
+   * Read the values of a list of nodes with as few Read service calls as possible.
+   * A request the server finds too large is split up and the sizer is told to send smaller requests.
+   *
+   * @param sizer Decides how many nodes go into one request
+   * @param maxRequestsInFlight The number of requests sent before waiting for the answer to the oldest one
+   * @param metrics Where to record the round trip time and size of every request, null to not record them
+   */
+  public static List<DataValue> readValues( OpcUaClient client, List<NodeId> nodeIds, OpcUaRequestSizer sizer,
+                                            int maxRequestsInFlight, OpcUaMetrics metrics ) throws Exception {
+    return readValuesAsync( client, nodeIds, sizer, maxRequestsInFlight, metrics ).get();
+  }
+
+  /**
+   * Read the values of the given nodes without waiting for the answer.
+   * The reads are split up in chunks of at most maxNodesPerRead nodes which are all sent at once.
+   *
+   * @return The values, in the order of the node IDs, once all chunks are read
+   */
+  public static CompletableFuture<List<DataValue>> readValuesAsync( OpcUaClient client, List<NodeId> nodeIds, int maxNodesPerRead ) {
+    return readValuesAsync( client, nodeIds, maxNodesPerRead, null );
+  }
+
+  /**
+   * Read the values of the given nodes without waiting for the answer.
+   *
+   * @param metrics Where to record the round trip time and size of every request, null to not record them
+   */
+  public static CompletableFuture<List<DataValue>> readValuesAsync( OpcUaClient client, List<NodeId> nodeIds, int maxNodesPerRead,
+                                                                    OpcUaMetrics metrics ) {
+    return readValuesAsync( client, nodeIds, new OpcUaRequestSizer( null, "Read", maxNodesPerRead ), 0, metrics );
+  }
+
+  /**
+   * Read the values of the given nodes without waiting for the answer.
+   * The nodes are read in chunks the size the sizer decides on, with at most maxRequestsInFlight chunks waiting for an
+   * answer. A chunk the server finds too large is split up and sent again.
+   *
+   * @param sizer Decides how many nodes go into one request
+   * @param maxRequestsInFlight The number of requests sent before waiting for an answer, 0 to send them all at once
+   * @param metrics Where to record the round trip time and size of every request, null to not record them
+   * @return The values, in the order of the node IDs, once all chunks are read
+   */
+  public static CompletableFuture<List<DataValue>> readValuesAsync( OpcUaClient client, List<NodeId> nodeIds, OpcUaRequestSizer sizer,
+                                                                    int maxRequestsInFlight, OpcUaMetrics metrics ) {
+    List<ReadValueId> readValueIds = new ArrayList<>( nodeIds.size() );
+    for ( NodeId nodeId : nodeIds ) {
+      readValueIds.add( new ReadValueId( nodeId, AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE ) );
+    }
+    return readAsync( client, readValueIds, TimestampsToReturn.Both, sizer.getSize(), sizer, maxRequestsInFlight, metrics );
+  }
+
+  /**
+   * Read any attributes of a list of nodes, for example their DataType, in chunks the size the sizer decides on.
+   * A chunk the server finds too large is split up and sent again.
+   *
+   * @param readValueIds The node and attribute of every value to read
+   * @param sizer Decides how many attributes go into one request
+   * @param maxRequestsInFlight The number of requests sent before waiting for an answer, 0 to send them all at once
+   * @param metrics Where to record the round trip time and size of every request, null to not record them
+   * @return The values without timestamps, in the order of the read value IDs
+   */
+  public static List<DataValue> readAttributes( OpcUaClient client, List<ReadValueId> readValueIds, OpcUaRequestSizer sizer,
+                                                int maxRequestsInFlight, OpcUaMetrics metrics ) throws Exception {
+    return readAsync( client, readValueIds, TimestampsToReturn.Neither, sizer.getSize(), sizer, maxRequestsInFlight, metrics ).get();
+  }
+
+  private static CompletableFuture<List<DataValue>> readAsync( OpcUaClient client, List<ReadValueId> readValueIds,
+                                                               TimestampsToReturn timestamps, int chunkSize,
+                                                               OpcUaRequestSizer sizer, int maxRequestsInFlight,
+                                                               OpcUaMetrics metrics ) {
+    if ( readValueIds.size() <= chunkSize ) {
+      return readChunk( client, readValueIds, timestamps, sizer, metrics );
+    }
+
+    List<List<ReadValueId>> chunks = new ArrayList<>();
+    for ( int start = 0; start < readValueIds.size(); start += chunkSize ) {
+      chunks.add( readValueIds.subList( start, Math.min( start + chunkSize, readValueIds.size() ) ) );
+    }
+    return OpcUaPipeline.send( chunks.size(), maxRequestsInFlight,
+      c -> readChunk( client, chunks.get( c ), timestamps, sizer, metrics ) ).thenApply( chunkValues -> {
+        List<DataValue> values = new ArrayList<>( readValueIds.size() );
+        for ( List<DataValue> chunk : chunkValues ) {
+          values.addAll( chunk );
+        }
+        return values;
+      } );
+  }
+
+  /**
+   * Read one chunk. When the server finds it too large the smaller parts are sent one after the other, so they take
+   * the place of the chunk in the pipeline instead of adding to the requests in flight.
+   */
+  private static CompletableFuture<List<DataValue>> readChunk( OpcUaClient client, List<ReadValueId> readValueIds,
+                                                               TimestampsToReturn timestamps, OpcUaRequestSizer sizer,
+                                                               OpcUaMetrics metrics ) {
+    long start = System.nanoTime();
+    return client.read( 0.0, timestamps, readValueIds ).handle( ( response, error ) -> {
+      if ( metrics != null ) {
+        metrics.recordRead( start, readValueIds.size(), error );
+      }
+      if ( error == null ) {
+        sizer.onSuccess( readValueIds.size() );
+        return CompletableFuture.completedFuture( Arrays.asList( response.getResults() ) );
+      }
+      if ( readValueIds.size() > 1 && OpcUaRequestSizer.isTooLarge( error ) ) {
+        return readAsync( client, readValueIds, timestamps, sizer.backOff( readValueIds.size() ), sizer, 1, metrics );
+      }
+      CompletableFuture<List<DataValue>> failed = new CompletableFuture<>();
+      failed.completeExceptionally( error );
+      return failed;
+    } ).thenCompose( values -> values );
+  }
+
+  /**
+   * Find the arguments a method expects or returns, described by its InputArguments or OutputArguments property.
+   *
+   * @param client       The connected client
+   * @param methodId     The node of the method
+   * @param propertyName "InputArguments" or "OutputArguments"
+   * @param metrics      Where to record the round trip time of the browse, null to not record them
+   * @return The arguments, empty if the method doesn't have the property
+   * @throws Exception
+   */
+  public static Argument[] getMethodArguments( OpcUaClient client, NodeId methodId, String propertyName,
+                                               OpcUaMetrics metrics ) throws Exception {
+    BrowseDescription description = new BrowseDescription(
+      methodId,
+      BrowseDirection.Forward,
+      Identifiers.HasProperty,
+      false,
+      uint( NodeClass.Variable.getValue() ),
+      uint( BrowseResultMask.BrowseName.getValue() )
+    );
+    ViewDescription view = new ViewDescription( NodeId.NULL_VALUE, DateTime.MIN_VALUE, uint( 0 ) );
+    long start = System.nanoTime();
+    BrowseResult result;
+    try {
+      result = client.browse( view, uint( 0 ), Collections.singletonList( description ) ).get().getResults()[ 0 ];
+    } catch ( Exception e ) {
+      if ( metrics != null ) {
+        metrics.recordBrowse( start, 1, e );
+      }
+      throw e;
+    }
+    if ( metrics != null ) {
+      metrics.recordBrowse( start, 1, null );
+    }
+    if ( result.getReferences() == null ) {
+      return new Argument[ 0 ];
+    }
+    for ( ReferenceDescription reference : result.getReferences() ) {
+      if ( reference.getBrowseName() == null || !propertyName.equals( reference.getBrowseName().getName() ) ) {
+        continue;
+      }
+      NodeId propertyId = reference.getNodeId().local().orElse( null );
+      if ( propertyId == null ) {
+        continue;
+      }
+      Object value = client.readValue( 0.0, TimestampsToReturn.Neither, propertyId ).get().getValue().getValue();
+      if ( !( value instanceof ExtensionObject[] ) ) {
+        return new Argument[ 0 ];
+      }
+      ExtensionObject[] objects = (ExtensionObject[]) value;
+      Argument[] arguments = new Argument[ objects.length ];
+      for ( int i = 0; i < objects.length; i++ ) {
+        arguments[ i ] = (Argument) objects[ i ].decode();
+      }
+      return arguments;
+    }
+    return new Argument[ 0 ];
+  }
+
   public static MetaStoreFactory<OpcUaConnection> getFactory(IMetaStore metaStore) {
     return new MetaStoreFactory<OpcUaConnection>( OpcUaConnection.class, metaStore, PentahoDefaults.NAMESPACE );
   }
 
+  private static class CachedEndpoints {
+    private final EndpointDescription[] endpoints;
+    private final long expires;
+
+    private CachedEndpoints( EndpointDescription[] endpoints, long expires ) {
+      this.endpoints = endpoints;
+      this.expires = expires;
+    }
+  }
 }
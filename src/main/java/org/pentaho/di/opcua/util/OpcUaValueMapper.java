@@ -0,0 +1,448 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.ULong;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettlePluginException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBase;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
+
+/**
+ * Maps the OPC UA built-in data types onto Kettle value types and converts Variant values natively,
+ * without going through a String.
+ */
+public class OpcUaValueMapper {
+
+  private static final Map<NodeId, Integer> TYPES = new HashMap<>();
+
+  static {
+    TYPES.put( Identifiers.Boolean, ValueMetaInterface.TYPE_BOOLEAN );
+
+    TYPES.put( Identifiers.SByte, ValueMetaInterface.TYPE_INTEGER );
+    TYPES.put( Identifiers.Byte, ValueMetaInterface.TYPE_INTEGER );
+    TYPES.put( Identifiers.Int16, ValueMetaInterface.TYPE_INTEGER );
+    TYPES.put( Identifiers.UInt16, ValueMetaInterface.TYPE_INTEGER );
+    TYPES.put( Identifiers.Int32, ValueMetaInterface.TYPE_INTEGER );
+    TYPES.put( Identifiers.UInt32, ValueMetaInterface.TYPE_INTEGER );
+    TYPES.put( Identifiers.Int64, ValueMetaInterface.TYPE_INTEGER );
+    TYPES.put( Identifiers.Integer, ValueMetaInterface.TYPE_INTEGER );
+    TYPES.put( Identifiers.UInteger, ValueMetaInterface.TYPE_INTEGER );
+
+    // A UInt64 doesn't fit in a Java long
+    //
+    TYPES.put( Identifiers.UInt64, ValueMetaInterface.TYPE_BIGNUMBER );
+
+    TYPES.put( Identifiers.Float, ValueMetaInterface.TYPE_NUMBER );
+    TYPES.put( Identifiers.Double, ValueMetaInterface.TYPE_NUMBER );
+    TYPES.put( Identifiers.Duration, ValueMetaInterface.TYPE_NUMBER );
+    TYPES.put( Identifiers.Number, ValueMetaInterface.TYPE_NUMBER );
+
+    TYPES.put( Identifiers.DateTime, ValueMetaInterface.TYPE_DATE );
+    TYPES.put( Identifiers.UtcTime, ValueMetaInterface.TYPE_DATE );
+
+    TYPES.put( Identifiers.ByteString, ValueMetaInterface.TYPE_BINARY );
+  }
+
+  /**
+   * The number of 100ns ticks between 1601-01-01, the OPC UA epoch, and 1970-01-01
+   */
+  private static final long EPOCH_DELTA_TICKS = 116444736000000000L;
+
+  /**
+   * The symbolic names of the status codes by their upper 16 bits, filled in as codes are seen
+   */
+  private static final String[] STATUS_NAMES = new String[ 0x10000 ];
+
+  private static final BigInteger INT64_MIN = BigInteger.valueOf( Long.MIN_VALUE );
+  private static final BigInteger INT64_MAX = BigInteger.valueOf( Long.MAX_VALUE );
+  private static final BigInteger UINT64_MAX = BigInteger.ONE.shiftLeft( 64 ).subtract( BigInteger.ONE );
+
+  private OpcUaValueMapper() {
+  }
+
+  /**
+   * @param dataType the node ID of an OPC UA DataType, may be null
+   * @return the Kettle value type to use for values of this data type. Unknown and structured types become String.
+   */
+  public static int getValueType( NodeId dataType ) {
+    Integer type = dataType == null ? null : TYPES.get( dataType );
+    return type == null ? ValueMetaInterface.TYPE_STRING : type;
+  }
+
+  /**
+   * @param dataType the node ID of an OPC UA DataType as stored with a tag, may be empty or invalid
+   * @return the Kettle value type to use for values of this data type
+   */
+  public static int getValueType( String dataType ) {
+    if ( Const.isEmpty( dataType ) ) {
+      return ValueMetaInterface.TYPE_STRING;
+    }
+    try {
+      return getValueType( NodeId.parse( dataType ) );
+    } catch ( Exception e ) {
+      return ValueMetaInterface.TYPE_STRING;
+    }
+  }
+
+  /**
+   * Create the Kettle value metadata for a column of the given type.
+   */
+  public static ValueMetaInterface createValueMeta( String name, int valueType ) throws KettlePluginException {
+    return ValueMetaFactory.createValueMeta( name, valueType );
+  }
+
+  /**
+   * Find the single Kettle value type which fits all the given data types.
+   * If the data types don't agree or if one of them isn't known we fall back to String.
+   *
+   * @param dataTypes the node IDs of OPC UA DataTypes as stored with the tags
+   * @return the common Kettle value type
+   */
+  public static int getCommonValueType( List<String> dataTypes ) {
+    if ( dataTypes.isEmpty() ) {
+      return ValueMetaInterface.TYPE_STRING;
+    }
+    int type = getValueType( dataTypes.get( 0 ) );
+    for ( int i = 1; i < dataTypes.size(); i++ ) {
+      if ( getValueType( dataTypes.get( i ) ) != type ) {
+        return ValueMetaInterface.TYPE_STRING;
+      }
+    }
+    return type;
+  }
+
+  /**
+   * Convert the value of an OPC UA Variant to the native Kettle representation of the given type.
+   *
+   * @param value     the value of the Variant, may be null
+   * @param valueType the Kettle value type of the output column
+   * @return the Kettle value
+   * @throws KettleValueException in case the value can't be represented by the given type
+   */
+  public static Object convert( Object value, int valueType ) throws KettleValueException {
+    if ( value == null ) {
+      return null;
+    }
+    switch ( valueType ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        if ( value instanceof Number ) {
+          return ( (Number) value ).longValue();
+        }
+        if ( value instanceof Boolean ) {
+          return ( (Boolean) value ) ? 1L : 0L;
+        }
+        break;
+      case ValueMetaInterface.TYPE_NUMBER:
+        if ( value instanceof Number ) {
+          return ( (Number) value ).doubleValue();
+        }
+        break;
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        if ( value instanceof ULong ) {
+          return new BigDecimal( ( (ULong) value ).toBigInteger() );
+        }
+        if ( value instanceof Double || value instanceof Float ) {
+          return BigDecimal.valueOf( ( (Number) value ).doubleValue() );
+        }
+        if ( value instanceof Number ) {
+          return BigDecimal.valueOf( ( (Number) value ).longValue() );
+        }
+        break;
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        if ( value instanceof Boolean ) {
+          return value;
+        }
+        if ( value instanceof Number ) {
+          return ( (Number) value ).longValue() != 0L;
+        }
+        break;
+      case ValueMetaInterface.TYPE_DATE:
+        if ( value instanceof DateTime ) {
+          return ( (DateTime) value ).getJavaDate();
+        }
+        break;
+      case ValueMetaInterface.TYPE_TIMESTAMP:
+        if ( value instanceof DateTime ) {
+          return toTimestamp( ( (DateTime) value ).getUtcTime(), 0 );
+        }
+        break;
+      case ValueMetaInterface.TYPE_BINARY:
+        if ( value instanceof ByteString ) {
+          return ( (ByteString) value ).bytesOrEmpty();
+        }
+        if ( value instanceof byte[] ) {
+          return value;
+        }
+        break;
+      default:
+        return toString( value );
+    }
+    throw new KettleValueException( "Unable to convert OPC UA value of class " + value.getClass().getSimpleName()
+      + " to Kettle type " + ValueMetaBase.getTypeDesc( valueType ) );
+  }
+
+  /**
+   * Convert an OPC UA DateTime to Java milliseconds straight from its ticks.
+   *
+   * @param utcTicks the 100ns intervals since 1601-01-01 UTC, see DateTime.getUtcTime()
+   * @return the milliseconds since 1970-01-01 UTC
+   */
+  public static long toJavaTime( long utcTicks ) {
+    return Math.floorDiv( utcTicks - EPOCH_DELTA_TICKS, 10000L );
+  }
+
+  /**
+   * Convert an OPC UA DateTime to a Timestamp, keeping the 100ns ticks and as much of the picoseconds as fits.
+   *
+   * @param utcTicks    the 100ns intervals since 1601-01-01 UTC
+   * @param picoseconds the 10 picosecond intervals on top of the ticks (0-9999), 0 if the server didn't send them.
+   *                    Every 100 of them make a nanosecond.
+   */
+  public static Timestamp toTimestamp( long utcTicks, int picoseconds ) {
+    long javaTime = toJavaTime( utcTicks );
+    Timestamp timestamp = new Timestamp( javaTime );
+    long ticksInSecond = Math.floorMod( utcTicks - EPOCH_DELTA_TICKS, 10000000L );
+    timestamp.setNanos( (int) ( ticksInSecond * 100L + picoseconds / 100 ) );
+    return timestamp;
+  }
+
+  /**
+   * @param statusCode the value of an OPC UA StatusCode
+   * @return "Good", "Uncertain" or "Bad", from the two severity bits
+   */
+  public static String getStatusSeverity( long statusCode ) {
+    switch ( (int) ( ( statusCode >>> 30 ) & 0x3 ) ) {
+      case 0:
+        return "Good";
+      case 1:
+        return "Uncertain";
+      default:
+        return "Bad";
+    }
+  }
+
+  /**
+   * @param statusCode the value of an OPC UA StatusCode
+   * @return the symbolic name of the code without the info bits, for example BadNodeIdUnknown,
+   *   or the code in hex if it isn't a known code
+   */
+  public static String getStatusName( long statusCode ) {
+    int index = (int) ( ( statusCode >>> 16 ) & 0xFFFF );
+    String name = STATUS_NAMES[ index ];
+    if ( name == null ) {
+      // Racing threads find the same name, no need to lock
+      //
+      long code = statusCode & 0xFFFF0000L;
+      name = code == 0 ? "Good" : StatusCodes.lookup( code ).map( nameAndDescription -> nameAndDescription[ 0 ] )
+        .orElse( String.format( "0x%08X", code ) );
+      STATUS_NAMES[ index ] = name;
+    }
+    return name;
+  }
+
+  /**
+   * Convert a Kettle value to the Java class Milo uses to encode the given OPC UA built-in data type.
+   * Servers only accept a Write when the Variant has exactly the data type of the variable.
+   *
+   * @param value    the Kettle value, may be null
+   * @param dataType the node ID of the DataType of the variable to write to
+   * @return the value to put in a Variant
+   * @throws KettleValueException in case the value can't be converted
+   */
+  public static Object toOpcUa( Object value, NodeId dataType ) throws KettleValueException {
+    if ( value == null || dataType == null ) {
+      return value;
+    }
+    try {
+      if ( Identifiers.Boolean.equals( dataType ) ) {
+        if ( value instanceof Boolean ) {
+          return value;
+        }
+        if ( value instanceof Number ) {
+          return ( (Number) value ).longValue() != 0L;
+        }
+        return "Y".equalsIgnoreCase( value.toString() ) || Boolean.parseBoolean( value.toString() );
+      }
+      if ( Identifiers.SByte.equals( dataType ) ) {
+        return (byte) toLong( value, Byte.MIN_VALUE, Byte.MAX_VALUE, dataType );
+      }
+      if ( Identifiers.Byte.equals( dataType ) ) {
+        return UByte.valueOf( toLong( value, 0L, 0xFFL, dataType ) );
+      }
+      if ( Identifiers.Int16.equals( dataType ) ) {
+        return (short) toLong( value, Short.MIN_VALUE, Short.MAX_VALUE, dataType );
+      }
+      if ( Identifiers.UInt16.equals( dataType ) ) {
+        return UShort.valueOf( (int) toLong( value, 0L, 0xFFFFL, dataType ) );
+      }
+      if ( Identifiers.Int32.equals( dataType ) ) {
+        return (int) toLong( value, Integer.MIN_VALUE, Integer.MAX_VALUE, dataType );
+      }
+      if ( Identifiers.UInt32.equals( dataType ) ) {
+        return UInteger.valueOf( toLong( value, 0L, 0xFFFFFFFFL, dataType ) );
+      }
+      if ( Identifiers.Int64.equals( dataType ) ) {
+        return toBigInteger( value, INT64_MIN, INT64_MAX, dataType ).longValue();
+      }
+      if ( Identifiers.UInt64.equals( dataType ) ) {
+        return ULong.valueOf( toBigInteger( value, BigInteger.ZERO, UINT64_MAX, dataType ) );
+      }
+      if ( Identifiers.Float.equals( dataType ) ) {
+        return toNumber( value ).floatValue();
+      }
+      if ( Identifiers.Double.equals( dataType ) || Identifiers.Duration.equals( dataType ) ) {
+        return toNumber( value ).doubleValue();
+      }
+      if ( Identifiers.DateTime.equals( dataType ) || Identifiers.UtcTime.equals( dataType ) ) {
+        if ( value instanceof Date ) {
+          return new DateTime( (Date) value );
+        }
+      } else if ( Identifiers.ByteString.equals( dataType ) ) {
+        if ( value instanceof byte[] ) {
+          return ByteString.of( (byte[]) value );
+        }
+      } else if ( Identifiers.String.equals( dataType ) ) {
+        return toString( value );
+      } else if ( Identifiers.LocalizedText.equals( dataType ) ) {
+        return LocalizedText.english( toString( value ) );
+      } else {
+        // Leave it to Milo to encode what we don't know
+        //
+        return value;
+      }
+    } catch ( NumberFormatException e ) {
+      throw new KettleValueException( "Unable to convert value '" + value + "' to OPC UA data type " + dataType.toParseableString(), e );
+    }
+    throw new KettleValueException( "Unable to convert value of class " + value.getClass().getSimpleName()
+      + " to OPC UA data type " + dataType.toParseableString() );
+  }
+
+  /**
+   * Convert a value to a whole number and make sure it fits in the OPC UA integer type, so that a value which doesn't
+   * fit is refused instead of written wrapped around.
+   */
+  private static long toLong( Object value, long min, long max, NodeId dataType ) throws KettleValueException {
+    Number number = toNumber( value );
+    double doubleValue = number.doubleValue();
+    long longValue = number.longValue();
+    if ( doubleValue < min || doubleValue > max || longValue < min || longValue > max ) {
+      throw new KettleValueException( "Value '" + value + "' is out of range for OPC UA data type " + dataType.toParseableString()
+        + " (" + min + " to " + max + ")" );
+    }
+    return longValue;
+  }
+
+  /**
+   * Same as toLong() for the 64-bit types where the bounds don't fit in a long or lose precision in a double.
+   */
+  private static BigInteger toBigInteger( Object value, BigInteger min, BigInteger max, NodeId dataType ) throws KettleValueException {
+    Number number = toNumber( value );
+    BigInteger bigInteger;
+    if ( number instanceof BigDecimal ) {
+      bigInteger = ( (BigDecimal) number ).toBigInteger();
+    } else if ( number instanceof BigInteger ) {
+      bigInteger = (BigInteger) number;
+    } else if ( number instanceof ULong ) {
+      bigInteger = ( (ULong) number ).toBigInteger();
+    } else if ( number instanceof Double || number instanceof Float ) {
+      double doubleValue = number.doubleValue();
+      bigInteger = Double.isNaN( doubleValue ) || Double.isInfinite( doubleValue ) ? null : new BigDecimal( doubleValue ).toBigInteger();
+    } else {
+      bigInteger = BigInteger.valueOf( number.longValue() );
+    }
+    if ( bigInteger == null || bigInteger.compareTo( min ) < 0 || bigInteger.compareTo( max ) > 0 ) {
+      throw new KettleValueException( "Value '" + value + "' is out of range for OPC UA data type " + dataType.toParseableString()
+        + " (" + min + " to " + max + ")" );
+    }
+    return bigInteger;
+  }
+
+  private static Number toNumber( Object value ) {
+    if ( value instanceof Number ) {
+      return (Number) value;
+    }
+    if ( value instanceof Boolean ) {
+      return ( (Boolean) value ) ? 1L : 0L;
+    }
+    return new BigDecimal( value.toString().trim() );
+  }
+
+  /**
+   * Gives a readable String for the OPC UA built-in types, arrays included.
+   */
+  public static String toString( Object value ) {
+    if ( value == null ) {
+      return null;
+    }
+    if ( value instanceof LocalizedText ) {
+      return ( (LocalizedText) value ).getText();
+    }
+    if ( value instanceof QualifiedName ) {
+      return ( (QualifiedName) value ).toParseableString();
+    }
+    if ( value instanceof NodeId ) {
+      return ( (NodeId) value ).toParseableString();
+    }
+    if ( value instanceof DateTime ) {
+      return ( (DateTime) value ).getJavaDate().toString();
+    }
+    if ( value instanceof Object[] ) {
+      Object[] array = (Object[]) value;
+      StringBuilder string = new StringBuilder( "[" );
+      for ( int i = 0; i < array.length; i++ ) {
+        if ( i > 0 ) {
+          string.append( ", " );
+        }
+        string.append( toString( array[ i ] ) );
+      }
+      return string.append( "]" ).toString();
+    }
+    if ( value instanceof byte[] ) {
+      return Arrays.toString( (byte[]) value );
+    }
+    return value.toString();
+  }
+}
@@ -0,0 +1,354 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Collects values to write into multi-node Write requests.
+ * <p>
+ * A batch is written when it holds as many values as the sizer allows per request or when the oldest value in it has waited maxLatency ms,
+ * whichever comes first. The deadline is watched by a daemon thread so that a quiet input doesn't hold values back.
+ * With coalescing, a value for a node which is already waiting in the batch replaces the older value.
+ * <p>
+ * The data type of every node is read once, in bulk Read requests sized by the read sizer, so that the values can be
+ * encoded exactly as the server expects.
+ * New nodes are registered with the server at the same time, later writes use the registered NodeIds.
+ * A Write request the server finds too large is split up, and later batches are kept smaller.
+ */
+public class OpcUaWriteBatcher {
+
+  private final LogChannelInterface log;
+  private final OpcUaClient client;
+  private final OpcUaRequestSizer sizer;
+  private final OpcUaRequestSizer readSizer;
+  private final long maxLatencyNanos;
+  private final boolean coalesce;
+  private final OpcUaNodeRegistry registry;
+  private final OpcUaMetrics metrics;
+
+  private final Object lock = new Object();
+
+  /**
+   * The values waiting to be written, in order of arrival
+   */
+  private List<NodeId> nodeIds;
+  private List<Object> values;
+
+  /**
+   * Coalescing: the position of every node in the current batch
+   */
+  private Map<NodeId, Integer> positions;
+
+  private long batchStart;
+
+  private final Map<NodeId, NodeId> dataTypes;
+
+  private volatile boolean running;
+  private Thread deadlineThread;
+  private volatile KettleException failure;
+
+  private final AtomicLong nrWrites;
+  private final AtomicLong nrValues;
+  private final AtomicLong nrCoalesced;
+
+  /**
+   * @param log              The logging channel
+   * @param client           The connected client
+   * @param sizer            Decides how many values go into a Write request
+   * @param readSizer        Decides how many DataType attributes go into a Read request
+   * @param maxLatencyMs     The maximum time a value waits before it's written, 0 to only write full batches
+   * @param coalesce         Only write the last value of a node within a batch
+   * @param registry         Registers the nodes written to, null to write with the given NodeIds
+   * @param metrics          Where to record the round trip time of the Read and Write requests, null to not record them
+   */
+  public OpcUaWriteBatcher( LogChannelInterface log, OpcUaClient client, OpcUaRequestSizer sizer, OpcUaRequestSizer readSizer,
+                            long maxLatencyMs, boolean coalesce, OpcUaNodeRegistry registry, OpcUaMetrics metrics ) {
+    this.log = log;
+    this.client = client;
+    this.sizer = sizer;
+    this.readSizer = readSizer;
+    this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos( Math.max( 0L, maxLatencyMs ) );
+    this.coalesce = coalesce;
+    this.registry = registry;
+    this.metrics = metrics;
+    this.dataTypes = new HashMap<>();
+    this.nrWrites = new AtomicLong();
+    this.nrValues = new AtomicLong();
+    this.nrCoalesced = new AtomicLong();
+    newBatch();
+  }
+
+  public void start( String threadName ) {
+    if ( maxLatencyNanos <= 0 ) {
+      return;
+    }
+    running = true;
+    deadlineThread = new Thread( this::watchDeadline, threadName );
+    deadlineThread.setDaemon( true );
+    deadlineThread.start();
+  }
+
+  /**
+   * Add a value to write. This writes the batch if it's full.
+   *
+   * @param nodeId The node to write to
+   * @param value  The Kettle value, converted to the data type of the node when it's written
+   * @throws KettleException in case an earlier write failed or this write fails
+   */
+  public void add( NodeId nodeId, Object value ) throws KettleException {
+    checkFailure();
+    synchronized ( lock ) {
+      if ( nodeIds.isEmpty() ) {
+        batchStart = System.nanoTime();
+      }
+      if ( coalesce ) {
+        Integer position = positions.get( nodeId );
+        if ( position != null ) {
+          values.set( position, value );
+          nrCoalesced.incrementAndGet();
+          return;
+        }
+        positions.put( nodeId, nodeIds.size() );
+      }
+      nodeIds.add( nodeId );
+      values.add( value );
+      if ( nodeIds.size() >= sizer.getSize() ) {
+        writeBatch();
+      }
+    }
+  }
+
+  /**
+   * Write what is waiting in the current batch
+   */
+  public void flush() throws KettleException {
+    checkFailure();
+    synchronized ( lock ) {
+      writeBatch();
+    }
+  }
+
+  /**
+   * Stop watching the deadline. Call {@link #flush()} first to write what is left.
+   */
+  public void stop() {
+    running = false;
+    if ( deadlineThread != null ) {
+      deadlineThread.interrupt();
+      try {
+        deadlineThread.join( 5000 );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+      deadlineThread = null;
+    }
+  }
+
+  private void watchDeadline() {
+    while ( running ) {
+      long wait;
+      synchronized ( lock ) {
+        if ( nodeIds.isEmpty() ) {
+          wait = maxLatencyNanos;
+        } else {
+          wait = batchStart + maxLatencyNanos - System.nanoTime();
+          if ( wait <= 0 ) {
+            try {
+              writeBatch();
+            } catch ( KettleException e ) {
+              failure = e;
+              return;
+            }
+            wait = maxLatencyNanos;
+          }
+        }
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep( wait );
+      } catch ( InterruptedException e ) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Write the current batch, called while holding the lock
+   */
+  private void writeBatch() throws KettleException {
+    if ( nodeIds.isEmpty() ) {
+      return;
+    }
+    List<NodeId> batchNodeIds = nodeIds;
+    List<Object> batchValues = values;
+    newBatch();
+
+    try {
+      resolveDataTypes( batchNodeIds );
+
+      List<DataValue> dataValues = new ArrayList<>( batchValues.size() );
+      for ( int i = 0; i < batchValues.size(); i++ ) {
+        Object value = OpcUaValueMapper.toOpcUa( batchValues.get( i ), dataTypes.get( batchNodeIds.get( i ) ) );
+        dataValues.add( new DataValue( new Variant( value ), null, null ) );
+      }
+
+      List<NodeId> writeNodeIds = registry == null ? batchNodeIds : registry.resolve( batchNodeIds );
+      List<StatusCode> results = writeValues( writeNodeIds, dataValues );
+      nrValues.addAndGet( batchNodeIds.size() );
+
+      for ( int i = 0; i < results.size(); i++ ) {
+        if ( results.get( i ).isBad() ) {
+          throw new KettleException( "Unable to write value '" + batchValues.get( i ) + "' to node '"
+            + batchNodeIds.get( i ).toParseableString() + "' : " + results.get( i ) );
+        }
+      }
+    } catch ( KettleException e ) {
+      throw e;
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleException( "Interrupted while writing " + batchNodeIds.size() + " values", e );
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to write " + batchNodeIds.size() + " values", e );
+    }
+  }
+
+  /**
+   * Write the values in as many requests as the sizer wants, splitting up a request the server refuses as too large
+   */
+  private List<StatusCode> writeValues( List<NodeId> writeNodeIds, List<DataValue> dataValues ) throws Exception {
+    List<StatusCode> results = new ArrayList<>( writeNodeIds.size() );
+    int start = 0;
+    while ( start < writeNodeIds.size() ) {
+      int end = Math.min( start + sizer.getSize(), writeNodeIds.size() );
+      long writeStart = System.nanoTime();
+      try {
+        results.addAll( client.writeValues( writeNodeIds.subList( start, end ), dataValues.subList( start, end ) ).get() );
+      } catch ( ExecutionException e ) {
+        if ( metrics != null ) {
+          metrics.recordWrite( writeStart, end - start, e );
+        }
+        if ( end - start > 1 && OpcUaRequestSizer.isTooLarge( e ) ) {
+          sizer.backOff( end - start );
+          continue;
+        }
+        throw e;
+      }
+      if ( metrics != null ) {
+        metrics.recordWrite( writeStart, end - start, null );
+      }
+      sizer.onSuccess( end - start );
+      nrWrites.incrementAndGet();
+      start = end;
+    }
+    return results;
+  }
+
+  /**
+   * Read the DataType attribute of the nodes we didn't see before, in as many requests as the read sizer wants
+   */
+  private void resolveDataTypes( List<NodeId> batchNodeIds ) throws Exception {
+    Set<NodeId> unknownSet = new LinkedHashSet<>();
+    for ( NodeId nodeId : batchNodeIds ) {
+      if ( !dataTypes.containsKey( nodeId ) ) {
+        unknownSet.add( nodeId );
+      }
+    }
+    List<NodeId> unknown = new ArrayList<>( unknownSet );
+    List<ReadValueId> readValueIds = new ArrayList<>( unknown.size() );
+    for ( NodeId nodeId : unknown ) {
+      readValueIds.add( new ReadValueId( nodeId, AttributeId.DataType.uid(), null, QualifiedName.NULL_VALUE ) );
+    }
+    if ( unknown.isEmpty() ) {
+      return;
+    }
+    List<DataValue> results = OpcUaUtil.readAttributes( client, readValueIds, readSizer, 1, metrics );
+    for ( int i = 0; i < unknown.size(); i++ ) {
+      DataValue result = results.get( i );
+      Object dataType = result.getValue() == null ? null : result.getValue().getValue();
+      if ( result.getStatusCode() != null && result.getStatusCode().isBad() || !( dataType instanceof NodeId ) ) {
+        throw new KettleException( "Unable to find the data type of node '" + unknown.get( i ).toParseableString() + "' : " + result.getStatusCode() );
+      }
+      dataTypes.put( unknown.get( i ), (NodeId) dataType );
+    }
+    if ( registry != null ) {
+      registry.register( unknown );
+    }
+    if ( log.isDebug() ) {
+      log.logDebug( "Read the data type of " + unknown.size() + " nodes" );
+    }
+  }
+
+  private void newBatch() {
+    nodeIds = new ArrayList<>( Math.min( sizer.getSize(), 1024 ) );
+    values = new ArrayList<>( Math.min( sizer.getSize(), 1024 ) );
+    positions = coalesce ? new HashMap<>() : null;
+  }
+
+  private void checkFailure() throws KettleException {
+    KettleException e = failure;
+    if ( e != null ) {
+      throw e;
+    }
+  }
+
+  /**
+   * @return The number of Write requests sent
+   */
+  public long getNrWrites() {
+    return nrWrites.get();
+  }
+
+  /**
+   * @return The number of values written
+   */
+  public long getNrValues() {
+    return nrValues.get();
+  }
+
+  /**
+   * @return The number of values replaced by a later value for the same node
+   */
+  public long getNrCoalesced() {
+    return nrCoalesced.get();
+  }
+}
@@ -0,0 +1,81 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.simulation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+
+import org.eclipse.milo.opcua.stack.core.util.SelfSignedCertificateBuilder;
+import org.eclipse.milo.opcua.stack.core.util.SelfSignedCertificateGenerator;
+import org.pentaho.di.opcua.util.ClientKeyStore;
+
+/**
+ * Self-signed certificates for the simulation server and its clients, so nothing needs to be installed to run it.
+ */
+public class SimulationCertificates {
+
+  public static final String CLIENT_ALIAS = "client";
+  public static final String PASSWORD = "password";
+
+  private SimulationCertificates() {
+  }
+
+  public static KeyPair createKeyPair() throws Exception {
+    return SelfSignedCertificateGenerator.generateRsaKeyPair( 2048 );
+  }
+
+  public static X509Certificate createCertificate( KeyPair keyPair, String commonName, String applicationUri ) throws Exception {
+    return new SelfSignedCertificateBuilder( keyPair )
+      .setCommonName( commonName )
+      .setOrganization( "Pentaho" )
+      .setApplicationUri( applicationUri )
+      .addDnsName( "localhost" )
+      .addIpAddress( "127.0.0.1" )
+      .build();
+  }
+
+  /**
+   * Write a PKCS12 key store with a new client certificate and load it the way the steps do
+   *
+   * @param file The key store file to create
+   * @return The client key store to connect to the simulation server with
+   */
+  public static ClientKeyStore createClientKeyStore( File file ) throws Exception {
+    KeyPair keyPair = createKeyPair();
+    X509Certificate certificate = createCertificate( keyPair, "Kettle OPC UA test client", "urn:kettle:milo:client:test" );
+
+    KeyStore keyStore = KeyStore.getInstance( "PKCS12" );
+    keyStore.load( null, PASSWORD.toCharArray() );
+    keyStore.setKeyEntry( CLIENT_ALIAS, keyPair.getPrivate(), PASSWORD.toCharArray(), new Certificate[] { certificate } );
+    try ( OutputStream outputStream = new FileOutputStream( file ) ) {
+      keyStore.store( outputStream, PASSWORD.toCharArray() );
+    }
+    return ClientKeyStore.get( file.getAbsolutePath(), CLIENT_ALIAS, PASSWORD );
+  }
+}
@@ -0,0 +1,168 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.pentaho.di.core.Const;
+
+/**
+ * The settings of the {@link SimulationServer}: how many variables, of which types, how often they change and how
+ * much history they have.
+ */
+public class SimulationConfig {
+
+  public static final String PROPERTY_PORT = "opcua.simulation.port";
+  public static final String PROPERTY_NODES = "opcua.simulation.nodes";
+  public static final String PROPERTY_DATA_TYPES = "opcua.simulation.dataTypes";
+  public static final String PROPERTY_UPDATE_RATE = "opcua.simulation.updateRate";
+  public static final String PROPERTY_HISTORY = "opcua.simulation.history";
+
+  /**
+   * The data types the server can simulate
+   */
+  public static final List<String> SUPPORTED_DATA_TYPES =
+    Arrays.asList( "Boolean", "Int32", "Int64", "Float", "Double", "String", "DateTime" );
+
+  private int port;
+
+  private int nrNodes;
+
+  /**
+   * The variables get these data types in turn
+   */
+  private List<String> dataTypes;
+
+  /**
+   * The number of ms between value changes, 0 for values which never change
+   */
+  private long updateRate;
+
+  /**
+   * The number of past values every variable has in its history, one every update rate ms. 0 for no history.
+   */
+  private int historyLength;
+
+  public SimulationConfig() {
+    port = 12690;
+    nrNodes = 1000;
+    dataTypes = new ArrayList<>( Arrays.asList( "Double" ) );
+    updateRate = 1000L;
+    historyLength = 0;
+  }
+
+  /**
+   * @return The default settings, overridden by the opcua.simulation.* system properties
+   */
+  public static SimulationConfig fromSystemProperties() {
+    SimulationConfig config = new SimulationConfig();
+    config.setPort( Const.toInt( System.getProperty( PROPERTY_PORT ), config.getPort() ) );
+    config.setNrNodes( Const.toInt( System.getProperty( PROPERTY_NODES ), config.getNrNodes() ) );
+    String dataTypes = System.getProperty( PROPERTY_DATA_TYPES );
+    if ( !Const.isEmpty( dataTypes ) ) {
+      config.setDataTypes( Arrays.asList( dataTypes.split( "," ) ) );
+    }
+    config.setUpdateRate( Const.toLong( System.getProperty( PROPERTY_UPDATE_RATE ), config.getUpdateRate() ) );
+    config.setHistoryLength( Const.toInt( System.getProperty( PROPERTY_HISTORY ), config.getHistoryLength() ) );
+    return config;
+  }
+
+  /**
+   * @throws IllegalArgumentException in case a setting is out of range
+   */
+  public void validate() {
+    if ( nrNodes < 1 || nrNodes > 1000000 ) {
+      throw new IllegalArgumentException( "The number of nodes needs to be between 1 and 1000000, not " + nrNodes );
+    }
+    if ( dataTypes == null || dataTypes.isEmpty() ) {
+      throw new IllegalArgumentException( "Please specify at least one data type" );
+    }
+    for ( String dataType : dataTypes ) {
+      if ( !SUPPORTED_DATA_TYPES.contains( dataType.trim() ) ) {
+        throw new IllegalArgumentException( "Unsupported data type '" + dataType + "', use one of " + SUPPORTED_DATA_TYPES );
+      }
+    }
+    if ( updateRate < 0L || historyLength < 0 ) {
+      throw new IllegalArgumentException( "The update rate and history length can't be negative" );
+    }
+    if ( historyLength > 0 && updateRate == 0L ) {
+      throw new IllegalArgumentException( "History needs an update rate" );
+    }
+  }
+
+  /**
+   * @param index The index of the variable, 0 to the number of nodes - 1
+   * @return The data type of the variable
+   */
+  public String getDataType( int index ) {
+    return dataTypes.get( index % dataTypes.size() ).trim();
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public SimulationConfig setPort( int port ) {
+    this.port = port;
+    return this;
+  }
+
+  public int getNrNodes() {
+    return nrNodes;
+  }
+
+  public SimulationConfig setNrNodes( int nrNodes ) {
+    this.nrNodes = nrNodes;
+    return this;
+  }
+
+  public List<String> getDataTypes() {
+    return dataTypes;
+  }
+
+  public SimulationConfig setDataTypes( List<String> dataTypes ) {
+    this.dataTypes = dataTypes;
+    return this;
+  }
+
+  public long getUpdateRate() {
+    return updateRate;
+  }
+
+  public SimulationConfig setUpdateRate( long updateRate ) {
+    this.updateRate = updateRate;
+    return this;
+  }
+
+  public int getHistoryLength() {
+    return historyLength;
+  }
+
+  public SimulationConfig setHistoryLength( int historyLength ) {
+    this.historyLength = historyLength;
+    return this;
+  }
+}
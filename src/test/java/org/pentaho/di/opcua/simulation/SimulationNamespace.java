@@ -0,0 +1,355 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.simulation;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.api.Namespace;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.ServerNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.sdk.server.util.SubscriptionModel;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryData;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadRawModifiedDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.WriteValue;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+
+/**
+ * The address space of the simulation server: a "Simulation" folder under Objects with the variables in blocks
+ * of {@link #BLOCK_SIZE} so that browsing a million nodes stays manageable.
+ * <p>
+ * The value of a variable is a function of its index and the update tick, so the history of a variable can be
+ * calculated instead of stored and reads, subscriptions and history reads all see consistent values.
+ */
+public class SimulationNamespace implements Namespace {
+
+  public static final String NAMESPACE_URI = "urn:pentaho:opcua:simulation";
+
+  public static final int BLOCK_SIZE = 1000;
+
+  private final OpcUaServer server;
+  private final UShort namespaceIndex;
+  private final SimulationConfig config;
+  private final SubscriptionModel subscriptionModel;
+
+  private final List<UaVariableNode> variables;
+
+  public SimulationNamespace( OpcUaServer server, UShort namespaceIndex, SimulationConfig config ) {
+    this.server = server;
+    this.namespaceIndex = namespaceIndex;
+    this.config = config;
+    this.subscriptionModel = new SubscriptionModel( server, this );
+    this.variables = new ArrayList<>( config.getNrNodes() );
+
+    addNodes();
+  }
+
+  private void addNodes() {
+    NodeId rootId = new NodeId( namespaceIndex, "Simulation" );
+    UaFolderNode root = new UaFolderNode( server.getNodeMap(), rootId,
+      new QualifiedName( namespaceIndex, "Simulation" ), LocalizedText.english( "Simulation" ) );
+    server.getNodeMap().addNode( root );
+    server.getUaNamespace().addReference( Identifiers.ObjectsFolder, Identifiers.Organizes, true,
+      rootId.expanded(), NodeClass.Object );
+
+    EnumSet<AccessLevel> accessLevels = EnumSet.of( AccessLevel.CurrentRead, AccessLevel.CurrentWrite );
+    if ( config.getHistoryLength() > 0 ) {
+      accessLevels.add( AccessLevel.HistoryRead );
+    }
+    int accessLevel = AccessLevel.getMask( accessLevels );
+    long tick = currentTick();
+
+    UaFolderNode block = null;
+    for ( int i = 0; i < config.getNrNodes(); i++ ) {
+      if ( i % BLOCK_SIZE == 0 ) {
+        String blockName = "Block" + ( i / BLOCK_SIZE );
+        NodeId blockId = new NodeId( namespaceIndex, "Simulation/" + blockName );
+        block = new UaFolderNode( server.getNodeMap(), blockId, new QualifiedName( namespaceIndex, blockName ),
+          LocalizedText.english( blockName ) );
+        server.getNodeMap().addNode( block );
+        root.addOrganizes( block );
+      }
+
+      String dataType = config.getDataType( i );
+      String name = dataType + "_" + i;
+      UaVariableNode variable = new UaVariableNode.UaVariableNodeBuilder( server.getNodeMap() )
+        .setNodeId( getNodeId( namespaceIndex, i ) )
+        .setBrowseName( new QualifiedName( namespaceIndex, name ) )
+        .setDisplayName( LocalizedText.english( name ) )
+        .setDataType( getDataTypeId( dataType ) )
+        .setTypeDefinition( Identifiers.BaseDataVariableType )
+        .setAccessLevel( ubyte( accessLevel ) )
+        .setUserAccessLevel( ubyte( accessLevel ) )
+        .setHistorizing( config.getHistoryLength() > 0 )
+        .build();
+      variable.setValue( getDataValue( i, tick ) );
+
+      server.getNodeMap().addNode( variable );
+      block.addOrganizes( variable );
+      variables.add( variable );
+    }
+  }
+
+  /**
+   * @return The node ID of the variable with the given index
+   */
+  public static NodeId getNodeId( UShort namespaceIndex, int index ) {
+    return new NodeId( namespaceIndex, "Simulation/" + index );
+  }
+
+  public static NodeId getDataTypeId( String dataType ) {
+    switch ( dataType ) {
+      case "Boolean":
+        return Identifiers.Boolean;
+      case "Int32":
+        return Identifiers.Int32;
+      case "Int64":
+        return Identifiers.Int64;
+      case "Float":
+        return Identifiers.Float;
+      case "String":
+        return Identifiers.String;
+      case "DateTime":
+        return Identifiers.DateTime;
+      default:
+        return Identifiers.Double;
+    }
+  }
+
+  /**
+   * Give every variable the value of the current tick
+   */
+  void update() {
+    long tick = currentTick();
+    for ( int i = 0; i < variables.size(); i++ ) {
+      variables.get( i ).setValue( getDataValue( i, tick ) );
+    }
+  }
+
+  private long currentTick() {
+    return config.getUpdateRate() <= 0L ? 0L : System.currentTimeMillis() / config.getUpdateRate();
+  }
+
+  private DataValue getDataValue( int index, long tick ) {
+    DateTime time = new DateTime( new Date( tick * Math.max( 1L, config.getUpdateRate() ) ) );
+    return new DataValue( new Variant( getValue( config.getDataType( index ), index, tick ) ), StatusCode.GOOD, time, time );
+  }
+
+  /**
+   * The value of a variable at a tick: deterministic, different for every variable and changing every tick.
+   */
+  static Object getValue( String dataType, int index, long tick ) {
+    long n = tick + index;
+    switch ( dataType ) {
+      case "Boolean":
+        return ( n & 1L ) == 0L;
+      case "Int32":
+        return (int) ( n % 100000L );
+      case "Int64":
+        return n;
+      case "Float":
+        return (float) ( Math.sin( n / 10.0 ) * 100.0 );
+      case "String":
+        return "Value " + n;
+      case "DateTime":
+        return new DateTime( new Date( n * 1000L ) );
+      default:
+        return Math.sin( n / 10.0 ) * 100.0;
+    }
+  }
+
+  @Override
+  public UShort getNamespaceIndex() {
+    return namespaceIndex;
+  }
+
+  @Override
+  public String getNamespaceUri() {
+    return NAMESPACE_URI;
+  }
+
+  @Override
+  public CompletableFuture<List<Reference>> browse( AccessContext context, NodeId nodeId ) {
+    ServerNode node = server.getNodeMap().getNode( nodeId ).orElse( null );
+    if ( node == null ) {
+      CompletableFuture<List<Reference>> failed = new CompletableFuture<>();
+      failed.completeExceptionally( new UaException( StatusCodes.Bad_NodeIdUnknown ) );
+      return failed;
+    }
+    return CompletableFuture.completedFuture( node.getReferences() );
+  }
+
+  @Override
+  public void read( ReadContext context, Double maxAge, TimestampsToReturn timestamps, List<ReadValueId> readValueIds ) {
+    List<DataValue> results = new ArrayList<>( readValueIds.size() );
+    for ( ReadValueId readValueId : readValueIds ) {
+      ServerNode node = server.getNodeMap().getNode( readValueId.getNodeId() ).orElse( null );
+      if ( node == null ) {
+        results.add( new DataValue( StatusCodes.Bad_NodeIdUnknown ) );
+      } else {
+        results.add( node.readAttribute( new AttributeContext( context ), readValueId.getAttributeId(), timestamps,
+          readValueId.getIndexRange() ) );
+      }
+    }
+    context.complete( results );
+  }
+
+  @Override
+  public void write( WriteContext context, List<WriteValue> writeValues ) {
+    List<StatusCode> results = new ArrayList<>( writeValues.size() );
+    for ( WriteValue writeValue : writeValues ) {
+      ServerNode node = server.getNodeMap().getNode( writeValue.getNodeId() ).orElse( null );
+      if ( node == null ) {
+        results.add( new StatusCode( StatusCodes.Bad_NodeIdUnknown ) );
+        continue;
+      }
+      try {
+        node.writeAttribute( new AttributeContext( context ), writeValue.getAttributeId(), writeValue.getValue(),
+          writeValue.getIndexRange() );
+        results.add( StatusCode.GOOD );
+      } catch ( UaException e ) {
+        results.add( e.getStatusCode() );
+      }
+    }
+    context.complete( results );
+  }
+
+  /**
+   * Raw history of the variables, calculated for the ticks in the requested time range.
+   * Values are returned newest last, at most numValuesPerNode (or the history length) per variable.
+   */
+  @Override
+  public void historyRead( HistoryReadContext context, HistoryReadDetails readDetails, TimestampsToReturn timestamps,
+                           List<HistoryReadValueId> readValueIds ) {
+    List<HistoryReadResult> results = new ArrayList<>( readValueIds.size() );
+    for ( HistoryReadValueId readValueId : readValueIds ) {
+      results.add( readHistory( readDetails, readValueId.getNodeId() ) );
+    }
+    context.complete( results );
+  }
+
+  private HistoryReadResult readHistory( HistoryReadDetails readDetails, NodeId nodeId ) {
+    if ( !( readDetails instanceof ReadRawModifiedDetails ) || ( (ReadRawModifiedDetails) readDetails ).getIsReadModified() ) {
+      return new HistoryReadResult( new StatusCode( StatusCodes.Bad_HistoryOperationUnsupported ), null, null );
+    }
+    int index = getIndex( nodeId );
+    if ( index < 0 ) {
+      return new HistoryReadResult( new StatusCode( StatusCodes.Bad_NodeIdUnknown ), null, null );
+    }
+    if ( config.getHistoryLength() <= 0 ) {
+      return new HistoryReadResult( new StatusCode( StatusCodes.Bad_HistoryOperationUnsupported ), null, null );
+    }
+
+    ReadRawModifiedDetails details = (ReadRawModifiedDetails) readDetails;
+    long rate = config.getUpdateRate();
+    long lastTick = currentTick();
+    long firstTick = lastTick - config.getHistoryLength() + 1;
+    if ( details.getStartTime() != null && details.getStartTime().isValid() ) {
+      firstTick = Math.max( firstTick, ( details.getStartTime().getJavaTime() + rate - 1 ) / rate );
+    }
+    if ( details.getEndTime() != null && details.getEndTime().isValid() ) {
+      lastTick = Math.min( lastTick, details.getEndTime().getJavaTime() / rate );
+    }
+    long maxValues = config.getHistoryLength();
+    if ( details.getNumValuesPerNode() != null && details.getNumValuesPerNode().longValue() > 0L ) {
+      maxValues = Math.min( maxValues, details.getNumValuesPerNode().longValue() );
+    }
+
+    List<DataValue> values = new ArrayList<>();
+    for ( long tick = firstTick; tick <= lastTick && values.size() < maxValues; tick++ ) {
+      values.add( getDataValue( index, tick ) );
+    }
+    HistoryData historyData = new HistoryData( values.toArray( new DataValue[ 0 ] ) );
+    return new HistoryReadResult( StatusCode.GOOD, null, ExtensionObject.encode( historyData ) );
+  }
+
+  /**
+   * @return The index of a simulated variable or -1 if the node isn't one
+   */
+  private int getIndex( NodeId nodeId ) {
+    if ( !namespaceIndex.equals( nodeId.getNamespaceIndex() ) || !( nodeId.getIdentifier() instanceof String ) ) {
+      return -1;
+    }
+    String identifier = (String) nodeId.getIdentifier();
+    if ( !identifier.startsWith( "Simulation/" ) ) {
+      return -1;
+    }
+    try {
+      int index = Integer.parseInt( identifier.substring( "Simulation/".length() ) );
+      return index < variables.size() ? index : -1;
+    } catch ( NumberFormatException e ) {
+      return -1;
+    }
+  }
+
+  @Override
+  public void onDataItemsCreated( List<DataItem> dataItems ) {
+    subscriptionModel.onDataItemsCreated( dataItems );
+  }
+
+  @Override
+  public void onDataItemsModified( List<DataItem> dataItems ) {
+    subscriptionModel.onDataItemsModified( dataItems );
+  }
+
+  @Override
+  public void onDataItemsDeleted( List<DataItem> dataItems ) {
+    subscriptionModel.onDataItemsDeleted( dataItems );
+  }
+
+  @Override
+  public void onMonitoringModeChanged( List<MonitoredItem> monitoredItems ) {
+    subscriptionModel.onMonitoringModeChanged( monitoredItems );
+  }
+}
@@ -0,0 +1,184 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.opcua.simulation;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfig;
+import org.eclipse.milo.opcua.sdk.server.identity.AnonymousIdentityValidator;
+import org.eclipse.milo.opcua.stack.core.application.CertificateValidator;
+import org.eclipse.milo.opcua.stack.core.application.DefaultCertificateManager;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.structured.BuildInfo;
+
+import static org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfig.USER_TOKEN_POLICY_ANONYMOUS;
+
+/**
+ * An OPC UA server with simulated variables which runs inside the JVM on localhost.
+ * It lets the read, subscribe, history and browse paths of the plugin be tested and load tested without a plant.
+ * <p>
+ * Usage:
+ * <pre>
+ *   SimulationServer server = new SimulationServer( new SimulationConfig().setNrNodes( 10000 ) );
+ *   server.start();
+ *   ... connect to server.getEndpointUrl(), read server.getNodeIds() ...
+ *   server.stop();
+ * </pre>
+ * It can also be started on its own, configured with the opcua.simulation.* system properties, see {@link SimulationConfig}.
+ */
+public class SimulationServer {
+
+  public static final String SERVER_NAME = "simulation";
+
+  private static final String APPLICATION_URI = "urn:pentaho:opcua:simulation-server";
+
+  private final SimulationConfig config;
+
+  private OpcUaServer server;
+  private SimulationNamespace namespace;
+  private ScheduledExecutorService updater;
+
+  public SimulationServer( SimulationConfig config ) {
+    config.validate();
+    this.config = config;
+  }
+
+  public void start() throws Exception {
+    KeyPair keyPair = SimulationCertificates.createKeyPair();
+    X509Certificate certificate = SimulationCertificates.createCertificate( keyPair, "Kettle OPC UA simulation server", APPLICATION_URI );
+
+    OpcUaServerConfig serverConfig = OpcUaServerConfig.builder()
+      .setApplicationUri( APPLICATION_URI )
+      .setApplicationName( LocalizedText.english( "Kettle OPC UA simulation server" ) )
+      .setProductUri( APPLICATION_URI )
+      .setServerName( SERVER_NAME )
+      .setBindAddresses( Collections.singletonList( "localhost" ) )
+      .setEndpointAddresses( Collections.singletonList( "localhost" ) )
+      .setBindPort( config.getPort() )
+      .setBuildInfo( new BuildInfo( APPLICATION_URI, "pentaho", "Kettle OPC UA simulation server",
+        OpcUaServer.SDK_VERSION, "", DateTime.now() ) )
+      .setCertificateManager( new DefaultCertificateManager( keyPair, certificate ) )
+      .setCertificateValidator( new TrustAllCertificateValidator() )
+      .setIdentityValidator( AnonymousIdentityValidator.INSTANCE )
+      .setSecurityPolicies( EnumSet.of( SecurityPolicy.None ) )
+      .setUserTokenPolicies( Collections.singletonList( USER_TOKEN_POLICY_ANONYMOUS ) )
+      .build();
+
+    server = new OpcUaServer( serverConfig );
+    namespace = server.getNamespaceManager().registerAndAdd( SimulationNamespace.NAMESPACE_URI,
+      index -> new SimulationNamespace( server, index, config ) );
+    server.startup().get();
+
+    if ( config.getUpdateRate() > 0L ) {
+      updater = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "OPC UA simulation updater" );
+        thread.setDaemon( true );
+        return thread;
+      } );
+      updater.scheduleAtFixedRate( namespace::update, config.getUpdateRate(), config.getUpdateRate(), TimeUnit.MILLISECONDS );
+    }
+  }
+
+  public void stop() throws Exception {
+    if ( updater != null ) {
+      updater.shutdownNow();
+      updater = null;
+    }
+    if ( server != null ) {
+      server.shutdown().get();
+      server = null;
+    }
+  }
+
+  /**
+   * @return The URL clients connect to: opc.tcp://localhost:port/simulation
+   */
+  public String getEndpointUrl() {
+    return "opc.tcp://localhost:" + config.getPort() + "/" + SERVER_NAME;
+  }
+
+  public UShort getNamespaceIndex() {
+    return namespace.getNamespaceIndex();
+  }
+
+  /**
+   * @return The node IDs of all simulated variables, in index order
+   */
+  public List<NodeId> getNodeIds() {
+    List<NodeId> nodeIds = new ArrayList<>( config.getNrNodes() );
+    for ( int i = 0; i < config.getNrNodes(); i++ ) {
+      nodeIds.add( SimulationNamespace.getNodeId( getNamespaceIndex(), i ) );
+    }
+    return nodeIds;
+  }
+
+  public SimulationConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * The server only offers SecurityPolicy None: there is nothing to validate.
+   */
+  private static class TrustAllCertificateValidator implements CertificateValidator {
+    @Override
+    public void validate( X509Certificate certificate ) {
+    }
+
+    @Override
+    public void verifyTrustChain( List<X509Certificate> certificateChain ) {
+    }
+  }
+
+  public static void main( String[] args ) throws Exception {
+    SimulationServer simulationServer = new SimulationServer( SimulationConfig.fromSystemProperties() );
+    simulationServer.start();
+    SimulationConfig config = simulationServer.getConfig();
+    System.out.println( "Simulating " + config.getNrNodes() + " variables of type " + config.getDataTypes()
+      + " changing every " + config.getUpdateRate() + "ms with " + config.getHistoryLength() + " values of history" );
+    System.out.println( "Listening on " + simulationServer.getEndpointUrl() + ", node IDs ns="
+      + simulationServer.getNamespaceIndex() + ";s=Simulation/<index>" );
+
+    Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+      try {
+        simulationServer.stop();
+      } catch ( Exception e ) {
+        e.printStackTrace();
+      }
+    } ) );
+    Thread.currentThread().join();
+  }
+}
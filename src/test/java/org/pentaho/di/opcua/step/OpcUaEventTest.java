@@ -0,0 +1,163 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.opcua.step;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.FilterOperator;
+import org.eclipse.milo.opcua.stack.core.types.structured.ContentFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.ContentFilterElement;
+import org.eclipse.milo.opcua.stack.core.types.structured.ElementOperand;
+import org.eclipse.milo.opcua.stack.core.types.structured.LiteralOperand;
+import org.eclipse.milo.opcua.stack.core.types.structured.SimpleAttributeOperand;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.variables.Variables;
+
+public class OpcUaEventTest {
+
+  @Test
+  public void testNoConditions() throws Exception {
+    OpcUaEventMeta meta = new OpcUaEventMeta();
+    meta.setDefault();
+    assertNull( OpcUaEvent.createWhereClause( meta, new Variables() ) );
+  }
+
+  @Test
+  public void testSingleCondition() throws Exception {
+    OpcUaEventMeta meta = new OpcUaEventMeta();
+    meta.setDefault();
+    meta.setEventType( "i=2041" );
+
+    ContentFilterElement[] elements = OpcUaEvent.createWhereClause( meta, new Variables() ).getElements();
+    assertEquals( 1, elements.length );
+    assertEquals( FilterOperator.OfType, elements[ 0 ].getFilterOperator() );
+    LiteralOperand type = (LiteralOperand) elements[ 0 ].getFilterOperands()[ 0 ].decode();
+    assertEquals( Identifiers.BaseEventType, type.getValue().getValue() );
+  }
+
+  @Test
+  public void testConditionsAreChainedWithAnd() throws Exception {
+    Variables space = new Variables();
+    space.setVariable( "SEVERITY", "500" );
+
+    OpcUaEventMeta meta = new OpcUaEventMeta();
+    meta.setDefault();
+    meta.setEventType( "i=2041" );
+    meta.setMinimumSeverity( "${SEVERITY}" );
+    meta.setConditions( Arrays.asList(
+      new OpcUaEventCondition( "SourceName", "Equals", "Pump1" ),
+      new OpcUaEventCondition( "2:Area/Line", "IsNull", null )
+    ) );
+
+    ContentFilter filter = OpcUaEvent.createWhereClause( meta, space );
+    ContentFilterElement[] elements = filter.getElements();
+
+    // 4 conditions: 3 And elements followed by the conditions at 3, 4, 5 and 6
+    //
+    assertEquals( 7, elements.length );
+    assertAnd( elements[ 0 ], 3, 1 );
+    assertAnd( elements[ 1 ], 4, 2 );
+    assertAnd( elements[ 2 ], 5, 6 );
+
+    assertEquals( FilterOperator.OfType, elements[ 3 ].getFilterOperator() );
+
+    assertEquals( FilterOperator.GreaterThanOrEqual, elements[ 4 ].getFilterOperator() );
+    ExtensionObject[] operands = elements[ 4 ].getFilterOperands();
+    assertField( operands[ 0 ], new QualifiedName( 0, "Severity" ) );
+    assertEquals( 500, ( (Number) ( (LiteralOperand) operands[ 1 ].decode() ).getValue().getValue() ).intValue() );
+
+    assertEquals( FilterOperator.Equals, elements[ 5 ].getFilterOperator() );
+    operands = elements[ 5 ].getFilterOperands();
+    assertField( operands[ 0 ], new QualifiedName( 0, "SourceName" ) );
+    assertEquals( "Pump1", ( (LiteralOperand) operands[ 1 ].decode() ).getValue().getValue() );
+
+    assertEquals( FilterOperator.IsNull, elements[ 6 ].getFilterOperator() );
+    operands = elements[ 6 ].getFilterOperands();
+    assertEquals( 1, operands.length );
+    assertField( operands[ 0 ], new QualifiedName( 2, "Area" ), new QualifiedName( 0, "Line" ) );
+  }
+
+  @Test
+  public void testLiteralTypes() throws Exception {
+    assertEquals( Long.valueOf( 42L ), getLiteral( "42" ) );
+    assertEquals( Double.valueOf( 4.2 ), getLiteral( "4.2" ) );
+    assertEquals( Boolean.TRUE, getLiteral( "TRUE" ) );
+    assertEquals( "Pump1", getLiteral( "Pump1" ) );
+  }
+
+  @Test
+  public void testInvalidSettings() {
+    OpcUaEventMeta meta = new OpcUaEventMeta();
+    meta.setDefault();
+    meta.setMinimumSeverity( "1001" );
+    assertInvalid( meta );
+
+    meta.setDefault();
+    meta.setConditions( Collections.singletonList( new OpcUaEventCondition( "Severity", "Between", "1" ) ) );
+    assertInvalid( meta );
+
+    meta.setDefault();
+    meta.setConditions( Collections.singletonList( new OpcUaEventCondition( "", "Equals", "1" ) ) );
+    assertInvalid( meta );
+  }
+
+  private static Object getLiteral( String value ) throws KettleException {
+    OpcUaEventMeta meta = new OpcUaEventMeta();
+    meta.setDefault();
+    meta.setConditions( Collections.singletonList( new OpcUaEventCondition( "Message", "Equals", value ) ) );
+    ContentFilterElement element = OpcUaEvent.createWhereClause( meta, new Variables() ).getElements()[ 0 ];
+    return ( (LiteralOperand) element.getFilterOperands()[ 1 ].decode() ).getValue().getValue();
+  }
+
+  private static void assertAnd( ContentFilterElement element, int first, int second ) {
+    assertEquals( FilterOperator.And, element.getFilterOperator() );
+    ExtensionObject[] operands = element.getFilterOperands();
+    assertEquals( 2, operands.length );
+    assertEquals( first, ( (ElementOperand) operands[ 0 ].decode() ).getIndex().intValue() );
+    assertEquals( second, ( (ElementOperand) operands[ 1 ].decode() ).getIndex().intValue() );
+  }
+
+  private static void assertField( ExtensionObject operand, QualifiedName... browsePath ) {
+    SimpleAttributeOperand field = (SimpleAttributeOperand) operand.decode();
+    assertEquals( Identifiers.BaseEventType, field.getTypeDefinitionId() );
+    assertEquals( Arrays.asList( browsePath ), Arrays.asList( field.getBrowsePath() ) );
+  }
+
+  private static void assertInvalid( OpcUaEventMeta meta ) {
+    try {
+      OpcUaEvent.createWhereClause( meta, new Variables() );
+      fail( "The settings should have been refused" );
+    } catch ( KettleException e ) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.opcua.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class OpcUaHandoffQueueTest {
+
+  @Test
+  public void testDropNewest() {
+    OpcUaHandoffQueue<String> queue = new OpcUaHandoffQueue<>( 2, OpcUaHandoffQueue.Policy.DROP_NEWEST, 1 );
+    assertTrue( queue.offer( 0, "a" ) );
+    assertTrue( queue.offer( 0, "b" ) );
+    assertFalse( queue.offer( 0, "c" ) );
+
+    assertEquals( 2, queue.size() );
+    assertEquals( 3L, queue.getNrOffered() );
+    assertEquals( 1L, queue.getNrDropped() );
+    assertEquals( "a", queue.poll() );
+    assertEquals( "b", queue.poll() );
+    assertNull( queue.poll() );
+  }
+
+  @Test
+  public void testDropOldest() {
+    OpcUaHandoffQueue<String> queue = new OpcUaHandoffQueue<>( 2, OpcUaHandoffQueue.Policy.DROP_OLDEST, 1 );
+    assertTrue( queue.offer( 0, "a" ) );
+    assertTrue( queue.offer( 0, "b" ) );
+    assertFalse( queue.offer( 0, "c" ) );
+
+    assertEquals( 2, queue.size() );
+    assertEquals( 1L, queue.getNrDropped() );
+    assertEquals( "b", queue.poll() );
+    assertEquals( "c", queue.poll() );
+    assertNull( queue.poll() );
+  }
+
+  @Test
+  public void testCoalesceKeepsTheLastValuePerKey() {
+    OpcUaHandoffQueue<String> queue = new OpcUaHandoffQueue<>( 1, OpcUaHandoffQueue.Policy.COALESCE, 2 );
+    assertTrue( queue.offer( 0, "a1" ) );
+    assertTrue( queue.offer( 1, "b1" ) );
+    assertTrue( queue.offer( 0, "a2" ) );
+
+    assertEquals( 2, queue.size() );
+    assertEquals( 1L, queue.getNrCoalesced() );
+    assertEquals( 0L, queue.getNrDropped() );
+
+    // Keys come out in the order they first arrived, with their last value
+    //
+    assertEquals( "a2", queue.poll() );
+    assertEquals( "b1", queue.poll() );
+    assertNull( queue.poll() );
+
+    assertTrue( queue.offer( 0, "a3" ) );
+    assertEquals( "a3", queue.poll() );
+  }
+
+  @Test
+  public void testBlockWaitsForRoom() throws Exception {
+    OpcUaHandoffQueue<String> queue = new OpcUaHandoffQueue<>( 1, OpcUaHandoffQueue.Policy.BLOCK, 1 );
+    assertTrue( queue.offer( 0, "a" ) );
+
+    AtomicBoolean offered = new AtomicBoolean();
+    Thread producer = new Thread( () -> offered.set( queue.offer( 0, "b" ) ) );
+    producer.start();
+    waitFor( () -> queue.getNrBlocked() == 1L );
+    assertFalse( offered.get() );
+
+    assertEquals( "a", queue.poll() );
+    producer.join( 5000L );
+    assertFalse( producer.isAlive() );
+    assertTrue( offered.get() );
+    assertEquals( "b", queue.poll( 1, TimeUnit.SECONDS ) );
+  }
+
+  @Test
+  public void testCloseReleasesBlockedProducers() throws Exception {
+    OpcUaHandoffQueue<String> queue = new OpcUaHandoffQueue<>( 1, OpcUaHandoffQueue.Policy.BLOCK, 1 );
+    assertTrue( queue.offer( 0, "a" ) );
+
+    AtomicBoolean offered = new AtomicBoolean( true );
+    Thread producer = new Thread( () -> offered.set( queue.offer( 0, "b" ) ) );
+    producer.start();
+    waitFor( () -> queue.getNrBlocked() == 1L );
+
+    queue.close();
+    producer.join( 5000L );
+    assertFalse( producer.isAlive() );
+    assertFalse( offered.get() );
+    assertEquals( 1L, queue.getNrDropped() );
+
+    // What was queued before closing can still be taken
+    //
+    assertEquals( "a", queue.poll() );
+  }
+
+  @Test
+  public void testPollTimesOut() {
+    OpcUaHandoffQueue<String> queue = new OpcUaHandoffQueue<>( 10, OpcUaHandoffQueue.Policy.BLOCK, 1 );
+    long start = System.nanoTime();
+    assertNull( queue.poll( 20, TimeUnit.MILLISECONDS ) );
+    assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 20 ) );
+  }
+
+  @Test
+  public void testPolicyCodes() {
+    assertEquals( OpcUaHandoffQueue.Policy.COALESCE, OpcUaHandoffQueue.Policy.getPolicyForCode( "coalesce" ) );
+    assertEquals( OpcUaHandoffQueue.Policy.BLOCK, OpcUaHandoffQueue.Policy.getPolicyForCode( null ) );
+    assertEquals( OpcUaHandoffQueue.Policy.BLOCK, OpcUaHandoffQueue.Policy.getPolicyForCode( "unknown" ) );
+    assertEquals( OpcUaHandoffQueue.Policy.DROP_OLDEST,
+      OpcUaHandoffQueue.Policy.getPolicyForDescription( OpcUaHandoffQueue.Policy.DROP_OLDEST.getDescription() ) );
+  }
+
+  private static void waitFor( Condition condition ) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000L;
+    while ( !condition.isMet() ) {
+      assertTrue( "Timed out", System.currentTimeMillis() < deadline );
+      Thread.sleep( 1L );
+    }
+  }
+
+  private interface Condition {
+    boolean isMet();
+  }
+}
@@ -0,0 +1,92 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.opcua.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class OpcUaHistogramTest {
+
+  @Test
+  public void testEmpty() {
+    OpcUaHistogram histogram = new OpcUaHistogram();
+    assertEquals( 0L, histogram.getCount() );
+    assertEquals( 0L, histogram.getMax() );
+    assertEquals( 0.0, histogram.getMean(), 0.0 );
+    assertEquals( 0L, histogram.getPercentile( 50 ) );
+  }
+
+  @Test
+  public void testPercentilesAreBucketUpperBounds() {
+    OpcUaHistogram histogram = new OpcUaHistogram();
+    for ( int value = 1; value <= 100; value++ ) {
+      histogram.record( value );
+    }
+    assertEquals( 100L, histogram.getCount() );
+    assertEquals( 5050L, histogram.getSum() );
+    assertEquals( 100L, histogram.getMax() );
+    assertEquals( 50.5, histogram.getMean(), 0.0001 );
+
+    // The 50th value falls in the bucket of 32 to 63
+    //
+    assertEquals( 63L, histogram.getPercentile( 50 ) );
+
+    // The bucket of 64 to 127 is capped by the maximum
+    //
+    assertEquals( 100L, histogram.getPercentile( 99 ) );
+    assertEquals( 100L, histogram.getPercentile( 100 ) );
+    assertEquals( 1L, histogram.getPercentile( 1 ) );
+  }
+
+  @Test
+  public void testNegativeValuesCountAsZero() {
+    OpcUaHistogram histogram = new OpcUaHistogram();
+    histogram.record( -5L );
+    histogram.record( 0L );
+    assertEquals( 2L, histogram.getCount() );
+    assertEquals( 0L, histogram.getSum() );
+    assertEquals( 0L, histogram.getPercentile( 100 ) );
+  }
+
+  @Test
+  public void testLargeValues() {
+    OpcUaHistogram histogram = new OpcUaHistogram();
+    histogram.record( Long.MAX_VALUE );
+    assertEquals( Long.MAX_VALUE, histogram.getMax() );
+    assertEquals( Long.MAX_VALUE, histogram.getPercentile( 50 ) );
+  }
+
+  @Test
+  public void testReset() {
+    OpcUaHistogram histogram = new OpcUaHistogram();
+    histogram.record( 10L );
+    histogram.record( 20L );
+    histogram.reset();
+    assertEquals( 0L, histogram.getCount() );
+    assertEquals( 0L, histogram.getSum() );
+    assertEquals( 0L, histogram.getMax() );
+    assertEquals( 0L, histogram.getPercentile( 99 ) );
+    assertEquals( "0x, mean 0ms, p50 0ms, p99 0ms, max 0ms", histogram.toString( "ms" ) );
+  }
+}
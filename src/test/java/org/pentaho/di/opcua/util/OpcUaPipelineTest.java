@@ -0,0 +1,113 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.opcua.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class OpcUaPipelineTest {
+
+  @Test
+  public void testAnswersInRequestOrder() throws Exception {
+    List<CompletableFuture<Integer>> answers = new ArrayList<>();
+    CompletableFuture<List<Integer>> all = OpcUaPipeline.send( 5, 2, i -> {
+      CompletableFuture<Integer> answer = new CompletableFuture<>();
+      answers.add( answer );
+      return answer;
+    } );
+
+    // Only two lanes, answer the second request before the first
+    //
+    assertEquals( 2, answers.size() );
+    answers.get( 1 ).complete( 1 );
+    assertEquals( 3, answers.size() );
+    answers.get( 0 ).complete( 0 );
+    answers.get( 2 ).complete( 2 );
+    answers.get( 3 ).complete( 3 );
+    answers.get( 4 ).complete( 4 );
+
+    List<Integer> results = all.get();
+    for ( int i = 0; i < 5; i++ ) {
+      assertEquals( Integer.valueOf( i ), results.get( i ) );
+    }
+  }
+
+  @Test
+  public void testNeverMoreThanMaxInFlight() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxSeen = new AtomicInteger();
+    List<CompletableFuture<Integer>> answers = new ArrayList<>();
+    CompletableFuture<List<Integer>> all = OpcUaPipeline.send( 20, 3, i -> {
+      maxSeen.accumulateAndGet( inFlight.incrementAndGet(), Math::max );
+      CompletableFuture<Integer> answer = new CompletableFuture<>();
+      answers.add( answer );
+      return answer;
+    } );
+    for ( int i = 0; i < 20; i++ ) {
+      inFlight.decrementAndGet();
+      answers.get( i ).complete( i );
+    }
+    assertEquals( 20, all.get().size() );
+    assertEquals( 3, maxSeen.get() );
+  }
+
+  @Test
+  public void testAnswersAlreadyThereDontGrowTheStack() throws Exception {
+    // Every answer is complete before the pipeline sees it: sending the next request from the callback would recurse
+    //
+    int nrRequests = 200000;
+    List<Integer> results = OpcUaPipeline.send( nrRequests, 1, CompletableFuture::completedFuture ).get();
+    assertEquals( nrRequests, results.size() );
+    assertEquals( Integer.valueOf( nrRequests - 1 ), results.get( nrRequests - 1 ) );
+  }
+
+  @Test
+  public void testFirstErrorStopsSending() throws Exception {
+    AtomicInteger sent = new AtomicInteger();
+    CompletableFuture<List<Integer>> all = OpcUaPipeline.send( 10, 1, i -> {
+      sent.incrementAndGet();
+      CompletableFuture<Integer> answer = new CompletableFuture<>();
+      if ( i == 2 ) {
+        answer.completeExceptionally( new IllegalStateException( "refused" ) );
+      } else {
+        answer.complete( i );
+      }
+      return answer;
+    } );
+    try {
+      all.get();
+    } catch ( ExecutionException e ) {
+      assertTrue( e.getCause() instanceof IllegalStateException );
+    }
+    assertTrue( all.isCompletedExceptionally() );
+    assertEquals( 3, sent.get() );
+  }
+}
@@ -0,0 +1,101 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.opcua.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.junit.Test;
+
+public class OpcUaRequestSizerTest {
+
+  @Test
+  public void testNoLimit() {
+    OpcUaRequestSizer sizer = new OpcUaRequestSizer( null, "Read", 0 );
+    assertEquals( Integer.MAX_VALUE, sizer.getLimit() );
+    assertEquals( Integer.MAX_VALUE, sizer.getSize() );
+  }
+
+  @Test
+  public void testBackOffHalvesTheSize() {
+    OpcUaRequestSizer sizer = new OpcUaRequestSizer( null, "Read", 100 );
+    assertEquals( 100, sizer.getSize() );
+
+    assertEquals( 50, sizer.backOff( 100 ) );
+    assertEquals( 50, sizer.getSize() );
+    assertEquals( 25, sizer.backOff( 50 ) );
+    assertEquals( 25, sizer.getSize() );
+    assertEquals( 2L, sizer.getNrBackOffs() );
+
+    // A large request sent before the last back off doesn't make the size grow again
+    //
+    assertEquals( 25, sizer.backOff( 100 ) );
+    assertEquals( 25, sizer.getSize() );
+
+    assertEquals( 1, sizer.backOff( 1 ) );
+  }
+
+  @Test
+  public void testGrowsBackAfterSuccesses() {
+    OpcUaRequestSizer sizer = new OpcUaRequestSizer( null, "Read", 100 );
+    sizer.backOff( 100 );
+
+    for ( int i = 0; i < 15; i++ ) {
+      sizer.onSuccess( 50 );
+    }
+    assertEquals( 50, sizer.getSize() );
+
+    // Smaller requests, for example the last chunk, say nothing about the current size
+    //
+    sizer.onSuccess( 10 );
+    assertEquals( 50, sizer.getSize() );
+
+    sizer.onSuccess( 50 );
+    assertEquals( 62, sizer.getSize() );
+
+    for ( int i = 0; i < 1000; i++ ) {
+      sizer.onSuccess( sizer.getSize() );
+    }
+    assertEquals( 100, sizer.getSize() );
+  }
+
+  @Test
+  public void testIsTooLarge() {
+    assertTrue( OpcUaRequestSizer.isTooLarge( new UaException( StatusCodes.Bad_TooManyOperations, "too many" ) ) );
+    assertTrue( OpcUaRequestSizer.isTooLarge( new UaException( StatusCodes.Bad_ResponseTooLarge, "too large" ) ) );
+    assertTrue( OpcUaRequestSizer.isTooLarge(
+      new ExecutionException( new UaException( StatusCodes.Bad_RequestTooLarge, "too large" ) ) ) );
+    assertTrue( OpcUaRequestSizer.isTooLarge( new CompletionException(
+      new ExecutionException( new UaException( StatusCodes.Bad_EncodingLimitsExceeded, "too large" ) ) ) ) );
+
+    assertFalse( OpcUaRequestSizer.isTooLarge( new UaException( StatusCodes.Bad_Timeout, "timeout" ) ) );
+    assertFalse( OpcUaRequestSizer.isTooLarge( new RuntimeException( "other" ) ) );
+    assertFalse( OpcUaRequestSizer.isTooLarge( null ) );
+  }
+}
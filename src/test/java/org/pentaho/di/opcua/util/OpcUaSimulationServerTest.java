@@ -0,0 +1,310 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.opcua.util;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.identity.AnonymousProvider;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryData;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadRawModifiedDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.opcua.simulation.SimulationCertificates;
+import org.pentaho.di.opcua.simulation.SimulationConfig;
+import org.pentaho.di.opcua.simulation.SimulationServer;
+import org.pentaho.di.opcua.step.OpcUaSample;
+
+/**
+ * Reads, subscriptions, history reads and browsing against the simulation server
+ */
+public class OpcUaSimulationServerTest {
+
+  private static final int NR_NODES = 2500;
+  private static final long UPDATE_RATE = 100L;
+
+  private static SimulationServer server;
+  private static OpcUaClient client;
+  private static List<NodeId> nodeIds;
+
+  @BeforeClass
+  public static void startServer() throws Exception {
+    KettleClientEnvironment.init();
+
+    server = new SimulationServer( new SimulationConfig()
+      .setPort( findFreePort() )
+      .setNrNodes( NR_NODES )
+      .setDataTypes( Arrays.asList( "Double", "Int32", "String" ) )
+      .setUpdateRate( UPDATE_RATE )
+      .setHistoryLength( 50 ) );
+    server.start();
+    nodeIds = server.getNodeIds();
+
+    File keyStoreFile = File.createTempFile( "opcua-test-client", ".pfx" );
+    keyStoreFile.deleteOnExit();
+    ClientKeyStore keyStore = SimulationCertificates.createClientKeyStore( keyStoreFile );
+    client = OpcUaUtil.createConnectedClient( LogChannel.GENERAL, server.getEndpointUrl(), SecurityPolicy.None,
+      new AnonymousProvider(), keyStore );
+  }
+
+  /**
+   * Let the OS pick a port so test runs in parallel don't collide
+   */
+  private static int findFreePort() throws IOException {
+    try ( ServerSocket socket = new ServerSocket( 0 ) ) {
+      return socket.getLocalPort();
+    }
+  }
+
+  @AfterClass
+  public static void stopServer() throws Exception {
+    if ( client != null ) {
+      client.disconnect().get();
+    }
+    if ( server != null ) {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testReadInChunks() throws Exception {
+    OpcUaRequestSizer sizer = new OpcUaRequestSizer( null, "Read", 100 );
+    OpcUaMetrics metrics = new OpcUaMetrics();
+    List<DataValue> values = OpcUaUtil.readValues( client, nodeIds, sizer, 4, metrics );
+
+    assertEquals( NR_NODES, values.size() );
+    for ( int i = 0; i < NR_NODES; i++ ) {
+      DataValue value = values.get( i );
+      assertTrue( value.getStatusCode().isGood() );
+      Class<?> expectedClass = i % 3 == 0 ? Double.class : i % 3 == 1 ? Integer.class : String.class;
+      assertEquals( "Value of node " + i, expectedClass, value.getValue().getValue().getClass() );
+    }
+    assertEquals( 0L, sizer.getNrBackOffs() );
+  }
+
+  @Test
+  public void testReadUnknownNode() throws Exception {
+    List<DataValue> values = OpcUaUtil.readValues( client,
+      Arrays.asList( nodeIds.get( 0 ), new NodeId( server.getNamespaceIndex(), "Simulation/unknown" ) ), 0 );
+    assertEquals( 2, values.size() );
+    assertTrue( values.get( 0 ).getStatusCode().isGood() );
+    assertTrue( values.get( 1 ).getStatusCode().isBad() );
+  }
+
+  @Test
+  public void testSubscribe() throws Exception {
+    int nrItems = 10;
+    OpcUaHandoffQueue<OpcUaSample> queue = new OpcUaHandoffQueue<>( nrItems, OpcUaHandoffQueue.Policy.COALESCE, nrItems );
+    UaSubscription subscription = OpcUaUtil.createSubscription( client, UPDATE_RATE );
+    try {
+      List<MonitoredItemCreateRequest> requests = new ArrayList<>();
+      for ( int i = 0; i < nrItems; i++ ) {
+        ReadValueId readValueId = new ReadValueId( nodeIds.get( i ), AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE );
+        MonitoringParameters parameters = new MonitoringParameters( uint( i ), (double) UPDATE_RATE, null, uint( 10 ), true );
+        requests.add( new MonitoredItemCreateRequest( readValueId, MonitoringMode.Reporting, parameters ) );
+      }
+      subscription.createMonitoredItems( TimestampsToReturn.Both, requests,
+        ( item, index ) -> item.setValueConsumer( value -> queue.offer( index, new OpcUaSample( index, value ) ) ) ).get();
+
+      // Every item reports its value once it is created and again on every update
+      //
+      Set<Integer> seen = new HashSet<>();
+      int nrNotifications = 0;
+      long deadline = System.currentTimeMillis() + 10000L;
+      while ( ( seen.size() < nrItems || nrNotifications < 2 * nrItems ) && System.currentTimeMillis() < deadline ) {
+        OpcUaSample sample = queue.poll( 100, TimeUnit.MILLISECONDS );
+        if ( sample != null ) {
+          assertTrue( sample.getValue().getStatusCode().isGood() );
+          assertNotNull( sample.getValue().getSourceTime() );
+          seen.add( sample.getTagIndex() );
+          nrNotifications++;
+        }
+      }
+      assertEquals( nrItems, seen.size() );
+      assertTrue( "Only " + nrNotifications + " notifications received", nrNotifications >= 2 * nrItems );
+      assertEquals( 0L, queue.getNrDropped() );
+    } finally {
+      client.getSubscriptionManager().deleteSubscription( subscription.getSubscriptionId() ).get();
+    }
+  }
+
+  @Test
+  public void testHistory() throws Exception {
+    long now = System.currentTimeMillis();
+    DateTime start = new DateTime( new Date( now - 20 * UPDATE_RATE ) );
+    DateTime end = new DateTime( new Date( now ) );
+    List<HistoryReadValueId> readValueIds = new ArrayList<>();
+    for ( int i = 0; i < 3; i++ ) {
+      readValueIds.add( new HistoryReadValueId( nodeIds.get( i ), null, QualifiedName.NULL_VALUE, ByteString.NULL_VALUE ) );
+    }
+    ReadRawModifiedDetails details = new ReadRawModifiedDetails( false, start, end, uint( 10 ), false );
+    HistoryReadResponse response = client.historyRead( details, TimestampsToReturn.Both, false, readValueIds ).get();
+
+    HistoryReadResult[] results = response.getResults();
+    assertEquals( 3, results.length );
+    for ( HistoryReadResult result : results ) {
+      assertTrue( result.getStatusCode().isGood() );
+      DataValue[] values = ( (HistoryData) result.getHistoryData().decode() ).getDataValues();
+      assertEquals( 10, values.length );
+      long previous = Long.MIN_VALUE;
+      for ( DataValue value : values ) {
+        long time = value.getSourceTime().getJavaTime();
+        assertTrue( time >= start.getJavaTime() && time <= end.getJavaTime() );
+        assertTrue( time > previous );
+        previous = time;
+      }
+    }
+  }
+
+  @Test
+  public void testBrowse() throws Exception {
+    List<OpcUaCrawler.CrawledNode> variables = new ArrayList<>();
+    OpcUaCrawler crawler = new OpcUaCrawler( client )
+      .setNamespaceIndexes( Collections.singleton( server.getNamespaceIndex().intValue() ) )
+      .setMaxNodesPerBrowse( 2 )
+      .setMaxReferencesPerNode( 100 );
+    crawler.crawl( Identifiers.ObjectsFolder, node -> {
+      if ( node.getNodeClass() == NodeClass.Variable ) {
+        variables.add( node );
+      }
+    } );
+
+    assertEquals( NR_NODES, variables.size() );
+    Set<NodeId> found = new HashSet<>();
+    for ( OpcUaCrawler.CrawledNode node : variables ) {
+      found.add( node.getNodeId() );
+    }
+    assertEquals( new HashSet<>( nodeIds ), found );
+
+    // The blocks have more references than a node gets per request: the rest comes with BrowseNext
+    //
+    assertTrue( crawler.getNrRequests() > 3 );
+    assertEquals( 0L, crawler.getNrFailedNodes() );
+  }
+
+  @Test
+  public void testNodeIndex() throws Exception {
+    File file = File.createTempFile( "opcua-test-index", ".idx" );
+    file.deleteOnExit();
+
+    String stamp;
+    try ( OpcUaNodeIndex index = OpcUaNodeIndex.build( client, file ) ) {
+      stamp = index.getServerStamp();
+      assertEquals( OpcUaNodeIndex.getServerStamp( client ), stamp );
+      assertTrue( stamp.startsWith( "urn:pentaho:opcua:simulation-server|" ) );
+    }
+
+    // Reopening doesn't need the server
+    //
+    try ( OpcUaNodeIndex index = OpcUaNodeIndex.open( file ) ) {
+      assertEquals( stamp, index.getServerStamp() );
+
+      List<OpcUaNodeIndex.IndexedNode> nodes = index.findByPrefix( "/Simulation/Block1/" );
+      assertEquals( 1000, nodes.size() );
+      for ( OpcUaNodeIndex.IndexedNode node : nodes ) {
+        assertTrue( node.isVariable() );
+      }
+
+      nodes = index.findByRegex( "/Simulation/Block2/Int32_.*" );
+      assertEquals( 166, nodes.size() );
+      assertEquals( Identifiers.Int32.toParseableString(), nodes.get( 0 ).getDataType() );
+    }
+
+    // The index is closed and unmapped, so it can be rebuilt in place
+    //
+    OpcUaNodeIndex.build( client, file ).close();
+    assertTrue( file.delete() );
+  }
+
+  @Test
+  public void testNodeIndexRebuiltWhenStampChanges() throws Exception {
+    File file = File.createTempFile( "opcua-test-index", ".idx" );
+    file.deleteOnExit();
+    String stamp = OpcUaNodeIndex.getServerStamp( client );
+    OpcUaNodeIndex.build( client, file ).close();
+
+    // Same server: the existing file is used
+    //
+    long built = 946684800000L;
+    assertTrue( file.setLastModified( built ) );
+    try ( OpcUaNodeIndex index = OpcUaNodeIndex.openOrBuild( client, file ) ) {
+      assertEquals( stamp, index.getServerStamp() );
+    }
+    assertEquals( built, file.lastModified() );
+
+    // Change the first character of the stored stamp (after magic, version and stamp length)
+    //
+    try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) ) {
+      raf.seek( 12 );
+      raf.write( 'x' );
+    }
+    try ( OpcUaNodeIndex index = OpcUaNodeIndex.open( file ) ) {
+      assertFalse( stamp.equals( index.getServerStamp() ) );
+    }
+
+    try ( OpcUaNodeIndex index = OpcUaNodeIndex.openOrBuild( client, file ) ) {
+      assertEquals( stamp, index.getServerStamp() );
+      assertEquals( 1000, index.findByPrefix( "/Simulation/Block1/" ).size() );
+    }
+    assertFalse( built == file.lastModified() );
+    assertTrue( file.delete() );
+  }
+}
@@ -0,0 +1,210 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2018 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.opcua.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.ULong;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+public class OpcUaValueMapperTest {
+
+  /**
+   * 1970-01-01 in 100ns ticks since 1601-01-01
+   */
+  private static final long EPOCH_TICKS = 116444736000000000L;
+
+  @Test
+  public void testToJavaTime() {
+    assertEquals( 0L, OpcUaValueMapper.toJavaTime( EPOCH_TICKS ) );
+    assertEquals( 1234L, OpcUaValueMapper.toJavaTime( EPOCH_TICKS + 12345678L ) );
+    assertEquals( -1L, OpcUaValueMapper.toJavaTime( EPOCH_TICKS - 1L ) );
+  }
+
+  @Test
+  public void testToTimestampKeepsTheTicks() {
+    Timestamp timestamp = OpcUaValueMapper.toTimestamp( EPOCH_TICKS + 1234567L, 0 );
+    assertEquals( 123L, timestamp.getTime() );
+    assertEquals( 123456700, timestamp.getNanos() );
+  }
+
+  @Test
+  public void testToTimestampAddsThePicoseconds() {
+    // The picoseconds are counted in 10ps intervals: 4200 of them are 42ns
+    //
+    Timestamp timestamp = OpcUaValueMapper.toTimestamp( EPOCH_TICKS + 1234567L, 4200 );
+    assertEquals( 123456742, timestamp.getNanos() );
+
+    // The largest value stays below the next tick
+    //
+    timestamp = OpcUaValueMapper.toTimestamp( EPOCH_TICKS + 1234567L, 9999 );
+    assertEquals( 123456799, timestamp.getNanos() );
+  }
+
+  @Test
+  public void testToTimestampBeforeTheEpoch() {
+    Timestamp timestamp = OpcUaValueMapper.toTimestamp( EPOCH_TICKS - 1L, 0 );
+    assertEquals( -1L, timestamp.getTime() );
+    assertEquals( 999999900, timestamp.getNanos() );
+  }
+
+  @Test
+  public void testConvertDateTime() throws Exception {
+    DateTime dateTime = new DateTime( EPOCH_TICKS + 1234567L );
+
+    Object date = OpcUaValueMapper.convert( dateTime, ValueMetaInterface.TYPE_DATE );
+    assertTrue( date instanceof Date );
+    assertEquals( 123L, ( (Date) date ).getTime() );
+
+    Object timestamp = OpcUaValueMapper.convert( dateTime, ValueMetaInterface.TYPE_TIMESTAMP );
+    assertTrue( timestamp instanceof Timestamp );
+    assertEquals( 123456700, ( (Timestamp) timestamp ).getNanos() );
+  }
+
+  @Test
+  public void testGetValueType() {
+    assertEquals( ValueMetaInterface.TYPE_BOOLEAN, OpcUaValueMapper.getValueType( Identifiers.Boolean ) );
+    assertEquals( ValueMetaInterface.TYPE_INTEGER, OpcUaValueMapper.getValueType( Identifiers.UInt32 ) );
+    assertEquals( ValueMetaInterface.TYPE_BIGNUMBER, OpcUaValueMapper.getValueType( Identifiers.UInt64 ) );
+    assertEquals( ValueMetaInterface.TYPE_NUMBER, OpcUaValueMapper.getValueType( Identifiers.Double ) );
+    assertEquals( ValueMetaInterface.TYPE_DATE, OpcUaValueMapper.getValueType( Identifiers.DateTime ) );
+    assertEquals( ValueMetaInterface.TYPE_BINARY, OpcUaValueMapper.getValueType( Identifiers.ByteString ) );
+    assertEquals( ValueMetaInterface.TYPE_STRING, OpcUaValueMapper.getValueType( Identifiers.LocalizedText ) );
+    assertEquals( ValueMetaInterface.TYPE_STRING, OpcUaValueMapper.getValueType( (NodeId) null ) );
+  }
+
+  @Test
+  public void testGetValueTypeFromString() {
+    assertEquals( ValueMetaInterface.TYPE_INTEGER, OpcUaValueMapper.getValueType( Identifiers.Int16.toParseableString() ) );
+    assertEquals( ValueMetaInterface.TYPE_STRING, OpcUaValueMapper.getValueType( "" ) );
+    assertEquals( ValueMetaInterface.TYPE_STRING, OpcUaValueMapper.getValueType( "not a node id" ) );
+  }
+
+  @Test
+  public void testGetCommonValueType() {
+    String int16 = Identifiers.Int16.toParseableString();
+    String uint32 = Identifiers.UInt32.toParseableString();
+    String dbl = Identifiers.Double.toParseableString();
+
+    assertEquals( ValueMetaInterface.TYPE_INTEGER, OpcUaValueMapper.getCommonValueType( Arrays.asList( int16, uint32 ) ) );
+    assertEquals( ValueMetaInterface.TYPE_STRING, OpcUaValueMapper.getCommonValueType( Arrays.asList( int16, dbl ) ) );
+    assertEquals( ValueMetaInterface.TYPE_STRING, OpcUaValueMapper.getCommonValueType( Collections.<String>emptyList() ) );
+  }
+
+  @Test
+  public void testConvert() throws Exception {
+    assertEquals( 42L, OpcUaValueMapper.convert( UShort.valueOf( 42 ), ValueMetaInterface.TYPE_INTEGER ) );
+    assertEquals( 4294967295L, OpcUaValueMapper.convert( UInteger.valueOf( 4294967295L ), ValueMetaInterface.TYPE_INTEGER ) );
+    assertEquals( 1L, OpcUaValueMapper.convert( Boolean.TRUE, ValueMetaInterface.TYPE_INTEGER ) );
+    assertEquals( 1.5, OpcUaValueMapper.convert( 1.5f, ValueMetaInterface.TYPE_NUMBER ) );
+    assertEquals( Boolean.FALSE, OpcUaValueMapper.convert( 0, ValueMetaInterface.TYPE_BOOLEAN ) );
+    assertEquals( "abc", OpcUaValueMapper.convert( "abc", ValueMetaInterface.TYPE_STRING ) );
+    assertEquals( null, OpcUaValueMapper.convert( null, ValueMetaInterface.TYPE_INTEGER ) );
+  }
+
+  @Test
+  public void testConvertUInt64() throws Exception {
+    ULong max = ULong.valueOf( "18446744073709551615" );
+    assertEquals( new BigDecimal( "18446744073709551615" ), OpcUaValueMapper.convert( max, ValueMetaInterface.TYPE_BIGNUMBER ) );
+  }
+
+  @Test
+  public void testConvertByteString() throws Exception {
+    byte[] bytes = new byte[] { 1, 2, 3 };
+    Object converted = OpcUaValueMapper.convert( ByteString.of( bytes ), ValueMetaInterface.TYPE_BINARY );
+    assertTrue( Arrays.equals( bytes, (byte[]) converted ) );
+  }
+
+  @Test
+  public void testConvertRefusesOtherClasses() {
+    try {
+      OpcUaValueMapper.convert( "abc", ValueMetaInterface.TYPE_INTEGER );
+      fail( "A String should not convert to an Integer" );
+    } catch ( KettleValueException e ) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testToOpcUaIntegers() throws Exception {
+    assertEquals( Byte.valueOf( (byte) -128 ), OpcUaValueMapper.toOpcUa( -128L, Identifiers.SByte ) );
+    assertEquals( UByte.valueOf( 255 ), OpcUaValueMapper.toOpcUa( 255L, Identifiers.Byte ) );
+    assertEquals( Short.valueOf( (short) 32767 ), OpcUaValueMapper.toOpcUa( "32767", Identifiers.Int16 ) );
+    assertEquals( UShort.valueOf( 65535 ), OpcUaValueMapper.toOpcUa( 65535L, Identifiers.UInt16 ) );
+    assertEquals( Integer.valueOf( Integer.MIN_VALUE ), OpcUaValueMapper.toOpcUa( (long) Integer.MIN_VALUE, Identifiers.Int32 ) );
+    assertEquals( UInteger.valueOf( 4294967295L ), OpcUaValueMapper.toOpcUa( 4294967295L, Identifiers.UInt32 ) );
+    assertEquals( Integer.valueOf( 1 ), OpcUaValueMapper.toOpcUa( Boolean.TRUE, Identifiers.Int32 ) );
+    assertEquals( Long.valueOf( Long.MIN_VALUE ), OpcUaValueMapper.toOpcUa( Long.MIN_VALUE, Identifiers.Int64 ) );
+    assertEquals( Long.valueOf( Long.MAX_VALUE ), OpcUaValueMapper.toOpcUa( new BigDecimal( "9223372036854775807" ), Identifiers.Int64 ) );
+    assertEquals( ULong.valueOf( "18446744073709551615" ),
+      OpcUaValueMapper.toOpcUa( new BigDecimal( "18446744073709551615" ), Identifiers.UInt64 ) );
+    assertEquals( ULong.valueOf( 42L ), OpcUaValueMapper.toOpcUa( 42L, Identifiers.UInt64 ) );
+  }
+
+  @Test
+  public void testToOpcUaRefusesValuesOutOfRange() {
+    assertOutOfRange( 128L, Identifiers.SByte );
+    assertOutOfRange( -129L, Identifiers.SByte );
+    assertOutOfRange( 256L, Identifiers.Byte );
+    assertOutOfRange( -1L, Identifiers.Byte );
+    assertOutOfRange( 32768L, Identifiers.Int16 );
+    assertOutOfRange( "-32769", Identifiers.Int16 );
+    assertOutOfRange( 65536L, Identifiers.UInt16 );
+    assertOutOfRange( 2147483648L, Identifiers.Int32 );
+    assertOutOfRange( 1e20, Identifiers.Int32 );
+    assertOutOfRange( 4294967296L, Identifiers.UInt32 );
+    assertOutOfRange( -1L, Identifiers.UInt32 );
+    assertOutOfRange( new BigDecimal( "9223372036854775808" ), Identifiers.Int64 );
+    assertOutOfRange( "-9223372036854775809", Identifiers.Int64 );
+    assertOutOfRange( 1e19, Identifiers.Int64 );
+    assertOutOfRange( Double.NaN, Identifiers.Int64 );
+    assertOutOfRange( -1L, Identifiers.UInt64 );
+    assertOutOfRange( new BigDecimal( "18446744073709551616" ), Identifiers.UInt64 );
+  }
+
+  private static void assertOutOfRange( Object value, NodeId dataType ) {
+    try {
+      OpcUaValueMapper.toOpcUa( value, dataType );
+      fail( "Value " + value + " should not fit in " + dataType );
+    } catch ( KettleValueException e ) {
+      // Expected
+    }
+  }
+}